@@ -0,0 +1,603 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.concordia;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import name.jenkins.paul.john.concordia.Concordia;
+import name.jenkins.paul.john.concordia.exception.ConcordiaException;
+import name.jenkins.paul.john.concordia.schema.ArraySchema;
+import name.jenkins.paul.john.concordia.schema.BooleanSchema;
+import name.jenkins.paul.john.concordia.schema.NumberSchema;
+import name.jenkins.paul.john.concordia.schema.ObjectSchema;
+import name.jenkins.paul.john.concordia.schema.ReferenceSchema;
+import name.jenkins.paul.john.concordia.schema.Schema;
+import name.jenkins.paul.john.concordia.schema.StringSchema;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.BooleanNode;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.fasterxml.jackson.databind.node.NumericNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+
+/**
+ * <p>
+ * A validator that is compiled once from a {@link Concordia} schema and then
+ * validates data without walking the generic schema tree. Each type is checked
+ * by its own node, each object's fields are resolved to arrays of names and
+ * nodes, and each enum's allowed values are a hash set. The rules, and their
+ * messages, are the same as {@link OmhValidationController}'s.
+ * </p>
+ *
+ * <p>
+ * Validators are cached by their schema ID and version. This class is
+ * immutable.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public final class CompiledValidator {
+	/**
+	 * <p>
+	 * A compiled check for a single schema in the tree.
+	 * </p>
+	 *
+	 * @author John Jenkins
+	 */
+	private abstract static class Node {
+		/**
+		 * Whether or not the data may be missing or null.
+		 */
+		private final boolean optional;
+		/**
+		 * The message when the data is missing or null but not optional.
+		 */
+		private final String nullMessage;
+
+		/**
+		 * Creates a node for a schema.
+		 *
+		 * @param schema
+		 *        The schema that this node checks.
+		 *
+		 * @param nullPrefix
+		 *        The start of the message when the data is missing but not
+		 *        optional, which is followed by the schema.
+		 */
+		protected Node(final Schema schema, final String nullPrefix) {
+			optional = schema.isOptional();
+			nullMessage = nullPrefix + schema.toString();
+		}
+
+		/**
+		 * Validates some data.
+		 *
+		 * @param data
+		 *        The data to validate, which may be null if it is missing.
+		 *
+		 * @throws ConcordiaException
+		 *         The data is invalid.
+		 */
+		public final void validate(
+			final JsonNode data)
+			throws ConcordiaException {
+
+			if((data == null) || (data instanceof NullNode)) {
+				if(! optional) {
+					throw new ConcordiaException(nullMessage);
+				}
+				return;
+			}
+
+			validateValue(data);
+		}
+
+		/**
+		 * Validates data that is neither missing nor null.
+		 *
+		 * @param data
+		 *        The data to validate.
+		 *
+		 * @throws ConcordiaException
+		 *         The data is invalid.
+		 */
+		protected abstract void validateValue(
+			final JsonNode data)
+			throws ConcordiaException;
+	}
+
+	/**
+	 * <p>
+	 * Checks an object and each of its fields.
+	 * </p>
+	 *
+	 * @author John Jenkins
+	 */
+	private static final class ObjectCheck extends Node {
+		/**
+		 * The name of each field or null if that field's schema applies to the
+		 * object itself.
+		 */
+		private final String[] names;
+		/**
+		 * The check for each field.
+		 */
+		private final Node[] fields;
+
+		/**
+		 * Compiles an object schema.
+		 *
+		 * @param schema
+		 *        The object schema.
+		 */
+		public ObjectCheck(final ObjectSchema schema) {
+			super(schema, NULL_PREFIX);
+
+			List<Schema> fieldSchemas = schema.getFields();
+			names = new String[fieldSchemas.size()];
+			fields = new Node[fieldSchemas.size()];
+			for(int i = 0; i < fields.length; i++) {
+				Schema field = fieldSchemas.get(i);
+				names[i] = field.getName();
+				fields[i] = compile(field);
+			}
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see org.openmhealth.reference.concordia.CompiledValidator.Node#validateValue(com.fasterxml.jackson.databind.JsonNode)
+		 */
+		@Override
+		protected void validateValue(
+			final JsonNode data)
+			throws ConcordiaException {
+
+			if(! (data instanceof ObjectNode)) {
+				// This is the message Concordia gives.
+				throw
+					new ConcordiaException(
+						"The data was not a string value: " + data.toString());
+			}
+
+			for(int i = 0; i < fields.length; i++) {
+				fields[i].validate((names[i] == null) ? data : data.get(names[i]));
+			}
+		}
+	}
+
+	/**
+	 * <p>
+	 * Checks an array and each of its elements.
+	 * </p>
+	 *
+	 * @author John Jenkins
+	 */
+	private static final class ArrayCheck extends Node {
+		/**
+		 * The check for every element or null if the array has a constant
+		 * length.
+		 */
+		private final Node constType;
+		/**
+		 * The check for each element of a constant-length array or null if
+		 * every element has the same type.
+		 */
+		private final Node[] constLength;
+
+		/**
+		 * Compiles an array schema.
+		 *
+		 * @param schema
+		 *        The array schema.
+		 */
+		public ArrayCheck(final ArraySchema schema) {
+			super(schema, NULL_PREFIX);
+
+			if(schema.getConstType() != null) {
+				constType = compile(schema.getConstType());
+				constLength = null;
+			}
+			else {
+				constType = null;
+				List<Schema> elements = schema.getConstLength();
+				constLength = new Node[elements.size()];
+				for(int i = 0; i < constLength.length; i++) {
+					constLength[i] = compile(elements.get(i));
+				}
+			}
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see org.openmhealth.reference.concordia.CompiledValidator.Node#validateValue(com.fasterxml.jackson.databind.JsonNode)
+		 */
+		@Override
+		protected void validateValue(
+			final JsonNode data)
+			throws ConcordiaException {
+
+			if(! (data instanceof ArrayNode)) {
+				// This is the message Concordia gives.
+				throw
+					new ConcordiaException(
+						"The data was not a string value: " + data.toString());
+			}
+
+			if(constType != null) {
+				for(JsonNode element : data) {
+					constType.validate(element);
+				}
+			}
+			else {
+				if(constLength.length != data.size()) {
+					throw
+						new ConcordiaException(
+							"The schemas array and the data array are " +
+								"different lengths.");
+				}
+				for(int i = 0; i < constLength.length; i++) {
+					constLength[i].validate(data.get(i));
+				}
+			}
+		}
+	}
+
+	/**
+	 * <p>
+	 * Checks a string and, if the schema has an enum, that it is one of the
+	 * allowed values.
+	 * </p>
+	 *
+	 * @author John Jenkins
+	 */
+	private static final class StringCheck extends Node {
+		/**
+		 * The allowed values or null if any value is allowed.
+		 */
+		private final Set<String> allowedValues;
+		/**
+		 * The allowed values as they were defined, for the error message.
+		 */
+		private final String allowedValuesText;
+
+		/**
+		 * Compiles a string schema.
+		 *
+		 * @param schema
+		 *        The string schema.
+		 */
+		public StringCheck(final StringSchema schema) {
+			super(schema, NULL_PREFIX);
+
+			// The schema was validated when it was built, so this is a list
+			// of strings if it exists.
+			Object enumField =
+				schema
+					.getAdditionalFields()
+					.get(EnumValidator.ENUM_SCHEMA_FIELD);
+			if(enumField instanceof List) {
+				Set<String> values = new HashSet<String>();
+				for(Object value : (List<?>) enumField) {
+					values.add((String) value);
+				}
+				allowedValues = Collections.unmodifiableSet(values);
+				allowedValuesText = enumField.toString();
+			}
+			else {
+				allowedValues = null;
+				allowedValuesText = null;
+			}
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see org.openmhealth.reference.concordia.CompiledValidator.Node#validateValue(com.fasterxml.jackson.databind.JsonNode)
+		 */
+		@Override
+		protected void validateValue(
+			final JsonNode data)
+			throws ConcordiaException {
+
+			if(! (data instanceof TextNode)) {
+				// This is the message Concordia gives.
+				throw
+					new ConcordiaException(
+						"The data was not a number value: " + data.toString());
+			}
+
+			if(
+				(allowedValues != null) &&
+				(! allowedValues.contains(data.textValue()))) {
+
+				throw
+					new ConcordiaException(
+						"The value, '" +
+							data.textValue() +
+							"', is not in our list of acceptable values: " +
+							allowedValuesText);
+			}
+		}
+	}
+
+	/**
+	 * <p>
+	 * Checks a number.
+	 * </p>
+	 *
+	 * @author John Jenkins
+	 */
+	private static final class NumberCheck extends Node {
+		/**
+		 * Compiles a number schema.
+		 *
+		 * @param schema
+		 *        The number schema.
+		 */
+		public NumberCheck(final NumberSchema schema) {
+			super(schema, NULL_PREFIX);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see org.openmhealth.reference.concordia.CompiledValidator.Node#validateValue(com.fasterxml.jackson.databind.JsonNode)
+		 */
+		@Override
+		protected void validateValue(
+			final JsonNode data)
+			throws ConcordiaException {
+
+			if(! (data instanceof NumericNode)) {
+				throw
+					new ConcordiaException(
+						"The data was not a number value: " + data.toString());
+			}
+		}
+	}
+
+	/**
+	 * <p>
+	 * Checks a boolean.
+	 * </p>
+	 *
+	 * @author John Jenkins
+	 */
+	private static final class BooleanCheck extends Node {
+		/**
+		 * Compiles a boolean schema.
+		 *
+		 * @param schema
+		 *        The boolean schema.
+		 */
+		public BooleanCheck(final BooleanSchema schema) {
+			super(schema, NULL_PREFIX);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see org.openmhealth.reference.concordia.CompiledValidator.Node#validateValue(com.fasterxml.jackson.databind.JsonNode)
+		 */
+		@Override
+		protected void validateValue(
+			final JsonNode data)
+			throws ConcordiaException {
+
+			if(! (data instanceof BooleanNode)) {
+				throw
+					new ConcordiaException(
+						"The data was not a boolean value: " +
+							data.toString());
+			}
+		}
+	}
+
+	/**
+	 * <p>
+	 * Checks data against a referenced schema, which is resolved when this is
+	 * compiled.
+	 * </p>
+	 *
+	 * @author John Jenkins
+	 */
+	private static final class ReferenceCheck extends Node {
+		/**
+		 * The check for the referenced schema.
+		 */
+		private final Node reference;
+
+		/**
+		 * Compiles a reference schema.
+		 *
+		 * @param schema
+		 *        The reference schema.
+		 */
+		public ReferenceCheck(final ReferenceSchema schema) {
+			super(schema, "The data is missing and not optional: ");
+
+			reference = compile(schema.getConcordia().getSchema());
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see org.openmhealth.reference.concordia.CompiledValidator.Node#validateValue(com.fasterxml.jackson.databind.JsonNode)
+		 */
+		@Override
+		protected void validateValue(
+			final JsonNode data)
+			throws ConcordiaException {
+
+			reference.validate(data);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Checks a schema of a type that cannot be compiled by handing it to the
+	 * validation controller.
+	 * </p>
+	 *
+	 * @author John Jenkins
+	 */
+	private static final class ControllerCheck extends Node {
+		/**
+		 * The schema.
+		 */
+		private final Schema schema;
+
+		/**
+		 * Wraps a schema.
+		 *
+		 * @param schema
+		 *        The schema.
+		 */
+		public ControllerCheck(final Schema schema) {
+			super(schema, NULL_PREFIX);
+
+			this.schema = schema;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see org.openmhealth.reference.concordia.CompiledValidator.Node#validateValue(com.fasterxml.jackson.databind.JsonNode)
+		 */
+		@Override
+		protected void validateValue(
+			final JsonNode data)
+			throws ConcordiaException {
+
+			OmhValidationController.VALIDATION_CONTROLLER.validate(schema, data);
+		}
+	}
+
+	/**
+	 * The start of the message when data is missing or null but not optional.
+	 */
+	private static final String NULL_PREFIX =
+		"The value is null but not optional: ";
+
+	/**
+	 * The compiled validators by their schema's ID and version.
+	 */
+	private static final ConcurrentMap<String, CompiledValidator> CACHE =
+		new ConcurrentHashMap<String, CompiledValidator>();
+
+	/**
+	 * The schema from which this validator was compiled.
+	 */
+	private final Concordia source;
+	/**
+	 * The check for the root of the schema.
+	 */
+	private final Node root;
+
+	/**
+	 * Compiles a schema.
+	 *
+	 * @param source
+	 *        The schema.
+	 */
+	private CompiledValidator(final Concordia source) {
+		this.source = source;
+		root = compile(source.getSchema());
+	}
+
+	/**
+	 * Returns the validator for a schema, compiling and caching it if it has
+	 * not been compiled or if the cached validator was compiled from a
+	 * different definition of the same schema ID and version.
+	 *
+	 * @param id
+	 *        The schema's ID.
+	 *
+	 * @param version
+	 *        The schema's version.
+	 *
+	 * @param schema
+	 *        The schema's definition.
+	 *
+	 * @return The validator.
+	 */
+	public static CompiledValidator getInstance(
+		final String id,
+		final long version,
+		final Concordia schema) {
+
+		String key = id + ":" + version;
+
+		CompiledValidator validator = CACHE.get(key);
+		if(
+			(validator == null) ||
+			((validator.source != schema) &&
+				(! validator.source.equals(schema)))) {
+
+			validator = new CompiledValidator(schema);
+			CACHE.put(key, validator);
+		}
+
+		return validator;
+	}
+
+	/**
+	 * Validates some data.
+	 *
+	 * @param data
+	 *        The data to validate.
+	 *
+	 * @throws ConcordiaException
+	 *         The data is invalid.
+	 */
+	public void validate(final JsonNode data) throws ConcordiaException {
+		root.validate(data);
+	}
+
+	/**
+	 * Compiles a schema into the check for its type.
+	 *
+	 * @param schema
+	 *        The schema.
+	 *
+	 * @return The check.
+	 */
+	private static Node compile(final Schema schema) {
+		if(schema instanceof ObjectSchema) {
+			return new ObjectCheck((ObjectSchema) schema);
+		}
+		else if(schema instanceof ArraySchema) {
+			return new ArrayCheck((ArraySchema) schema);
+		}
+		else if(schema instanceof StringSchema) {
+			return new StringCheck((StringSchema) schema);
+		}
+		else if(schema instanceof NumberSchema) {
+			return new NumberCheck((NumberSchema) schema);
+		}
+		else if(schema instanceof BooleanSchema) {
+			return new BooleanCheck((BooleanSchema) schema);
+		}
+		else if(schema instanceof ReferenceSchema) {
+			return new ReferenceCheck((ReferenceSchema) schema);
+		}
+		else {
+			return new ControllerCheck(schema);
+		}
+	}
+}
@@ -0,0 +1,298 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.data;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import org.openmhealth.reference.domain.BackgroundJob;
+import org.openmhealth.reference.exception.OmhException;
+
+/**
+ * <p>
+ * The parent of the classes that run jobs in the background, each of which
+ * works with its own file in a local directory. This tracks the jobs, runs
+ * them on a small pool of daemon threads, and forgets the finished ones once
+ * they have been kept for their time-to-live.
+ * </p>
+ *
+ * <p>
+ * Jobs are only tracked in memory, so they are lost, and their files are
+ * deleted, when the server restarts.
+ * </p>
+ *
+ * @param <T>
+ *        The type of the jobs.
+ *
+ * @author John Jenkins
+ */
+public abstract class BackgroundJobManager<T extends BackgroundJob> {
+	/**
+	 * A {@link Logger} for this class.
+	 */
+	private static final Logger LOGGER =
+		Logger.getLogger(BackgroundJobManager.class.getName());
+
+	/**
+	 * The number of jobs that may run at once.
+	 */
+	private static final int NUM_THREADS = 2;
+
+	/**
+	 * The name of the kind of job, e.g. "import", for messages.
+	 */
+	private final String name;
+	/**
+	 * The directory where the jobs' files are kept.
+	 */
+	private final File directory;
+	/**
+	 * The number of milliseconds that a finished job is kept.
+	 */
+	private final long ttl;
+	/**
+	 * The jobs, by their ID, in the order they were requested.
+	 */
+	private final Map<String, T> jobs = new LinkedHashMap<String, T>();
+	/**
+	 * The threads that run the jobs.
+	 */
+	private final ExecutorService executor;
+
+	/**
+	 * Creates the manager and deletes any files left over from a previous
+	 * run of the server.
+	 *
+	 * @param name
+	 *        The name of the kind of job, e.g. "import", for messages.
+	 *
+	 * @param threadName
+	 *        The prefix of the name of each thread, e.g. "Data import".
+	 *
+	 * @param directory
+	 *        The directory where the jobs' files are kept. It is created if
+	 *        it does not exist.
+	 *
+	 * @param ttl
+	 *        The number of milliseconds that a finished job is kept.
+	 *
+	 * @param fileExtensions
+	 *        The extensions of the jobs' files, which are deleted from the
+	 *        directory.
+	 *
+	 * @throws OmhException
+	 *         The directory could not be created or is not a directory.
+	 */
+	protected BackgroundJobManager(
+		final String name,
+		final String threadName,
+		final File directory,
+		final long ttl,
+		final String... fileExtensions)
+		throws OmhException {
+
+		if(directory == null) {
+			throw new OmhException("The directory is null.");
+		}
+		if((! directory.isDirectory()) && (! directory.mkdirs())) {
+			throw
+				new OmhException(
+					"The " + name + " directory could not be created: " +
+						directory.getAbsolutePath());
+		}
+
+		this.name = name;
+		this.directory = directory;
+		this.ttl = ttl;
+
+		// Jobs are only tracked in memory, so any remaining files belong to
+		// jobs that no longer exist.
+		File[] files = directory.listFiles();
+		if(files != null) {
+			for(File file : files) {
+				for(String fileExtension : fileExtensions) {
+					if(file.getName().endsWith(fileExtension)) {
+						delete(file);
+						break;
+					}
+				}
+			}
+		}
+
+		executor =
+			Executors
+				.newFixedThreadPool(
+					NUM_THREADS,
+					new ThreadFactory() {
+						/**
+						 * The number of threads that have been created.
+						 */
+						private final AtomicInteger count = new AtomicInteger();
+
+						/**
+						 * Creates a daemon thread, so a running job does not
+						 * keep the server from shutting down.
+						 */
+						@Override
+						public Thread newThread(final Runnable runnable) {
+							Thread thread =
+								new Thread(
+									runnable,
+									threadName + " " + count.incrementAndGet());
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+	}
+
+	/**
+	 * Stops any running jobs.
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+		try {
+			executor.awaitTermination(10, TimeUnit.SECONDS);
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Returns a job.
+	 *
+	 * @param id
+	 *        The job's unique identifier.
+	 *
+	 * @return The job or null if it is unknown or has expired.
+	 */
+	protected synchronized T getJob(final String id) {
+		expire();
+
+		return jobs.get(id);
+	}
+
+	/**
+	 * Returns the jobs that have not expired, in the order they were
+	 * requested. This must be called while synchronized on this object.
+	 *
+	 * @return The jobs, which may not be modified.
+	 */
+	protected Collection<T> getJobs() {
+		expire();
+
+		return Collections.unmodifiableCollection(jobs.values());
+	}
+
+	/**
+	 * Starts tracking a job. This must be called while synchronized on this
+	 * object.
+	 *
+	 * @param job
+	 *        The job.
+	 */
+	protected void addJob(final T job) {
+		expire();
+
+		jobs.put(job.getId(), job);
+	}
+
+	/**
+	 * Stops tracking a job that will never run. This must be called while
+	 * synchronized on this object.
+	 *
+	 * @param job
+	 *        The job.
+	 */
+	protected void removeJob(final T job) {
+		jobs.remove(job.getId());
+	}
+
+	/**
+	 * Runs a job on one of the threads.
+	 *
+	 * @param task
+	 *        The work of the job.
+	 */
+	protected void submit(final Runnable task) {
+		executor.submit(task);
+	}
+
+	/**
+	 * Returns the directory where the jobs' files are kept.
+	 *
+	 * @return The directory where the jobs' files are kept.
+	 */
+	protected File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * Called when a finished job expires, e.g. to delete its file. This is
+	 * called while synchronized on this object. By default, it does nothing.
+	 *
+	 * @param job
+	 *        The job that expired.
+	 */
+	protected void expired(final T job) {
+		// Do nothing.
+	}
+
+	/**
+	 * Deletes a file, if it exists, and logs if it could not be deleted.
+	 *
+	 * @param file
+	 *        The file.
+	 */
+	protected void delete(final File file) {
+		if(file.exists() && (! file.delete())) {
+			LOGGER
+				.warning(
+					"The " + name + " file could not be deleted: " +
+						file.getAbsolutePath());
+		}
+	}
+
+	/**
+	 * Removes the finished jobs that have been kept for longer than the
+	 * time-to-live. This must be called while synchronized on this object.
+	 */
+	private void expire() {
+		long oldest = System.currentTimeMillis() - ttl;
+
+		Iterator<T> iterator = jobs.values().iterator();
+		while(iterator.hasNext()) {
+			T job = iterator.next();
+			if(
+				job.isDone() &&
+				(job.getFinished().getMillis() < oldest)) {
+
+				iterator.remove();
+				expired(job);
+			}
+		}
+	}
+}
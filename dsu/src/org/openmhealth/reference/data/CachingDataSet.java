@@ -0,0 +1,590 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.data;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.joda.time.DateTime;
+import org.openmhealth.reference.domain.ColumnList;
+import org.openmhealth.reference.domain.ContinuationToken;
+import org.openmhealth.reference.domain.Data;
+import org.openmhealth.reference.domain.DataSummary;
+import org.openmhealth.reference.domain.MultiValueResult;
+import org.openmhealth.reference.exception.OmhException;
+
+/**
+ * <p>
+ * A {@link DataSet} that caches the pages read by
+ * {@link #getData(String, String, long, DateTime, DateTime, ColumnList,
+ * ContinuationToken, long, long)} in front of another data set. Everything
+ * else is passed through.
+ * </p>
+ *
+ * <p>
+ * The cache holds a bounded number of pages, evicting the least recently
+ * used page first, and each page expires after a fixed time. Whenever data is
+ * stored, every page for the same owner, schema ID, and version is removed.
+ * </p>
+ *
+ * <p>
+ * The cache is only as fresh as the writes that go through it, so it should
+ * only be used when this server is the only one storing data.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class CachingDataSet extends DataSet {
+	/**
+	 * <p>
+	 * The key for a cached page, which is every parameter of the read.
+	 * </p>
+	 *
+	 * @author John Jenkins
+	 */
+	private static class Key {
+		/**
+		 * The owner of the data.
+		 */
+		private final String owner;
+		/**
+		 * The schema ID of the data.
+		 */
+		private final String schemaId;
+		/**
+		 * The schema version of the data.
+		 */
+		private final long version;
+		/**
+		 * The rest of the parameters.
+		 */
+		private final List<Object> parameters;
+
+		/**
+		 * Creates a new key.
+		 *
+		 * @param owner
+		 *        The owner of the data.
+		 *
+		 * @param schemaId
+		 *        The schema ID of the data.
+		 *
+		 * @param version
+		 *        The schema version of the data.
+		 *
+		 * @param parameters
+		 *        The rest of the parameters.
+		 */
+		private Key(
+			final String owner,
+			final String schemaId,
+			final long version,
+			final Object... parameters) {
+
+			this.owner = owner;
+			this.schemaId = schemaId;
+			this.version = version;
+			this.parameters = Arrays.asList(parameters);
+		}
+
+		/**
+		 * Returns whether or not this key is for the given owner, schema ID,
+		 * and version.
+		 *
+		 * @param owner
+		 *        The owner of the data.
+		 *
+		 * @param schemaId
+		 *        The schema ID of the data.
+		 *
+		 * @param version
+		 *        The schema version of the data.
+		 *
+		 * @return True if this key is for the given owner, schema ID, and
+		 *         version; false, otherwise.
+		 */
+		private boolean isFor(
+			final String owner,
+			final String schemaId,
+			final long version) {
+
+			return
+				(this.version == version) &&
+				this.owner.equals(owner) &&
+				this.schemaId.equals(schemaId);
+		}
+
+		/**
+		 * Returns a key for only this key's owner, schema ID, and version,
+		 * which identifies the data it caches.
+		 *
+		 * @return A key for only this key's owner, schema ID, and version.
+		 */
+		private Key getDataKey() {
+			return new Key(owner, schemaId, version);
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Object#hashCode()
+		 */
+		@Override
+		public int hashCode() {
+			int result = owner.hashCode();
+			result = 31 * result + schemaId.hashCode();
+			result = 31 * result + (int) (version ^ (version >>> 32));
+			result = 31 * result + parameters.hashCode();
+			return result;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Object#equals(java.lang.Object)
+		 */
+		@Override
+		public boolean equals(final Object other) {
+			if(this == other) {
+				return true;
+			}
+			if(! (other instanceof Key)) {
+				return false;
+			}
+
+			Key key = (Key) other;
+			return
+				isFor(key.owner, key.schemaId, key.version) &&
+				parameters.equals(key.parameters);
+		}
+	}
+
+	/**
+	 * <p>
+	 * A cached page of data. Its count is only computed, once, when it is
+	 * first requested.
+	 * </p>
+	 *
+	 * @author John Jenkins
+	 */
+	private static class Page implements MultiValueResult<Data> {
+		/**
+		 * The page of data.
+		 */
+		private final List<Data> list;
+		/**
+		 * The result that the page was read from, which is used to count the
+		 * data or null once it has been counted.
+		 */
+		private MultiValueResult<Data> result;
+		/**
+		 * The total number of points before paging or -1 if they have not
+		 * been counted yet.
+		 */
+		private int count = -1;
+		/**
+		 * The time at which the page expires.
+		 */
+		private final long expires;
+
+		/**
+		 * Reads a page from a result.
+		 *
+		 * @param result
+		 *        The result to read.
+		 *
+		 * @param expires
+		 *        The time at which the page expires.
+		 */
+		private Page(final MultiValueResult<Data> result, final long expires) {
+			list = new ArrayList<Data>(result.size());
+			for(Data point : result) {
+				list.add(point);
+			}
+			this.result = result;
+			this.expires = expires;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Iterable#iterator()
+		 */
+		@Override
+		public Iterator<Data> iterator() {
+			return list.iterator();
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see org.openmhealth.reference.domain.MultiValueResult#count()
+		 */
+		@Override
+		public synchronized int count() {
+			if(result != null) {
+				count = result.count();
+				result = null;
+			}
+			return count;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see org.openmhealth.reference.domain.MultiValueResult#size()
+		 */
+		@Override
+		public int size() {
+			return list.size();
+		}
+	}
+
+	/**
+	 * The data set that actually reads and stores the data.
+	 */
+	private final DataSet dataSet;
+	/**
+	 * How long a page is cached, in milliseconds.
+	 */
+	private final long timeToLive;
+	/**
+	 * The cached pages, least recently used first. All access must be
+	 * synchronized on this map.
+	 */
+	private final LinkedHashMap<Key, Page> cache;
+	/**
+	 * The number of times data has been stored, which keeps a read that was
+	 * in flight during a write from caching its, possibly stale, page.
+	 */
+	private long writes = 0;
+
+	/**
+	 * The number of reads that were answered from the cache.
+	 */
+	private final AtomicLong hits = new AtomicLong();
+	/**
+	 * The number of reads that were passed to the data set.
+	 */
+	private final AtomicLong misses = new AtomicLong();
+	/**
+	 * The number of pages removed because the cache was full.
+	 */
+	private final AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * Creates a cache in front of a data set and makes it the data set that
+	 * is used.
+	 *
+	 * @param dataSet
+	 *        The data set that actually reads and stores the data.
+	 *
+	 * @param maxPages
+	 *        The maximum number of pages to cache.
+	 *
+	 * @param timeToLive
+	 *        How long a page is cached, in milliseconds.
+	 *
+	 * @throws OmhException
+	 *         The data set is null, or the number of pages or time to live is
+	 *         not positive.
+	 */
+	public CachingDataSet(
+		final DataSet dataSet,
+		final int maxPages,
+		final long timeToLive)
+		throws OmhException {
+
+		if(dataSet == null) {
+			throw new OmhException("The data set is null.");
+		}
+		if(maxPages <= 0) {
+			throw
+				new OmhException(
+					"The maximum number of cached pages must be positive.");
+		}
+		if(timeToLive <= 0) {
+			throw
+				new OmhException(
+					"The time to live of a cached page must be positive.");
+		}
+
+		this.dataSet = dataSet;
+		this.timeToLive = timeToLive;
+		cache =
+			new LinkedHashMap<Key, Page>(16, 0.75f, true) {
+				/**
+				 * The version of this class for serialization purposes.
+				 */
+				private static final long serialVersionUID = 1L;
+
+				/**
+				 * Evicts the least recently used page once the cache is
+				 * full.
+				 */
+				@Override
+				protected boolean removeEldestEntry(
+					final Map.Entry<Key, Page> eldest) {
+
+					if(size() > maxPages) {
+						evictions.incrementAndGet();
+						return true;
+					}
+					return false;
+				}
+			};
+	}
+
+	/**
+	 * Stores the data and removes every cached page for the same owners,
+	 * schema IDs, and versions, even if the data was only partially stored.
+	 */
+	@Override
+	public void storeData(final List<Data> data) {
+		try {
+			dataSet.storeData(data);
+		}
+		finally {
+			// Find the data that was written outside of the lock.
+			Set<Key> written = new HashSet<Key>();
+			for(Data point : data) {
+				written
+					.add(
+						new Key(
+							point.getOwner(),
+							point.getSchemaId(),
+							point.getSchemaVersion()));
+			}
+
+			// Remove the pages of that data in one pass.
+			synchronized(cache) {
+				writes++;
+				Iterator<Key> keys = cache.keySet().iterator();
+				while(keys.hasNext()) {
+					if(written.contains(keys.next().getDataKey())) {
+						keys.remove();
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the cached page, if it has not expired, or reads and caches
+	 * it.
+	 */
+	@Override
+	public MultiValueResult<Data> getData(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final DateTime startDate,
+		final DateTime endDate,
+		final ColumnList columnList,
+		final ContinuationToken continuationToken,
+		final long numToSkip,
+		final long numToReturn) {
+
+		// Validate the parameters that are part of the key.
+		if(owner == null) {
+			throw new OmhException("The owner is null.");
+		}
+		if(schemaId == null) {
+			throw new OmhException("The schema ID is null.");
+		}
+
+		Key key =
+			new Key(
+				owner,
+				schemaId,
+				version,
+				(startDate == null) ? null : startDate.getMillis(),
+				(endDate == null) ? null : endDate.getMillis(),
+				(columnList == null) ? null : columnList.toString(),
+				(continuationToken == null) ?
+					null :
+					continuationToken.encode(),
+				numToSkip,
+				numToReturn);
+
+		// Check the cache.
+		long writesBefore;
+		synchronized(cache) {
+			Page page = cache.get(key);
+			if(page != null) {
+				if(page.expires > System.currentTimeMillis()) {
+					hits.incrementAndGet();
+					return page;
+				}
+				cache.remove(key);
+			}
+			writesBefore = writes;
+		}
+		misses.incrementAndGet();
+
+		// Read the page.
+		Page page =
+			new Page(
+				dataSet
+					.getData(
+						owner,
+						schemaId,
+						version,
+						startDate,
+						endDate,
+						columnList,
+						continuationToken,
+						numToSkip,
+						numToReturn),
+				System.currentTimeMillis() + timeToLive);
+
+		// Cache it unless data was stored while it was being read.
+		synchronized(cache) {
+			if(writes == writesBefore) {
+				cache.put(key, page);
+			}
+		}
+
+		return page;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.DataSet#streamData(java.lang.String, java.lang.String, long, org.joda.time.DateTime, org.joda.time.DateTime, org.openmhealth.reference.domain.ColumnList, long, long, org.openmhealth.reference.data.DataSet.DataHandler)
+	 */
+	@Override
+	public void streamData(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final DateTime startDate,
+		final DateTime endDate,
+		final ColumnList columnList,
+		final long numToSkip,
+		final long numToReturn,
+		final DataHandler handler)
+		throws IOException {
+
+		dataSet
+			.streamData(
+				owner,
+				schemaId,
+				version,
+				startDate,
+				endDate,
+				columnList,
+				numToSkip,
+				numToReturn,
+				handler);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.DataSet#countData(java.lang.String, java.lang.String, long, org.joda.time.DateTime, org.joda.time.DateTime)
+	 */
+	@Override
+	public int countData(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final DateTime startDate,
+		final DateTime endDate) {
+
+		return
+			dataSet.countData(owner, schemaId, version, startDate, endDate);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.DataSet#summarizeData(java.lang.String, java.lang.String, long, org.joda.time.DateTime, org.joda.time.DateTime, java.lang.String, org.openmhealth.reference.domain.DataSummary.Interval, java.lang.String)
+	 */
+	@Override
+	public List<DataSummary> summarizeData(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final DateTime startDate,
+		final DateTime endDate,
+		final String field,
+		final DataSummary.Interval interval,
+		final String lastDatabaseId) {
+
+		return
+			dataSet
+				.summarizeData(
+					owner,
+					schemaId,
+					version,
+					startDate,
+					endDate,
+					field,
+					interval,
+					lastDatabaseId);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.DataSet#getDatabaseId(org.openmhealth.reference.domain.Data)
+	 */
+	@Override
+	public String getDatabaseId(final Data data) throws OmhException {
+		return dataSet.getDatabaseId(data);
+	}
+
+	/**
+	 * Returns the number of reads that were answered from the cache.
+	 *
+	 * @return The number of reads that were answered from the cache.
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * Returns the number of reads that were passed to the data set.
+	 *
+	 * @return The number of reads that were passed to the data set.
+	 */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * Returns the number of pages that were removed because the cache was
+	 * full.
+	 *
+	 * @return The number of pages that were removed because the cache was
+	 *         full.
+	 */
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+
+	/**
+	 * Returns the number of pages that are currently cached, including any
+	 * that have expired but have not yet been removed.
+	 *
+	 * @return The number of pages that are currently cached.
+	 */
+	public int getSize() {
+		synchronized(cache) {
+			return cache.size();
+		}
+	}
+}
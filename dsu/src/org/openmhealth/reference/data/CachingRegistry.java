@@ -0,0 +1,456 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.data;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openmhealth.reference.domain.MultiValueResult;
+import org.openmhealth.reference.domain.Schema;
+import org.openmhealth.reference.exception.OmhException;
+
+/**
+ * <p>
+ * A {@link Registry} that caches the schemas read by
+ * {@link #getSchema(String, long)} and by
+ * {@link #getSchemas(String, Long, long, long)} with both a schema ID and
+ * version, in front of another registry. Everything else is passed through.
+ * </p>
+ *
+ * <p>
+ * Schemas are immutable, so a cached schema, and the validator compiled from
+ * it, is shared by every request. Schema ID-version pairs that are unknown
+ * are cached as well, so repeated requests for them do not reach the
+ * database either. The cache holds a bounded number of pairs, evicting the
+ * least recently used pair first, so a stream of unknown pairs cannot keep
+ * known schemas out of it.
+ * </p>
+ *
+ * <p>
+ * At most once per check interval, a lookup compares the registry's
+ * revision to the revision the cache was filled at. If it has changed or is
+ * unknown, the cache is cleared, so schemas added by any server are seen
+ * within one interval.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class CachingRegistry extends Registry {
+	/**
+	 * <p>
+	 * The result of a lookup of a single schema ID-version pair.
+	 * </p>
+	 *
+	 * @author John Jenkins
+	 */
+	private static class SchemaResult implements MultiValueResult<Schema> {
+		/**
+		 * The schema, if any, that matched.
+		 */
+		private final List<Schema> matched;
+		/**
+		 * The page of the matched schema.
+		 */
+		private final List<Schema> page;
+
+		/**
+		 * Pages the result of a lookup.
+		 *
+		 * @param matched
+		 *        The schema, if any, that matched.
+		 *
+		 * @param numToSkip
+		 *        The number of schemas to skip.
+		 *
+		 * @param numToReturn
+		 *        The number of schemas to return.
+		 */
+		private SchemaResult(
+			final List<Schema> matched,
+			final long numToSkip,
+			final long numToReturn) {
+
+			this.matched = matched;
+			page =
+				((numToSkip > 0) || (numToReturn <= 0)) ?
+					Collections.<Schema>emptyList() :
+					matched;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Iterable#iterator()
+		 */
+		@Override
+		public Iterator<Schema> iterator() {
+			return page.iterator();
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see org.openmhealth.reference.domain.MultiValueResult#count()
+		 */
+		@Override
+		public int count() {
+			return matched.size();
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see org.openmhealth.reference.domain.MultiValueResult#size()
+		 */
+		@Override
+		public int size() {
+			return page.size();
+		}
+	}
+
+	/**
+	 * The registry that actually reads the schemas.
+	 */
+	private final Registry registry;
+	/**
+	 * How often the registry's revision is checked, in milliseconds.
+	 */
+	private final long checkInterval;
+	/**
+	 * The cached lookups, by their schema ID and version and least recently
+	 * used first, each of which is either the schema or empty if the pair is
+	 * unknown. All access must be synchronized on this object.
+	 */
+	private final LinkedHashMap<String, List<Schema>> cache;
+	/**
+	 * The number of times the cache has been cleared, which keeps a lookup
+	 * that was in flight during a clear from caching its, possibly stale,
+	 * schema. Changes to this and the cache must be synchronized on this
+	 * object.
+	 */
+	private long generation = 0;
+	/**
+	 * The registry's revision when the cache was last cleared.
+	 */
+	private String revision = null;
+	/**
+	 * The time, in milliseconds, after which the registry's revision should
+	 * next be checked.
+	 */
+	private volatile long nextCheck = 0;
+
+	/**
+	 * The number of lookups that were answered from the cache.
+	 */
+	private final AtomicLong hits = new AtomicLong();
+	/**
+	 * The number of lookups that were passed to the registry.
+	 */
+	private final AtomicLong misses = new AtomicLong();
+	/**
+	 * The number of schema ID-version pairs removed because the cache was
+	 * full.
+	 */
+	private final AtomicLong evictions = new AtomicLong();
+	/**
+	 * The number of times the cache was cleared because the registry
+	 * changed.
+	 */
+	private final AtomicLong reloads = new AtomicLong();
+
+	/**
+	 * Creates a cache in front of a registry and makes it the registry that
+	 * is used.
+	 *
+	 * @param registry
+	 *        The registry that actually reads the schemas.
+	 *
+	 * @param maxSchemas
+	 *        The most schema ID-version pairs to cache. Once this many are
+	 *        cached, the least recently used pair is evicted.
+	 *
+	 * @param checkInterval
+	 *        How often the registry's revision is checked, in milliseconds.
+	 *
+	 * @throws OmhException
+	 *         The registry is null, or the number of schemas or check interval
+	 *         is not positive.
+	 */
+	public CachingRegistry(
+		final Registry registry,
+		final int maxSchemas,
+		final long checkInterval)
+		throws OmhException {
+
+		if(registry == null) {
+			throw new OmhException("The registry is null.");
+		}
+		if(maxSchemas <= 0) {
+			throw
+				new OmhException(
+					"The maximum number of cached schemas must be positive.");
+		}
+		if(checkInterval <= 0) {
+			throw
+				new OmhException(
+					"The interval between registry checks must be positive.");
+		}
+
+		this.registry = registry;
+		this.checkInterval = checkInterval;
+		cache =
+			new LinkedHashMap<String, List<Schema>>(16, 0.75f, true) {
+				/**
+				 * The version of this class for serialization purposes.
+				 */
+				private static final long serialVersionUID = 1L;
+
+				/**
+				 * Evicts the least recently used pair once the cache is full.
+				 */
+				@Override
+				protected boolean removeEldestEntry(
+					final Map.Entry<String, List<Schema>> eldest) {
+
+					if(size() > maxSchemas) {
+						evictions.incrementAndGet();
+						return true;
+					}
+					return false;
+				}
+			};
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.Registry#getSchemaIds(long, long)
+	 */
+	@Override
+	public MultiValueResult<String> getSchemaIds(
+		final long numToSkip,
+		final long numToReturn) {
+
+		return registry.getSchemaIds(numToSkip, numToReturn);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.Registry#getSchemaVersions(java.lang.String, long, long)
+	 */
+	@Override
+	public MultiValueResult<Long> getSchemaVersions(
+		final String schemaId,
+		final long numToSkip,
+		final long numToReturn) {
+
+		return registry.getSchemaVersions(schemaId, numToSkip, numToReturn);
+	}
+
+	/**
+	 * Returns the cached schema or reads and caches it.
+	 */
+	@Override
+	public Schema getSchema(final String schemaId, final long schemaVersion) {
+		List<Schema> matched = lookup(schemaId, schemaVersion);
+		return matched.isEmpty() ? null : matched.get(0);
+	}
+
+	/**
+	 * Returns the cached schema when both a schema ID and version are given
+	 * or passes the query through to the registry.
+	 */
+	@Override
+	public MultiValueResult<? extends Schema> getSchemas(
+		final String schemaId,
+		final Long schemaVersion,
+		final long numToSkip,
+		final long numToReturn) {
+
+		if((schemaId == null) || (schemaVersion == null)) {
+			return
+				registry
+					.getSchemas(
+						schemaId,
+						schemaVersion,
+						numToSkip,
+						numToReturn);
+		}
+
+		return
+			new SchemaResult(
+				lookup(schemaId, schemaVersion),
+				numToSkip,
+				numToReturn);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.Registry#getRevision()
+	 */
+	@Override
+	public String getRevision() {
+		return registry.getRevision();
+	}
+
+	/**
+	 * Clears the cache, e.g. after a schema has been changed in place, which
+	 * does not change the registry's revision.
+	 */
+	public synchronized void invalidate() {
+		cache.clear();
+		generation++;
+	}
+
+	/**
+	 * Returns the number of lookups that were answered from the cache.
+	 *
+	 * @return The number of lookups that were answered from the cache.
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * Returns the number of lookups that were passed to the registry.
+	 *
+	 * @return The number of lookups that were passed to the registry.
+	 */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * Returns the number of schema ID-version pairs removed because the cache
+	 * was full.
+	 *
+	 * @return The number of schema ID-version pairs removed because the cache
+	 *         was full.
+	 */
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+
+	/**
+	 * Returns the number of times the cache was cleared because the registry
+	 * changed or its revision is unknown.
+	 *
+	 * @return The number of times the cache was cleared because the registry
+	 *         changed.
+	 */
+	public long getReloadCount() {
+		return reloads.get();
+	}
+
+	/**
+	 * Returns the number of schema ID-version pairs that are currently
+	 * cached, including those that are unknown.
+	 *
+	 * @return The number of schema ID-version pairs that are currently
+	 *         cached.
+	 */
+	public synchronized int getSize() {
+		return cache.size();
+	}
+
+	/**
+	 * Returns the cached lookup of a schema ID-version pair or looks it up
+	 * and caches it.
+	 *
+	 * @param schemaId
+	 *        The schema ID.
+	 *
+	 * @param schemaVersion
+	 *        The schema version.
+	 *
+	 * @return A list of the schema or an empty list if the pair is unknown.
+	 *
+	 * @throws OmhException
+	 *         The schema ID is null.
+	 */
+	private List<Schema> lookup(
+		final String schemaId,
+		final long schemaVersion)
+		throws OmhException {
+
+		if(schemaId == null) {
+			throw new OmhException("The schema ID is null.");
+		}
+
+		checkRevision();
+
+		// Check the cache.
+		String key = schemaId + ":" + schemaVersion;
+		List<Schema> matched;
+		long generationBefore;
+		synchronized(this) {
+			matched = cache.get(key);
+			generationBefore = generation;
+		}
+		if(matched != null) {
+			hits.incrementAndGet();
+			return matched;
+		}
+		misses.incrementAndGet();
+
+		// Read the schema.
+		Schema schema = registry.getSchema(schemaId, schemaVersion);
+		matched =
+			(schema == null) ?
+				Collections.<Schema>emptyList() :
+				Collections.singletonList(schema);
+
+		// Cache it unless the cache was cleared while it was being read.
+		synchronized(this) {
+			if(generation == generationBefore) {
+				cache.put(key, matched);
+			}
+		}
+
+		return matched;
+	}
+
+	/**
+	 * Clears the cache if the check interval has passed and the registry's
+	 * revision has changed since the cache was last cleared. Only one thread
+	 * checks at a time, and the others use the cache as it is.
+	 */
+	private void checkRevision() {
+		if(System.currentTimeMillis() < nextCheck) {
+			return;
+		}
+
+		synchronized(this) {
+			long now = System.currentTimeMillis();
+			if(now < nextCheck) {
+				return;
+			}
+			nextCheck = now + checkInterval;
+		}
+
+		// Read the revision outside of the lock, so lookups are not held up
+		// by the registry.
+		String current = registry.getRevision();
+		synchronized(this) {
+			if((current == null) || (! current.equals(revision))) {
+				cache.clear();
+				generation++;
+				revision = current;
+				reloads.incrementAndGet();
+			}
+		}
+	}
+}
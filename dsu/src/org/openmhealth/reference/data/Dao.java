@@ -15,7 +15,15 @@
  ******************************************************************************/
 package org.openmhealth.reference.data;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.openmhealth.reference.exception.OmhException;
 
 /**
  * <p>
@@ -25,6 +33,12 @@ import java.util.Properties;
  * @author John Jenkins
  */
 public abstract class Dao {
+	/**
+	 * The logger for this class.
+	 */
+	private static final Logger LOGGER =
+		Logger.getLogger(Dao.class.getName());
+	
 	/**
 	 * The property key for the server address.
 	 */
@@ -219,6 +233,127 @@ public abstract class Dao {
 	 */
 	public abstract void shutdown();
 	
+	/**
+	 * Starts a background thread that applies each of the migrations that
+	 * has not yet been applied, in order of their versions. If a migration
+	 * fails, the remaining ones are not applied until the next start.
+	 * 
+	 * @param migrations
+	 *        The migrations for this DAO.
+	 */
+	protected final void startMigrations(
+		final List<? extends Migration> migrations) {
+		
+		// Sort the migrations by their versions.
+		final List<Migration> sortedMigrations =
+			new ArrayList<Migration>(migrations);
+		Collections.sort(
+			sortedMigrations,
+			new Comparator<Migration>() {
+				/**
+				 * Compares the migrations' versions.
+				 */
+				@Override
+				public int compare(
+					final Migration first,
+					final Migration second) {
+					
+					return
+						Long.valueOf(first.getVersion())
+							.compareTo(second.getVersion());
+				}
+			});
+		
+		// Apply them in the background so that long-running migrations, e.g.
+		// building indexes on large collections, do not delay startup.
+		Thread thread =
+			new Thread(
+				new Runnable() {
+					/**
+					 * Applies each migration that has not yet been applied.
+					 */
+					@Override
+					public void run() {
+						applyMigrations(sortedMigrations);
+					}
+				},
+				"Database migrations");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	/**
+	 * Returns whether or not a migration has already been applied.
+	 * 
+	 * @param version
+	 *        The migration's version.
+	 * 
+	 * @return True if the migration has been applied; false, otherwise.
+	 * 
+	 * @throws OmhException
+	 *         The applied migrations could not be read.
+	 */
+	protected abstract boolean isMigrationApplied(
+		final long version)
+		throws OmhException;
+	
+	/**
+	 * Records that a migration has been applied.
+	 * 
+	 * @param migration
+	 *        The migration that was applied.
+	 * 
+	 * @throws OmhException
+	 *         The migration could not be recorded.
+	 */
+	protected abstract void markMigrationApplied(
+		final Migration migration)
+		throws OmhException;
+	
+	/**
+	 * Applies each of the migrations that has not yet been applied, in
+	 * order, stopping at the first failure.
+	 * 
+	 * @param migrations
+	 *        The migrations, sorted by their versions.
+	 */
+	private void applyMigrations(final List<Migration> migrations) {
+		for(Migration migration : migrations) {
+			try {
+				// Skip the migration if it was already applied.
+				if(isMigrationApplied(migration.getVersion())) {
+					continue;
+				}
+				
+				// Apply and record the migration.
+				LOGGER
+					.info(
+						"Applying database migration " +
+							migration.getVersion() +
+							": " +
+							migration.getDescription());
+				migration.apply();
+				markMigrationApplied(migration);
+				LOGGER
+					.info(
+						"Applied database migration " +
+							migration.getVersion() +
+							".");
+			}
+			catch(RuntimeException e) {
+				LOGGER
+					.log(
+						Level.SEVERE,
+						"The database migration " +
+							migration.getVersion() +
+							" failed, so no further migrations will be " +
+							"applied.",
+						e);
+				return;
+			}
+		}
+	}
+	
 	/**
 	 * The default address to use for the database.
 	 * 
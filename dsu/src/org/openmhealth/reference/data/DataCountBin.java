@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.data;
+
+import org.openmhealth.reference.exception.OmhException;
+
+/**
+ * <p>
+ * The collection of counters that track how many points each user has for
+ * each schema ID-version pair. The counters are updated whenever data is
+ * stored, so reading one is much cheaper than counting the data itself.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public abstract class DataCountBin {
+	/**
+	 * The name of the DB document/table/whatever that contains the counters.
+	 */
+	public static final String DB_NAME = "data_count";
+
+	/**
+	 * The name of the field/column that contains a counter's value.
+	 */
+	public static final String KEY_COUNT = "point_count";
+
+	/**
+	 * The instance of this DataCountBin to use.
+	 */
+	private static DataCountBin instance;
+
+	/**
+	 * Default constructor.
+	 */
+	protected DataCountBin() {
+		instance = this;
+	}
+
+	/**
+	 * Returns the singular instance of this class.
+	 *
+	 * @return The singular instance of this class.
+	 */
+	public static DataCountBin getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Returns the number of points a user has for a schema ID-version pair.
+	 *
+	 * @param owner
+	 *        The username of the user that owns the data.
+	 *
+	 * @param schemaId
+	 *        The schema ID of the data.
+	 *
+	 * @param version
+	 *        The schema version of the data.
+	 *
+	 * @return The number of points or null if there is no counter for them,
+	 *         in which case the data must be counted directly.
+	 *
+	 * @throws OmhException
+	 *         The owner or schema ID is null.
+	 */
+	public abstract Long getCount(
+		final String owner,
+		final String schemaId,
+		final long version)
+		throws OmhException;
+
+	/**
+	 * Adds to the number of points a user has for a schema ID-version pair.
+	 * This should be called by the {@link DataSet} whenever it stores data.
+	 *
+	 * @param owner
+	 *        The username of the user that owns the data.
+	 *
+	 * @param schemaId
+	 *        The schema ID of the data.
+	 *
+	 * @param version
+	 *        The schema version of the data.
+	 *
+	 * @param amount
+	 *        The number of points that were stored.
+	 *
+	 * @throws OmhException
+	 *         The owner or schema ID is null.
+	 */
+	public abstract void incrementCount(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final long amount)
+		throws OmhException;
+
+	/**
+	 * Returns whether or not the counters are updated in the same transaction
+	 * as the data, which means that they always agree with counting the data
+	 * directly.
+	 *
+	 * @return True if the counters are always exact; false, otherwise.
+	 */
+	public abstract boolean isExact();
+}
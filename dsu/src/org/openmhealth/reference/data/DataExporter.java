@@ -0,0 +1,308 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.data;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+import org.openmhealth.reference.data.DataSet.DataHandler;
+import org.openmhealth.reference.domain.Data;
+import org.openmhealth.reference.domain.ExportJob;
+import org.openmhealth.reference.exception.OmhException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+/**
+ * <p>
+ * Exports all of a user's data, in the background, to a gzip-compressed file
+ * on local disk with one JSON data point per line. The finished files are
+ * kept until they expire, so they may be downloaded in pieces.
+ * </p>
+ *
+ * <p>
+ * Exports are only tracked in memory, so they are lost, and their files are
+ * deleted, when the server restarts.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class DataExporter extends BackgroundJobManager<ExportJob> {
+	/**
+	 * A {@link Logger} for this class.
+	 */
+	private static final Logger LOGGER =
+		Logger.getLogger(DataExporter.class.getName());
+
+	/**
+	 * The media type of the exported files.
+	 */
+	public static final String MEDIA_TYPE = "application/gzip";
+	/**
+	 * The extension of the exported files.
+	 */
+	public static final String FILE_EXTENSION = ".ndjson.gz";
+
+	/**
+	 * The extension of a file that is still being written.
+	 */
+	private static final String PARTIAL_FILE_EXTENSION = ".part";
+
+	/**
+	 * The singular instance of this class.
+	 */
+	private static DataExporter instance;
+
+	/**
+	 * The mapper that writes each point.
+	 */
+	private final ObjectMapper mapper =
+		new ObjectMapper()
+			.configure(SerializationFeature.FLUSH_AFTER_WRITE_VALUE, false);
+
+	/**
+	 * Creates the exporter and deletes any files left over from a previous
+	 * run of the server.
+	 *
+	 * @param directory
+	 *        The directory where the exported files are written. It is created
+	 *        if it does not exist.
+	 *
+	 * @param ttl
+	 *        The number of milliseconds that a finished export is kept.
+	 *
+	 * @throws OmhException
+	 *         The directory could not be created or is not a directory.
+	 */
+	public DataExporter(
+		final File directory,
+		final long ttl)
+		throws OmhException {
+
+		super(
+			"export",
+			"Data export",
+			directory,
+			ttl,
+			FILE_EXTENSION,
+			PARTIAL_FILE_EXTENSION);
+
+		instance = this;
+	}
+
+	/**
+	 * Returns the singular instance of this class.
+	 *
+	 * @return The singular instance of this class or null if exports are not
+	 *         enabled.
+	 */
+	public static DataExporter getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Starts exporting all of a user's data. If that user's data is already
+	 * being exported, that export is returned instead of starting another.
+	 *
+	 * @param owner
+	 *        The user whose data should be exported.
+	 *
+	 * @return The export.
+	 *
+	 * @throws OmhException
+	 *         The owner is null.
+	 */
+	public synchronized ExportJob startExport(
+		final String owner)
+		throws OmhException {
+
+		if(owner == null) {
+			throw new OmhException("The owner is null.");
+		}
+
+		// Reuse an export that has not yet finished.
+		for(ExportJob job : getJobs()) {
+			if(owner.equals(job.getOwner()) && (! job.isDone())) {
+				return job;
+			}
+		}
+
+		final ExportJob job = new ExportJob(owner);
+		addJob(job);
+		submit(
+			new Runnable() {
+				/**
+				 * Runs the export.
+				 */
+				@Override
+				public void run() {
+					export(job);
+				}
+			});
+		return job;
+	}
+
+	/**
+	 * Returns an export.
+	 *
+	 * @param id
+	 *        The export's unique identifier.
+	 *
+	 * @return The export or null if it is unknown or has expired.
+	 */
+	public ExportJob getExport(final String id) {
+		return getJob(id);
+	}
+
+	/**
+	 * Returns the file of a complete export.
+	 *
+	 * @param job
+	 *        The export.
+	 *
+	 * @return The export's file.
+	 *
+	 * @throws OmhException
+	 *         The export has not completed.
+	 */
+	public File getFile(final ExportJob job) throws OmhException {
+		if(job.getState() != ExportJob.State.COMPLETE) {
+			throw new OmhException("The export has not completed.");
+		}
+
+		return new File(getDirectory(), job.getId() + FILE_EXTENSION);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.BackgroundJobManager#expired(org.openmhealth.reference.domain.BackgroundJob)
+	 */
+	@Override
+	protected void expired(final ExportJob job) {
+		delete(new File(getDirectory(), job.getId() + FILE_EXTENSION));
+	}
+
+	/**
+	 * Writes every point the export's owner has for every schema ID-version
+	 * pair to the export's file.
+	 *
+	 * @param job
+	 *        The export.
+	 */
+	private void export(final ExportJob job) {
+		File partialFile =
+			new File(getDirectory(), job.getId() + PARTIAL_FILE_EXTENSION);
+
+		try {
+			// Determine every schema ID-version pair.
+			List<String> schemaIds = new ArrayList<String>();
+			List<Long> versions = new ArrayList<Long>();
+			Registry registry = Registry.getInstance();
+			for(
+				String schemaId :
+				registry.getSchemaIds(0, Integer.MAX_VALUE)) {
+
+				for(
+					Long version :
+					registry
+						.getSchemaVersions(schemaId, 0, Integer.MAX_VALUE)) {
+
+					schemaIds.add(schemaId);
+					versions.add(version);
+				}
+			}
+			job.start(schemaIds.size());
+
+			// Write the points of each pair, one per line.
+			OutputStream out =
+				new GZIPOutputStream(
+					new BufferedOutputStream(
+						new FileOutputStream(partialFile)));
+			try {
+				final JsonGenerator generator =
+					mapper.getFactory().createGenerator(out);
+				generator.setRootValueSeparator(null);
+
+				for(int i = 0; i < schemaIds.size(); i++) {
+					if(Thread.currentThread().isInterrupted()) {
+						throw new OmhException("The export was stopped.");
+					}
+
+					DataSet
+						.getInstance()
+						.streamData(
+							job.getOwner(),
+							schemaIds.get(i),
+							versions.get(i),
+							null,
+							null,
+							null,
+							0,
+							Integer.MAX_VALUE,
+							new DataHandler() {
+								/*
+								 * (non-Javadoc)
+								 * @see org.openmhealth.reference.data.DataSet.DataHandler#handle(org.openmhealth.reference.domain.Data)
+								 */
+								@Override
+								public void handle(
+									final Data data)
+									throws IOException {
+
+									mapper.writeValue(generator, data);
+									generator.writeRaw('\n');
+									job.pointExported();
+								}
+							});
+					job.schemaExported();
+				}
+
+				generator.close();
+			}
+			finally {
+				out.close();
+			}
+
+			// Only make the file available once it is whole.
+			File file = new File(getDirectory(), job.getId() + FILE_EXTENSION);
+			if(! partialFile.renameTo(file)) {
+				throw
+					new IOException(
+						"The export file could not be renamed: " +
+							file.getAbsolutePath());
+			}
+			job.complete(file.length());
+		}
+		catch(IOException | RuntimeException e) {
+			LOGGER
+				.log(
+					Level.WARNING,
+					"The export failed: " + job.getId(),
+					e);
+			delete(partialFile);
+			job.fail("The data could not be exported.");
+		}
+	}
+}
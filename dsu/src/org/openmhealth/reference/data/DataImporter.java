@@ -0,0 +1,373 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.data;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.openmhealth.reference.domain.ImportJob;
+import org.openmhealth.reference.exception.OmhException;
+import org.openmhealth.reference.exception.ServerBusyException;
+import org.springframework.web.multipart.MultipartFile;
+
+/**
+ * <p>
+ * Stores the data of uploaded files in the background. Each file is first
+ * spooled to local disk, so the upload is finished as soon as the file has
+ * been received, and is then read and stored a chunk at a time, so it is
+ * never held in memory as a whole. The file is deleted once it has been
+ * stored. Each user may only have so many imports that have not finished, so
+ * one user cannot fill the disk or hold back everyone else's imports.
+ * </p>
+ *
+ * <p>
+ * Imports are only tracked in memory, so they are lost, and their files are
+ * deleted, when the server restarts.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class DataImporter extends BackgroundJobManager<ImportJob> {
+	/**
+	 * <p>
+	 * Reads and stores the data of an uploaded file.
+	 * </p>
+	 *
+	 * @author John Jenkins
+	 */
+	public static interface ImportHandler {
+		/**
+		 * Reads and stores the data.
+		 *
+		 * @param data
+		 *        The contents of the file.
+		 *
+		 * @throws OmhException
+		 *         The data could not be stored, which is reported to the user.
+		 */
+		public void handle(final InputStream data) throws OmhException;
+	}
+
+	/**
+	 * <p>
+	 * Records the progress of an import as its file is read.
+	 * </p>
+	 *
+	 * @author John Jenkins
+	 */
+	private static class ProgressInputStream extends FilterInputStream {
+		/**
+		 * The import whose file is read.
+		 */
+		private final ImportJob job;
+
+		/**
+		 * Creates a stream that records how much of the file has been read.
+		 *
+		 * @param in
+		 *        The contents of the file.
+		 *
+		 * @param job
+		 *        The import whose file is read.
+		 */
+		private ProgressInputStream(
+			final InputStream in,
+			final ImportJob job) {
+
+			super(in);
+
+			this.job = job;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.io.FilterInputStream#read()
+		 */
+		@Override
+		public int read() throws IOException {
+			int result = super.read();
+			if(result != -1) {
+				job.bytesRead(1);
+			}
+			return result;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.io.FilterInputStream#read(byte[], int, int)
+		 */
+		@Override
+		public int read(
+			final byte[] buffer,
+			final int offset,
+			final int length)
+			throws IOException {
+
+			int result = super.read(buffer, offset, length);
+			if(result > 0) {
+				job.bytesRead(result);
+			}
+			return result;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.io.FilterInputStream#skip(long)
+		 */
+		@Override
+		public long skip(final long n) throws IOException {
+			long result = super.skip(n);
+			job.bytesRead(result);
+			return result;
+		}
+
+		/**
+		 * Marking is not supported, so the progress never goes back.
+		 */
+		@Override
+		public boolean markSupported() {
+			return false;
+		}
+	}
+
+	/**
+	 * A {@link Logger} for this class.
+	 */
+	private static final Logger LOGGER =
+		Logger.getLogger(DataImporter.class.getName());
+
+	/**
+	 * The extension of a spooled file.
+	 */
+	private static final String FILE_EXTENSION = ".upload";
+
+	/**
+	 * The singular instance of this class.
+	 */
+	private static DataImporter instance;
+
+	/**
+	 * The number of imports that each user may have that have not finished.
+	 */
+	private final int maxPending;
+
+	/**
+	 * Creates the importer and deletes any files left over from a previous
+	 * run of the server.
+	 *
+	 * @param directory
+	 *        The directory where the uploaded files are spooled. It is created
+	 *        if it does not exist.
+	 *
+	 * @param ttl
+	 *        The number of milliseconds that a finished import is kept.
+	 *
+	 * @param maxPending
+	 *        The number of imports that each user may have that have not
+	 *        finished.
+	 *
+	 * @throws OmhException
+	 *         The directory could not be created or is not a directory.
+	 */
+	public DataImporter(
+		final File directory,
+		final long ttl,
+		final int maxPending)
+		throws OmhException {
+
+		super("import", "Data import", directory, ttl, FILE_EXTENSION);
+
+		this.maxPending = maxPending;
+
+		instance = this;
+	}
+
+	/**
+	 * Returns the singular instance of this class.
+	 *
+	 * @return The singular instance of this class or null if imports are not
+	 *         enabled.
+	 */
+	public static DataImporter getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Spools an uploaded file to disk and starts storing its data.
+	 *
+	 * @param owner
+	 *        The user who owns the data.
+	 *
+	 * @param schemaId
+	 *        The ID of the schema that validates the data.
+	 *
+	 * @param version
+	 *        The version of the schema that validates the data.
+	 *
+	 * @param file
+	 *        The uploaded file.
+	 *
+	 * @param handler
+	 *        The handler that reads and stores the file's data.
+	 *
+	 * @return The import.
+	 *
+	 * @throws ServerBusyException
+	 *         The owner already has the maximum number of imports that have
+	 *         not finished.
+	 *
+	 * @throws OmhException
+	 *         A parameter is null or the file could not be spooled.
+	 */
+	public ImportJob startImport(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final MultipartFile file,
+		final ImportHandler handler)
+		throws ServerBusyException, OmhException {
+
+		if(file == null) {
+			throw new OmhException("The file is null.");
+		}
+		if(handler == null) {
+			throw new OmhException("The handler is null.");
+		}
+
+		final ImportJob job =
+			new ImportJob(owner, schemaId, version, file.getSize());
+
+		// Count the owner's imports and track this one at once, so that
+		// concurrent uploads cannot both take the last place.
+		synchronized(this) {
+			int pending = 0;
+			for(ImportJob other : getJobs()) {
+				if(owner.equals(other.getOwner()) && (! other.isDone())) {
+					pending++;
+				}
+			}
+			if(pending >= maxPending) {
+				throw
+					new ServerBusyException(
+						"There are already " +
+							pending +
+							" imports of this user's data that have not " +
+							"finished.");
+			}
+
+			addJob(job);
+		}
+
+		// Spool the file outside of the lock, as it may be large. If it is
+		// already on disk, it is only moved.
+		final File spooled =
+			new File(getDirectory(), job.getId() + FILE_EXTENSION);
+		try {
+			file.transferTo(spooled);
+		}
+		catch(IOException e) {
+			delete(spooled);
+			synchronized(this) {
+				removeJob(job);
+			}
+			throw new OmhException("The file could not be saved.", e);
+		}
+
+		submit(
+			new Runnable() {
+				/**
+				 * Runs the import.
+				 */
+				@Override
+				public void run() {
+					importData(job, spooled, handler);
+				}
+			});
+		return job;
+	}
+
+	/**
+	 * Returns an import.
+	 *
+	 * @param id
+	 *        The import's unique identifier.
+	 *
+	 * @return The import or null if it is unknown or has expired.
+	 */
+	public ImportJob getImport(final String id) {
+		return getJob(id);
+	}
+
+	/**
+	 * Stores the data of a spooled file and then deletes the file.
+	 *
+	 * @param job
+	 *        The import.
+	 *
+	 * @param file
+	 *        The spooled file.
+	 *
+	 * @param handler
+	 *        The handler that reads and stores the file's data.
+	 */
+	private void importData(
+		final ImportJob job,
+		final File file,
+		final ImportHandler handler) {
+
+		try {
+			job.start();
+
+			InputStream in =
+				new ProgressInputStream(
+					new BufferedInputStream(new FileInputStream(file)),
+					job);
+			try {
+				handler.handle(in);
+			}
+			finally {
+				in.close();
+			}
+
+			job.complete();
+		}
+		catch(OmhException e) {
+			LOGGER
+				.log(
+					Level.INFO,
+					"The import failed: " + job.getId(),
+					e);
+			job.fail(e.getMessage());
+		}
+		catch(IOException | RuntimeException e) {
+			LOGGER
+				.log(
+					Level.WARNING,
+					"The import failed: " + job.getId(),
+					e);
+			job.fail("The data could not be imported.");
+		}
+		finally {
+			delete(file);
+		}
+	}
+}
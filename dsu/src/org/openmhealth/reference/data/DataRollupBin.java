@@ -0,0 +1,788 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.joda.time.DateTime;
+import org.openmhealth.reference.domain.ColumnList;
+import org.openmhealth.reference.domain.Data;
+import org.openmhealth.reference.domain.DataSummary;
+import org.openmhealth.reference.domain.MetaData;
+import org.openmhealth.reference.domain.RawJsonNode;
+import org.openmhealth.reference.exception.OmhException;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * <p>
+ * The collection of rollups, which are {@link DataSummary} objects that are
+ * computed ahead of time for each user and interval. Which fields are rolled
+ * up, and over which intervals, is configured with the
+ * {@link #PROPERTY_KEY_ROLLUPS} property.
+ * </p>
+ *
+ * <p>
+ * The rollups are updated whenever data is stored. When a rollup is first
+ * configured, the newest point that was already stored is recorded, and the
+ * points up to and including it are added to the rollup in the background,
+ * one user at a time. Points stored after it are only added as they are
+ * stored, so each point is counted once. Until the build finishes, the rollup
+ * may be incomplete. If the server stops first, the build resumes with the
+ * next user when it restarts.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public abstract class DataRollupBin {
+	/**
+	 * <p>
+	 * A field of a schema ID-version pair's data that is rolled up over an
+	 * interval.
+	 * </p>
+	 *
+	 * <p>
+	 * This class is immutable.
+	 * </p>
+	 *
+	 * @author John Jenkins
+	 */
+	public static class Definition {
+		/**
+		 * The schema ID of the data.
+		 */
+		private final String schemaId;
+		/**
+		 * The schema version of the data.
+		 */
+		private final long version;
+		/**
+		 * The path to the field within the data.
+		 */
+		private final String field;
+		/**
+		 * The interval covered by each rollup.
+		 */
+		private final DataSummary.Interval interval;
+
+		/**
+		 * Creates a new definition.
+		 *
+		 * @param schemaId
+		 *        The schema ID of the data.
+		 *
+		 * @param version
+		 *        The schema version of the data.
+		 *
+		 * @param field
+		 *        The {@link ColumnList#COLUMN_SEPARATOR}-separated path to the
+		 *        field within the data.
+		 *
+		 * @param interval
+		 *        The interval covered by each rollup.
+		 *
+		 * @throws OmhException
+		 *         A parameter is null.
+		 */
+		public Definition(
+			final String schemaId,
+			final long version,
+			final String field,
+			final DataSummary.Interval interval)
+			throws OmhException {
+
+			if(schemaId == null) {
+				throw new OmhException("The schema ID is null.");
+			}
+			if(field == null) {
+				throw new OmhException("The field is null.");
+			}
+			if(interval == null) {
+				throw new OmhException("The interval is null.");
+			}
+
+			this.schemaId = schemaId;
+			this.version = version;
+			this.field = field;
+			this.interval = interval;
+		}
+
+		/**
+		 * Returns the schema ID of the data.
+		 *
+		 * @return The schema ID of the data.
+		 */
+		public String getSchemaId() {
+			return schemaId;
+		}
+
+		/**
+		 * Returns the schema version of the data.
+		 *
+		 * @return The schema version of the data.
+		 */
+		public long getVersion() {
+			return version;
+		}
+
+		/**
+		 * Returns the path to the field within the data.
+		 *
+		 * @return The path to the field within the data.
+		 */
+		public String getField() {
+			return field;
+		}
+
+		/**
+		 * Returns the interval covered by each rollup.
+		 *
+		 * @return The interval covered by each rollup.
+		 */
+		public DataSummary.Interval getInterval() {
+			return interval;
+		}
+
+		/**
+		 * Returns whether or not this definition applies to the given data.
+		 *
+		 * @param point
+		 *        The data.
+		 *
+		 * @return True if this definition applies to the data; false,
+		 *         otherwise.
+		 */
+		public boolean appliesTo(final Data point) {
+			return
+				schemaId.equals(point.getSchemaId()) &&
+				(version == point.getSchemaVersion());
+		}
+
+		/**
+		 * Returns this definition as it would appear in the
+		 * {@link DataRollupBin#PROPERTY_KEY_ROLLUPS} property.
+		 */
+		@Override
+		public String toString() {
+			return schemaId + " " + version + " " + field + " " + interval;
+		}
+	}
+
+	/**
+	 * <p>
+	 * The progress of building a rollup from the data that was stored before
+	 * it was configured.
+	 * </p>
+	 *
+	 * <p>
+	 * This class is immutable.
+	 * </p>
+	 *
+	 * @author John Jenkins
+	 */
+	public static class Build {
+		/**
+		 * The database ID of the newest point that was stored before the
+		 * rollup was configured or null if there was none.
+		 */
+		private final String lastDatabaseId;
+		/**
+		 * The username of the last user whose data was added or null if none
+		 * has been.
+		 */
+		private final String lastOwner;
+		/**
+		 * Whether or not the build has finished.
+		 */
+		private final boolean complete;
+
+		/**
+		 * Creates the progress of a build.
+		 *
+		 * @param lastDatabaseId
+		 *        The database ID of the newest point that was stored before
+		 *        the rollup was configured or null if there was none.
+		 *
+		 * @param lastOwner
+		 *        The username of the last user whose data was added or null if
+		 *        none has been.
+		 *
+		 * @param complete
+		 *        Whether or not the build has finished.
+		 */
+		public Build(
+			final String lastDatabaseId,
+			final String lastOwner,
+			final boolean complete) {
+
+			this.lastDatabaseId = lastDatabaseId;
+			this.lastOwner = lastOwner;
+			this.complete = complete;
+		}
+
+		/**
+		 * Returns the database ID of the newest point that was stored before
+		 * the rollup was configured.
+		 *
+		 * @return The database ID of the newest point that was stored before
+		 *         the rollup was configured or null if there was none.
+		 */
+		public String getLastDatabaseId() {
+			return lastDatabaseId;
+		}
+
+		/**
+		 * Returns the username of the last user whose data was added.
+		 *
+		 * @return The username of the last user whose data was added or null
+		 *         if none has been.
+		 */
+		public String getLastOwner() {
+			return lastOwner;
+		}
+
+		/**
+		 * Returns whether or not the build has finished.
+		 *
+		 * @return Whether or not the build has finished.
+		 */
+		public boolean isComplete() {
+			return complete;
+		}
+	}
+
+	/**
+	 * The name of the DB document/table/whatever that contains the rollups.
+	 */
+	public static final String DB_NAME = "data_rollup";
+	/**
+	 * The name of the DB document/table/whatever that contains the progress
+	 * of building each rollup.
+	 */
+	public static final String DB_NAME_BUILD = "data_rollup_build";
+
+	/**
+	 * The property that configures the rollups. It is a comma-separated list
+	 * of definitions, each of which is a schema ID, a version, a field, and
+	 * an interval separated by whitespace, e.g.
+	 * "omh:example:steps 1 steps day, omh:example:steps 1 steps week".
+	 */
+	public static final String PROPERTY_KEY_ROLLUPS = "db.rollups";
+
+	/**
+	 * The name of the field/column that contains a rollup's field.
+	 */
+	public static final String KEY_FIELD = "field";
+	/**
+	 * The name of the field/column that contains a rollup's interval.
+	 */
+	public static final String KEY_INTERVAL = "bucket_size";
+	/**
+	 * The name of the field/column that contains the start of a rollup's
+	 * interval as milliseconds since the epoch.
+	 */
+	public static final String KEY_START = "bucket_start";
+	/**
+	 * The name of the field/column that contains a rollup's number of values.
+	 */
+	public static final String KEY_COUNT = "point_count";
+	/**
+	 * The name of the field/column that contains a rollup's smallest value.
+	 */
+	public static final String KEY_MIN = "min_value";
+	/**
+	 * The name of the field/column that contains a rollup's largest value.
+	 */
+	public static final String KEY_MAX = "max_value";
+	/**
+	 * The name of the field/column that contains a rollup's sum.
+	 */
+	public static final String KEY_SUM = "sum_value";
+	/**
+	 * The name of the field/column that contains the database ID of the
+	 * newest point that is added by a rollup's build.
+	 */
+	public static final String KEY_LAST_DATABASE_ID = "last_data_id";
+	/**
+	 * The name of the field/column that contains the username of the last
+	 * user whose data was added by a rollup's build.
+	 */
+	public static final String KEY_LAST_OWNER = "last_owner";
+	/**
+	 * The name of the field/column that contains whether or not a rollup's
+	 * build has finished.
+	 */
+	public static final String KEY_COMPLETE = "complete";
+
+	/**
+	 * The logger for this class.
+	 */
+	private static final Logger LOGGER =
+		Logger.getLogger(DataRollupBin.class.getName());
+
+	/**
+	 * The instance of this DataRollupBin to use.
+	 */
+	private static DataRollupBin instance;
+
+	/**
+	 * The configured rollups.
+	 */
+	private final List<Definition> definitions;
+
+	/**
+	 * Creates the bin and reads the rollup definitions.
+	 *
+	 * @param properties
+	 *        The properties, which may contain the
+	 *        {@link #PROPERTY_KEY_ROLLUPS} property.
+	 *
+	 * @throws OmhException
+	 *         The rollup definitions are invalid.
+	 */
+	protected DataRollupBin(final Properties properties) throws OmhException {
+		definitions =
+			Collections
+				.unmodifiableList(
+					parseDefinitions(
+						(properties == null) ?
+							null :
+							properties.getProperty(PROPERTY_KEY_ROLLUPS)));
+
+		instance = this;
+	}
+
+	/**
+	 * Returns the singular instance of this class.
+	 *
+	 * @return The singular instance of this class.
+	 */
+	public static DataRollupBin getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Returns the configured rollups.
+	 *
+	 * @return The configured rollups.
+	 */
+	public List<Definition> getDefinitions() {
+		return definitions;
+	}
+
+	/**
+	 * Returns the configured rollup for a field and interval.
+	 *
+	 * @param schemaId
+	 *        The schema ID of the data.
+	 *
+	 * @param version
+	 *        The schema version of the data.
+	 *
+	 * @param field
+	 *        The path to the field within the data.
+	 *
+	 * @param interval
+	 *        The interval covered by each rollup.
+	 *
+	 * @return The rollup's definition or null if it is not configured.
+	 */
+	public Definition getDefinition(
+		final String schemaId,
+		final long version,
+		final String field,
+		final DataSummary.Interval interval) {
+
+		for(Definition definition : definitions) {
+			if(
+				definition.schemaId.equals(schemaId) &&
+				(definition.version == version) &&
+				definition.field.equals(field) &&
+				definition.interval.equals(interval)) {
+
+				return definition;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Adds data that was just stored to its rollups. This should be called
+	 * by the {@link DataSet} whenever it stores data.
+	 *
+	 * @param data
+	 *        The data that was stored.
+	 *
+	 * @throws OmhException
+	 *         The rollups could not be updated.
+	 */
+	public void updateRollups(final List<Data> data) throws OmhException {
+		for(Definition definition : definitions) {
+			// Summarize the data for each owner.
+			Map<String, DataSet.Summarizer> summarizers =
+				new LinkedHashMap<String, DataSet.Summarizer>();
+			for(Data point : data) {
+				if(! definition.appliesTo(point)) {
+					continue;
+				}
+
+				// Points without a timestamp or a numeric value are not
+				// rolled up.
+				MetaData metaData = point.getMetaData();
+				if((metaData == null) || (metaData.getTimestamp() == null)) {
+					continue;
+				}
+				JsonNode value = getField(point.getData(), definition.field);
+				if((value == null) || (! value.isNumber())) {
+					continue;
+				}
+
+				DataSet.Summarizer summarizer =
+					summarizers.get(point.getOwner());
+				if(summarizer == null) {
+					summarizer = new DataSet.Summarizer(definition.interval);
+					summarizers.put(point.getOwner(), summarizer);
+				}
+				summarizer.add(metaData.getTimestamp(), value.doubleValue());
+			}
+
+			// Add each summary to its rollup.
+			for(String owner : summarizers.keySet()) {
+				for(DataSummary summary : summarizers.get(owner).build()) {
+					addToRollup(owner, definition, summary);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Records the newest stored point for each newly configured rollup and
+	 * then starts a background thread that builds each rollup that has not
+	 * finished building. This should be called by the DAO once the
+	 * {@link DataSet} is available and before any data is stored.
+	 *
+	 * @throws OmhException
+	 *         The progress of the builds could not be read or recorded.
+	 */
+	public void startBuilding() throws OmhException {
+		// Record where each build stops before any data is stored, so every
+		// point is either built or added as it is stored.
+		final Map<Definition, Build> builds =
+			new LinkedHashMap<Definition, Build>();
+		for(Definition definition : definitions) {
+			Build build = getBuild(definition);
+			if(! build.isComplete()) {
+				builds.put(definition, build);
+			}
+		}
+		if(builds.isEmpty()) {
+			return;
+		}
+
+		Thread thread =
+			new Thread(
+				new Runnable() {
+					/**
+					 * Builds each rollup that has not been built.
+					 */
+					@Override
+					public void run() {
+						buildRollups(builds);
+					}
+				},
+				"Data rollups");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Returns the rollups for a user whose intervals overlap a time window,
+	 * oldest first. The rollups always cover whole intervals, so the first
+	 * and last may include points just outside of the window.
+	 *
+	 * @param owner
+	 *        The username of the user that owns the data.
+	 *
+	 * @param definition
+	 *        The rollup's definition.
+	 *
+	 * @param startDate
+	 *        The start of the window or null.
+	 *
+	 * @param endDate
+	 *        The end of the window or null.
+	 *
+	 * @return The rollups, which are only present for intervals with at least
+	 *         one value.
+	 *
+	 * @throws OmhException
+	 *         The rollups could not be read.
+	 */
+	public abstract List<DataSummary> getRollups(
+		final String owner,
+		final Definition definition,
+		final DateTime startDate,
+		final DateTime endDate)
+		throws OmhException;
+
+	/**
+	 * Adds a summary of new data to a rollup, creating the rollup if it does
+	 * not yet exist.
+	 *
+	 * @param owner
+	 *        The username of the user that owns the data.
+	 *
+	 * @param definition
+	 *        The rollup's definition.
+	 *
+	 * @param summary
+	 *        The summary of the new data for one interval.
+	 *
+	 * @throws OmhException
+	 *         The rollup could not be updated.
+	 */
+	protected abstract void addToRollup(
+		final String owner,
+		final Definition definition,
+		final DataSummary summary)
+		throws OmhException;
+
+	/**
+	 * Returns the progress of a rollup's build. If the rollup was not
+	 * configured before, this first records the database ID of the newest
+	 * point that is stored and removes any rollups for the definition that
+	 * were left over from before builds were recorded.
+	 *
+	 * @param definition
+	 *        The rollup's definition.
+	 *
+	 * @return The progress of the rollup's build.
+	 *
+	 * @throws OmhException
+	 *         The progress could not be read or recorded.
+	 */
+	protected abstract Build getBuild(
+		final Definition definition)
+		throws OmhException;
+
+	/**
+	 * Adds the summaries of a user's data that was stored before a rollup was
+	 * configured to the rollup and records that the user's data has been
+	 * added, together if the database allows it.
+	 *
+	 * @param owner
+	 *        The username of the user that owns the data.
+	 *
+	 * @param definition
+	 *        The rollup's definition.
+	 *
+	 * @param summaries
+	 *        The summaries of the user's data for each interval.
+	 *
+	 * @throws OmhException
+	 *         The rollups or the progress could not be updated.
+	 */
+	protected abstract void addBuiltRollups(
+		final String owner,
+		final Definition definition,
+		final List<DataSummary> summaries)
+		throws OmhException;
+
+	/**
+	 * Records that a rollup's build has finished.
+	 *
+	 * @param definition
+	 *        The rollup's definition.
+	 *
+	 * @throws OmhException
+	 *         The progress could not be recorded.
+	 */
+	protected abstract void completeBuild(
+		final Definition definition)
+		throws OmhException;
+
+	/**
+	 * Returns the usernames of the users that have data for a schema
+	 * ID-version pair.
+	 *
+	 * @param schemaId
+	 *        The schema ID of the data.
+	 *
+	 * @param version
+	 *        The schema version of the data.
+	 *
+	 * @return The usernames.
+	 *
+	 * @throws OmhException
+	 *         The users could not be read.
+	 */
+	protected abstract List<String> getOwners(
+		final String schemaId,
+		final long version)
+		throws OmhException;
+
+	/**
+	 * Builds each rollup by adding the summary of each user's data up to the
+	 * newest point that was stored before the rollup was configured. The
+	 * users are built in order of their usernames, so a build that was
+	 * interrupted resumes after the last user it finished.
+	 *
+	 * @param builds
+	 *        The progress of each rollup that has not finished building.
+	 */
+	private void buildRollups(final Map<Definition, Build> builds) {
+		for(Definition definition : builds.keySet()) {
+			Build build = builds.get(definition);
+			try {
+				LOGGER.info("Building the data rollup: " + definition);
+				
+				// If no data was stored before the rollup was configured,
+				// there is nothing to add.
+				if(build.lastDatabaseId != null) {
+					List<String> owners =
+						getOwners(definition.schemaId, definition.version);
+					Collections.sort(owners);
+					for(String owner : owners) {
+						if(
+							(build.lastOwner != null) &&
+							(owner.compareTo(build.lastOwner) <= 0)) {
+
+							continue;
+						}
+
+						addBuiltRollups(
+							owner,
+							definition,
+							DataSet
+								.getInstance()
+								.summarizeData(
+									owner,
+									definition.schemaId,
+									definition.version,
+									null,
+									null,
+									definition.field,
+									definition.interval,
+									build.lastDatabaseId));
+					}
+				}
+
+				completeBuild(definition);
+				LOGGER.info("Built the data rollup: " + definition);
+			}
+			catch(RuntimeException e) {
+				LOGGER
+					.log(
+						Level.SEVERE,
+						"The data rollup could not be built: " + definition,
+						e);
+			}
+		}
+	}
+
+	/**
+	 * Parses the rollup definitions from the {@link #PROPERTY_KEY_ROLLUPS}
+	 * property.
+	 *
+	 * @param property
+	 *        The property's value or null if it was not given.
+	 *
+	 * @return The definitions.
+	 *
+	 * @throws OmhException
+	 *         A definition is invalid.
+	 */
+	private static List<Definition> parseDefinitions(
+		final String property)
+		throws OmhException {
+
+		List<Definition> result = new ArrayList<Definition>();
+		if(property == null) {
+			return result;
+		}
+
+		for(String definition : property.split(",")) {
+			if(definition.trim().length() == 0) {
+				continue;
+			}
+
+			String[] parts = definition.trim().split("\\s+");
+			if(parts.length != 4) {
+				throw
+					new OmhException(
+						"A rollup definition must have a schema ID, a " +
+							"version, a field, and an interval: " +
+							definition);
+			}
+
+			long version;
+			try {
+				version = Long.decode(parts[1]);
+			}
+			catch(NumberFormatException e) {
+				throw
+					new OmhException(
+						"A rollup definition's version is not a number: " +
+							definition,
+						e);
+			}
+
+			result
+				.add(
+					new Definition(
+						parts[0],
+						version,
+						parts[2],
+						DataSummary.Interval.decode(parts[3])));
+		}
+
+		return result;
+	}
+
+	/**
+	 * Retrieves a possibly nested field from a point's data.
+	 *
+	 * @param data
+	 *        The point's data.
+	 *
+	 * @param field
+	 *        The {@link ColumnList#COLUMN_SEPARATOR}-separated path to the
+	 *        field.
+	 *
+	 * @return The field's value or null if it does not exist.
+	 */
+	private static JsonNode getField(final JsonNode data, final String field) {
+		JsonNode result =
+			(data instanceof RawJsonNode) ?
+				((RawJsonNode) data).toTree() :
+				data;
+		for(String part : field.split("\\" + ColumnList.COLUMN_SEPARATOR)) {
+			if((result == null) || (! result.isObject())) {
+				return null;
+			}
+			result = result.get(part);
+		}
+		return result;
+	}
+}
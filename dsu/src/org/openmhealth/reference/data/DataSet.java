@@ -15,12 +15,22 @@
  ******************************************************************************/
 package org.openmhealth.reference.data;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 import org.joda.time.DateTime;
 import org.openmhealth.reference.domain.ColumnList;
+import org.openmhealth.reference.domain.ContinuationToken;
 import org.openmhealth.reference.domain.Data;
+import org.openmhealth.reference.domain.DataSummary;
 import org.openmhealth.reference.domain.MultiValueResult;
+import org.openmhealth.reference.exception.OmhException;
 
 /**
  * <p>
@@ -30,6 +40,213 @@ import org.openmhealth.reference.domain.MultiValueResult;
  * @author John Jenkins
  */
 public abstract class DataSet {
+	/**
+	 * <p>
+	 * A callback that receives data points one at a time as they are read
+	 * from the database.
+	 * </p>
+	 *
+	 * @author John Jenkins
+	 */
+	public static interface DataHandler {
+		/**
+		 * Handles a single data point.
+		 * 
+		 * @param data
+		 *        The data point that was just read.
+		 * 
+		 * @throws IOException
+		 *         There was a problem handling the point, e.g. writing it to
+		 *         the client.
+		 */
+		public void handle(final Data data) throws IOException;
+	}
+	
+	/**
+	 * <p>
+	 * A list of data whose total count is only computed, once, when it is
+	 * first requested, so readers that do not need it do not pay for it.
+	 * </p>
+	 *
+	 * @author John Jenkins
+	 */
+	protected class LazyCountResult implements MultiValueResult<Data> {
+		/**
+		 * The list of results.
+		 */
+		private final List<Data> list;
+		/**
+		 * The owner of the data that was read.
+		 */
+		private final String owner;
+		/**
+		 * The schema ID of the data that was read.
+		 */
+		private final String schemaId;
+		/**
+		 * The schema version of the data that was read.
+		 */
+		private final long version;
+		/**
+		 * The earliest point that could have been read or null.
+		 */
+		private final DateTime startDate;
+		/**
+		 * The latest point that could have been read or null.
+		 */
+		private final DateTime endDate;
+		/**
+		 * The total number of results before paging or null if it has not
+		 * yet been computed.
+		 */
+		private Integer count = null;
+		
+		/**
+		 * Creates a new result from the list of data that was read and the
+		 * parameters needed to count all of the matching data.
+		 * 
+		 * @param list
+		 *        The list of data that was read.
+		 * 
+		 * @param owner
+		 *        The owner of the data that was read.
+		 * 
+		 * @param schemaId
+		 *        The schema ID of the data that was read.
+		 * 
+		 * @param version
+		 *        The schema version of the data that was read.
+		 * 
+		 * @param startDate
+		 *        The earliest point that could have been read or null.
+		 * 
+		 * @param endDate
+		 *        The latest point that could have been read or null.
+		 */
+		public LazyCountResult(
+			final List<Data> list,
+			final String owner,
+			final String schemaId,
+			final long version,
+			final DateTime startDate,
+			final DateTime endDate) {
+			
+			this.list = list;
+			this.owner = owner;
+			this.schemaId = schemaId;
+			this.version = version;
+			this.startDate = startDate;
+			this.endDate = endDate;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Iterable#iterator()
+		 */
+		@Override
+		public Iterator<Data> iterator() {
+			return list.iterator();
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see org.openmhealth.reference.domain.MultiValueResult#count()
+		 */
+		@Override
+		public int count() {
+			if(count == null) {
+				count =
+					countData(owner, schemaId, version, startDate, endDate);
+			}
+			return count;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see org.openmhealth.reference.domain.MultiValueResult#size()
+		 */
+		@Override
+		public int size() {
+			return list.size();
+		}
+	}
+	
+	/**
+	 * <p>
+	 * Accumulates the values of a field into {@link DataSummary} objects, one
+	 * per interval.
+	 * </p>
+	 *
+	 * @author John Jenkins
+	 */
+	protected static class Summarizer {
+		/**
+		 * The interval covered by each summary.
+		 */
+		private final DataSummary.Interval interval;
+		/**
+		 * The summaries being built, keyed and ordered by their interval's
+		 * start.
+		 */
+		private final SortedMap<DateTime, DataSummary.Builder> builders =
+			new TreeMap<DateTime, DataSummary.Builder>();
+		
+		/**
+		 * Creates a new summarizer.
+		 * 
+		 * @param interval
+		 *        The interval covered by each summary.
+		 * 
+		 * @throws OmhException
+		 *         The interval is null.
+		 */
+		public Summarizer(
+			final DataSummary.Interval interval)
+			throws OmhException {
+			
+			if(interval == null) {
+				throw new OmhException("The interval is null.");
+			}
+			
+			this.interval = interval;
+		}
+		
+		/**
+		 * Adds a point's value to the summary for its interval.
+		 * 
+		 * @param timestamp
+		 *        The point's timestamp.
+		 * 
+		 * @param value
+		 *        The point's value.
+		 */
+		public void add(final DateTime timestamp, final double value) {
+			DateTime start = interval.getStart(timestamp);
+			
+			DataSummary.Builder builder = builders.get(start);
+			if(builder == null) {
+				builder = new DataSummary.Builder(start);
+				builders.put(start, builder);
+			}
+			
+			builder.add(value);
+		}
+		
+		/**
+		 * Builds the summaries.
+		 * 
+		 * @return The summaries, oldest first.
+		 */
+		public List<DataSummary> build() {
+			List<DataSummary> result =
+				new ArrayList<DataSummary>(builders.size());
+			for(DataSummary.Builder builder : builders.values()) {
+				result.add(builder.build());
+			}
+			return result;
+		}
+	}
+	
 	/**
 	 * The name of the DB document/table/whatever that contains the data.
 	 */
@@ -92,6 +309,13 @@ public abstract class DataSet {
 	 *        both meta-data and data columns. This is optional, and null
 	 *        indicates that all data should be returned.
 	 * 
+	 * @param continuationToken
+	 *        The point from which to continue reading. If given, only points
+	 *        after it, if it continues forward, or before it, if it continues
+	 *        backward, are returned. Either way, the points are returned in
+	 *        the usual, newest-first order. This is optional, and null
+	 *        indicates that the data should be read from the beginning.
+	 * 
 	 * @param numToSkip
 	 *        The number of data points to skip.
 	 * 
@@ -108,6 +332,208 @@ public abstract class DataSet {
 		final DateTime startDate,
 		final DateTime endDate,
 		final ColumnList columnList,
+		final ContinuationToken continuationToken,
 		final long numToSkip,
 		final long numToReturn);
-}
\ No newline at end of file
+
+	/**
+	 * Retrieves some data based on the parameters and hands each point to the
+	 * handler as it is read instead of collecting them. The parameters are
+	 * the same as {@link #getData(String, String, long, DateTime, DateTime,
+	 * ColumnList, ContinuationToken, long, long)} except that continuation
+	 * tokens are not supported.
+	 * 
+	 * @param owner
+	 *        The unique identifier of the user whose data is requested. This
+	 *        parameter is required.
+	 * 
+	 * @param schemaId
+	 *        The unique identifier for the schema for the requested data. This
+	 *        parameter is required.
+	 * 
+	 * @param version
+	 *        The version of the schema for the requested data. This parameter
+	 *        is required.
+	 * 
+	 * @param startDate
+	 *        The earliest point that should be returned.
+	 * 
+	 * @param endDate
+	 *        The latest point that should be returned.
+	 * 
+	 * @param columnList
+	 *        The list of columns within the data to return. This can include
+	 *        both meta-data and data columns. This is optional, and null
+	 *        indicates that all data should be returned.
+	 * 
+	 * @param numToSkip
+	 *        The number of data points to skip.
+	 * 
+	 * @param numToReturn
+	 *        The number of data points to return.
+	 * 
+	 * @param handler
+	 *        The handler that will receive each point in order.
+	 * 
+	 * @throws IOException
+	 *         The handler failed to handle a point.
+	 */
+	public abstract void streamData(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final DateTime startDate,
+		final DateTime endDate,
+		final ColumnList columnList,
+		final long numToSkip,
+		final long numToReturn,
+		final DataHandler handler)
+		throws IOException;
+	
+	/**
+	 * Returns the number of points that match the parameters before any
+	 * paging is applied.
+	 * 
+	 * @param owner
+	 *        The unique identifier of the user whose data is requested. This
+	 *        parameter is required.
+	 * 
+	 * @param schemaId
+	 *        The unique identifier for the schema for the requested data. This
+	 *        parameter is required.
+	 * 
+	 * @param version
+	 *        The version of the schema for the requested data. This parameter
+	 *        is required.
+	 * 
+	 * @param startDate
+	 *        The earliest point that should be counted.
+	 * 
+	 * @param endDate
+	 *        The latest point that should be counted.
+	 * 
+	 * @return The number of matching points.
+	 */
+	public abstract int countData(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final DateTime startDate,
+		final DateTime endDate);
+	
+	/**
+	 * Summarizes a numeric field of the data over each interval, e.g. each
+	 * day. Points without a timestamp and points whose field is missing or
+	 * not a number are ignored.
+	 * 
+	 * @param owner
+	 *        The unique identifier of the user whose data is requested. This
+	 *        parameter is required.
+	 * 
+	 * @param schemaId
+	 *        The unique identifier for the schema for the requested data. This
+	 *        parameter is required.
+	 * 
+	 * @param version
+	 *        The version of the schema for the requested data. This parameter
+	 *        is required.
+	 * 
+	 * @param startDate
+	 *        The earliest point that should be summarized.
+	 * 
+	 * @param endDate
+	 *        The latest point that should be summarized.
+	 * 
+	 * @param field
+	 *        The {@link ColumnList#COLUMN_SEPARATOR}-separated path to the
+	 *        field within the data that should be summarized. This parameter
+	 *        is required.
+	 * 
+	 * @param interval
+	 *        The interval covered by each summary. This parameter is
+	 *        required.
+	 * 
+	 * @param lastDatabaseId
+	 *        The database ID of the newest point, by when it was stored, that
+	 *        should be summarized or null to summarize every point.
+	 * 
+	 * @return The summaries of the intervals that have at least one value,
+	 *         oldest first.
+	 */
+	public abstract List<DataSummary> summarizeData(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final DateTime startDate,
+		final DateTime endDate,
+		final String field,
+		final DataSummary.Interval interval,
+		final String lastDatabaseId);
+	
+	/**
+	 * Returns the database ID of a point that was read from this data set,
+	 * which is used to build {@link ContinuationToken}s.
+	 * 
+	 * @param data
+	 *        A point that was returned by this data set.
+	 * 
+	 * @return The point's database ID.
+	 * 
+	 * @throws OmhException
+	 *         The point was not read from this data set.
+	 */
+	public abstract String getDatabaseId(
+		final Data data)
+		throws OmhException;
+	
+	/**
+	 * Increments the {@link DataCountBin} counters for data that was just
+	 * stored, once per user and schema ID-version pair.
+	 * 
+	 * @param data
+	 *        The data that was stored.
+	 */
+	protected static void incrementCounts(final List<Data> data) {
+		// Total the points for each owner, schema ID, and version.
+		Map<String, Map<String, Map<Long, Long>>> counts =
+			new LinkedHashMap<String, Map<String, Map<Long, Long>>>();
+		for(Data point : data) {
+			Map<String, Map<Long, Long>> ownerCounts =
+				counts.get(point.getOwner());
+			if(ownerCounts == null) {
+				ownerCounts = new LinkedHashMap<String, Map<Long, Long>>();
+				counts.put(point.getOwner(), ownerCounts);
+			}
+			
+			Map<Long, Long> schemaCounts =
+				ownerCounts.get(point.getSchemaId());
+			if(schemaCounts == null) {
+				schemaCounts = new LinkedHashMap<Long, Long>();
+				ownerCounts.put(point.getSchemaId(), schemaCounts);
+			}
+			
+			Long count = schemaCounts.get(point.getSchemaVersion());
+			schemaCounts
+				.put(
+					point.getSchemaVersion(),
+					(count == null) ? 1L : count + 1);
+		}
+		
+		// Update each counter.
+		DataCountBin dataCountBin = DataCountBin.getInstance();
+		for(String owner : counts.keySet()) {
+			Map<String, Map<Long, Long>> ownerCounts = counts.get(owner);
+			for(String schemaId : ownerCounts.keySet()) {
+				Map<Long, Long> schemaCounts = ownerCounts.get(schemaId);
+				for(Long version : schemaCounts.keySet()) {
+					dataCountBin
+						.incrementCount(
+							owner,
+							schemaId,
+							version,
+							schemaCounts.get(version));
+				}
+			}
+		}
+	}
+}
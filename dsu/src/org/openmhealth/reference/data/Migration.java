@@ -0,0 +1,58 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.data;
+
+import org.openmhealth.reference.exception.OmhException;
+
+/**
+ * <p>
+ * A versioned change to the database, e.g. building a new index, that is
+ * applied once when the {@link Dao} starts. Migrations are applied in order
+ * of their versions, and each version is recorded once it has been applied.
+ * </p>
+ *
+ * <p>
+ * Migrations run in the background while the server handles requests, so
+ * they must not be required for correctness, and they must be safe to apply
+ * again in case another server applied them at the same time.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public interface Migration {
+	/**
+	 * Returns the version of this migration, which must be unique for its
+	 * {@link Dao}.
+	 *
+	 * @return The version of this migration.
+	 */
+	public long getVersion();
+
+	/**
+	 * Returns a human-readable description of this migration.
+	 *
+	 * @return A human-readable description of this migration.
+	 */
+	public String getDescription();
+
+	/**
+	 * Applies this migration.
+	 *
+	 * @throws OmhException
+	 *         The migration could not be applied.
+	 */
+	public void apply() throws OmhException;
+}
@@ -128,4 +128,17 @@ public abstract class Registry {
 		final Long schemaVersion,
 		final long numToSkip,
 		final long numToReturn);
+	
+	/**
+	 * Returns a revision of the registry, which changes whenever a schema is
+	 * added to or removed from the registry. This should be much cheaper
+	 * than reading the schemas, so that caches may check it often. By
+	 * default, the revision is unknown.
+	 * 
+	 * @return The revision of the registry or null if it is unknown, in which
+	 *         case the registry must be assumed to have changed.
+	 */
+	public String getRevision() {
+		return null;
+	}
 }
\ No newline at end of file
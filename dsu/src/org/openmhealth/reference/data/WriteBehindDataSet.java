@@ -0,0 +1,570 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.data;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.joda.time.DateTime;
+import org.openmhealth.reference.domain.ColumnList;
+import org.openmhealth.reference.domain.ContinuationToken;
+import org.openmhealth.reference.domain.Data;
+import org.openmhealth.reference.domain.DataSummary;
+import org.openmhealth.reference.domain.MultiValueResult;
+import org.openmhealth.reference.exception.OmhException;
+import org.openmhealth.reference.exception.PartialWriteException;
+
+/**
+ * <p>
+ * A {@link DataSet} that merges the data stored by concurrent requests into
+ * larger batches in front of another data set. Everything else is passed
+ * through.
+ * </p>
+ *
+ * <p>
+ * A single thread stores the batches. A batch is stored once it holds the
+ * maximum number of points or once its first request has waited for the
+ * maximum delay, whichever comes first. Each call to {@link #storeData(List)}
+ * still only returns once its own points have been stored, so a request is
+ * never acknowledged before its data is durable.
+ * </p>
+ *
+ * <p>
+ * The number of points waiting to be stored is bounded. Once it is reached,
+ * further requests block until there is room, which pushes back on the
+ * uploaders rather than on memory.
+ * </p>
+ *
+ * <p>
+ * A batch is stored as one call to the other data set, so if it fails, every
+ * request in it fails with the same error.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class WriteBehindDataSet extends DataSet {
+	/**
+	 * <p>
+	 * The points of a single request that are waiting to be stored and the
+	 * outcome once they have been.
+	 * </p>
+	 *
+	 * @author John Jenkins
+	 */
+	private static class Pending {
+		/**
+		 * The points.
+		 */
+		private final List<Data> data;
+		/**
+		 * The number of permits this request holds against the capacity.
+		 */
+		private final int permits;
+		/**
+		 * Released once the points have been stored or have failed.
+		 */
+		private final CountDownLatch done = new CountDownLatch(1);
+		/**
+		 * The reason the points could not be stored or null if they were.
+		 */
+		private volatile RuntimeException failure = null;
+
+		/**
+		 * Creates a request that is waiting to be stored.
+		 *
+		 * @param data
+		 *        The points.
+		 *
+		 * @param permits
+		 *        The number of permits this request holds against the
+		 *        capacity.
+		 */
+		private Pending(final List<Data> data, final int permits) {
+			this.data = data;
+			this.permits = permits;
+		}
+	}
+
+	/**
+	 * A {@link Logger} for this class.
+	 */
+	private static final Logger LOGGER =
+		Logger.getLogger(WriteBehindDataSet.class.getName());
+
+	/**
+	 * The number of milliseconds to wait for the last batches to be stored
+	 * when shutting down.
+	 */
+	private static final long SHUTDOWN_TIMEOUT = 10 * 1000;
+
+	/**
+	 * The data set that actually stores the data.
+	 */
+	private final DataSet dataSet;
+	/**
+	 * The most points that are merged into a single batch.
+	 */
+	private final int maxBatchSize;
+	/**
+	 * The most milliseconds a request waits for its batch to fill.
+	 */
+	private final long maxDelay;
+	/**
+	 * The number of points that may be waiting to be stored.
+	 */
+	private final int capacity;
+	/**
+	 * The permits for the points that may still be queued.
+	 */
+	private final Semaphore room;
+	/**
+	 * The requests waiting to be stored, in the order they arrived.
+	 */
+	private final BlockingQueue<Pending> queue =
+		new LinkedBlockingQueue<Pending>();
+	/**
+	 * The thread that stores the batches.
+	 */
+	private final Thread writer;
+	/**
+	 * Whether or not new requests are still queued.
+	 */
+	private volatile boolean running = true;
+
+	/**
+	 * The number of batches that have been stored.
+	 */
+	private final AtomicLong batches = new AtomicLong();
+	/**
+	 * The number of requests whose points have been stored.
+	 */
+	private final AtomicLong requests = new AtomicLong();
+
+	/**
+	 * Creates a write-behind stage in front of a data set and starts the
+	 * thread that stores its batches.
+	 *
+	 * @param dataSet
+	 *        The data set that actually stores the data.
+	 *
+	 * @param maxBatchSize
+	 *        The most points that are merged into a single batch. A single
+	 *        request with more points than this is stored as its own batch.
+	 *
+	 * @param maxDelay
+	 *        The most milliseconds a request waits for its batch to fill.
+	 *
+	 * @param capacity
+	 *        The number of points that may be waiting to be stored before
+	 *        requests block.
+	 *
+	 * @throws OmhException
+	 *         The data set is null or a limit is not positive.
+	 */
+	public WriteBehindDataSet(
+		final DataSet dataSet,
+		final int maxBatchSize,
+		final long maxDelay,
+		final int capacity)
+		throws OmhException {
+
+		if(dataSet == null) {
+			throw new OmhException("The data set is null.");
+		}
+		if(maxBatchSize <= 0) {
+			throw new OmhException("The maximum batch size must be positive.");
+		}
+		if(maxDelay <= 0) {
+			throw new OmhException("The maximum delay must be positive.");
+		}
+		if(capacity <= 0) {
+			throw new OmhException("The capacity must be positive.");
+		}
+
+		this.dataSet = dataSet;
+		this.maxBatchSize = maxBatchSize;
+		this.maxDelay = maxDelay;
+		this.capacity = capacity;
+		room = new Semaphore(capacity, true);
+
+		writer =
+			new Thread(
+				new Runnable() {
+					/**
+					 * Stores batches until this data set is shut down and
+					 * every queued request has been stored.
+					 */
+					@Override
+					public void run() {
+						write();
+					}
+				},
+				"Data write-behind");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Queues the data to be stored with the data from other requests and
+	 * waits until it has been. If too many points are already waiting, this
+	 * first waits for room.
+	 *
+	 * @throws OmhException
+	 *         The data could not be stored or the wait was interrupted.
+	 */
+	@Override
+	public void storeData(final List<Data> data) throws OmhException {
+		if(data == null) {
+			throw new OmhException("The data is null.");
+		}
+		if(data.size() == 0) {
+			return;
+		}
+
+		// Once shut down, store the data directly.
+		if(! running) {
+			dataSet.storeData(data);
+			return;
+		}
+
+		// Wait for room. A request that is larger than the capacity only
+		// needs the whole capacity.
+		Pending pending =
+			new Pending(data, Math.min(data.size(), capacity));
+		try {
+			room.acquire(pending.permits);
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new OmhException("Storing the data was interrupted.", e);
+		}
+		queue.add(pending);
+
+		// Wait for the data to be stored. If the writer has stopped, e.g.
+		// because this data set was shut down while the data was being
+		// queued, store the data directly.
+		try {
+			while(! pending.done.await(maxDelay, TimeUnit.MILLISECONDS)) {
+				if((! writer.isAlive()) && queue.remove(pending)) {
+					room.release(pending.permits);
+					dataSet.storeData(data);
+					return;
+				}
+			}
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw
+				new OmhException(
+					"Waiting for the data to be stored was interrupted. " +
+						"It may still be stored.",
+					e);
+		}
+		if(pending.failure != null) {
+			throw pending.failure;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.DataSet#getData(java.lang.String, java.lang.String, long, org.joda.time.DateTime, org.joda.time.DateTime, org.openmhealth.reference.domain.ColumnList, org.openmhealth.reference.domain.ContinuationToken, long, long)
+	 */
+	@Override
+	public MultiValueResult<Data> getData(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final DateTime startDate,
+		final DateTime endDate,
+		final ColumnList columnList,
+		final ContinuationToken continuationToken,
+		final long numToSkip,
+		final long numToReturn) {
+
+		return
+			dataSet
+				.getData(
+					owner,
+					schemaId,
+					version,
+					startDate,
+					endDate,
+					columnList,
+					continuationToken,
+					numToSkip,
+					numToReturn);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.DataSet#streamData(java.lang.String, java.lang.String, long, org.joda.time.DateTime, org.joda.time.DateTime, org.openmhealth.reference.domain.ColumnList, long, long, org.openmhealth.reference.data.DataSet.DataHandler)
+	 */
+	@Override
+	public void streamData(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final DateTime startDate,
+		final DateTime endDate,
+		final ColumnList columnList,
+		final long numToSkip,
+		final long numToReturn,
+		final DataHandler handler)
+		throws IOException {
+
+		dataSet
+			.streamData(
+				owner,
+				schemaId,
+				version,
+				startDate,
+				endDate,
+				columnList,
+				numToSkip,
+				numToReturn,
+				handler);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.DataSet#countData(java.lang.String, java.lang.String, long, org.joda.time.DateTime, org.joda.time.DateTime)
+	 */
+	@Override
+	public int countData(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final DateTime startDate,
+		final DateTime endDate) {
+
+		return
+			dataSet.countData(owner, schemaId, version, startDate, endDate);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.DataSet#summarizeData(java.lang.String, java.lang.String, long, org.joda.time.DateTime, org.joda.time.DateTime, java.lang.String, org.openmhealth.reference.domain.DataSummary.Interval, java.lang.String)
+	 */
+	@Override
+	public List<DataSummary> summarizeData(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final DateTime startDate,
+		final DateTime endDate,
+		final String field,
+		final DataSummary.Interval interval,
+		final String lastDatabaseId) {
+
+		return
+			dataSet
+				.summarizeData(
+					owner,
+					schemaId,
+					version,
+					startDate,
+					endDate,
+					field,
+					interval,
+					lastDatabaseId);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.DataSet#getDatabaseId(org.openmhealth.reference.domain.Data)
+	 */
+	@Override
+	public String getDatabaseId(final Data data) throws OmhException {
+		return dataSet.getDatabaseId(data);
+	}
+
+	/**
+	 * Returns the number of batches that have been stored.
+	 *
+	 * @return The number of batches that have been stored.
+	 */
+	public long getBatchCount() {
+		return batches.get();
+	}
+
+	/**
+	 * Returns the number of requests whose points have been stored.
+	 *
+	 * @return The number of requests whose points have been stored.
+	 */
+	public long getRequestCount() {
+		return requests.get();
+	}
+
+	/**
+	 * Stops queueing new requests, which are then stored directly, and waits
+	 * for the queued requests to be stored.
+	 */
+	public void shutdown() {
+		running = false;
+		try {
+			writer.join(SHUTDOWN_TIMEOUT);
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Collects the queued requests into batches and stores them until this
+	 * data set is shut down and the queue is empty.
+	 */
+	private void write() {
+		// A request that did not fit in the previous batch.
+		Pending carried = null;
+
+		while(true) {
+			// Wait for the first request of the next batch.
+			Pending first = carried;
+			carried = null;
+			try {
+				while(first == null) {
+					first = queue.poll(maxDelay, TimeUnit.MILLISECONDS);
+					if((first == null) && (! running) && queue.isEmpty()) {
+						return;
+					}
+				}
+			}
+			catch(InterruptedException e) {
+				LOGGER.warning("The write-behind thread was interrupted.");
+				return;
+			}
+
+			// Fill the batch until it is full or the first request has waited
+			// long enough.
+			List<Pending> batch = new ArrayList<Pending>();
+			batch.add(first);
+			int size = first.data.size();
+			long deadline = System.currentTimeMillis() + maxDelay;
+			try {
+				while(size < maxBatchSize) {
+					long remaining = deadline - System.currentTimeMillis();
+					if(remaining <= 0) {
+						break;
+					}
+					Pending next =
+						queue.poll(remaining, TimeUnit.MILLISECONDS);
+					if(next == null) {
+						break;
+					}
+					if(size + next.data.size() > maxBatchSize) {
+						carried = next;
+						break;
+					}
+					batch.add(next);
+					size += next.data.size();
+				}
+			}
+			catch(InterruptedException e) {
+				// Store what has been collected and stop waiting for more.
+				Thread.currentThread().interrupt();
+			}
+
+			store(batch, size);
+		}
+	}
+
+	/**
+	 * Stores a batch and releases its requests.
+	 *
+	 * @param batch
+	 *        The requests in the batch.
+	 *
+	 * @param size
+	 *        The total number of points in the batch.
+	 */
+	private void store(final List<Pending> batch, final int size) {
+		List<Data> data = new ArrayList<Data>(size);
+		for(Pending pending : batch) {
+			data.addAll(pending.data);
+		}
+
+		RuntimeException failure = null;
+		try {
+			dataSet.storeData(data);
+			batches.incrementAndGet();
+			requests.addAndGet(batch.size());
+		}
+		catch(PartialWriteException e) {
+			LOGGER
+				.log(
+					Level.WARNING,
+					"Some of a batch of " + batch.size() + " requests " +
+						"could not be stored.",
+					e);
+			
+			// Only fail the requests whose own points were not stored, each
+			// with the indices of its points.
+			int offset = 0;
+			for(Pending pending : batch) {
+				SortedMap<Integer, String> failures =
+					e
+						.getFailures()
+						.subMap(offset, offset + pending.data.size());
+				if(failures.size() > 0) {
+					Map<Integer, String> shifted =
+						new HashMap<Integer, String>();
+					for(Map.Entry<Integer, String> entry :
+						failures.entrySet()) {
+						
+						shifted.put(entry.getKey() - offset, entry.getValue());
+					}
+					pending.failure =
+						new PartialWriteException(shifted, null, e);
+				}
+				offset += pending.data.size();
+			}
+			
+			for(Pending pending : batch) {
+				room.release(pending.permits);
+				pending.done.countDown();
+			}
+			return;
+		}
+		catch(RuntimeException e) {
+			LOGGER
+				.log(
+					Level.WARNING,
+					"A batch of " + batch.size() + " requests could not be " +
+						"stored.",
+					e);
+			failure = e;
+		}
+
+		for(Pending pending : batch) {
+			pending.failure = failure;
+			room.release(pending.permits);
+			pending.done.countDown();
+		}
+	}
+}
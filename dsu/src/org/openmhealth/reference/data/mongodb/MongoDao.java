@@ -16,14 +16,26 @@
 package org.openmhealth.reference.data.mongodb;
 
 import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Properties;
 
 import org.openmhealth.reference.data.Dao;
+import org.openmhealth.reference.data.DataRollupBin;
+import org.openmhealth.reference.data.DataSet;
+import org.openmhealth.reference.data.Migration;
+import org.openmhealth.reference.domain.ColumnList;
+import org.openmhealth.reference.domain.Data;
+import org.openmhealth.reference.domain.MetaData;
+import org.openmhealth.reference.domain.Schema;
 import org.openmhealth.reference.exception.OmhException;
 
+import com.mongodb.BasicDBObject;
 import com.mongodb.DB;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
 import com.mongodb.MongoClient;
 import com.mongodb.MongoCredential;
 import com.mongodb.ServerAddress;
@@ -51,6 +63,22 @@ public class MongoDao extends Dao {
 	 */
 	public static final String DEFAULT_DATABASE_NAME = "omh";
 	
+	/**
+	 * The name of the collection that records which migrations have been
+	 * applied.
+	 */
+	public static final String MIGRATION_COLLECTION_NAME = "migration";
+	
+	/**
+	 * The field in the migration collection for a migration's description.
+	 */
+	public static final String KEY_MIGRATION_DESCRIPTION = "description";
+	
+	/**
+	 * The field in the migration collection for when a migration was applied.
+	 */
+	public static final String KEY_MIGRATION_APPLIED = "applied";
+	
 	/**
 	 * The connection to the database.
 	 */
@@ -107,12 +135,43 @@ public class MongoDao extends Dao {
 		new MongoAuthorizationCodeBin();
 		new MongoAuthorizationCodeResponseBin();
 		new MongoAuthorizationTokenBin();
-		new MongoDataSet();
+		new MongoDataCountBin();
+		new MongoDataRollupBin(properties);
+		new MongoDataSet(properties);
 		new MongoExternalAuthorizationInformationBin();
 		new MongoExternalAuthorizationTokenBin();
-		new MongoRegistry();
+		new MongoRegistry(properties);
 		new MongoThirdPartyBin();
 		new MongoUserBin();
+		
+		// Build the index that matches how data is read, i.e. for an owner
+		// and schema, newest first.
+		DBObject dataIndex = new BasicDBObject();
+		dataIndex.put(Data.JSON_KEY_OWNER, 1);
+		dataIndex.put(Schema.JSON_KEY_ID, 1);
+		dataIndex.put(Schema.JSON_KEY_VERSION, 1);
+		dataIndex
+			.put(
+				Data.JSON_KEY_METADATA +
+					ColumnList.COLUMN_SEPARATOR +
+					MetaData.JSON_KEY_TIMESTAMP,
+				-1);
+		dataIndex.put("_id", -1);
+		
+		// Apply any new migrations in the background.
+		startMigrations(
+			Arrays
+				.asList(
+					new MongoIndexMigration(
+						1,
+						"Index the data by owner, schema, and timestamp " +
+							"to match how it is read.",
+						DataSet.DB_NAME,
+						DataSet.DB_NAME + "_owner_schema_timestamp_index",
+						dataIndex)));
+		
+		// Build any newly configured rollups in the background.
+		DataRollupBin.getInstance().startBuilding();
 	}
 	
 	/**
@@ -133,6 +192,60 @@ public class MongoDao extends Dao {
 		mongo.close();
 	}
 	
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.Dao#isMigrationApplied(long)
+	 */
+	@Override
+	protected boolean isMigrationApplied(
+		final long version)
+		throws OmhException {
+		
+		try {
+			return
+				getDb()
+					.getCollection(MIGRATION_COLLECTION_NAME)
+					.findOne(new BasicDBObject("_id", version)) != null;
+		}
+		catch(MongoException e) {
+			throw
+				new OmhException(
+					"There was an error querying for a migration.",
+					e);
+		}
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.Dao#markMigrationApplied(org.openmhealth.reference.data.Migration)
+	 */
+	@Override
+	protected void markMigrationApplied(
+		final Migration migration)
+		throws OmhException {
+		
+		// Record the migration, keyed by its version so that it is only
+		// recorded once even if multiple servers applied it.
+		DBObject record = new BasicDBObject();
+		record.put(KEY_MIGRATION_DESCRIPTION, migration.getDescription());
+		record.put(KEY_MIGRATION_APPLIED, new Date());
+		try {
+			getDb()
+				.getCollection(MIGRATION_COLLECTION_NAME)
+				.update(
+					new BasicDBObject("_id", migration.getVersion()),
+					new BasicDBObject("$setOnInsert", record),
+					true,
+					false);
+		}
+		catch(MongoException e) {
+			throw
+				new OmhException(
+					"There was an error recording a migration.",
+					e);
+		}
+	}
+	
 	/**
 	 * Returns the instance of this DAO as a MongoDao.
 	 * 
@@ -0,0 +1,221 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.data.mongodb;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.openmhealth.reference.data.DataCountBin;
+import org.openmhealth.reference.data.DataSet;
+import org.openmhealth.reference.domain.Data;
+import org.openmhealth.reference.domain.Schema;
+import org.openmhealth.reference.exception.OmhException;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+import com.mongodb.QueryBuilder;
+
+/**
+ * <p>
+ * The interface to the database-backed collection of data counters.
+ * </p>
+ *
+ * <p>
+ * MongoDB has no transactions, so a counter is incremented immediately after
+ * its data is inserted and could drift from the data if the server fails in
+ * between. For that reason, these counters are not considered exact.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class MongoDataCountBin extends DataCountBin {
+	/**
+	 * The logger for this class.
+	 */
+	private static final Logger LOGGER =
+		Logger.getLogger(MongoDataCountBin.class.getName());
+
+	/**
+	 * Default constructor.
+	 */
+	protected MongoDataCountBin() {
+		// Get the collection to add indexes to.
+		DBCollection collection =
+			MongoDao.getInstance().getDb().getCollection(DB_NAME);
+
+		// Ensure that there is a unique index on the owner, schema ID, and
+		// version.
+		DBObject index = new BasicDBObject();
+		index.put(Data.JSON_KEY_OWNER, 1);
+		index.put(Schema.JSON_KEY_ID, 1);
+		index.put(Schema.JSON_KEY_VERSION, 1);
+		collection.ensureIndex(index, DB_NAME + "_unique", true);
+
+		// If there are no counters yet, create them from the existing data.
+		if(collection.count() == 0) {
+			seedCounts(collection);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.DataCountBin#getCount(java.lang.String, java.lang.String, long)
+	 */
+	@Override
+	public Long getCount(
+		final String owner,
+		final String schemaId,
+		final long version)
+		throws OmhException {
+
+		// Get the counter, if it exists.
+		DBObject counter =
+			MongoDao
+				.getInstance()
+				.getDb()
+				.getCollection(DB_NAME)
+				.findOne(buildQuery(owner, schemaId, version));
+
+		// If the counter does not exist, return null.
+		if(counter == null) {
+			return null;
+		}
+		return ((Number) counter.get(KEY_COUNT)).longValue();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.DataCountBin#incrementCount(java.lang.String, java.lang.String, long, long)
+	 */
+	@Override
+	public void incrementCount(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final long amount)
+		throws OmhException {
+
+		// Increment the counter, creating it if it does not exist.
+		MongoDao
+			.getInstance()
+			.getDb()
+			.getCollection(DB_NAME)
+			.update(
+				buildQuery(owner, schemaId, version),
+				new BasicDBObject(
+					"$inc",
+					new BasicDBObject(KEY_COUNT, amount)),
+				true,
+				false);
+	}
+
+	/**
+	 * The counters are updated after, not with, the data.
+	 */
+	@Override
+	public boolean isExact() {
+		return false;
+	}
+
+	/**
+	 * Builds the query for a single counter.
+	 *
+	 * @param owner
+	 *        The username of the user that owns the data.
+	 *
+	 * @param schemaId
+	 *        The schema ID of the data.
+	 *
+	 * @param version
+	 *        The schema version of the data.
+	 *
+	 * @return The query.
+	 *
+	 * @throws OmhException
+	 *         The owner or schema ID is null.
+	 */
+	private static DBObject buildQuery(
+		final String owner,
+		final String schemaId,
+		final long version)
+		throws OmhException {
+
+		// Validate the parameters.
+		if(owner == null) {
+			throw new OmhException("The owner is null.");
+		}
+		if(schemaId == null) {
+			throw new OmhException("The schema ID is null.");
+		}
+
+		return
+			QueryBuilder
+				.start(Data.JSON_KEY_OWNER).is(owner)
+				.and(Schema.JSON_KEY_ID).is(schemaId)
+				.and(Schema.JSON_KEY_VERSION).is(version)
+				.get();
+	}
+
+	/**
+	 * Creates a counter for each user and schema ID-version pair from the
+	 * existing data. This is only done when there are no counters, e.g. the
+	 * first time this version of the server is started.
+	 *
+	 * @param collection
+	 *        The counter collection.
+	 */
+	private static void seedCounts(final DBCollection collection) {
+		// Group the data by owner, schema ID, and version and count each
+		// group.
+		DBObject groupId = new BasicDBObject();
+		groupId.put(Data.JSON_KEY_OWNER, "$" + Data.JSON_KEY_OWNER);
+		groupId.put(Schema.JSON_KEY_ID, "$" + Schema.JSON_KEY_ID);
+		groupId.put(Schema.JSON_KEY_VERSION, "$" + Schema.JSON_KEY_VERSION);
+		DBObject group = new BasicDBObject("_id", groupId);
+		group.put(KEY_COUNT, new BasicDBObject("$sum", 1));
+
+		// Store each group's count.
+		for(DBObject result :
+			MongoDao
+				.getInstance()
+				.getDb()
+				.getCollection(DataSet.DB_NAME)
+				.aggregate(new BasicDBObject("$group", group))
+				.results()) {
+
+			DBObject counter =
+				new BasicDBObject(((DBObject) result.get("_id")).toMap());
+			counter
+				.put(
+					KEY_COUNT,
+					((Number) result.get(KEY_COUNT)).longValue());
+
+			// If another server already created the counter, keep it.
+			try {
+				collection.insert(counter);
+			}
+			catch(MongoException.DuplicateKey e) {
+				LOGGER
+					.log(
+						Level.INFO,
+						"A data counter was created concurrently.",
+						e);
+			}
+		}
+	}
+}
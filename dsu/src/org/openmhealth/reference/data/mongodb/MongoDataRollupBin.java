@@ -0,0 +1,447 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.data.mongodb;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.openmhealth.reference.data.DataRollupBin;
+import org.openmhealth.reference.data.DataSet;
+import org.openmhealth.reference.domain.Data;
+import org.openmhealth.reference.domain.DataSummary;
+import org.openmhealth.reference.domain.Schema;
+import org.openmhealth.reference.domain.mongodb.MongoDbObject;
+import org.openmhealth.reference.exception.OmhException;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DB;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+import com.mongodb.QueryBuilder;
+
+/**
+ * <p>
+ * The MongoDB implementation of the interface to the database-backed
+ * collection of rollups.
+ * </p>
+ *
+ * <p>
+ * MongoDB has no transactions, so a rollup is updated immediately after its
+ * data is inserted. Updating the minimum and maximum of an existing rollup
+ * requires MongoDB 2.6 or later.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class MongoDataRollupBin extends DataRollupBin {
+	/**
+	 * Creates the bin, reads the rollup definitions, and ensures that the
+	 * collections' indexes exist.
+	 *
+	 * @param properties
+	 *        The properties, which may contain the
+	 *        {@link DataRollupBin#PROPERTY_KEY_ROLLUPS} property.
+	 */
+	protected MongoDataRollupBin(final Properties properties) {
+		super(properties);
+
+		// Ensure that there is a unique index on the owner, schema ID,
+		// version, field, interval, and start.
+		DBObject index = new BasicDBObject();
+		index.put(Data.JSON_KEY_OWNER, 1);
+		index.put(Schema.JSON_KEY_ID, 1);
+		index.put(Schema.JSON_KEY_VERSION, 1);
+		index.put(KEY_FIELD, 1);
+		index.put(KEY_INTERVAL, 1);
+		index.put(KEY_START, 1);
+		MongoDao
+			.getInstance()
+			.getDb()
+			.getCollection(DB_NAME)
+			.ensureIndex(index, DB_NAME + "_unique", true);
+
+		// Ensure that there is only one build for each definition.
+		DBObject buildIndex = new BasicDBObject();
+		buildIndex.put(Schema.JSON_KEY_ID, 1);
+		buildIndex.put(Schema.JSON_KEY_VERSION, 1);
+		buildIndex.put(KEY_FIELD, 1);
+		buildIndex.put(KEY_INTERVAL, 1);
+		MongoDao
+			.getInstance()
+			.getDb()
+			.getCollection(DB_NAME_BUILD)
+			.ensureIndex(buildIndex, DB_NAME_BUILD + "_unique", true);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.DataRollupBin#getRollups(java.lang.String, org.openmhealth.reference.data.DataRollupBin.Definition, org.joda.time.DateTime, org.joda.time.DateTime)
+	 */
+	@Override
+	public List<DataSummary> getRollups(
+		final String owner,
+		final Definition definition,
+		final DateTime startDate,
+		final DateTime endDate)
+		throws OmhException {
+
+		// Validate the parameters.
+		if(owner == null) {
+			throw new OmhException("The owner is null.");
+		}
+		if(definition == null) {
+			throw new OmhException("The definition is null.");
+		}
+
+		// Build the query.
+		QueryBuilder queryBuilder =
+			QueryBuilder
+				.start(Data.JSON_KEY_OWNER).is(owner)
+				.and(Schema.JSON_KEY_ID).is(definition.getSchemaId())
+				.and(Schema.JSON_KEY_VERSION).is(definition.getVersion())
+				.and(KEY_FIELD).is(definition.getField())
+				.and(KEY_INTERVAL).is(definition.getInterval().toString());
+
+		// Include the interval that contains the start date.
+		if((startDate != null) || (endDate != null)) {
+			queryBuilder.and(KEY_START);
+			if(startDate != null) {
+				queryBuilder
+					.greaterThanEquals(
+						definition
+							.getInterval()
+							.getStart(startDate)
+							.getMillis());
+			}
+			if(endDate != null) {
+				queryBuilder.lessThanEquals(endDate.getMillis());
+			}
+		}
+
+		// Read the rollups.
+		List<DataSummary> result = new ArrayList<DataSummary>();
+		DBCursor cursor =
+			MongoDao
+				.getInstance()
+				.getDb()
+				.getCollection(DB_NAME)
+				.find(queryBuilder.get())
+				.sort(new BasicDBObject(KEY_START, 1));
+		try {
+			while(cursor.hasNext()) {
+				DBObject rollup = cursor.next();
+				result
+					.add(
+						new DataSummary(
+							new DateTime(
+								((Number) rollup.get(KEY_START)).longValue(),
+								DateTimeZone.UTC),
+							((Number) rollup.get(KEY_COUNT)).longValue(),
+							((Number) rollup.get(KEY_MIN)).doubleValue(),
+							((Number) rollup.get(KEY_MAX)).doubleValue(),
+							((Number) rollup.get(KEY_SUM)).doubleValue()));
+			}
+		}
+		catch(MongoException e) {
+			throw
+				new OmhException(
+					"There was an error querying for the rollups.",
+					e);
+		}
+		finally {
+			cursor.close();
+		}
+
+		return result;
+	}
+
+	/**
+	 * Adds to the rollup immediately after the data was stored.
+	 */
+	@Override
+	protected void addToRollup(
+		final String owner,
+		final Definition definition,
+		final DataSummary summary)
+		throws OmhException {
+
+		DBObject increments = new BasicDBObject();
+		increments.put(KEY_COUNT, summary.getCount());
+		increments.put(KEY_SUM, summary.getSum());
+
+		DBObject update = new BasicDBObject();
+		update.put("$inc", increments);
+		update.put("$min", new BasicDBObject(KEY_MIN, summary.getMin()));
+		update.put("$max", new BasicDBObject(KEY_MAX, summary.getMax()));
+
+		updateRollup(owner, definition, summary, update);
+	}
+
+	/**
+	 * Records the build in its own collection, so its progress is kept even
+	 * if the rollups are empty.
+	 */
+	@Override
+	protected Build getBuild(
+		final Definition definition)
+		throws OmhException {
+
+		DB db = MongoDao.getInstance().getDb();
+		DBCollection builds = db.getCollection(DB_NAME_BUILD);
+		try {
+			// Find the newest point.
+			Object lastDatabaseId = null;
+			DBCursor newest =
+				db
+					.getCollection(DataSet.DB_NAME)
+					.find(
+						new BasicDBObject(),
+						new BasicDBObject(MongoDbObject.DATABASE_FIELD_ID, 1))
+					.sort(
+						new BasicDBObject(MongoDbObject.DATABASE_FIELD_ID, -1))
+					.limit(1);
+			try {
+				if(newest.hasNext()) {
+					lastDatabaseId =
+						newest.next().get(MongoDbObject.DATABASE_FIELD_ID);
+				}
+			}
+			finally {
+				newest.close();
+			}
+
+			// Record it, unless the build was already recorded, e.g. by
+			// another server.
+			DBObject build = buildDefinitionQuery(definition);
+			build
+				.put(
+					KEY_LAST_DATABASE_ID,
+					(lastDatabaseId == null) ?
+						null :
+						lastDatabaseId.toString());
+			build.put(KEY_LAST_OWNER, null);
+			build.put(KEY_COMPLETE, false);
+			try {
+				builds.insert(build);
+
+				// Remove any rollups from before builds were recorded, as the
+				// build adds all of the existing data.
+				db
+					.getCollection(DB_NAME)
+					.remove(buildDefinitionQuery(definition));
+			}
+			catch(MongoException.DuplicateKey e) {
+				// The build was already recorded.
+			}
+
+			// Read the build's progress.
+			build = builds.findOne(buildDefinitionQuery(definition));
+			return
+				new Build(
+					(String) build.get(KEY_LAST_DATABASE_ID),
+					(String) build.get(KEY_LAST_OWNER),
+					(Boolean) build.get(KEY_COMPLETE));
+		}
+		catch(MongoException e) {
+			throw
+				new OmhException(
+					"There was an error recording the rollup's build.",
+					e);
+		}
+	}
+
+	/**
+	 * Adds the rollups and then records the user. MongoDB has no
+	 * transactions, so if the server stops in between, the user's data is
+	 * added again when the build resumes.
+	 */
+	@Override
+	protected void addBuiltRollups(
+		final String owner,
+		final Definition definition,
+		final List<DataSummary> summaries)
+		throws OmhException {
+
+		// Add to the rollups, which may already include data that was stored
+		// after the rollup was configured.
+		for(DataSummary summary : summaries) {
+			addToRollup(owner, definition, summary);
+		}
+
+		// Record that the user's data was added.
+		updateBuild(definition, new BasicDBObject(KEY_LAST_OWNER, owner));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.DataRollupBin#completeBuild(org.openmhealth.reference.data.DataRollupBin.Definition)
+	 */
+	@Override
+	protected void completeBuild(
+		final Definition definition)
+		throws OmhException {
+
+		updateBuild(definition, new BasicDBObject(KEY_COMPLETE, true));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.DataRollupBin#getOwners(java.lang.String, long)
+	 */
+	@Override
+	protected List<String> getOwners(
+		final String schemaId,
+		final long version)
+		throws OmhException {
+
+		List<String> result = new ArrayList<String>();
+		try {
+			for(
+				Object owner :
+					MongoDao
+						.getInstance()
+						.getDb()
+						.getCollection(DataSet.DB_NAME)
+						.distinct(
+							Data.JSON_KEY_OWNER,
+							QueryBuilder
+								.start(Schema.JSON_KEY_ID).is(schemaId)
+								.and(Schema.JSON_KEY_VERSION).is(version)
+								.get())) {
+
+				result.add((String) owner);
+			}
+		}
+		catch(MongoException e) {
+			throw
+				new OmhException(
+					"There was an error querying for the data's owners.",
+					e);
+		}
+		return result;
+	}
+
+	/**
+	 * Builds the query that matches a rollup's definition.
+	 *
+	 * @param definition
+	 *        The rollup's definition.
+	 *
+	 * @return The query.
+	 */
+	private static DBObject buildDefinitionQuery(
+		final Definition definition) {
+
+		return
+			QueryBuilder
+				.start(Schema.JSON_KEY_ID).is(definition.getSchemaId())
+				.and(Schema.JSON_KEY_VERSION).is(definition.getVersion())
+				.and(KEY_FIELD).is(definition.getField())
+				.and(KEY_INTERVAL).is(definition.getInterval().toString())
+				.get();
+	}
+
+	/**
+	 * Sets fields of a rollup's build.
+	 *
+	 * @param definition
+	 *        The rollup's definition.
+	 *
+	 * @param values
+	 *        The fields to set.
+	 *
+	 * @throws OmhException
+	 *         The build could not be updated.
+	 */
+	private static void updateBuild(
+		final Definition definition,
+		final DBObject values)
+		throws OmhException {
+
+		try {
+			MongoDao
+				.getInstance()
+				.getDb()
+				.getCollection(DB_NAME_BUILD)
+				.update(
+					buildDefinitionQuery(definition),
+					new BasicDBObject("$set", values));
+		}
+		catch(MongoException e) {
+			throw
+				new OmhException(
+					"There was an error recording the rollup's build.",
+					e);
+		}
+	}
+
+	/**
+	 * Applies an update to a rollup, creating it if it does not exist.
+	 *
+	 * @param owner
+	 *        The username of the user that owns the data.
+	 *
+	 * @param definition
+	 *        The rollup's definition.
+	 *
+	 * @param summary
+	 *        The summary for one interval.
+	 *
+	 * @param update
+	 *        The update to apply.
+	 *
+	 * @throws OmhException
+	 *         The rollup could not be updated.
+	 */
+	private static void updateRollup(
+		final String owner,
+		final Definition definition,
+		final DataSummary summary,
+		final DBObject update)
+		throws OmhException {
+
+		DBCollection collection =
+			MongoDao.getInstance().getDb().getCollection(DB_NAME);
+		try {
+			collection
+				.update(
+					QueryBuilder
+						.start(Data.JSON_KEY_OWNER).is(owner)
+						.and(Schema.JSON_KEY_ID).is(definition.getSchemaId())
+						.and(Schema.JSON_KEY_VERSION)
+							.is(definition.getVersion())
+						.and(KEY_FIELD).is(definition.getField())
+						.and(KEY_INTERVAL)
+							.is(definition.getInterval().toString())
+						.and(KEY_START).is(summary.getStart().getMillis())
+						.get(),
+					update,
+					true,
+					false);
+		}
+		catch(MongoException e) {
+			throw
+				new OmhException(
+					"There was a problem updating the rollup.",
+					e);
+		}
+	}
+}
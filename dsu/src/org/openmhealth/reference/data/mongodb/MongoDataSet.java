@@ -15,25 +15,44 @@
  ******************************************************************************/
 package org.openmhealth.reference.data.mongodb;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
 
+import org.bson.types.ObjectId;
 import org.joda.time.DateTime;
 import org.mongojack.DBCursor;
 import org.mongojack.JacksonDBCollection;
+import org.openmhealth.reference.data.DataRollupBin;
 import org.openmhealth.reference.data.DataSet;
 import org.openmhealth.reference.domain.ColumnList;
+import org.openmhealth.reference.domain.ContinuationToken;
 import org.openmhealth.reference.domain.Data;
+import org.openmhealth.reference.domain.DataSummary;
 import org.openmhealth.reference.domain.MetaData;
 import org.openmhealth.reference.domain.MultiValueResult;
 import org.openmhealth.reference.domain.Schema;
 import org.openmhealth.reference.domain.mongodb.MongoData;
+import org.openmhealth.reference.domain.mongodb.MongoDbObject;
 import org.openmhealth.reference.domain.mongodb.MongoMultiValueResultCursor;
+import org.openmhealth.reference.exception.OmhException;
+import org.openmhealth.reference.exception.PartialWriteException;
+import org.openmhealth.reference.util.ISOW3CDateTimeFormat;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
 import com.mongodb.BasicDBObject;
 import com.mongodb.DB;
 import com.mongodb.DBCollection;
 import com.mongodb.DBObject;
+import com.mongodb.MongoException;
 import com.mongodb.QueryBuilder;
+import com.mongodb.WriteConcern;
 
 /**
  * <p>
@@ -43,10 +62,133 @@ import com.mongodb.QueryBuilder;
  * @author John Jenkins
  */
 public class MongoDataSet extends DataSet {
+	/**
+	 * <p>
+	 * A point that is about to be inserted, with the ID it will be inserted
+	 * with.
+	 * </p>
+	 *
+	 * @author John Jenkins
+	 */
+	private static class InsertedData extends Data {
+		/**
+		 * The version of this class used for serialization purposes.
+		 */
+		private static final long serialVersionUID = 1L;
+		
+		/**
+		 * The ID the point will be inserted with.
+		 */
+		@JsonProperty(MongoDbObject.DATABASE_FIELD_ID)
+		@org.mongojack.ObjectId
+		private final String dbId;
+		
+		/**
+		 * Gives a point a new ID.
+		 * 
+		 * @param data
+		 *        The point.
+		 */
+		private InsertedData(final Data data) {
+			super(
+				data.getOwner(),
+				data.getSchemaId(),
+				data.getSchemaVersion(),
+				data.getMetaData(),
+				data.getData());
+			
+			dbId = new ObjectId().toString();
+		}
+	}
+	
+	/**
+	 * The field for the meta-data's timestamp.
+	 */
+	private static final String FIELD_METADATA_TIMESTAMP =
+		Data.JSON_KEY_METADATA +
+			ColumnList.COLUMN_SEPARATOR +
+			MetaData.JSON_KEY_TIMESTAMP;
+	
+	/**
+	 * The key for the write concern of inserted data, which is either the
+	 * name of one of the {@link WriteConcern} constants, e.g. "MAJORITY", or
+	 * the number of servers that must acknowledge each write. The default is
+	 * {@link WriteConcern#ACKNOWLEDGED}.
+	 */
+	public static final String PROPERTY_KEY_WRITE_CONCERN =
+		"db.mongo.write.concern";
+	/**
+	 * The key for the most points that are inserted at a time.
+	 */
+	public static final String PROPERTY_KEY_WRITE_BATCH =
+		"db.mongo.write.batch";
+	/**
+	 * The default for the most points that are inserted at a time.
+	 */
+	public static final int DEFAULT_WRITE_BATCH = 1000;
+	
+	/**
+	 * The write concern for inserted data, which always continues after a
+	 * point that cannot be inserted.
+	 */
+	private final WriteConcern writeConcern;
+	/**
+	 * The most points that are inserted at a time.
+	 */
+	private final int batchSize;
+	
 	/**
 	 * Default constructor.
+	 * 
+	 * @param properties
+	 *        The user-defined properties, which may set the
+	 *        {@link #PROPERTY_KEY_WRITE_CONCERN} and
+	 *        {@link #PROPERTY_KEY_WRITE_BATCH}.
+	 * 
+	 * @throws OmhException
+	 *         The write concern or batch size is invalid.
 	 */
-	protected MongoDataSet() {
+	protected MongoDataSet(final Properties properties) throws OmhException {
+		// Determine how the data is inserted.
+		String writeConcernName =
+			properties.getProperty(PROPERTY_KEY_WRITE_CONCERN);
+		WriteConcern concern;
+		if(writeConcernName == null) {
+			concern = WriteConcern.ACKNOWLEDGED;
+		}
+		else if(writeConcernName.trim().matches("[0-9]+")) {
+			concern =
+				new WriteConcern(Integer.parseInt(writeConcernName.trim()));
+		}
+		else {
+			concern = WriteConcern.valueOf(writeConcernName.trim());
+			if(concern == null) {
+				throw
+					new OmhException(
+						"The write concern is unknown: " + writeConcernName);
+			}
+		}
+		writeConcern = concern.continueOnErrorForInsert(true);
+		
+		String batchSizeString =
+			properties.getProperty(PROPERTY_KEY_WRITE_BATCH);
+		try {
+			batchSize =
+				(batchSizeString == null) ?
+					DEFAULT_WRITE_BATCH :
+					Integer.parseInt(batchSizeString.trim());
+		}
+		catch(NumberFormatException e) {
+			throw
+				new OmhException(
+					"The write batch size is not a number: " +
+						batchSizeString,
+					e);
+		}
+		if(batchSize <= 0) {
+			throw new OmhException("The write batch size must be positive.");
+		}
+		
 		// Get the collection to add indexes to.
 		DBCollection collection =
 			MongoDao.getInstance().getDb().getCollection(DB_NAME);
@@ -82,27 +224,78 @@ public class MongoDataSet extends DataSet {
 			false);
 	}
 	
-	/*
-	 * (non-Javadoc)
-	 * @see org.openmhealth.reference.data.DataSet#setData(java.util.List)
+	/**
+	 * Inserts the data in batches of the configured size with the configured
+	 * write concern. Each batch is inserted unordered, i.e. a point that
+	 * cannot be inserted does not stop the points after it, and the batches
+	 * after a failed one are still inserted.
+	 * 
+	 * @throws PartialWriteException
+	 *         Some of the points were not inserted. Every other point was.
+	 *         The reason for each point is the error of its batch, not of the
+	 *         point itself.
+	 * 
+	 * @throws OmhException
+	 *         It could not be determined which points were inserted.
 	 */
 	@Override
-	public void storeData(final List<Data> data) {
+	public void storeData(
+		final List<Data> data)
+		throws PartialWriteException, OmhException {
+		
 		// Get the connection to the database.
 		DB db = MongoDao.getInstance().getDb();
+		DBCollection dbCollection = db.getCollection(DB_NAME);
 		
 		// Get the connection to the data with the Jackson wrapper.
 		JacksonDBCollection<Data, Object> collection =
-			JacksonDBCollection
-				.wrap(db.getCollection(DB_NAME), Data.class);
+			JacksonDBCollection.wrap(dbCollection, Data.class);
 		
-		// Insert the data.
-		collection.insert(data);
+		// Insert the data in batches, remembering which points fail.
+		Map<Integer, String> failures = new TreeMap<Integer, String>();
+		MongoException cause = null;
+		for(int start = 0; start < data.size(); start += batchSize) {
+			int end = Math.min(data.size(), start + batchSize);
+			
+			// Give each point its ID up front, so the points that were
+			// inserted can be found if the batch fails.
+			List<Data> batch = new ArrayList<Data>(end - start);
+			for(Data point : data.subList(start, end)) {
+				batch.add(new InsertedData(point));
+			}
+			
+			try {
+				collection.insert(batch, writeConcern);
+			}
+			catch(MongoException e) {
+				cause = e;
+				recordFailures(dbCollection, batch, start, e, failures);
+			}
+		}
+		
+		// Update the counters and rollups for the points that were inserted.
+		List<Data> inserted = data;
+		if(failures.size() > 0) {
+			inserted = new ArrayList<Data>(data.size() - failures.size());
+			for(int i = 0; i < data.size(); i++) {
+				if(! failures.containsKey(i)) {
+					inserted.add(data.get(i));
+				}
+			}
+		}
+		if(inserted.size() > 0) {
+			incrementCounts(inserted);
+			DataRollupBin.getInstance().updateRollups(inserted);
+		}
+		
+		if(failures.size() > 0) {
+			throw new PartialWriteException(failures, null, cause);
+		}
 	}
-
+	
 	/*
 	 * (non-Javadoc)
-	 * @see org.openmhealth.reference.data.DataSet#getData(java.lang.String, java.lang.String, long, org.joda.time.DateTime, org.joda.time.DateTime, org.openmhealth.reference.domain.ColumnList, long, long)
+	 * @see org.openmhealth.reference.data.DataSet#getData(java.lang.String, java.lang.String, long, org.joda.time.DateTime, org.joda.time.DateTime, org.openmhealth.reference.domain.ColumnList, org.openmhealth.reference.domain.ContinuationToken, long, long)
 	 */
 	@Override
 	public MultiValueResult<Data> getData(
@@ -112,16 +305,350 @@ public class MongoDataSet extends DataSet {
 		final DateTime startDate,
 		final DateTime endDate,
 		final ColumnList columnList,
+		final ContinuationToken continuationToken,
 		final long numToSkip,
 		final long numToReturn) {
 		
+		// Build the cursor.
+		DBCursor<MongoData> cursor =
+			buildCursor(
+				owner,
+				schemaId,
+				version,
+				startDate,
+				endDate,
+				columnList,
+				continuationToken,
+				numToSkip,
+				numToReturn);
+		
+		// Without a continuation token, the cursor's count is the total
+		// count, so it can be returned as-is.
+		if(continuationToken == null) {
+			return new MongoMultiValueResultCursor<Data>(cursor);
+		}
+		
+		// Otherwise, the cursor's count would only include the points after
+		// the token, so read the points and count the total separately, if
+		// it is requested.
+		List<Data> list = new ArrayList<Data>();
+		try {
+			while(cursor.hasNext()) {
+				list.add(cursor.next());
+			}
+		}
+		finally {
+			cursor.close();
+		}
+		
+		// If the data was read backward, put it back in the usual order.
+		if(! continuationToken.isForward()) {
+			Collections.reverse(list);
+		}
+		
+		return
+			new LazyCountResult(
+				list,
+				owner,
+				schemaId,
+				version,
+				startDate,
+				endDate);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.DataSet#streamData(java.lang.String, java.lang.String, long, org.joda.time.DateTime, org.joda.time.DateTime, org.openmhealth.reference.domain.ColumnList, long, long, org.openmhealth.reference.data.DataSet.DataHandler)
+	 */
+	@Override
+	public void streamData(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final DateTime startDate,
+		final DateTime endDate,
+		final ColumnList columnList,
+		final long numToSkip,
+		final long numToReturn,
+		final DataHandler handler)
+		throws IOException {
+		
+		// Validate the handler.
+		if(handler == null) {
+			throw new OmhException("The handler is null.");
+		}
+		
+		// Build the cursor.
+		DBCursor<MongoData> cursor =
+			buildCursor(
+				owner,
+				schemaId,
+				version,
+				startDate,
+				endDate,
+				columnList,
+				null,
+				numToSkip,
+				numToReturn);
+		
+		// Hand each point to the handler as the cursor reads it and make sure
+		// the cursor is closed even if the handler fails.
+		try {
+			while(cursor.hasNext()) {
+				handler.handle(cursor.next());
+			}
+		}
+		finally {
+			cursor.close();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.DataSet#countData(java.lang.String, java.lang.String, long, org.joda.time.DateTime, org.joda.time.DateTime)
+	 */
+	@Override
+	public int countData(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final DateTime startDate,
+		final DateTime endDate) {
+		
 		// Get the connection to the database.
 		DB db = MongoDao.getInstance().getDb();
 		
-		// Get the connection to the data with the Jackson wrapper.
-		JacksonDBCollection<MongoData, Object> collection =
-			JacksonDBCollection
-				.wrap(db.getCollection(DB_NAME), MongoData.class);
+		// Count the matching points.
+		return
+			(new Long(
+				db
+					.getCollection(DB_NAME)
+					.count(
+						buildQuery(
+							owner,
+							schemaId,
+							version,
+							startDate,
+							endDate,
+							null))))
+				.intValue();
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.DataSet#summarizeData(java.lang.String, java.lang.String, long, org.joda.time.DateTime, org.joda.time.DateTime, java.lang.String, org.openmhealth.reference.domain.DataSummary.Interval, java.lang.String)
+	 */
+	@Override
+	public List<DataSummary> summarizeData(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final DateTime startDate,
+		final DateTime endDate,
+		final String field,
+		final DataSummary.Interval interval,
+		final String lastDatabaseId) {
+		
+		// Validate the parameters.
+		if(field == null) {
+			throw new OmhException("The field is null.");
+		}
+		Summarizer summarizer = new Summarizer(interval);
+		
+		// Only read the timestamp and the field from points that have both.
+		String dataField =
+			Data.JSON_KEY_DATA + ColumnList.COLUMN_SEPARATOR + field;
+		DBObject query =
+			buildQuery(owner, schemaId, version, startDate, endDate, null);
+		query.put(dataField, new BasicDBObject("$exists", true));
+		
+		// Only include the points stored up to the last one, if given.
+		if(lastDatabaseId != null) {
+			query
+				.put(
+					MongoDbObject.DATABASE_FIELD_ID,
+					new BasicDBObject(
+						"$lte",
+						(ObjectId.isValid(lastDatabaseId)) ?
+							new ObjectId(lastDatabaseId) :
+							lastDatabaseId));
+		}
+		DBObject projection = new BasicDBObject();
+		projection.put(MongoDbObject.DATABASE_FIELD_ID, 0);
+		projection.put(FIELD_METADATA_TIMESTAMP, 1);
+		projection.put(dataField, 1);
+		
+		// Add each point to its interval's summary as it is read.
+		com.mongodb.DBCursor cursor = null;
+		try {
+			cursor =
+				MongoDao
+					.getInstance()
+					.getDb()
+					.getCollection(DB_NAME)
+					.find(query, projection);
+			
+			while(cursor.hasNext()) {
+				DBObject point = cursor.next();
+				
+				Object timestamp = getField(point, FIELD_METADATA_TIMESTAMP);
+				Object value = getField(point, dataField);
+				if((timestamp instanceof String) && (value instanceof Number)) {
+					summarizer
+						.add(
+							ISOW3CDateTimeFormat
+								.any()
+								.parseDateTime((String) timestamp),
+							((Number) value).doubleValue());
+				}
+			}
+		}
+		catch(MongoException e) {
+			throw
+				new OmhException(
+					"There was an error summarizing the data.",
+					e);
+		}
+		finally {
+			if(cursor != null) {
+				cursor.close();
+			}
+		}
+		
+		return summarizer.build();
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.DataSet#getDatabaseId(org.openmhealth.reference.domain.Data)
+	 */
+	@Override
+	public String getDatabaseId(final Data data) throws OmhException {
+		if(data instanceof MongoData) {
+			return ((MongoData) data).getDatabaseId();
+		}
+		
+		throw new OmhException("The data was not read from the database.");
+	}
+	
+	/**
+	 * Determines which points of a failed batch were not inserted, by
+	 * reading back the IDs that were, and records why. This version of the
+	 * driver only reports the last error of a continue-on-error insert, not
+	 * an error for each point, so every point that was not inserted is given
+	 * the batch's error, which may have been caused by a different point in
+	 * the same batch. The reason says so, as it is returned to the user.
+	 * 
+	 * @param dbCollection
+	 *        The data collection.
+	 * 
+	 * @param batch
+	 *        The points of the batch.
+	 * 
+	 * @param offset
+	 *        The index of the batch's first point in all of the points that
+	 *        are being stored.
+	 * 
+	 * @param e
+	 *        The reason the batch failed.
+	 * 
+	 * @param failures
+	 *        The reason each point was not inserted, by its index in all of
+	 *        the points that are being stored, to which this batch's points
+	 *        are added.
+	 * 
+	 * @throws OmhException
+	 *         The inserted IDs could not be read.
+	 */
+	private static void recordFailures(
+		final DBCollection dbCollection,
+		final List<Data> batch,
+		final int offset,
+		final MongoException e,
+		final Map<Integer, String> failures)
+		throws OmhException {
+		
+		List<ObjectId> ids = new ArrayList<ObjectId>(batch.size());
+		for(Data point : batch) {
+			ids.add(new ObjectId(((InsertedData) point).dbId));
+		}
+		
+		Set<String> inserted = new HashSet<String>();
+		try {
+			com.mongodb.DBCursor cursor =
+				dbCollection
+					.find(
+						new BasicDBObject(
+							MongoDbObject.DATABASE_FIELD_ID,
+							new BasicDBObject("$in", ids)),
+						new BasicDBObject(MongoDbObject.DATABASE_FIELD_ID, 1));
+			try {
+				while(cursor.hasNext()) {
+					inserted
+						.add(
+							cursor
+								.next()
+								.get(MongoDbObject.DATABASE_FIELD_ID)
+								.toString());
+				}
+			}
+			finally {
+				cursor.close();
+			}
+		}
+		catch(MongoException readException) {
+			throw
+				new OmhException(
+					"There was a problem storing the data, and it could not " +
+						"be determined which points were stored.",
+					e);
+		}
+		
+		for(int i = 0; i < batch.size(); i++) {
+			if(! inserted.contains(((InsertedData) batch.get(i)).dbId)) {
+				failures
+					.put(
+						offset + i,
+						"The point was not stored, because the batch that " +
+							"it was stored with failed. The batch's last " +
+							"error, which may have been caused by another " +
+							"point, was: " +
+							e.getMessage());
+			}
+		}
+	}
+	
+	/**
+	 * Builds the query that selects a user's data for a schema ID-version
+	 * pair, optionally limited to a time window.
+	 * 
+	 * @param owner
+	 *        The username of the user whose data is desired.
+	 * 
+	 * @param schemaId
+	 *        The schema ID of the desired data.
+	 * 
+	 * @param version
+	 *        The schema version of the desired data.
+	 * 
+	 * @param startDate
+	 *        The earliest point that should be matched or null.
+	 * 
+	 * @param endDate
+	 *        The latest point that should be matched or null.
+	 * 
+	 * @param continuationToken
+	 *        The token from which to continue reading or null.
+	 * 
+	 * @return The query.
+	 */
+	private static DBObject buildQuery(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final DateTime startDate,
+		final DateTime endDate,
+		final ContinuationToken continuationToken) {
 		
 		// Build the query.
 		QueryBuilder queryBuilder = QueryBuilder.start();
@@ -142,7 +669,7 @@ public class MongoDataSet extends DataSet {
 					Data.JSON_KEY_METADATA +
 						"." +
 						MetaData.JSON_KEY_TIMESTAMP)
-				.greaterThan(startDate.toString());
+				.greaterThanEquals(startDate.toString());
 		}
 		
 		// Only select data on or before the end date.
@@ -152,9 +679,104 @@ public class MongoDataSet extends DataSet {
 					Data.JSON_KEY_METADATA +
 						"." +
 						MetaData.JSON_KEY_TIMESTAMP)
-				.greaterThan(endDate.toString());
+				.lessThanEquals(endDate.toString());
 		}
 		
+		// Only select data after or before the continuation token's point.
+		if(continuationToken != null) {
+			queryBuilder.or(buildSeek(continuationToken));
+		}
+		
+		return queryBuilder.get();
+	}
+	
+	/**
+	 * Retrieves a possibly nested field from a document.
+	 * 
+	 * @param document
+	 *        The document.
+	 * 
+	 * @param field
+	 *        The {@link ColumnList#COLUMN_SEPARATOR}-separated path to the
+	 *        field.
+	 * 
+	 * @return The field's value or null if it does not exist.
+	 */
+	private static Object getField(
+		final DBObject document,
+		final String field) {
+		
+		Object result = document;
+		for(
+			String part :
+				field.split("\\" + ColumnList.COLUMN_SEPARATOR)) {
+			
+			if(result instanceof DBObject) {
+				result = ((DBObject) result).get(part);
+			}
+			else if(result instanceof Map) {
+				result = ((Map<?, ?>) result).get(part);
+			}
+			else {
+				return null;
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Builds the sorted and paged cursor for the data query.
+	 * 
+	 * @param owner
+	 *        The username of the user whose data is desired.
+	 * 
+	 * @param schemaId
+	 *        The schema ID of the desired data.
+	 * 
+	 * @param version
+	 *        The schema version of the desired data.
+	 * 
+	 * @param startDate
+	 *        The earliest point that should be returned or null.
+	 * 
+	 * @param endDate
+	 *        The latest point that should be returned or null.
+	 * 
+	 * @param columnList
+	 *        The columns of the data to return.
+	 * 
+	 * @param continuationToken
+	 *        The token from which to continue reading or null. If it
+	 *        continues backward, the cursor is in the reverse of the usual
+	 *        order.
+	 * 
+	 * @param numToSkip
+	 *        The number of data points to skip.
+	 * 
+	 * @param numToReturn
+	 *        The number of data points to return.
+	 * 
+	 * @return The cursor over the requested data.
+	 */
+	private static DBCursor<MongoData> buildCursor(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final DateTime startDate,
+		final DateTime endDate,
+		final ColumnList columnList,
+		final ContinuationToken continuationToken,
+		final long numToSkip,
+		final long numToReturn) {
+		
+		// Get the connection to the database.
+		DB db = MongoDao.getInstance().getDb();
+		
+		// Get the connection to the data with the Jackson wrapper.
+		JacksonDBCollection<MongoData, Object> collection =
+			JacksonDBCollection
+				.wrap(db.getCollection(DB_NAME), MongoData.class);
+		
 		// Create the projection.
 		DBObject projection = new BasicDBObject();
 		// Add the owner field.
@@ -166,40 +788,132 @@ public class MongoDataSet extends DataSet {
 		// Add the meta-data field.
 		projection.put(Data.JSON_KEY_METADATA, 1);
 		// Add all of the data or add only the specified columns if given.
-		if(columnList.size() == 0) {
+		if((columnList == null) || (columnList.size() == 0)) {
 			projection.put(Data.JSON_KEY_DATA, 1);
 		}
 		else {
-			if((columnList != null) && (columnList.size() > 0)) {
-				for(String column : columnList.toList()) {
-					projection
-						.put(
-							Data.JSON_KEY_DATA +
-								ColumnList.COLUMN_SEPARATOR +
-								column,
-							1);
-				}
+			for(String column : columnList.toList()) {
+				projection
+					.put(
+						Data.JSON_KEY_DATA +
+							ColumnList.COLUMN_SEPARATOR +
+							column,
+						1);
 			}
 		}
 		
 		// Build the query.
 		DBCursor<MongoData> dbResult =
-			collection.find(queryBuilder.get(), projection);
+			collection
+				.find(
+					buildQuery(
+						owner,
+						schemaId,
+						version,
+						startDate,
+						endDate,
+						continuationToken),
+					projection);
 		
-		// Build the sort field by sorting in reverse chronological order.
+		// Build the sort field by sorting in reverse chronological order,
+		// breaking ties with the database ID, unless the data is being read
+		// backward from a continuation token.
+		int direction =
+			((continuationToken == null) || continuationToken.isForward()) ?
+				-1 :
+				1;
 		DBObject sort = new BasicDBObject();
-		sort.put(
-			Data.JSON_KEY_METADATA + 
-				ColumnList.COLUMN_SEPARATOR + 
-				MetaData.JSON_KEY_TIMESTAMP,
-			-1);
+		sort.put(FIELD_METADATA_TIMESTAMP, direction);
+		sort.put(MongoDbObject.DATABASE_FIELD_ID, direction);
 		dbResult.sort(sort);
 		
-		// Page the results and return the multi-value result.
+		// Page the results.
 		return
-			new MongoMultiValueResultCursor<Data>(
-				dbResult
-					.skip((new Long(numToSkip)).intValue())
-					.limit((new Long(numToReturn)).intValue()));
+			dbResult
+				.skip((new Long(numToSkip)).intValue())
+				.limit((new Long(numToReturn)).intValue());
+	}
+	
+	/**
+	 * Builds the alternatives that limit the results to those after the
+	 * continuation token's point, if it continues forward, or before it, if it
+	 * continues backward. Points are ordered by their timestamp and then their
+	 * database ID, both descending, with points without a timestamp last.
+	 * 
+	 * @param continuationToken
+	 *        The continuation token.
+	 * 
+	 * @return The alternatives, any of which may match.
+	 */
+	private static DBObject[] buildSeek(
+		final ContinuationToken continuationToken) {
+		
+		// Decode the database ID, which is usually an ObjectId.
+		String databaseIdString = continuationToken.getDatabaseId();
+		Object databaseId =
+			(ObjectId.isValid(databaseIdString)) ?
+				new ObjectId(databaseIdString) :
+				databaseIdString;
+		
+		// Get the timestamp, if any.
+		DateTime timestamp = continuationToken.getTimestamp();
+		String timestampString =
+			(timestamp == null) ? null : timestamp.toString();
+		
+		// Build the alternative for points at the same time, which are
+		// ordered by their database ID.
+		QueryBuilder sameTimestampBuilder =
+			QueryBuilder
+				.start(FIELD_METADATA_TIMESTAMP).is(timestampString)
+				.and(MongoDbObject.DATABASE_FIELD_ID);
+		DBObject sameTimestamp =
+			(continuationToken.isForward()) ?
+				sameTimestampBuilder.lessThan(databaseId).get() :
+				sameTimestampBuilder.greaterThan(databaseId).get();
+		if(continuationToken.isForward()) {
+			// Only other points without a timestamp can come after one
+			// without a timestamp.
+			if(timestampString == null) {
+				return new DBObject[] { sameTimestamp };
+			}
+			
+			// Older points, points at the same time that were stored
+			// earlier, and points without a timestamp come after it.
+			return
+				new DBObject[] {
+					QueryBuilder
+						.start(FIELD_METADATA_TIMESTAMP)
+							.lessThan(timestampString)
+						.get(),
+					sameTimestamp,
+					QueryBuilder
+						.start(FIELD_METADATA_TIMESTAMP).is(null)
+						.get()
+				};
+		}
+		else {
+			// All points with a timestamp and the points without one that
+			// were stored later come before one without a timestamp.
+			if(timestampString == null) {
+				return
+					new DBObject[] {
+						QueryBuilder
+							.start(FIELD_METADATA_TIMESTAMP).notEquals(null)
+							.get(),
+						sameTimestamp
+					};
+			}
+			
+			// Newer points and points at the same time that were stored
+			// later come before it.
+			return
+				new DBObject[] {
+					QueryBuilder
+						.start(FIELD_METADATA_TIMESTAMP)
+							.greaterThan(timestampString)
+						.get(),
+					sameTimestamp
+				};
+		}
 	}
-}
\ No newline at end of file
+}
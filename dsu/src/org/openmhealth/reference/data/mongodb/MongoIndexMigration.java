@@ -0,0 +1,149 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.data.mongodb;
+
+import org.openmhealth.reference.data.Migration;
+import org.openmhealth.reference.exception.OmhException;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+
+/**
+ * <p>
+ * A {@link Migration} that builds an index on an existing collection. The
+ * index is built in the background, so the collection remains available
+ * while it is being built.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class MongoIndexMigration implements Migration {
+	/**
+	 * The version of this migration.
+	 */
+	private final long version;
+	/**
+	 * The description of this migration.
+	 */
+	private final String description;
+	/**
+	 * The name of the collection to index.
+	 */
+	private final String collection;
+	/**
+	 * The name of the index.
+	 */
+	private final String indexName;
+	/**
+	 * The fields to index, in order, and their directions.
+	 */
+	private final DBObject keys;
+
+	/**
+	 * Creates a new migration that builds an index.
+	 *
+	 * @param version
+	 *        The version of this migration.
+	 *
+	 * @param description
+	 *        The description of this migration.
+	 *
+	 * @param collection
+	 *        The name of the collection to index.
+	 *
+	 * @param indexName
+	 *        The name of the index.
+	 *
+	 * @param keys
+	 *        The fields to index, in order, and their directions.
+	 *
+	 * @throws OmhException
+	 *         A parameter is null.
+	 */
+	public MongoIndexMigration(
+		final long version,
+		final String description,
+		final String collection,
+		final String indexName,
+		final DBObject keys)
+		throws OmhException {
+
+		if(description == null) {
+			throw new OmhException("The description is null.");
+		}
+		if(collection == null) {
+			throw new OmhException("The collection is null.");
+		}
+		if(indexName == null) {
+			throw new OmhException("The index name is null.");
+		}
+		if(keys == null) {
+			throw new OmhException("The keys are null.");
+		}
+
+		this.version = version;
+		this.description = description;
+		this.collection = collection;
+		this.indexName = indexName;
+		this.keys = keys;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.Migration#getVersion()
+	 */
+	@Override
+	public long getVersion() {
+		return version;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.Migration#getDescription()
+	 */
+	@Override
+	public String getDescription() {
+		return description;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.Migration#apply()
+	 */
+	@Override
+	public void apply() throws OmhException {
+		// Build the index in the background. If the index already exists,
+		// this does nothing.
+		DBObject options = new BasicDBObject();
+		options.put("name", indexName);
+		options.put("background", true);
+
+		try {
+			MongoDao
+				.getInstance()
+				.getDb()
+				.getCollection(collection)
+				.ensureIndex(keys, options);
+		}
+		catch(MongoException e) {
+			throw
+				new OmhException(
+					"There was an error creating the index: " + indexName,
+					e);
+		}
+	}
+}
@@ -15,9 +15,17 @@
  ******************************************************************************/
 package org.openmhealth.reference.data.mongodb;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 import name.jenkins.paul.john.concordia.Concordia;
 
@@ -30,9 +38,11 @@ import org.openmhealth.reference.concordia.OmhValidationController;
 import org.openmhealth.reference.data.Registry;
 import org.openmhealth.reference.domain.MultiValueResult;
 import org.openmhealth.reference.domain.Schema;
+import org.openmhealth.reference.domain.mongodb.MongoDbObject;
 import org.openmhealth.reference.domain.mongodb.MongoMultiValueResultCursor;
 import org.openmhealth.reference.domain.mongodb.MongoMultiValueResultList;
 import org.openmhealth.reference.domain.mongodb.MongoSchema;
+import org.openmhealth.reference.exception.OmhException;
 
 import com.fasterxml.jackson.databind.InjectableValues;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -72,10 +82,116 @@ public class MongoRegistry extends Registry {
 		JSON_MAPPER = MongoJackModule.configure(mapper);
 	}
 	
+	/**
+	 * <p>
+	 * A sorted, immutable index of every schema ID and its versions at a
+	 * revision of the registry.
+	 * </p>
+	 *
+	 * @author John Jenkins
+	 */
+	private static class SchemaIndex {
+		/**
+		 * The revision of the registry that was indexed.
+		 */
+		private final String revision;
+		/**
+		 * The schema IDs in ascending order.
+		 */
+		private final List<String> ids;
+		/**
+		 * The versions of each schema ID in ascending order.
+		 */
+		private final Map<String, List<Long>> versions;
+		
+		/**
+		 * Indexes the schema IDs and versions.
+		 * 
+		 * @param revision
+		 *        The revision of the registry that was indexed.
+		 * 
+		 * @param schemas
+		 *        The versions of each schema ID.
+		 */
+		private SchemaIndex(
+			final String revision,
+			final SortedMap<String, SortedSet<Long>> schemas) {
+			
+			this.revision = revision;
+			
+			Map<String, List<Long>> versions =
+				new HashMap<String, List<Long>>();
+			for(Map.Entry<String, SortedSet<Long>> schema : schemas.entrySet()) {
+				versions
+					.put(
+						schema.getKey(),
+						Collections
+							.unmodifiableList(
+								new ArrayList<Long>(schema.getValue())));
+			}
+			
+			this.ids =
+				Collections
+					.unmodifiableList(new ArrayList<String>(schemas.keySet()));
+			this.versions = Collections.unmodifiableMap(versions);
+		}
+	}
+	
+	/**
+	 * The key for how many seconds may pass before the index of schema IDs
+	 * and versions is checked against the registry.
+	 */
+	public static final String PROPERTY_KEY_INDEX_CHECK =
+		"db.mongo.registry.check";
+	/**
+	 * The default number of seconds that may pass before the index of schema
+	 * IDs and versions is checked against the registry.
+	 */
+	public static final long DEFAULT_INDEX_CHECK = 5;
+	
+	/**
+	 * How often the index is checked against the registry, in milliseconds.
+	 */
+	private final long indexCheckInterval;
+	/**
+	 * The index of schema IDs and versions or null if it has not been built.
+	 */
+	private volatile SchemaIndex index = null;
+	/**
+	 * The time, in milliseconds, after which the index should next be
+	 * checked against the registry.
+	 */
+	private volatile long nextIndexCheck = 0;
+	
 	/**
 	 * Default constructor.
+	 * 
+	 * @param properties
+	 *        The user-defined properties, which may set the
+	 *        {@link #PROPERTY_KEY_INDEX_CHECK}.
+	 * 
+	 * @throws OmhException
+	 *         The check interval is invalid.
 	 */
-	protected MongoRegistry() {
+	protected MongoRegistry(final Properties properties) throws OmhException {
+		// Determine how often the index is checked.
+		String indexCheckString =
+			properties.getProperty(PROPERTY_KEY_INDEX_CHECK);
+		try {
+			indexCheckInterval =
+				1000 *
+					((indexCheckString == null) ?
+						DEFAULT_INDEX_CHECK :
+						Long.parseLong(indexCheckString.trim()));
+		}
+		catch(NumberFormatException e) {
+			throw
+				new OmhException(
+					"The registry check interval is not a number: " +
+						indexCheckString,
+					e);
+		}
+		
 		// Get the collection to add indexes to.
 		DBCollection collection =
 			MongoDao.getInstance().getDb().getCollection(DB_NAME);
@@ -107,99 +223,37 @@ public class MongoRegistry extends Registry {
 				true);
 	}
 	
-	/*
-	 * (non-Javadoc)
-	 * @see org.openmhealth.reference.data.Registry#getSchemaIds()
+	/**
+	 * Returns a page of the schema IDs from the index, in ascending order.
 	 */
 	public MultiValueResult<String> getSchemaIds(
 		final long numToSkip,
 		final long numToReturn) {
 		
-		// Get the connection to the database.
-		DB db = MongoDao.getInstance().getDb();
-		
-		// Get the connection to the registry with the Jackson wrapper.
-		JacksonDBCollection<MongoSchema, Object> collection =
-			JacksonDBCollection
-				.wrap(db.getCollection(DB_NAME), MongoSchema.class);
-		
-		// Get the list of results.
-		@SuppressWarnings("unchecked")
-		List<String> results = collection.distinct(Schema.JSON_KEY_ID);
-		
-		// Remember the total number of results.
-		int numResults = results.size();
-		
-		// Sort the results.
-		Collections.sort(results);
-		
-		// Get the lower index.
-		int lowerIndex =
-			(new Long(Math.min(numToSkip, results.size()))).intValue();
-		// Get the upper index.
-		int upperIndex =
-			(new Long(Math.min(numToSkip + numToReturn, results.size())))
-				.intValue();
-		
-		// Get the results based on the upper and lower bounds.
-		results = results.subList(lowerIndex, upperIndex);
-		
-		// Create a MultiValueResult.
-		MultiValueResult<String> result =
-			new MongoMultiValueResultList<String>(results, numResults);
-		
-		// Return the list.
-		return result;
+		List<String> ids = getIndex().ids;
+		return
+			new MongoMultiValueResultList<String>(
+				page(ids, numToSkip, numToReturn),
+				ids.size());
 	}
 	
-	/*
-	 * (non-Javadoc)
-	 * @see org.openmhealth.reference.data.Registry#getSchemaVersions(java.lang.String)
+	/**
+	 * Returns a page of a schema ID's versions from the index, in ascending
+	 * order.
 	 */
 	public MultiValueResult<Long> getSchemaVersions(
 		final String schemaId,
 		final long numToSkip,
 		final long numToReturn) {
 		
-		// Get the connection to the database.
-		DB db = MongoDao.getInstance().getDb();
-		
-		// Get the connection to the registry with the Jackson wrapper.
-		JacksonDBCollection<MongoSchema, Object> collection =
-			JacksonDBCollection
-				.wrap(db.getCollection(DB_NAME), MongoSchema.class);
-		
-		// Get the list of results.
-		@SuppressWarnings("unchecked")
-		List<Long> results = 
-			collection
-				.distinct(
-					Schema.JSON_KEY_VERSION,
-					new BasicDBObject(Schema.JSON_KEY_ID, schemaId));
-		
-		// Remember the total number of results.
-		int numResults = results.size();
-		
-		// Sort the results.
-		Collections.sort(results);
-		
-		// Get the lower index.
-		int lowerIndex =
-			(new Long(Math.min(numToSkip, results.size()))).intValue();
-		// Get the upper index.
-		int upperIndex =
-			(new Long(Math.min(numToSkip + numToReturn, results.size())))
-				.intValue();
-		
-		// Get the results based on the upper and lower bounds.
-		results = results.subList(lowerIndex, upperIndex);
-		
-		// Create a MultiValueResult.
-		MultiValueResult<Long> result =
-			new MongoMultiValueResultList<Long>(results, numResults);
-		
-		// Return the list.
-		return result;
+		List<Long> versions = getIndex().versions.get(schemaId);
+		if(versions == null) {
+			versions = Collections.emptyList();
+		}
+		return
+			new MongoMultiValueResultList<Long>(
+				page(versions, numToSkip, numToReturn),
+				versions.size());
 	}
 	
 	/*
@@ -299,4 +353,154 @@ public class MongoRegistry extends Registry {
 					.skip((new Long(numToSkip)).intValue())
 					.limit((new Long(numToReturn)).intValue()));
 	}
+	
+	/**
+	 * Returns the index of schema IDs and versions, first rebuilding it if it
+	 * has not been built or if the check interval has passed and the
+	 * registry's revision has changed. Once an index has been built, only one
+	 * thread checks at a time, and the others use the index as it is.
+	 * 
+	 * @return The index.
+	 */
+	private SchemaIndex getIndex() {
+		SchemaIndex current = index;
+		if(
+			(current != null) &&
+			(System.currentTimeMillis() < nextIndexCheck)) {
+			
+			return current;
+		}
+		
+		synchronized(this) {
+			current = index;
+			long now = System.currentTimeMillis();
+			if((current != null) && (now < nextIndexCheck)) {
+				return current;
+			}
+			nextIndexCheck = now + indexCheckInterval;
+		}
+		
+		// Read the revision and rebuild the index outside of the lock, so
+		// lookups are not held up by the registry. The revision is read
+		// first, so a change made while the index is built is caught by the
+		// next check.
+		String revision = getRevision();
+		if((current != null) && revision.equals(current.revision)) {
+			return current;
+		}
+		SchemaIndex rebuilt = buildIndex(revision);
+		
+		// Publish the rebuilt index unless another thread already replaced
+		// the one it was compared to.
+		synchronized(this) {
+			if(index == current) {
+				index = rebuilt;
+			}
+			return index;
+		}
+	}
+	
+	/**
+	 * Reads the ID and version of every schema into a new index.
+	 * 
+	 * @param revision
+	 *        The revision of the registry that is being indexed.
+	 * 
+	 * @return The index.
+	 */
+	private static SchemaIndex buildIndex(final String revision) {
+		// Get the connection to the registry.
+		DBCollection collection =
+			MongoDao.getInstance().getDb().getCollection(DB_NAME);
+		
+		// Read only the IDs and versions.
+		SortedMap<String, SortedSet<Long>> schemas =
+			new TreeMap<String, SortedSet<Long>>();
+		com.mongodb.DBCursor cursor =
+			collection
+				.find(
+					new BasicDBObject(),
+					(new BasicDBObject(Schema.JSON_KEY_ID, 1))
+						.append(Schema.JSON_KEY_VERSION, 1));
+		try {
+			while(cursor.hasNext()) {
+				DBObject schema = cursor.next();
+				String id = (String) schema.get(Schema.JSON_KEY_ID);
+				
+				SortedSet<Long> versions = schemas.get(id);
+				if(versions == null) {
+					versions = new TreeSet<Long>();
+					schemas.put(id, versions);
+				}
+				versions
+					.add(
+						((Number) schema.get(Schema.JSON_KEY_VERSION))
+							.longValue());
+			}
+		}
+		finally {
+			cursor.close();
+		}
+		
+		return new SchemaIndex(revision, schemas);
+	}
+	
+	/**
+	 * Returns a page of a sorted list without copying it.
+	 * 
+	 * @param list
+	 *        The list.
+	 * 
+	 * @param numToSkip
+	 *        The number of elements to skip.
+	 * 
+	 * @param numToReturn
+	 *        The number of elements to return.
+	 * 
+	 * @return The page, which is a view of the list.
+	 */
+	private static <T> List<T> page(
+		final List<T> list,
+		final long numToSkip,
+		final long numToReturn) {
+		
+		int lowerIndex = (int) Math.min(Math.max(0, numToSkip), list.size());
+		int upperIndex =
+			lowerIndex +
+				(int) Math.min(
+					Math.max(0, numToReturn),
+					list.size() - lowerIndex);
+		return list.subList(lowerIndex, upperIndex);
+	}
+	
+	/**
+	 * Returns the number of schemas and the newest schema's database ID,
+	 * which is an indexed count and lookup.
+	 */
+	@Override
+	public String getRevision() {
+		// Get the connection to the registry.
+		DBCollection collection =
+			MongoDao.getInstance().getDb().getCollection(DB_NAME);
+		
+		// Get the newest schema.
+		com.mongodb.DBCursor newest =
+			collection
+				.find(
+					new BasicDBObject(),
+					new BasicDBObject(MongoDbObject.DATABASE_FIELD_ID, 1))
+				.sort(new BasicDBObject(MongoDbObject.DATABASE_FIELD_ID, -1))
+				.limit(1);
+		try {
+			return
+				collection.count() +
+				":" +
+				(newest.hasNext() ?
+					newest.next().get(MongoDbObject.DATABASE_FIELD_ID) :
+					null);
+		}
+		finally {
+			newest.close();
+		}
+	}
 }
\ No newline at end of file
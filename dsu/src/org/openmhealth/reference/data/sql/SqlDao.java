@@ -1,14 +1,30 @@
 package org.openmhealth.reference.data.sql;
 
 import java.beans.PropertyVetoException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Arrays;
 import java.util.Properties;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.openmhealth.reference.data.Dao;
+import org.openmhealth.reference.data.DataRollupBin;
+import org.openmhealth.reference.data.DataSet;
+import org.openmhealth.reference.data.Migration;
+import org.openmhealth.reference.data.Registry;
+import org.openmhealth.reference.data.UserBin;
+import org.openmhealth.reference.domain.Data;
+import org.openmhealth.reference.domain.MetaData;
+import org.openmhealth.reference.exception.OmhException;
 import org.springframework.dao.DataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.SqlTypeValue;
+import org.springframework.jdbc.core.StatementCreatorUtils;
 import org.springframework.jdbc.datasource.DataSourceTransactionManager;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.TransactionException;
@@ -60,6 +76,26 @@ public abstract class SqlDao extends Dao {
 	 */
 	public static final String KEY_DATABASE_ID = "id";
 	
+	/**
+	 * The name of the table that records which migrations have been applied.
+	 */
+	public static final String MIGRATION_TABLE_NAME = "migration";
+	
+	/**
+	 * The column in the migration table for a migration's version.
+	 */
+	public static final String KEY_MIGRATION_VERSION = "version";
+	
+	/**
+	 * The column in the migration table for a migration's description.
+	 */
+	public static final String KEY_MIGRATION_DESCRIPTION = "description";
+	
+	/**
+	 * The column in the migration table for when a migration was applied.
+	 */
+	public static final String KEY_MIGRATION_APPLIED = "applied";
+	
 	/**
 	 * The data source used to connect to the database.
 	 */
@@ -69,6 +105,11 @@ public abstract class SqlDao extends Dao {
 	 * database simpler.
 	 */
 	private final JdbcTemplate jdbcTemplate;
+	/**
+	 * The fetch size that causes the driver to stream result sets row by row
+	 * instead of buffering them entirely in memory.
+	 */
+	private final int streamingFetchSize;
 
 	/**
 	 * Initializes this DAO.
@@ -128,16 +169,50 @@ public abstract class SqlDao extends Dao {
 		// Create the JDBC template from the data source.
 		jdbcTemplate = new JdbcTemplate(dataSource);
 		
+		// Remember the fetch size for streaming queries. It is set on each
+		// statement directly, as the JDBC template ignores fetch sizes that
+		// are not positive.
+		streamingFetchSize = getStreamingFetchSize();
+		
 		// Initialize all of the components.
+		SqlDataRollupBin dataRollupBin = new SqlDataRollupBin(properties);
 		initDaos(
 			new SqlUserBin(),
 			new SqlRegistry(),
 			new SqlDataSet(),
+			new SqlDataCountBin(),
+			dataRollupBin,
+			dataRollupBin.getBuildTable(),
 			new SqlThirdPartyBin(),
 			new SqlAuthenticationTokenBin(),
 			new SqlAuthorizationCodeBin(),
 			new SqlAuthorizationCodeResponseBin(),
 			new SqlAuthorizationTokenBin());
+		
+		// Apply any new migrations in the background.
+		startMigrations(
+			Arrays
+				.asList(
+					new SqlIndexMigration(
+						1,
+						"Index the data by owner, schema, and timestamp " +
+							"to match how it is read.",
+						DataSet.DB_NAME,
+						DataSet.DB_NAME +
+							"_index_" +
+							UserBin.DB_NAME + "_id_" +
+							Registry.DB_NAME + "_id_" +
+							Data.JSON_KEY_METADATA + "_" +
+							MetaData.JSON_KEY_TIMESTAMP,
+						UserBin.DB_NAME + "_id",
+						Registry.DB_NAME + "_id",
+						Data.JSON_KEY_METADATA +
+							"_" +
+							MetaData.JSON_KEY_TIMESTAMP,
+						KEY_DATABASE_ID)));
+		
+		// Build any newly configured rollups in the background.
+		DataRollupBin.getInstance().startBuilding();
 	}
 	
 	/**
@@ -149,6 +224,69 @@ public abstract class SqlDao extends Dao {
 		return jdbcTemplate;
 	}
 	
+	/**
+	 * Runs a query whose results are streamed from the database row by row
+	 * instead of being buffered entirely in memory. The handler should
+	 * consume each row immediately, as the connection is held until every
+	 * row has been read.
+	 * 
+	 * @param sql
+	 *        The query.
+	 * 
+	 * @param parameters
+	 *        The parameters to bind to the query.
+	 * 
+	 * @param handler
+	 *        The handler for each row.
+	 * 
+	 * @throws DataAccessException
+	 *         There was an error running the query.
+	 */
+	public void queryStreaming(
+		final String sql,
+		final Object[] parameters,
+		final RowCallbackHandler handler)
+		throws DataAccessException {
+		
+		jdbcTemplate
+			.query(
+				new PreparedStatementCreator() {
+					/**
+					 * Creates a forward-only, read-only statement with the
+					 * streaming fetch size and binds the parameters.
+					 */
+					@Override
+					public PreparedStatement createPreparedStatement(
+						final Connection connection)
+						throws SQLException {
+						
+						PreparedStatement statement =
+							connection
+								.prepareStatement(
+									sql,
+									ResultSet.TYPE_FORWARD_ONLY,
+									ResultSet.CONCUR_READ_ONLY);
+						try {
+							statement.setFetchSize(streamingFetchSize);
+							for(int i = 0; i < parameters.length; i++) {
+								StatementCreatorUtils
+									.setParameterValue(
+										statement,
+										i + 1,
+										SqlTypeValue.TYPE_UNKNOWN,
+										parameters[i]);
+							}
+						}
+						catch(SQLException e) {
+							statement.close();
+							throw e;
+						}
+						return statement;
+					}
+				},
+				handler);
+	}
+	
 	/**
 	 * Returns a transaction manager to be used to create transactions.
 	 * 
@@ -175,6 +313,64 @@ public abstract class SqlDao extends Dao {
 		}
 	}
 	
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.Dao#isMigrationApplied(long)
+	 */
+	@Override
+	protected boolean isMigrationApplied(
+		final long version)
+		throws OmhException {
+		
+		try {
+			return
+				jdbcTemplate
+					.queryForObject(
+						"SELECT EXISTS(" +
+							"SELECT " + KEY_MIGRATION_VERSION + " " +
+							"FROM " + MIGRATION_TABLE_NAME + " " +
+							"WHERE " + KEY_MIGRATION_VERSION + " = ?" +
+						")",
+						new Object[] { version },
+						Boolean.class);
+		}
+		catch(DataAccessException e) {
+			throw
+				new OmhException(
+					"There was an error querying for a migration.",
+					e);
+		}
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.Dao#markMigrationApplied(org.openmhealth.reference.data.Migration)
+	 */
+	@Override
+	protected void markMigrationApplied(
+		final Migration migration)
+		throws OmhException {
+		
+		// If another server already recorded the migration, keep its record.
+		try {
+			jdbcTemplate
+				.update(
+					"INSERT IGNORE INTO " + MIGRATION_TABLE_NAME + " (" +
+							KEY_MIGRATION_VERSION + ", " +
+							KEY_MIGRATION_DESCRIPTION +
+						") " +
+						"VALUES (?, ?)",
+					migration.getVersion(),
+					migration.getDescription());
+		}
+		catch(DataAccessException e) {
+			throw
+				new OmhException(
+					"There was an error recording a migration.",
+					e);
+		}
+	}
+	
 	/**
 	 * Returns the instance of this DAO as a MongoDao.
 	 * 
@@ -217,6 +413,14 @@ public abstract class SqlDao extends Dao {
 	 */
 	protected abstract String getJdbcUrl();
 	
+	/**
+	 * Returns the fetch size that causes this database's driver to stream
+	 * result sets instead of reading them entirely into memory.
+	 * 
+	 * @return The fetch size to use for streaming queries.
+	 */
+	protected abstract int getStreamingFetchSize();
+	
 	/**
 	 * Initializes the DAOs' access to the database.
 	 * 
@@ -258,8 +462,31 @@ public abstract class SqlDao extends Dao {
 					e);
 		}
 		
-		// TODO: This is where the DAO interface's update scripts would
-		// be run.
+		// Create the table that records which migrations have been applied.
+		// The migrations themselves are applied after this transaction, as
+		// they may take a long time.
+		try {
+			jdbcTemplate
+				.execute(
+					"CREATE TABLE IF NOT EXISTS " +
+						MIGRATION_TABLE_NAME + "(" +
+							KEY_MIGRATION_VERSION +
+								" bigint unsigned NOT NULL, " +
+							KEY_MIGRATION_DESCRIPTION +
+								" varchar(255) NOT NULL, " +
+							KEY_MIGRATION_APPLIED +
+								" timestamp NOT NULL " +
+								"DEFAULT CURRENT_TIMESTAMP, " +
+							"PRIMARY KEY (" + KEY_MIGRATION_VERSION + ")" +
+						")");
+		}
+		catch(DataAccessException e) {
+			transactionManager.rollback(transactionStatus);
+			throw
+				new IllegalStateException(
+					"There was an issue creating the migration table.",
+					e);
+		}
 		
 		// Commit the transaction.
 		try {
@@ -0,0 +1,325 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.data.sql;
+
+import java.util.List;
+
+import org.openmhealth.reference.data.DataCountBin;
+import org.openmhealth.reference.data.DataSet;
+import org.openmhealth.reference.data.Registry;
+import org.openmhealth.reference.data.UserBin;
+import org.openmhealth.reference.domain.Schema;
+import org.openmhealth.reference.domain.User;
+import org.openmhealth.reference.exception.OmhException;
+import org.springframework.dao.DataAccessException;
+
+/**
+ * <p>
+ * The SQL implementation of the interface to the database-backed collection of
+ * data counters.
+ * </p>
+ *
+ * <p>
+ * A counter is created the first time data is stored for its user and schema
+ * ID-version pair by counting all of the existing data, so data stored before
+ * the counters existed is included. After that, it is only incremented, which
+ * does not read the data at all. Both happen in the transaction that stores
+ * the data.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class SqlDataCountBin extends DataCountBin implements SqlDaoInterface {
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.DataCountBin#getCount(java.lang.String, java.lang.String, long)
+	 */
+	@Override
+	public Long getCount(
+		final String owner,
+		final String schemaId,
+		final long version)
+		throws OmhException {
+
+		// Validate the parameters.
+		if(owner == null) {
+			throw new OmhException("The owner is null.");
+		}
+		if(schemaId == null) {
+			throw new OmhException("The schema ID is null.");
+		}
+
+		// Retrieve the counter, if it exists.
+		List<Long> result;
+		try {
+			result =
+				SqlDao
+					.getInstance()
+					.getJdbcTemplate()
+					.queryForList(
+						"SELECT " + KEY_COUNT + " " +
+							"FROM " +
+								UserBin.DB_NAME + ", " +
+								Registry.DB_NAME + ", " +
+								DataCountBin.DB_NAME + " " +
+							"WHERE " +
+									UserBin.DB_NAME +
+									"." +
+									SqlDao.KEY_DATABASE_ID +
+								" = " +
+									DataCountBin.DB_NAME +
+									"." +
+									UserBin.DB_NAME + "_id " +
+							"AND " + User.JSON_KEY_USERNAME + " = ? " +
+							"AND " +
+									Registry.DB_NAME +
+									"." +
+									SqlDao.KEY_DATABASE_ID +
+								" = " +
+									DataCountBin.DB_NAME +
+									"." +
+									Registry.DB_NAME + "_id " +
+							"AND " + Schema.JSON_KEY_ID + " = ? " +
+							"AND " + Schema.JSON_KEY_VERSION + " = ?",
+						new Object[] { owner, schemaId, version },
+						Long.class);
+		}
+		catch(DataAccessException e) {
+			throw
+				new OmhException(
+					"There was an error querying for the data count.",
+					e);
+		}
+
+		// If the counter does not exist, return null.
+		if(result.size() == 0) {
+			return null;
+		}
+		return result.get(0);
+	}
+
+	/**
+	 * Adds to the counter or, only if it does not yet exist, creates it by
+	 * counting the data. This joins the caller's transaction, if any, so the
+	 * counter changes if and only if the data does.
+	 */
+	@Override
+	public void incrementCount(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final long amount)
+		throws OmhException {
+
+		// Validate the parameters.
+		if(owner == null) {
+			throw new OmhException("The owner is null.");
+		}
+		if(schemaId == null) {
+			throw new OmhException("The schema ID is null.");
+		}
+
+		// Increment the counter, which only locks its row.
+		int updated;
+		try {
+			updated =
+				SqlDao
+					.getInstance()
+					.getJdbcTemplate()
+					.update(
+						"UPDATE " +
+								DataCountBin.DB_NAME + ", " +
+								UserBin.DB_NAME + ", " +
+								Registry.DB_NAME + " " +
+							"SET " +
+								DataCountBin.DB_NAME + "." + KEY_COUNT +
+									" = " +
+									DataCountBin.DB_NAME + "." + KEY_COUNT +
+									" + ? " +
+							"WHERE " + User.JSON_KEY_USERNAME + " = ? " +
+							"AND " + Schema.JSON_KEY_ID + " = ? " +
+							"AND " + Schema.JSON_KEY_VERSION + " = ? " +
+							"AND " +
+									UserBin.DB_NAME +
+									"." +
+									SqlDao.KEY_DATABASE_ID +
+								" = " +
+									DataCountBin.DB_NAME +
+									"." +
+									UserBin.DB_NAME + "_id " +
+							"AND " +
+									Registry.DB_NAME +
+									"." +
+									SqlDao.KEY_DATABASE_ID +
+								" = " +
+									DataCountBin.DB_NAME +
+									"." +
+									Registry.DB_NAME + "_id",
+						amount,
+						owner,
+						schemaId,
+						version);
+		}
+		catch(DataAccessException e) {
+			throw
+				new OmhException(
+					"There was a problem updating the data count.",
+					e);
+		}
+		if(updated > 0) {
+			return;
+		}
+
+		// Otherwise, create the counter by counting the data, which includes
+		// any data that was just stored in this transaction. If another
+		// transaction created it first, that one's count cannot include this
+		// transaction's data, so it is incremented instead.
+		try {
+			SqlDao
+				.getInstance()
+				.getJdbcTemplate()
+				.update(
+					"INSERT INTO " + DataCountBin.DB_NAME + " (" +
+							UserBin.DB_NAME + "_id, " +
+							Registry.DB_NAME + "_id, " +
+							KEY_COUNT +
+						") " +
+						"SELECT " +
+							UserBin.DB_NAME +
+								"." +
+								SqlDao.KEY_DATABASE_ID + ", " +
+							Registry.DB_NAME +
+								"." +
+								SqlDao.KEY_DATABASE_ID + ", " +
+							"COUNT(1) " +
+						"FROM " +
+							UserBin.DB_NAME + ", " +
+							Registry.DB_NAME + ", " +
+							DataSet.DB_NAME + " " +
+						"WHERE " + User.JSON_KEY_USERNAME + " = ? " +
+						"AND " + Schema.JSON_KEY_ID + " = ? " +
+						"AND " + Schema.JSON_KEY_VERSION + " = ? " +
+						"AND " +
+								UserBin.DB_NAME +
+								"." +
+								SqlDao.KEY_DATABASE_ID +
+							" = " +
+								DataSet.DB_NAME +
+								"." +
+								UserBin.DB_NAME + "_id " +
+						"AND " +
+								Registry.DB_NAME +
+								"." +
+								SqlDao.KEY_DATABASE_ID +
+							" = " +
+								DataSet.DB_NAME +
+								"." +
+								Registry.DB_NAME + "_id " +
+						"GROUP BY " +
+							UserBin.DB_NAME +
+								"." +
+								SqlDao.KEY_DATABASE_ID + ", " +
+							Registry.DB_NAME +
+								"." +
+								SqlDao.KEY_DATABASE_ID + " " +
+						"ON DUPLICATE KEY UPDATE " +
+							DataCountBin.DB_NAME + "." + KEY_COUNT +
+								" = " +
+								DataCountBin.DB_NAME + "." + KEY_COUNT +
+								" + ?",
+					owner,
+					schemaId,
+					version,
+					amount);
+		}
+		catch(DataAccessException e) {
+			throw
+				new OmhException(
+					"There was a problem updating the data count.",
+					e);
+		}
+	}
+
+	/**
+	 * The counters are updated in the same transaction as the data.
+	 */
+	@Override
+	public boolean isExact() {
+		return true;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.sql.SqlDaoInterface#getSqlTableDefinition()
+	 */
+	@Override
+	public String getSqlTableDefinition() {
+		return
+			// Create the table if it does not exist.
+			"CREATE TABLE IF NOT EXISTS " +
+				DataCountBin.DB_NAME + "(" +
+					// Add the reference to the user table.
+					UserBin.DB_NAME + "_id int unsigned NOT NULL, " +
+					// Add the reference to the registry table.
+					Registry.DB_NAME + "_id int unsigned NOT NULL, " +
+					// Add the count.
+					KEY_COUNT + " bigint unsigned NOT NULL, " +
+					// Create the primary key.
+					"PRIMARY KEY (" +
+						UserBin.DB_NAME + "_id, " +
+						Registry.DB_NAME + "_id" +
+					"), " +
+					// Link to the user table.
+					"CONSTRAINT " +
+						"`" +
+							DataCountBin.DB_NAME +
+								"_fk_" +
+								UserBin.DB_NAME + "_id" +
+						"` " +
+						"FOREIGN KEY " +
+						"`" +
+							DataCountBin.DB_NAME +
+								"_index_" +
+								UserBin.DB_NAME + "_id" +
+						"` " +
+						"(" + UserBin.DB_NAME + "_id) " +
+						"REFERENCES " +
+							UserBin.DB_NAME + " " +
+								"(" + SqlDao.KEY_DATABASE_ID + ") " +
+								"ON UPDATE CASCADE " +
+								"ON DELETE CASCADE, " +
+					// Link to the registry.
+					"CONSTRAINT " +
+						"`" +
+							DataCountBin.DB_NAME +
+								"_fk_" +
+								Registry.DB_NAME + "_id" +
+						"` " +
+						"FOREIGN KEY " +
+						"`" +
+							DataCountBin.DB_NAME +
+								"_index_" +
+								Registry.DB_NAME + "_id" +
+						"` " +
+						"(" + Registry.DB_NAME + "_id) " +
+						"REFERENCES " +
+							Registry.DB_NAME + " " +
+								"(" + SqlDao.KEY_DATABASE_ID + ") " +
+								"ON UPDATE CASCADE " +
+								"ON DELETE CASCADE" +
+				")";
+	}
+}
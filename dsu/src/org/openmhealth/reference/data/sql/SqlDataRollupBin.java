@@ -0,0 +1,643 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.data.sql;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Properties;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.openmhealth.reference.data.DataRollupBin;
+import org.openmhealth.reference.data.DataSet;
+import org.openmhealth.reference.data.Registry;
+import org.openmhealth.reference.data.UserBin;
+import org.openmhealth.reference.domain.DataSummary;
+import org.openmhealth.reference.domain.Schema;
+import org.openmhealth.reference.domain.User;
+import org.openmhealth.reference.exception.OmhException;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.DefaultTransactionDefinition;
+
+/**
+ * <p>
+ * The SQL implementation of the interface to the database-backed collection of
+ * rollups.
+ * </p>
+ *
+ * <p>
+ * Rollups are updated in the transaction that stores their data, and each
+ * user's data is added by a build in the transaction that records it.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class SqlDataRollupBin extends DataRollupBin implements SqlDaoInterface {
+	/**
+	 * The INSERT portion of the statements that create or update a rollup,
+	 * which must be followed by an ON DUPLICATE KEY UPDATE clause. The
+	 * parameters are the field, interval, start, count, minimum, maximum,
+	 * sum, username, schema ID, and schema version.
+	 */
+	private static final String SQL_INSERT_ROLLUP =
+		"INSERT INTO " + DataRollupBin.DB_NAME + " (" +
+				UserBin.DB_NAME + "_id, " +
+				Registry.DB_NAME + "_id, " +
+				KEY_FIELD + ", " +
+				KEY_INTERVAL + ", " +
+				KEY_START + ", " +
+				KEY_COUNT + ", " +
+				KEY_MIN + ", " +
+				KEY_MAX + ", " +
+				KEY_SUM +
+			") " +
+			"SELECT " +
+				UserBin.DB_NAME + "." + SqlDao.KEY_DATABASE_ID + ", " +
+				Registry.DB_NAME + "." + SqlDao.KEY_DATABASE_ID + ", " +
+				"?, ?, ?, ?, ?, ?, ? " +
+			"FROM " + UserBin.DB_NAME + ", " + Registry.DB_NAME + " " +
+			"WHERE " + User.JSON_KEY_USERNAME + " = ? " +
+			"AND " + Schema.JSON_KEY_ID + " = ? " +
+			"AND " + Schema.JSON_KEY_VERSION + " = ? " +
+			"ON DUPLICATE KEY UPDATE ";
+	/**
+	 * The conditions that limit a query to a rollup's definition. The
+	 * parameters are the schema ID, schema version, field, and interval.
+	 */
+	private static final String SQL_DEFINITION_MATCHES =
+		Schema.JSON_KEY_ID + " = ? " +
+		"AND " + Schema.JSON_KEY_VERSION + " = ? " +
+		"AND " + KEY_FIELD + " = ? " +
+		"AND " + KEY_INTERVAL + " = ?";
+
+	/**
+	 * Creates the bin and reads the rollup definitions.
+	 *
+	 * @param properties
+	 *        The properties, which may contain the
+	 *        {@link DataRollupBin#PROPERTY_KEY_ROLLUPS} property.
+	 */
+	public SqlDataRollupBin(final Properties properties) {
+		super(properties);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.DataRollupBin#getRollups(java.lang.String, org.openmhealth.reference.data.DataRollupBin.Definition, org.joda.time.DateTime, org.joda.time.DateTime)
+	 */
+	@Override
+	public List<DataSummary> getRollups(
+		final String owner,
+		final Definition definition,
+		final DateTime startDate,
+		final DateTime endDate)
+		throws OmhException {
+
+		// Validate the parameters.
+		if(owner == null) {
+			throw new OmhException("The owner is null.");
+		}
+		if(definition == null) {
+			throw new OmhException("The definition is null.");
+		}
+
+		// Build the query.
+		List<Object> parameters = new LinkedList<Object>();
+		StringBuilder sql =
+			new StringBuilder(
+				"SELECT " +
+					KEY_START + ", " +
+					KEY_COUNT + ", " +
+					KEY_MIN + ", " +
+					KEY_MAX + ", " +
+					KEY_SUM + " " +
+				"FROM " +
+					UserBin.DB_NAME + ", " +
+					Registry.DB_NAME + ", " +
+					DataRollupBin.DB_NAME + " " +
+				"WHERE " +
+						UserBin.DB_NAME + "." + SqlDao.KEY_DATABASE_ID +
+					" = " +
+						DataRollupBin.DB_NAME + "." + UserBin.DB_NAME + "_id " +
+				"AND " + User.JSON_KEY_USERNAME + " = ? " +
+				"AND " +
+						Registry.DB_NAME + "." + SqlDao.KEY_DATABASE_ID +
+					" = " +
+						DataRollupBin.DB_NAME + "." + Registry.DB_NAME + "_id " +
+				"AND " + Schema.JSON_KEY_ID + " = ? " +
+				"AND " + Schema.JSON_KEY_VERSION + " = ? " +
+				"AND " + KEY_FIELD + " = ? " +
+				"AND " + KEY_INTERVAL + " = ? ");
+		parameters.add(owner);
+		parameters.add(definition.getSchemaId());
+		parameters.add(definition.getVersion());
+		parameters.add(definition.getField());
+		parameters.add(definition.getInterval().toString());
+
+		// Include the interval that contains the start date.
+		if(startDate != null) {
+			sql.append("AND " + KEY_START + " >= ? ");
+			parameters
+				.add(
+					definition.getInterval().getStart(startDate).getMillis());
+		}
+		if(endDate != null) {
+			sql.append("AND " + KEY_START + " <= ? ");
+			parameters.add(endDate.getMillis());
+		}
+		sql.append("ORDER BY " + KEY_START + " ASC");
+
+		// Read the rollups.
+		try {
+			return
+				SqlDao
+					.getInstance()
+					.getJdbcTemplate()
+					.query(
+						sql.toString(),
+						parameters.toArray(),
+						new RowMapper<DataSummary>() {
+							/**
+							 * Maps the row to a {@link DataSummary}.
+							 */
+							@Override
+							public DataSummary mapRow(
+								final ResultSet resultSet,
+								final int rowNum)
+								throws SQLException {
+
+								return
+									new DataSummary(
+										new DateTime(
+											resultSet.getLong(KEY_START),
+											DateTimeZone.UTC),
+										resultSet.getLong(KEY_COUNT),
+										resultSet.getDouble(KEY_MIN),
+										resultSet.getDouble(KEY_MAX),
+										resultSet.getDouble(KEY_SUM));
+							}
+						});
+		}
+		catch(DataAccessException e) {
+			throw
+				new OmhException(
+					"There was an error querying for the rollups.",
+					e);
+		}
+	}
+
+	/**
+	 * Adds to the rollup in the caller's transaction, if any, so the rollup
+	 * changes if and only if the data does.
+	 */
+	@Override
+	protected void addToRollup(
+		final String owner,
+		final Definition definition,
+		final DataSummary summary)
+		throws OmhException {
+
+		updateRollup(
+			owner,
+			definition,
+			summary,
+			KEY_COUNT + " = " + KEY_COUNT + " + VALUES(" + KEY_COUNT + "), " +
+				KEY_MIN + " = LEAST(" +
+					KEY_MIN + ", VALUES(" + KEY_MIN + ")" +
+				"), " +
+				KEY_MAX + " = GREATEST(" +
+					KEY_MAX + ", VALUES(" + KEY_MAX + ")" +
+				"), " +
+				KEY_SUM + " = " + KEY_SUM + " + VALUES(" + KEY_SUM + ")");
+	}
+
+	/**
+	 * Records the build in its own table, so its progress is kept even if the
+	 * rollups are empty.
+	 */
+	@Override
+	protected Build getBuild(
+		final Definition definition)
+		throws OmhException {
+
+		JdbcTemplate jdbcTemplate = SqlDao.getInstance().getJdbcTemplate();
+		Object[] key =
+			new Object[] {
+				definition.getSchemaId(),
+				definition.getVersion(),
+				definition.getField(),
+				definition.getInterval().toString()
+			};
+
+		try {
+			// Record the newest point, unless the build was already recorded,
+			// e.g. by another server.
+			int recorded =
+				jdbcTemplate
+					.update(
+						"INSERT IGNORE INTO " + DB_NAME_BUILD + " (" +
+								Schema.JSON_KEY_ID + ", " +
+								Schema.JSON_KEY_VERSION + ", " +
+								KEY_FIELD + ", " +
+								KEY_INTERVAL + ", " +
+								KEY_LAST_DATABASE_ID + ", " +
+								KEY_COMPLETE +
+							") " +
+							"SELECT ?, ?, ?, ?, " +
+								"MAX(" + SqlDao.KEY_DATABASE_ID + "), " +
+								"false " +
+							"FROM " + DataSet.DB_NAME,
+						key);
+
+			// Remove any rollups from before builds were recorded, as the
+			// build adds all of the existing data.
+			if(recorded > 0) {
+				jdbcTemplate
+					.update(
+						"DELETE " + DataRollupBin.DB_NAME + " " +
+							"FROM " +
+								Registry.DB_NAME + ", " +
+								DataRollupBin.DB_NAME + " " +
+							"WHERE " +
+									Registry.DB_NAME +
+									"." +
+									SqlDao.KEY_DATABASE_ID +
+								" = " +
+									DataRollupBin.DB_NAME +
+									"." +
+									Registry.DB_NAME + "_id " +
+							"AND " + SQL_DEFINITION_MATCHES,
+						key);
+			}
+
+			// Read the build's progress.
+			return
+				jdbcTemplate
+					.queryForObject(
+						"SELECT " +
+								KEY_LAST_DATABASE_ID + ", " +
+								KEY_LAST_OWNER + ", " +
+								KEY_COMPLETE + " " +
+							"FROM " + DB_NAME_BUILD + " " +
+							"WHERE " + SQL_DEFINITION_MATCHES,
+						key,
+						new RowMapper<Build>() {
+							/**
+							 * Maps the row to a {@link Build}.
+							 */
+							@Override
+							public Build mapRow(
+								final ResultSet resultSet,
+								final int rowNum)
+								throws SQLException {
+
+								long lastDatabaseId =
+									resultSet.getLong(KEY_LAST_DATABASE_ID);
+								return
+									new Build(
+										resultSet.wasNull() ?
+											null :
+											Long.toString(lastDatabaseId),
+										resultSet.getString(KEY_LAST_OWNER),
+										resultSet.getBoolean(KEY_COMPLETE));
+							}
+						});
+		}
+		catch(DataAccessException e) {
+			throw
+				new OmhException(
+					"There was an error recording the rollup's build.",
+					e);
+		}
+	}
+
+	/**
+	 * Adds the rollups and records the user in one transaction, so a build
+	 * that is interrupted never adds a user's data twice.
+	 */
+	@Override
+	protected void addBuiltRollups(
+		final String owner,
+		final Definition definition,
+		final List<DataSummary> summaries)
+		throws OmhException {
+
+		// Get the DAO.
+		SqlDao dao = SqlDao.getInstance();
+
+		// Get the transaction manager.
+		PlatformTransactionManager transactionManager =
+			dao.getTransactionManager();
+
+		// Create a new transaction definition and name it.
+		DefaultTransactionDefinition transactionDefinition =
+			new DefaultTransactionDefinition();
+		transactionDefinition.setName("Building a user's rollups.");
+
+		// Create the new transaction.
+		TransactionStatus transactionStatus =
+			transactionManager.getTransaction(transactionDefinition);
+
+		try {
+			// Add to the rollups, which may already include data that was
+			// stored after the rollup was configured.
+			for(DataSummary summary : summaries) {
+				addToRollup(owner, definition, summary);
+			}
+
+			// Record that the user's data was added.
+			dao
+				.getJdbcTemplate()
+				.update(
+					"UPDATE " + DB_NAME_BUILD + " " +
+						"SET " + KEY_LAST_OWNER + " = ? " +
+						"WHERE " + SQL_DEFINITION_MATCHES,
+					owner,
+					definition.getSchemaId(),
+					definition.getVersion(),
+					definition.getField(),
+					definition.getInterval().toString());
+
+			// Commit the transaction.
+			transactionManager.commit(transactionStatus);
+		}
+		catch(DataAccessException e) {
+			transactionManager.rollback(transactionStatus);
+			throw
+				new OmhException(
+					"There was a problem building the rollup.",
+					e);
+		}
+		catch(OmhException e) {
+			transactionManager.rollback(transactionStatus);
+			throw e;
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.DataRollupBin#completeBuild(org.openmhealth.reference.data.DataRollupBin.Definition)
+	 */
+	@Override
+	protected void completeBuild(
+		final Definition definition)
+		throws OmhException {
+
+		try {
+			SqlDao
+				.getInstance()
+				.getJdbcTemplate()
+				.update(
+					"UPDATE " + DB_NAME_BUILD + " " +
+						"SET " + KEY_COMPLETE + " = true " +
+						"WHERE " + SQL_DEFINITION_MATCHES,
+					definition.getSchemaId(),
+					definition.getVersion(),
+					definition.getField(),
+					definition.getInterval().toString());
+		}
+		catch(DataAccessException e) {
+			throw
+				new OmhException(
+					"There was an error recording the rollup's build.",
+					e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.DataRollupBin#getOwners(java.lang.String, long)
+	 */
+	@Override
+	protected List<String> getOwners(
+		final String schemaId,
+		final long version)
+		throws OmhException {
+
+		try {
+			return
+				SqlDao
+					.getInstance()
+					.getJdbcTemplate()
+					.queryForList(
+						"SELECT DISTINCT " + User.JSON_KEY_USERNAME + " " +
+							"FROM " +
+								UserBin.DB_NAME + ", " +
+								Registry.DB_NAME + ", " +
+								DataSet.DB_NAME + " " +
+							"WHERE " +
+									UserBin.DB_NAME +
+									"." +
+									SqlDao.KEY_DATABASE_ID +
+								" = " +
+									DataSet.DB_NAME +
+									"." +
+									UserBin.DB_NAME + "_id " +
+							"AND " +
+									Registry.DB_NAME +
+									"." +
+									SqlDao.KEY_DATABASE_ID +
+								" = " +
+									DataSet.DB_NAME +
+									"." +
+									Registry.DB_NAME + "_id " +
+							"AND " + Schema.JSON_KEY_ID + " = ? " +
+							"AND " + Schema.JSON_KEY_VERSION + " = ?",
+						new Object[] { schemaId, version },
+						String.class);
+		}
+		catch(DataAccessException e) {
+			throw
+				new OmhException(
+					"There was an error querying for the data's owners.",
+					e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.sql.SqlDaoInterface#getSqlTableDefinition()
+	 */
+	@Override
+	public String getSqlTableDefinition() {
+		return
+			// Create the table if it does not exist.
+			"CREATE TABLE IF NOT EXISTS " +
+				DataRollupBin.DB_NAME + "(" +
+					// Add the reference to the user table.
+					UserBin.DB_NAME + "_id int unsigned NOT NULL, " +
+					// Add the reference to the registry table.
+					Registry.DB_NAME + "_id int unsigned NOT NULL, " +
+					// Add the field.
+					KEY_FIELD + " varchar(128) NOT NULL, " +
+					// Add the interval.
+					KEY_INTERVAL + " varchar(8) NOT NULL, " +
+					// Add the start of the interval.
+					KEY_START + " bigint NOT NULL, " +
+					// Add the aggregates.
+					KEY_COUNT + " bigint unsigned NOT NULL, " +
+					KEY_MIN + " double NOT NULL, " +
+					KEY_MAX + " double NOT NULL, " +
+					KEY_SUM + " double NOT NULL, " +
+					// Create the primary key.
+					"PRIMARY KEY (" +
+						UserBin.DB_NAME + "_id, " +
+						Registry.DB_NAME + "_id, " +
+						KEY_FIELD + ", " +
+						KEY_INTERVAL + ", " +
+						KEY_START +
+					"), " +
+					// Link to the user table.
+					"CONSTRAINT " +
+						"`" +
+							DataRollupBin.DB_NAME +
+								"_fk_" +
+								UserBin.DB_NAME + "_id" +
+						"` " +
+						"FOREIGN KEY " +
+						"`" +
+							DataRollupBin.DB_NAME +
+								"_index_" +
+								UserBin.DB_NAME + "_id" +
+						"` " +
+						"(" + UserBin.DB_NAME + "_id) " +
+						"REFERENCES " +
+							UserBin.DB_NAME + " " +
+								"(" + SqlDao.KEY_DATABASE_ID + ") " +
+								"ON UPDATE CASCADE " +
+								"ON DELETE CASCADE, " +
+					// Link to the registry.
+					"CONSTRAINT " +
+						"`" +
+							DataRollupBin.DB_NAME +
+								"_fk_" +
+								Registry.DB_NAME + "_id" +
+						"` " +
+						"FOREIGN KEY " +
+						"`" +
+							DataRollupBin.DB_NAME +
+								"_index_" +
+								Registry.DB_NAME + "_id" +
+						"` " +
+						"(" + Registry.DB_NAME + "_id) " +
+						"REFERENCES " +
+							Registry.DB_NAME + " " +
+								"(" + SqlDao.KEY_DATABASE_ID + ") " +
+								"ON UPDATE CASCADE " +
+								"ON DELETE CASCADE" +
+				")";
+	}
+
+	/**
+	 * Returns the table that records the progress of each rollup's build.
+	 * The rollups themselves reference the registry, but a build is
+	 * recorded by its schema ID and version, as it may be configured before
+	 * the schema exists.
+	 *
+	 * @return The table that records the progress of each rollup's build.
+	 */
+	public SqlDaoInterface getBuildTable() {
+		return
+			new SqlDaoInterface() {
+				/*
+				 * (non-Javadoc)
+				 * @see org.openmhealth.reference.data.sql.SqlDaoInterface#getSqlTableDefinition()
+				 */
+				@Override
+				public String getSqlTableDefinition() {
+					return
+						// Create the table if it does not exist.
+						"CREATE TABLE IF NOT EXISTS " +
+							DB_NAME_BUILD + "(" +
+								// Add the definition.
+								Schema.JSON_KEY_ID + " varchar(36) NOT NULL, " +
+								Schema.JSON_KEY_VERSION + " bigint NOT NULL, " +
+								KEY_FIELD + " varchar(128) NOT NULL, " +
+								KEY_INTERVAL + " varchar(8) NOT NULL, " +
+								// Add the newest point to build, if any.
+								KEY_LAST_DATABASE_ID + " bigint unsigned, " +
+								// Add the last user that was built, if any.
+								KEY_LAST_OWNER + " varchar(36), " +
+								// Add whether or not the build has finished.
+								KEY_COMPLETE + " boolean NOT NULL, " +
+								// Create the primary key.
+								"PRIMARY KEY (" +
+									Schema.JSON_KEY_ID + ", " +
+									Schema.JSON_KEY_VERSION + ", " +
+									KEY_FIELD + ", " +
+									KEY_INTERVAL +
+								")" +
+							")";
+				}
+			};
+	}
+
+	/**
+	 * Creates a rollup or, if it exists, updates it.
+	 *
+	 * @param owner
+	 *        The username of the user that owns the data.
+	 *
+	 * @param definition
+	 *        The rollup's definition.
+	 *
+	 * @param summary
+	 *        The summary for one interval.
+	 *
+	 * @param onDuplicate
+	 *        The assignments to make if the rollup already exists.
+	 *
+	 * @throws OmhException
+	 *         The rollup could not be updated.
+	 */
+	private static void updateRollup(
+		final String owner,
+		final Definition definition,
+		final DataSummary summary,
+		final String onDuplicate)
+		throws OmhException {
+
+		try {
+			SqlDao
+				.getInstance()
+				.getJdbcTemplate()
+				.update(
+					SQL_INSERT_ROLLUP + onDuplicate,
+					definition.getField(),
+					definition.getInterval().toString(),
+					summary.getStart().getMillis(),
+					summary.getCount(),
+					summary.getMin(),
+					summary.getMax(),
+					summary.getSum(),
+					owner,
+					definition.getSchemaId(),
+					definition.getVersion());
+		}
+		catch(DataAccessException e) {
+			throw
+				new OmhException(
+					"There was a problem updating the rollup.",
+					e);
+		}
+	}
+}
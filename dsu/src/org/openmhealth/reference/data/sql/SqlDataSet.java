@@ -1,38 +1,48 @@
 package org.openmhealth.reference.data.sql;
 
 import java.io.IOException;
+import java.io.StringWriter;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
 
 import org.joda.time.DateTime;
+import org.openmhealth.reference.data.DataRollupBin;
 import org.openmhealth.reference.data.DataSet;
 import org.openmhealth.reference.data.Registry;
 import org.openmhealth.reference.data.UserBin;
 import org.openmhealth.reference.domain.ColumnList;
+import org.openmhealth.reference.domain.ContinuationToken;
 import org.openmhealth.reference.domain.Data;
+import org.openmhealth.reference.domain.DataSummary;
 import org.openmhealth.reference.domain.MetaData;
 import org.openmhealth.reference.domain.MultiValueResult;
+import org.openmhealth.reference.domain.RawJsonNode;
 import org.openmhealth.reference.domain.Schema;
 import org.openmhealth.reference.domain.User;
-import org.openmhealth.reference.domain.sql.SqlMultiValueResult;
+import org.openmhealth.reference.domain.sql.SqlData;
 import org.openmhealth.reference.exception.OmhException;
 import org.openmhealth.reference.util.ISOW3CDateTimeFormat;
 import org.springframework.dao.DataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.support.DefaultTransactionDefinition;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 
 /**
  * <p>
@@ -43,11 +53,222 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
  * @author John Jenkins
  */
 public class SqlDataSet extends DataSet implements SqlDaoInterface {
+	/**
+	 * <p>
+	 * Maps a row from the data query to a {@link Data} object.
+	 * </p>
+	 *
+	 * @author John Jenkins
+	 */
+	private static class DataRowMapper implements RowMapper<Data> {
+		/**
+		 * The column list to apply to each point.
+		 */
+		private final ColumnList columnList;
+		
+		/**
+		 * Creates a new mapper that applies the given column list.
+		 * 
+		 * @param columnList
+		 *        The column list to apply to each point.
+		 */
+		public DataRowMapper(final ColumnList columnList) {
+			this.columnList = columnList;
+		}
+		
+		/**
+		 * Maps the row to a {@link Data} object.
+		 */
+		@Override
+		public Data mapRow(
+			final ResultSet resultSet,
+			final int rowNum)
+			throws SQLException {
+			
+			// Get the username.
+			String username = resultSet.getString(User.JSON_KEY_USERNAME);
+			// Get the schema's ID.
+			String id = resultSet.getString(Schema.JSON_KEY_ID);
+			// Get the stream's version.
+			long version = resultSet.getLong(Schema.JSON_KEY_VERSION);
+			
+			// Build the meta-data.
+			MetaData.Builder metaDataBuilder = new MetaData.Builder();
+			// Get and set the ID, even if it is null.
+			metaDataBuilder.setId(resultSet.getString(COLUMN_METADATA_ID));
+			// Get the timestamp.
+			String metaDataTimestampString =
+				resultSet.getString(COLUMN_METADATA_TIMESTAMP);
+			// If the timestamp is not null, decode it and set it.
+			if(metaDataTimestampString != null) {
+				metaDataBuilder
+					.setTimestamp(
+						ISOW3CDateTimeFormat
+							.any()
+							.parseDateTime(metaDataTimestampString));
+			}
+			// If the builder has no non-null members, create a MetaData
+			// object; otherwise, just leave it as null.
+			MetaData metaData =
+				((metaDataBuilder.isNull()) ? null : metaDataBuilder.build());
+			
+			// Get the data. If every column is desired, pass the stored JSON
+			// through as-is instead of parsing it only to write it back out.
+			String dataString = resultSet.getString(Data.JSON_KEY_DATA);
+			JsonNode data;
+			if((columnList == null) || (columnList.size() == 0)) {
+				data = new RawJsonNode(dataString);
+			}
+			else {
+				// Otherwise, copy only the desired fields, skipping the rest
+				// without building a tree.
+				StringWriter writer = new StringWriter(dataString.length());
+				try {
+					JsonParser parser =
+						JSON_MAPPER.getFactory().createParser(dataString);
+					JsonGenerator generator =
+						JSON_MAPPER.getFactory().createGenerator(writer);
+					columnList.project(parser, generator);
+					generator.close();
+					parser.close();
+				}
+				catch(IOException e) {
+					throw new SQLException("Error decoding the data.", e);
+				}
+				data = new RawJsonNode(writer.toString());
+			}
+			
+			// Create a Data object and return it.
+			return
+				new SqlData(
+					resultSet.getLong(SqlDao.KEY_DATABASE_ID),
+					username,
+					id,
+					version,
+					metaData,
+					data);
+		}
+	}
+	
+	/**
+	 * <p>
+	 * A bounded cache of database IDs that drops the least recently used ID
+	 * once it is full.
+	 * </p>
+	 *
+	 * @author John Jenkins
+	 */
+	private static class IdCache<K> extends LinkedHashMap<K, Long> {
+		/**
+		 * The version of this class for serialization purposes.
+		 */
+		private static final long serialVersionUID = 1L;
+		
+		/**
+		 * The most IDs that are cached.
+		 */
+		private final int maxSize;
+		
+		/**
+		 * Creates an empty cache.
+		 * 
+		 * @param maxSize
+		 *        The most IDs that are cached.
+		 */
+		public IdCache(final int maxSize) {
+			super(16, 0.75f, true);
+			this.maxSize = maxSize;
+		}
+		
+		/**
+		 * Drops the least recently used ID once the cache is full.
+		 */
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<K, Long> eldest) {
+			return size() > maxSize;
+		}
+	}
+	
 	/**
 	 * A standard mapping factory for converting POJOs to JSON and visa versa.
 	 */
 	private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
 	
+	/**
+	 * The column for the meta-data's ID.
+	 */
+	private static final String COLUMN_METADATA_ID =
+		Data.JSON_KEY_METADATA + "_" + MetaData.JSON_KEY_ID;
+	/**
+	 * The column for the meta-data's timestamp.
+	 */
+	private static final String COLUMN_METADATA_TIMESTAMP =
+		Data.JSON_KEY_METADATA + "_" + MetaData.JSON_KEY_TIMESTAMP;
+	
+	/**
+	 * The number of columns that are set for each inserted point.
+	 */
+	private static final int COLUMNS_PER_INSERT = 5;
+	/**
+	 * The most points that are inserted by a single statement.
+	 */
+	private static final int MAX_ROWS_PER_INSERT = 100;
+	/**
+	 * The most user and schema database IDs that are cached, each.
+	 */
+	private static final int MAX_CACHED_IDS = 10000;
+	/**
+	 * The database IDs of users by their username. Users are never deleted,
+	 * so the IDs never change. This must be synchronized on.
+	 */
+	private static final Map<String, Long> USER_IDS =
+		new IdCache<String>(MAX_CACHED_IDS);
+	/**
+	 * The database IDs of schemas by their {@link #schemaKey(String, long)
+	 * key}. Schemas are never deleted, so the IDs never change. This must be
+	 * synchronized on.
+	 */
+	private static final Map<String, Long> SCHEMA_IDS =
+		new IdCache<String>(MAX_CACHED_IDS);
+	
+	/**
+	 * The data table's database ID column, which must be qualified because
+	 * every joined table has one.
+	 */
+	private static final String COLUMN_DATABASE_ID =
+		DataSet.DB_NAME + "." + SqlDao.KEY_DATABASE_ID;
+	
+	/**
+	 * The SELECT portion of the query for data, which includes all of the
+	 * columns required to build the object.
+	 */
+	private static final String SQL_SELECT_DATA =
+		"SELECT " +
+			COLUMN_DATABASE_ID + ", " +
+			User.JSON_KEY_USERNAME + ", " +
+			Schema.JSON_KEY_ID + ", " +
+			Schema.JSON_KEY_VERSION + ", " +
+			COLUMN_METADATA_ID + ", " +
+			COLUMN_METADATA_TIMESTAMP + ", " +
+			Data.JSON_KEY_DATA + " ";
+	
+	/**
+	 * The ORDER BY clause for data in the usual, newest-first order, which
+	 * places points without a timestamp last.
+	 */
+	private static final String SQL_ORDER_DESCENDING =
+		"ORDER BY " +
+			COLUMN_METADATA_TIMESTAMP + " DESC, " +
+			COLUMN_DATABASE_ID + " DESC ";
+	/**
+	 * The ORDER BY clause for data in the reverse of the usual order, which
+	 * is used when reading backward from a continuation token.
+	 */
+	private static final String SQL_ORDER_ASCENDING =
+		"ORDER BY " +
+			COLUMN_METADATA_TIMESTAMP + " ASC, " +
+			COLUMN_DATABASE_ID + " ASC ";
+	
 	/*
 	 * (non-Javadoc)
 	 * @see org.openmhealth.reference.data.DataSet#setData(java.util.List)
@@ -113,33 +334,41 @@ public class SqlDataSet extends DataSet implements SqlDaoInterface {
 		
 		// Add the data.
 		try {
-			jdbcTemplate
-				.batchUpdate(
-					"INSERT INTO " + DataSet.DB_NAME + " (" +
-							UserBin.DB_NAME + "_id" + ", " +
-							Registry.DB_NAME + "_id" + ", " +
-							Data.JSON_KEY_METADATA + "_" + 
-								MetaData.JSON_KEY_ID + ", " +
-							Data.JSON_KEY_METADATA + "_" +
-								MetaData.JSON_KEY_TIMESTAMP + ", " +
-							Data.JSON_KEY_DATA + " " +
-						") VALUES (" +
-							"(" +
-								"SELECT " + SqlDao.KEY_DATABASE_ID + " " +
-								"FROM " + UserBin.DB_NAME + " " +
-								"WHERE " + User.JSON_KEY_USERNAME + " = ?" +
-							"), " +
-							"(" +
-								"SELECT " + SqlDao.KEY_DATABASE_ID + " " +
-								"FROM " + Registry.DB_NAME + " " +
-								"WHERE " + Schema.JSON_KEY_ID + " = ? " +
-								"AND " + Schema.JSON_KEY_VERSION + " = ?" +
-							"), " +
-							"?, " +
-							"?, " +
-							"?" +
-						")",
-					points);
+			// Resolve the users' and schemas' database IDs once for the whole
+			// batch.
+			Map<String, Long> userIds = getUserIds(jdbcTemplate, data);
+			Map<String, Long> schemaIds = getSchemaIds(jdbcTemplate, data);
+			
+			// Insert the points several rows at a time.
+			for(
+				int start = 0;
+				start < points.size();
+				start += MAX_ROWS_PER_INSERT) {
+				
+				int end =
+					Math.min(points.size(), start + MAX_ROWS_PER_INSERT);
+				Object[] parameters =
+					new Object[(end - start) * COLUMNS_PER_INSERT];
+				int parameter = 0;
+				for(Object[] point : points.subList(start, end)) {
+					parameters[parameter++] = userIds.get(point[0]);
+					parameters[parameter++] =
+						schemaIds
+							.get(
+								schemaKey(
+									(String) point[1],
+									(Long) point[2]));
+					parameters[parameter++] = point[3];
+					parameters[parameter++] = point[4];
+					parameters[parameter++] = point[5];
+				}
+				
+				jdbcTemplate.update(buildInsert(end - start), parameters);
+			}
+			
+			// Update the counters and rollups in the same transaction.
+			incrementCounts(data);
+			DataRollupBin.getInstance().updateRollups(data);
 			
 			// Commit the transaction.
 			transactionManager.commit(transactionStatus);
@@ -148,11 +377,264 @@ public class SqlDataSet extends DataSet implements SqlDaoInterface {
 			transactionManager.rollback(transactionStatus);
 			throw new OmhException("There was a problem storing the data.", e);
 		}
+		catch(OmhException e) {
+			transactionManager.rollback(transactionStatus);
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the database IDs of the owners of some data, reading only the
+	 * ones that are not already cached, all in one query.
+	 * 
+	 * @param jdbcTemplate
+	 *        The template to use to read the IDs.
+	 * 
+	 * @param data
+	 *        The data whose owners' IDs are needed.
+	 * 
+	 * @return The database ID of each owner by their username.
+	 * 
+	 * @throws OmhException
+	 *         An owner is unknown.
+	 */
+	private static Map<String, Long> getUserIds(
+		final JdbcTemplate jdbcTemplate,
+		final List<Data> data)
+		throws OmhException {
+		
+		// Find the owners and which of them are already cached.
+		final Map<String, Long> result = new HashMap<String, Long>();
+		List<Object> missing = new ArrayList<Object>();
+		synchronized(USER_IDS) {
+			for(Data point : data) {
+				String owner = point.getOwner();
+				if(! result.containsKey(owner)) {
+					Long id = USER_IDS.get(owner);
+					result.put(owner, id);
+					if(id == null) {
+						missing.add(owner);
+					}
+				}
+			}
+		}
+		
+		// Read the rest.
+		if(missing.size() > 0) {
+			jdbcTemplate
+				.query(
+					"SELECT " +
+							SqlDao.KEY_DATABASE_ID + ", " +
+							User.JSON_KEY_USERNAME + " " +
+						"FROM " + UserBin.DB_NAME + " " +
+						"WHERE " + User.JSON_KEY_USERNAME + " IN (" +
+							buildPlaceholders(missing.size()) +
+						")",
+					missing.toArray(),
+					new RowCallbackHandler() {
+						/**
+						 * Records each owner's ID.
+						 */
+						@Override
+						public void processRow(
+							final ResultSet resultSet)
+							throws SQLException {
+							
+							result
+								.put(
+									resultSet
+										.getString(User.JSON_KEY_USERNAME),
+									resultSet
+										.getLong(SqlDao.KEY_DATABASE_ID));
+						}
+					});
+			
+			synchronized(USER_IDS) {
+				for(Object owner : missing) {
+					Long id = result.get(owner);
+					if(id == null) {
+						throw
+							new OmhException(
+								"The user is unknown: " + owner);
+					}
+					USER_IDS.put((String) owner, id);
+				}
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Returns the database IDs of the schemas of some data, reading only the
+	 * ones that are not already cached, all in one query.
+	 * 
+	 * @param jdbcTemplate
+	 *        The template to use to read the IDs.
+	 * 
+	 * @param data
+	 *        The data whose schemas' IDs are needed.
+	 * 
+	 * @return The database ID of each schema by its
+	 *         {@link #schemaKey(String, long) key}.
+	 * 
+	 * @throws OmhException
+	 *         A schema is unknown.
+	 */
+	private static Map<String, Long> getSchemaIds(
+		final JdbcTemplate jdbcTemplate,
+		final List<Data> data)
+		throws OmhException {
+		
+		// Find the schemas and which of them are already cached.
+		final Map<String, Long> result = new HashMap<String, Long>();
+		List<String> missing = new ArrayList<String>();
+		List<Object> parameters = new ArrayList<Object>();
+		synchronized(SCHEMA_IDS) {
+			for(Data point : data) {
+				String key =
+					schemaKey(point.getSchemaId(), point.getSchemaVersion());
+				if(! result.containsKey(key)) {
+					Long id = SCHEMA_IDS.get(key);
+					result.put(key, id);
+					if(id == null) {
+						missing.add(key);
+						parameters.add(point.getSchemaId());
+						parameters.add(point.getSchemaVersion());
+					}
+				}
+			}
+		}
+		
+		// Read the rest.
+		if(missing.size() > 0) {
+			StringBuilder where = new StringBuilder();
+			for(int i = 0; i < missing.size(); i++) {
+				if(i > 0) {
+					where.append(" OR ");
+				}
+				where
+					.append('(')
+					.append(Schema.JSON_KEY_ID)
+					.append(" = ? AND ")
+					.append(Schema.JSON_KEY_VERSION)
+					.append(" = ?)");
+			}
+			
+			jdbcTemplate
+				.query(
+					"SELECT " +
+							SqlDao.KEY_DATABASE_ID + ", " +
+							Schema.JSON_KEY_ID + ", " +
+							Schema.JSON_KEY_VERSION + " " +
+						"FROM " + Registry.DB_NAME + " " +
+						"WHERE " + where.toString(),
+					parameters.toArray(),
+					new RowCallbackHandler() {
+						/**
+						 * Records each schema's ID.
+						 */
+						@Override
+						public void processRow(
+							final ResultSet resultSet)
+							throws SQLException {
+							
+							result
+								.put(
+									schemaKey(
+										resultSet
+											.getString(Schema.JSON_KEY_ID),
+										resultSet
+											.getLong(
+												Schema.JSON_KEY_VERSION)),
+									resultSet
+										.getLong(SqlDao.KEY_DATABASE_ID));
+						}
+					});
+			
+			synchronized(SCHEMA_IDS) {
+				for(String key : missing) {
+					Long id = result.get(key);
+					if(id == null) {
+						throw
+							new OmhException(
+								"The schema is unknown: " + key);
+					}
+					SCHEMA_IDS.put(key, id);
+				}
+			}
+		}
+		
+		return result;
+	}
+	
+	/**
+	 * Builds the key for a schema in the schema ID cache.
+	 * 
+	 * @param schemaId
+	 *        The schema's ID.
+	 * 
+	 * @param version
+	 *        The schema's version.
+	 * 
+	 * @return The key.
+	 */
+	private static String schemaKey(final String schemaId, final long version) {
+		return schemaId + ":" + version;
+	}
+	
+	/**
+	 * Builds an INSERT statement for some number of points.
+	 * 
+	 * @param numRows
+	 *        The number of points.
+	 * 
+	 * @return The INSERT statement.
+	 */
+	private static String buildInsert(final int numRows) {
+		StringBuilder builder =
+			new StringBuilder(
+				"INSERT INTO " + DataSet.DB_NAME + " (" +
+						UserBin.DB_NAME + "_id" + ", " +
+						Registry.DB_NAME + "_id" + ", " +
+						COLUMN_METADATA_ID + ", " +
+						COLUMN_METADATA_TIMESTAMP + ", " +
+						Data.JSON_KEY_DATA + " " +
+					") VALUES ");
+		for(int i = 0; i < numRows; i++) {
+			if(i > 0) {
+				builder.append(", ");
+			}
+			builder
+				.append('(')
+				.append(buildPlaceholders(COLUMNS_PER_INSERT))
+				.append(')');
+		}
+		return builder.toString();
+	}
+	
+	/**
+	 * Builds a comma-separated list of parameter placeholders.
+	 * 
+	 * @param count
+	 *        The number of placeholders.
+	 * 
+	 * @return The list of placeholders.
+	 */
+	private static String buildPlaceholders(final int count) {
+		StringBuilder builder = new StringBuilder();
+		for(int i = 0; i < count; i++) {
+			if(i > 0) {
+				builder.append(", ");
+			}
+			builder.append('?');
+		}
+		return builder.toString();
 	}
 
 	/*
 	 * (non-Javadoc)
-	 * @see org.openmhealth.reference.data.DataSet#getData(java.lang.String, java.lang.String, long, org.openmhealth.reference.domain.ColumnList, java.lang.Long, java.lang.Long)
+	 * @see org.openmhealth.reference.data.DataSet#getData(java.lang.String, java.lang.String, long, org.joda.time.DateTime, org.joda.time.DateTime, org.openmhealth.reference.domain.ColumnList, org.openmhealth.reference.domain.ContinuationToken, long, long)
 	 */
 	@Override
 	public MultiValueResult<Data> getData(
@@ -162,16 +644,35 @@ public class SqlDataSet extends DataSet implements SqlDaoInterface {
 		final DateTime startDate,
 		final DateTime endDate,
 		final ColumnList columnList,
+		final ContinuationToken continuationToken,
 		final long numToSkip,
 		final long numToReturn) {
 		
-		// Validate the parameters.
-		if(owner == null) {
-			throw new OmhException("The data is null.");
-		}
-		else if(schemaId == null) {
-			throw new OmhException("The schema ID is null.");
+		// Build the query and its parameters.
+		List<Object> parameters = new LinkedList<Object>();
+		StringBuilder sqlBuilder =
+			new StringBuilder(
+				SQL_SELECT_DATA +
+					buildFromWhere(
+						owner,
+						schemaId,
+						version,
+						startDate,
+						endDate,
+						parameters));
+		
+		// If a continuation token was given, seek to it and order the
+		// results away from it.
+		boolean backward = false;
+		if(continuationToken != null) {
+			backward = ! continuationToken.isForward();
+			sqlBuilder.append(buildSeek(continuationToken, parameters));
 		}
+		sqlBuilder.append(backward ? SQL_ORDER_ASCENDING : SQL_ORDER_DESCENDING);
+		sqlBuilder.append("LIMIT ?, ?");
+		parameters.add(numToSkip);
+		parameters.add(numToReturn);
+		String sql = sqlBuilder.toString();
 		
 		// Retrieve the list of results.
 		List<Data> list;
@@ -181,160 +682,9 @@ public class SqlDataSet extends DataSet implements SqlDaoInterface {
 					.getInstance()
 					.getJdbcTemplate()
 					.query(
-						// Get the required columns to build the object.
-						"SELECT " +
-								User.JSON_KEY_USERNAME + ", " +
-								Schema.JSON_KEY_ID + ", " +
-								Schema.JSON_KEY_VERSION + ", " +
-								Data.JSON_KEY_METADATA + "_" +
-									MetaData.JSON_KEY_ID + ", " +
-								Data.JSON_KEY_METADATA + "_" +
-									MetaData.JSON_KEY_TIMESTAMP + ", " +
-								Data.JSON_KEY_DATA + " " +
-							// Include all of the required tables.
-							"FROM " +
-								UserBin.DB_NAME + ", " +
-								Registry.DB_NAME + ", " +
-								DataSet.DB_NAME + " " +
-							// Link the user table to the data table.
-							"WHERE " +
-									UserBin.DB_NAME + 
-									"." +
-									SqlDao.KEY_DATABASE_ID +
-								" = " +
-									DataSet.DB_NAME + 
-									"." +
-									UserBin.DB_NAME + "_id " +
-							// Limit the results based on the required
-							// username.
-							"AND " + User.JSON_KEY_USERNAME + " = ? " +
-							// Link the registry table to the data table.
-							"AND " +
-									Registry.DB_NAME + 
-									"." +
-									SqlDao.KEY_DATABASE_ID +
-								" = " +
-									DataSet.DB_NAME + 
-									"." +
-									Registry.DB_NAME + "_id " +
-							// Limit the results based on the required schema
-							// ID and version.
-							"AND " + Schema.JSON_KEY_ID + " = ? " +
-							"AND " + Schema.JSON_KEY_VERSION + " = ? " +
-							// Add the start date, if given.
-							((startDate == null) ? "" :
-								Data.JSON_KEY_METADATA + "_" +
-									MetaData.JSON_KEY_TIMESTAMP +
-									" >= " +
-									ISOW3CDateTimeFormat
-										.any()
-										.print(startDate) +
-									" "
-							) +
-							// Add the end date, if given.
-							((endDate == null) ? "" :
-								Data.JSON_KEY_METADATA + "_" +
-									MetaData.JSON_KEY_TIMESTAMP +
-									" <= " +
-									ISOW3CDateTimeFormat
-										.any()
-										.print(endDate) +
-									" "
-							) +
-							"LIMIT ?, ?",
-						new Object[] {
-							owner,
-							schemaId,
-							version,
-							numToSkip,
-							numToReturn },
-						new RowMapper<Data>() {
-							/**
-							 * Maps the row to a {@link Data} object.
-							 */
-							@Override
-							public Data mapRow(
-								final ResultSet resultSet,
-								final int rowNum)
-								throws SQLException {
-								
-								// Get the username.
-								String username =
-									resultSet
-										.getString(User.JSON_KEY_USERNAME);
-								// Get the schema's ID.
-								String id =
-									resultSet.getString(Schema.JSON_KEY_ID);
-								// Get the stream's version.
-								long version =
-									resultSet.getLong(Schema.JSON_KEY_VERSION);
-								
-								// Build the meta-data.
-								MetaData.Builder metaDataBuilder =
-									new MetaData.Builder();
-								// Get and set the ID, even if it is null.
-								metaDataBuilder
-									.setId(
-										resultSet
-											.getString(
-												Data.JSON_KEY_METADATA +
-													"_" +
-													MetaData.JSON_KEY_ID));
-								// Get the timestamp.
-								String metaDataTimestampString =
-									resultSet
-										.getString(
-											Data.JSON_KEY_METADATA +
-												"_" +
-												MetaData.JSON_KEY_TIMESTAMP);
-								// If the timestamp is not null, decode it and
-								// set it.
-								if(metaDataTimestampString != null) {
-									metaDataBuilder
-										.setTimestamp(
-											ISOW3CDateTimeFormat
-												.any()
-												.parseDateTime(
-													metaDataTimestampString));
-								}
-								// If the builder has no non-null members,
-								// create a MetaData object; otherwise, just
-								// leave it as null.
-								MetaData metaData =
-									((metaDataBuilder.isNull()) ?
-										null :
-										metaDataBuilder.build());
-								
-								// Get the data.
-								JsonNode data;
-								try {
-									data =
-										JSON_MAPPER
-											.readTree(
-												resultSet
-													.getString(
-														Data.JSON_KEY_DATA));
-								}
-								catch(IOException e) {
-									throw
-										new SQLException(
-											"Error decoding the data.",
-											e);
-								}
-								
-								// Apply the column list.
-								applyColumnList(columnList, data);
-								
-								// Create a Data object and return it.
-								return
-									new Data(
-										username,
-										id,
-										version,
-										metaData,
-										data);
-							}
-						});
+						sql,
+						parameters.toArray(),
+						new DataRowMapper(columnList));
 		}
 		// For all issues, we simply propagate the exception.
 		catch(DataAccessException e) {
@@ -344,46 +694,143 @@ public class SqlDataSet extends DataSet implements SqlDaoInterface {
 					e);
 		}
 		
+		// If the data was read backward, put it back in the usual order.
+		if(backward) {
+			Collections.reverse(list);
+		}
+		
+		// Only count the results if the count is requested.
+		return
+			new LazyCountResult(
+				list,
+				owner,
+				schemaId,
+				version,
+				startDate,
+				endDate);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.DataSet#streamData(java.lang.String, java.lang.String, long, org.joda.time.DateTime, org.joda.time.DateTime, org.openmhealth.reference.domain.ColumnList, long, long, org.openmhealth.reference.data.DataSet.DataHandler)
+	 */
+	@Override
+	public void streamData(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final DateTime startDate,
+		final DateTime endDate,
+		final ColumnList columnList,
+		final long numToSkip,
+		final long numToReturn,
+		final DataHandler handler)
+		throws IOException {
+		
+		// Validate the handler.
+		if(handler == null) {
+			throw new OmhException("The handler is null.");
+		}
+		
+		// Build the query and its parameters.
+		List<Object> parameters = new LinkedList<Object>();
+		String sql =
+			SQL_SELECT_DATA +
+				buildFromWhere(
+					owner,
+					schemaId,
+					version,
+					startDate,
+					endDate,
+					parameters) +
+				SQL_ORDER_DESCENDING +
+				"LIMIT ?, ?";
+		parameters.add(numToSkip);
+		parameters.add(numToReturn);
+		
+		// Create the mapper that will be used to decode each row.
+		final DataRowMapper rowMapper = new DataRowMapper(columnList);
+		
+		// Hand each row to the handler as soon as it is read.
+		try {
+			SqlDao
+				.getInstance()
+				.queryStreaming(
+					sql,
+					parameters.toArray(),
+					new RowCallbackHandler() {
+						/**
+						 * The number of the current row.
+						 */
+						private int rowNum = 0;
+						
+						/**
+						 * Maps the row and passes it to the handler.
+						 */
+						@Override
+						public void processRow(
+							final ResultSet resultSet)
+							throws SQLException {
+							
+							Data data = rowMapper.mapRow(resultSet, rowNum++);
+							try {
+								handler.handle(data);
+							}
+							catch(IOException e) {
+								throw
+									new SQLException(
+										"The data could not be handled.",
+										e);
+							}
+						}
+					});
+		}
+		catch(DataAccessException e) {
+			// If the handler failed, propagate its exception.
+			Throwable cause = e.getCause();
+			if((cause != null) && (cause.getCause() instanceof IOException)) {
+				throw (IOException) cause.getCause();
+			}
+			
+			// For all other issues, we simply propagate the exception.
+			throw
+				new OmhException(
+					"There was an error querying for the data.",
+					e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.DataSet#countData(java.lang.String, java.lang.String, long, org.joda.time.DateTime, org.joda.time.DateTime)
+	 */
+	@Override
+	public int countData(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final DateTime startDate,
+		final DateTime endDate) {
+		
+		// Build the query and its parameters.
+		List<Object> parameters = new LinkedList<Object>();
+		String sql =
+			"SELECT COUNT(1) " +
+				buildFromWhere(
+					owner,
+					schemaId,
+					version,
+					startDate,
+					endDate,
+					parameters);
+		
 		// Retrieve the total count of results.
-		int count;
 		try {
-			count =
+			return
 				SqlDao
 					.getInstance()
 					.getJdbcTemplate()
-					.queryForInt(
-						"SELECT COUNT(1) " +
-							// Include all of the required tables.
-							"FROM " +
-								UserBin.DB_NAME + ", " +
-								Registry.DB_NAME + ", " +
-								DataSet.DB_NAME + " " +
-							// Link the user table to the data table.
-							"WHERE " +
-									UserBin.DB_NAME + 
-									"." +
-									SqlDao.KEY_DATABASE_ID +
-								" = " +
-									DataSet.DB_NAME + 
-									"." +
-									UserBin.DB_NAME + "_id " +
-							// Limit the results based on the required
-							// username.
-							"AND " + User.JSON_KEY_USERNAME + " = ? " +
-							// Link the registry table to the data table.
-							"AND " +
-									Registry.DB_NAME + 
-									"." +
-									SqlDao.KEY_DATABASE_ID +
-								" = " +
-									DataSet.DB_NAME + 
-									"." +
-									Registry.DB_NAME + "_id " +
-							// Limit the results based on the required schema
-							// ID and version.
-							"AND " + Schema.JSON_KEY_ID + " = ? " +
-							"AND " + Schema.JSON_KEY_VERSION + " = ? ",
-						new Object[] { owner, schemaId, version });
+					.queryForInt(sql, parameters.toArray());
 		}
 		// For all issues, we simply propagate the exception.
 		catch(DataAccessException e) {
@@ -392,8 +839,127 @@ public class SqlDataSet extends DataSet implements SqlDaoInterface {
 					"There was an error querying for schemas count.",
 					e);
 		}
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.DataSet#summarizeData(java.lang.String, java.lang.String, long, org.joda.time.DateTime, org.joda.time.DateTime, java.lang.String, org.openmhealth.reference.domain.DataSummary.Interval, java.lang.String)
+	 */
+	@Override
+	public List<DataSummary> summarizeData(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final DateTime startDate,
+		final DateTime endDate,
+		final String field,
+		final DataSummary.Interval interval,
+		final String lastDatabaseId) {
 		
-		return new SqlMultiValueResult<Data>(list, count);
+		// Validate the parameters.
+		if(field == null) {
+			throw new OmhException("The field is null.");
+		}
+		final Summarizer summarizer = new Summarizer(interval);
+		final String[] path = field.split("\\" + ColumnList.COLUMN_SEPARATOR);
+		
+		// Only read the timestamp and the data from points that have a
+		// timestamp.
+		List<Object> parameters = new LinkedList<Object>();
+		String sql =
+			"SELECT " +
+				COLUMN_METADATA_TIMESTAMP + ", " +
+				Data.JSON_KEY_DATA + " " +
+				buildFromWhere(
+					owner,
+					schemaId,
+					version,
+					startDate,
+					endDate,
+					parameters) +
+				"AND " + COLUMN_METADATA_TIMESTAMP + " IS NOT NULL";
+		
+		// Only include the points stored up to the last one, if given.
+		if(lastDatabaseId != null) {
+			try {
+				parameters.add(Long.parseLong(lastDatabaseId));
+			}
+			catch(NumberFormatException e) {
+				throw
+					new OmhException(
+						"The database ID is not a number: " + lastDatabaseId,
+						e);
+			}
+			sql += " AND " + COLUMN_DATABASE_ID + " <= ?";
+		}
+		
+		// Add each point to its interval's summary as it is read, only
+		// parsing the data as far as the field.
+		try {
+			SqlDao
+				.getInstance()
+				.queryStreaming(
+					sql,
+					parameters.toArray(),
+					new RowCallbackHandler() {
+						/**
+						 * Adds the row's value to its summary.
+						 */
+						@Override
+						public void processRow(
+							final ResultSet resultSet)
+							throws SQLException {
+							
+							Double value;
+							try {
+								value =
+									readNumber(
+										resultSet
+											.getString(Data.JSON_KEY_DATA),
+										path);
+							}
+							catch(IOException e) {
+								throw
+									new SQLException(
+										"Error decoding the data.",
+										e);
+							}
+							
+							if(value != null) {
+								summarizer
+									.add(
+										ISOW3CDateTimeFormat
+											.any()
+											.parseDateTime(
+												resultSet
+													.getString(
+														COLUMN_METADATA_TIMESTAMP)),
+										value);
+							}
+						}
+					});
+		}
+		catch(DataAccessException e) {
+			throw
+				new OmhException(
+					"There was an error summarizing the data.",
+					e);
+		}
+		
+		return summarizer.build();
+	}
+	
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.DataSet#getDatabaseId(org.openmhealth.reference.domain.Data)
+	 */
+	@Override
+	public String getDatabaseId(final Data data) throws OmhException {
+		if(data instanceof SqlData) {
+			return Long.toString(((SqlData) data).getDatabaseId());
+		}
+		
+		throw new OmhException("The data was not read from the database.");
 	}
 	
 	/*
@@ -493,62 +1059,256 @@ public class SqlDataSet extends DataSet implements SqlDaoInterface {
 	}
 	
 	/**
-	 * Applies a column list onto a data element.
+	 * Reads a numeric field from serialized JSON, skipping everything before
+	 * it without building a tree.
 	 * 
-	 * @param columnList
-	 *        The column list to apply.
+	 * @param json
+	 *        The serialized JSON.
 	 * 
-	 * @param data
-	 *        The data element on which it should be applied.
+	 * @param path
+	 *        The names of the fields that lead to the desired field.
+	 * 
+	 * @return The field's value or null if it does not exist or is not a
+	 *         number.
+	 * 
+	 * @throws IOException
+	 *         The JSON could not be parsed.
 	 */
-	private static void applyColumnList(
-		final ColumnList columnList,
-		final JsonNode data) {
+	private static Double readNumber(
+		final String json,
+		final String[] path)
+		throws IOException {
 		
-		// If the column list is null, all elements are desired and the data
-		// should not be modified.
-		if(columnList == null) {
-			return;
-		}
-		
-		// If it is an object, check the fields to ensure that only the desired
-		// ones exist.
-		if(data.isObject()) {
-			// Get the list of fields.
-			Set<String> children = columnList.getChildren();
-			
-			// Cast the object and get the list of fields.
-			ObjectNode object = (ObjectNode) data;
-			Iterator<String> fieldNames = object.fieldNames();
+		JsonParser parser = JSON_MAPPER.getFactory().createParser(json);
+		try {
+			parser.nextToken();
 			
-			// For each field in the data,
-			while(fieldNames.hasNext()) {
-				// Get the field name.
-				String fieldName = fieldNames.next();
+			// Descend to each field in the path.
+			for(String fieldName : path) {
+				if(parser.getCurrentToken() != JsonToken.START_OBJECT) {
+					return null;
+				}
 				
-				// If the field name is one of the children, recurse on that
-				// object.
-				if(children.contains(fieldName)) {
-					applyColumnList(
-						columnList.getChild(fieldName),
-						object.get(fieldName));
+				boolean found = false;
+				while(parser.nextToken() == JsonToken.FIELD_NAME) {
+					String currentName = parser.getCurrentName();
+					parser.nextToken();
+					if(fieldName.equals(currentName)) {
+						found = true;
+						break;
+					}
+					parser.skipChildren();
 				}
-				// If the field name is not one of the children, remove it.
-				else {
-					object.remove(fieldName);
+				if(! found) {
+					return null;
 				}
 			}
-		}
-		// If the data is an array, recurse on each element in the array.
-		else if(data.isArray()) {
-			ArrayNode array = (ArrayNode) data;
-			
-			Iterator<JsonNode> elements = array.iterator();
 			
-			while(elements.hasNext()) {
-				applyColumnList(columnList, elements.next());
+			// Only numbers can be summarized.
+			if(parser.getCurrentToken().isNumeric()) {
+				return parser.getDoubleValue();
+			}
+			return null;
+		}
+		finally {
+			parser.close();
+		}
+	}
+	
+	/**
+	 * Builds the FROM and WHERE clauses shared by the data and count queries
+	 * and adds their parameters to the given list.
+	 * 
+	 * @param owner
+	 *        The username of the user whose data is desired.
+	 * 
+	 * @param schemaId
+	 *        The schema ID of the desired data.
+	 * 
+	 * @param version
+	 *        The schema version of the desired data.
+	 * 
+	 * @param startDate
+	 *        The earliest point that should be matched or null.
+	 * 
+	 * @param endDate
+	 *        The latest point that should be matched or null.
+	 * 
+	 * @param parameters
+	 *        The list to which the SQL parameters will be added.
+	 * 
+	 * @return The FROM and WHERE clauses, ending with a space.
+	 * 
+	 * @throws OmhException
+	 *         A required parameter was missing.
+	 */
+	private static String buildFromWhere(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final DateTime startDate,
+		final DateTime endDate,
+		final List<Object> parameters)
+		throws OmhException {
+		
+		// Validate the parameters.
+		if(owner == null) {
+			throw new OmhException("The owner is null.");
+		}
+		else if(schemaId == null) {
+			throw new OmhException("The schema ID is null.");
+		}
+		
+		// Create the builder.
+		StringBuilder builder =
+			new StringBuilder(
+				// Include all of the required tables.
+				"FROM " +
+					UserBin.DB_NAME + ", " +
+					Registry.DB_NAME + ", " +
+					DataSet.DB_NAME + " " +
+				// Link the user table to the data table.
+				"WHERE " +
+						UserBin.DB_NAME + 
+						"." +
+						SqlDao.KEY_DATABASE_ID +
+					" = " +
+						DataSet.DB_NAME + 
+						"." +
+						UserBin.DB_NAME + "_id " +
+				// Limit the results based on the required username.
+				"AND " + User.JSON_KEY_USERNAME + " = ? " +
+				// Link the registry table to the data table.
+				"AND " +
+						Registry.DB_NAME + 
+						"." +
+						SqlDao.KEY_DATABASE_ID +
+					" = " +
+						DataSet.DB_NAME + 
+						"." +
+						Registry.DB_NAME + "_id " +
+				// Limit the results based on the required schema ID and
+				// version.
+				"AND " + Schema.JSON_KEY_ID + " = ? " +
+				"AND " + Schema.JSON_KEY_VERSION + " = ? ");
+		parameters.add(owner);
+		parameters.add(schemaId);
+		parameters.add(version);
+		
+		// Add the start date, if given.
+		if(startDate != null) {
+			builder
+				.append("AND ")
+				.append(COLUMN_METADATA_TIMESTAMP)
+				.append(" >= ? ");
+			parameters.add(ISOW3CDateTimeFormat.any().print(startDate));
+		}
+		
+		// Add the end date, if given.
+		if(endDate != null) {
+			builder
+				.append("AND ")
+				.append(COLUMN_METADATA_TIMESTAMP)
+				.append(" <= ? ");
+			parameters.add(ISOW3CDateTimeFormat.any().print(endDate));
+		}
+		
+		return builder.toString();
+	}
+	
+	/**
+	 * Builds the clause that limits the results to those after the
+	 * continuation token's point, if it continues forward, or before it, if it
+	 * continues backward, and adds its parameters to the given list. Points
+	 * are ordered by their timestamp and then their database ID, both
+	 * descending, with points without a timestamp last.
+	 * 
+	 * @param continuationToken
+	 *        The continuation token.
+	 * 
+	 * @param parameters
+	 *        The list to which the SQL parameters will be added.
+	 * 
+	 * @return The clause, which begins with "AND" and ends with a space.
+	 * 
+	 * @throws OmhException
+	 *         The token's database ID is not valid for this data set.
+	 */
+	private static String buildSeek(
+		final ContinuationToken continuationToken,
+		final List<Object> parameters)
+		throws OmhException {
+		
+		// Decode the database ID.
+		long databaseId;
+		try {
+			databaseId = Long.decode(continuationToken.getDatabaseId());
+		}
+		catch(NumberFormatException e) {
+			throw new OmhException("The continuation token is invalid.", e);
+		}
+		
+		// Get the timestamp, if any.
+		DateTime timestamp = continuationToken.getTimestamp();
+		
+		// Build the clause.
+		StringBuilder builder = new StringBuilder("AND ");
+		if(continuationToken.isForward()) {
+			if(timestamp == null) {
+				// Only other points without a timestamp can come after one
+				// without a timestamp.
+				builder
+					.append(COLUMN_METADATA_TIMESTAMP).append(" IS NULL ")
+					.append("AND ").append(COLUMN_DATABASE_ID).append(" < ? ");
+			}
+			else {
+				// Older points, points at the same time that were stored
+				// earlier, and points without a timestamp come after it.
+				builder
+					.append("(")
+						.append(COLUMN_METADATA_TIMESTAMP).append(" < ? ")
+						.append("OR (")
+							.append(COLUMN_METADATA_TIMESTAMP).append(" = ? ")
+							.append("AND ")
+							.append(COLUMN_DATABASE_ID).append(" < ?")
+						.append(") ")
+						.append("OR ")
+						.append(COLUMN_METADATA_TIMESTAMP).append(" IS NULL")
+					.append(") ");
+				parameters.add(ISOW3CDateTimeFormat.any().print(timestamp));
+				parameters.add(ISOW3CDateTimeFormat.any().print(timestamp));
 			}
 		}
-		// Otherwise, it is simply a value node and should not be removed.
+		else {
+			if(timestamp == null) {
+				// All points with a timestamp and the points without one that
+				// were stored later come before it.
+				builder
+					.append("(")
+						.append(COLUMN_METADATA_TIMESTAMP)
+						.append(" IS NOT NULL ")
+						.append("OR ")
+						.append(COLUMN_DATABASE_ID).append(" > ?")
+					.append(") ");
+			}
+			else {
+				// Newer points and points at the same time that were stored
+				// later come before it.
+				builder
+					.append("(")
+						.append(COLUMN_METADATA_TIMESTAMP).append(" > ? ")
+						.append("OR (")
+							.append(COLUMN_METADATA_TIMESTAMP).append(" = ? ")
+							.append("AND ")
+							.append(COLUMN_DATABASE_ID).append(" > ?")
+						.append(")")
+					.append(") ");
+				parameters.add(ISOW3CDateTimeFormat.any().print(timestamp));
+				parameters.add(ISOW3CDateTimeFormat.any().print(timestamp));
+			}
+		}
+		parameters.add(databaseId);
+		
+		return builder.toString();
 	}
 }
\ No newline at end of file
@@ -0,0 +1,174 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.data.sql;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.openmhealth.reference.data.Migration;
+import org.openmhealth.reference.exception.OmhException;
+import org.springframework.dao.DataAccessException;
+
+/**
+ * <p>
+ * A {@link Migration} that adds an index to an existing table, unless the
+ * table already has an index with the same name.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class SqlIndexMigration implements Migration {
+	/**
+	 * The version of this migration.
+	 */
+	private final long version;
+	/**
+	 * The description of this migration.
+	 */
+	private final String description;
+	/**
+	 * The name of the table to index.
+	 */
+	private final String table;
+	/**
+	 * The name of the index.
+	 */
+	private final String indexName;
+	/**
+	 * The columns to index, in order.
+	 */
+	private final List<String> columns;
+
+	/**
+	 * Creates a new migration that adds an index.
+	 *
+	 * @param version
+	 *        The version of this migration.
+	 *
+	 * @param description
+	 *        The description of this migration.
+	 *
+	 * @param table
+	 *        The name of the table to index.
+	 *
+	 * @param indexName
+	 *        The name of the index.
+	 *
+	 * @param columns
+	 *        The columns to index, in order.
+	 *
+	 * @throws OmhException
+	 *         A parameter is null or no columns were given.
+	 */
+	public SqlIndexMigration(
+		final long version,
+		final String description,
+		final String table,
+		final String indexName,
+		final String... columns)
+		throws OmhException {
+
+		if(description == null) {
+			throw new OmhException("The description is null.");
+		}
+		if(table == null) {
+			throw new OmhException("The table is null.");
+		}
+		if(indexName == null) {
+			throw new OmhException("The index name is null.");
+		}
+		if((columns == null) || (columns.length == 0)) {
+			throw new OmhException("No columns were given.");
+		}
+
+		this.version = version;
+		this.description = description;
+		this.table = table;
+		this.indexName = indexName;
+		this.columns = Arrays.asList(columns);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.Migration#getVersion()
+	 */
+	@Override
+	public long getVersion() {
+		return version;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.Migration#getDescription()
+	 */
+	@Override
+	public String getDescription() {
+		return description;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.data.Migration#apply()
+	 */
+	@Override
+	public void apply() throws OmhException {
+		try {
+			// Check if the index already exists, e.g. because another server
+			// is applying this migration.
+			long existing =
+				SqlDao
+					.getInstance()
+					.getJdbcTemplate()
+					.queryForObject(
+						"SELECT COUNT(1) " +
+							"FROM information_schema.statistics " +
+							"WHERE table_schema = DATABASE() " +
+							"AND table_name = ? " +
+							"AND index_name = ?",
+						new Object[] { table, indexName },
+						Long.class);
+			if(existing > 0) {
+				return;
+			}
+
+			// Build the column list.
+			StringBuilder columnList = new StringBuilder();
+			for(String column : columns) {
+				if(columnList.length() > 0) {
+					columnList.append(", ");
+				}
+				columnList.append(column);
+			}
+
+			// Create the index in place without blocking reads or writes to
+			// the table. If the server cannot, it fails instead of falling
+			// back to locking the table.
+			SqlDao
+				.getInstance()
+				.getJdbcTemplate()
+				.execute(
+					"CREATE INDEX `" + indexName + "` " +
+						"ON " + table + " (" + columnList + ") " +
+						"ALGORITHM=INPLACE LOCK=NONE");
+		}
+		catch(DataAccessException e) {
+			throw
+				new OmhException(
+					"There was an error creating the index: " + indexName,
+					e);
+		}
+	}
+}
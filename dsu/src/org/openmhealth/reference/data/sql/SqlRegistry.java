@@ -483,6 +483,37 @@ public class SqlRegistry
 		return new SqlMultiValueResult<Schema>(list, count);
 	}
 	
+	/**
+	 * Returns the number of schemas and the newest schema's database ID,
+	 * which only needs the primary key.
+	 */
+	@Override
+	public String getRevision() {
+		try {
+			return
+				SqlDao
+					.getInstance()
+					.getJdbcTemplate()
+					.queryForObject(
+						"SELECT " +
+								"CONCAT(" +
+									"COUNT(" + SqlDao.KEY_DATABASE_ID + "), " +
+									"':', " +
+									"COALESCE(" +
+										"MAX(" + SqlDao.KEY_DATABASE_ID + "), " +
+										"0)) " +
+							"FROM " + Registry.DB_NAME,
+						String.class);
+		}
+		// For all issues, we simply propagate the exception.
+		catch(DataAccessException e) {
+			throw
+				new OmhException(
+					"There was an error querying for the registry's revision.",
+					e);
+		}
+	}
+	
 	/*
 	 * (non-Javadoc)
 	 * @see org.openmhealth.reference.data.sql.SqlDaoInterface#getSqlTableDefinition()
@@ -51,4 +51,14 @@ public class MySqlDao extends SqlDao {
 				"/" +
 				getDatabaseName();
 	}
+
+	/**
+	 * MySQL's driver only streams results when the fetch size is
+	 * {@link Integer#MIN_VALUE}; any other value reads the entire result set
+	 * into memory.
+	 */
+	@Override
+	protected int getStreamingFetchSize() {
+		return Integer.MIN_VALUE;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,293 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.domain;
+
+import java.util.UUID;
+
+import org.joda.time.DateTime;
+import org.openmhealth.reference.exception.OmhException;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
+
+/**
+ * <p>
+ * The parent of the jobs that run in the background on behalf of a user,
+ * which tracks their identity, state, and outcome. Each subclass adds its own
+ * progress.
+ * </p>
+ *
+ * <p>
+ * The job is only ever advanced by the thread that runs it, but its progress
+ * may be read by any thread at any time.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public abstract class BackgroundJob implements OmhObject {
+	/**
+	 * <p>
+	 * The stages of a job.
+	 * </p>
+	 *
+	 * @author John Jenkins
+	 */
+	public static enum State {
+		/**
+		 * The job is waiting for a thread.
+		 */
+		QUEUED ("queued"),
+		/**
+		 * The job is running.
+		 */
+		RUNNING ("running"),
+		/**
+		 * The job finished successfully.
+		 */
+		COMPLETE ("complete"),
+		/**
+		 * The job failed.
+		 */
+		FAILED ("failed");
+
+		/**
+		 * The value of this state as it is returned to the user.
+		 */
+		private final String value;
+
+		/**
+		 * Creates a state with its value.
+		 *
+		 * @param value
+		 *        The value of this state as it is returned to the user.
+		 */
+		private State(final String value) {
+			this.value = value;
+		}
+
+		/**
+		 * Returns the value of this state as it is returned to the user.
+		 */
+		@Override
+		public String toString() {
+			return value;
+		}
+	}
+
+	/**
+	 * The version of this class for serialization purposes.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The JSON key for the job's unique identifier.
+	 */
+	public static final String JSON_KEY_ID = "id";
+	/**
+	 * The JSON key for the user on whose behalf the job runs.
+	 */
+	public static final String JSON_KEY_OWNER = Data.JSON_KEY_OWNER;
+	/**
+	 * The JSON key for the job's state.
+	 */
+	public static final String JSON_KEY_STATE = "state";
+	/**
+	 * The JSON key for the time the job was requested.
+	 */
+	public static final String JSON_KEY_CREATED = "created";
+	/**
+	 * The JSON key for the time the job completed or failed.
+	 */
+	public static final String JSON_KEY_FINISHED = "finished";
+	/**
+	 * The JSON key for the reason the job failed.
+	 */
+	public static final String JSON_KEY_ERROR = "error";
+
+	/**
+	 * The job's unique identifier.
+	 */
+	@JsonProperty(JSON_KEY_ID)
+	private final String id;
+	/**
+	 * The user on whose behalf the job runs.
+	 */
+	@JsonProperty(JSON_KEY_OWNER)
+	private final String owner;
+	/**
+	 * The time the job was requested.
+	 */
+	@JsonProperty(JSON_KEY_CREATED)
+	@JsonSerialize(using = ToStringSerializer.class)
+	private final DateTime created;
+	/**
+	 * The job's state.
+	 */
+	@JsonProperty(JSON_KEY_STATE)
+	@JsonSerialize(using = ToStringSerializer.class)
+	private volatile State state = State.QUEUED;
+	/**
+	 * The time the job completed or failed or null if it has not.
+	 */
+	@JsonProperty(JSON_KEY_FINISHED)
+	@JsonInclude(Include.NON_NULL)
+	@JsonSerialize(using = ToStringSerializer.class)
+	private volatile DateTime finished = null;
+	/**
+	 * The reason the job failed or null if it has not failed.
+	 */
+	@JsonProperty(JSON_KEY_ERROR)
+	@JsonInclude(Include.NON_NULL)
+	private volatile String error = null;
+
+	/**
+	 * Creates a new, queued job.
+	 *
+	 * @param owner
+	 *        The user on whose behalf the job runs.
+	 *
+	 * @throws OmhException
+	 *         The owner is null.
+	 */
+	protected BackgroundJob(final String owner) throws OmhException {
+		if(owner == null) {
+			throw new OmhException("The owner is null.");
+		}
+
+		this.id = UUID.randomUUID().toString();
+		this.owner = owner;
+		this.created = new DateTime();
+	}
+
+	/**
+	 * Returns the job's unique identifier.
+	 *
+	 * @return The job's unique identifier.
+	 */
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * Returns the user on whose behalf the job runs.
+	 *
+	 * @return The user on whose behalf the job runs.
+	 */
+	public String getOwner() {
+		return owner;
+	}
+
+	/**
+	 * Returns the time the job was requested.
+	 *
+	 * @return The time the job was requested.
+	 */
+	public DateTime getCreated() {
+		return created;
+	}
+
+	/**
+	 * Returns the job's state.
+	 *
+	 * @return The job's state.
+	 */
+	public State getState() {
+		return state;
+	}
+
+	/**
+	 * Returns whether or not the job has completed or failed.
+	 *
+	 * @return Whether or not the job has completed or failed.
+	 */
+	@JsonIgnore
+	public boolean isDone() {
+		return (state == State.COMPLETE) || (state == State.FAILED);
+	}
+
+	/**
+	 * Returns the time the job completed or failed.
+	 *
+	 * @return The time the job completed or failed or null if it has not.
+	 */
+	public DateTime getFinished() {
+		return finished;
+	}
+
+	/**
+	 * Returns the reason the job failed.
+	 *
+	 * @return The reason the job failed or null if it has not failed.
+	 */
+	public String getError() {
+		return error;
+	}
+
+	/**
+	 * Marks the job as failed.
+	 *
+	 * @param error
+	 *        The reason the job failed.
+	 *
+	 * @throws OmhException
+	 *         The job has already finished or the error is null.
+	 */
+	public void fail(final String error) throws OmhException {
+		if(isDone()) {
+			throw new OmhException("The job has already finished.");
+		}
+		if(error == null) {
+			throw new OmhException("The error is null.");
+		}
+
+		this.error = error;
+		finished = new DateTime();
+		state = State.FAILED;
+	}
+
+	/**
+	 * Marks the job as running.
+	 *
+	 * @throws OmhException
+	 *         The job is not queued.
+	 */
+	protected void markRunning() throws OmhException {
+		if(state != State.QUEUED) {
+			throw new OmhException("The job has already started.");
+		}
+
+		state = State.RUNNING;
+	}
+
+	/**
+	 * Marks the job as complete.
+	 *
+	 * @throws OmhException
+	 *         The job is not running.
+	 */
+	protected void markComplete() throws OmhException {
+		if(state != State.RUNNING) {
+			throw new OmhException("The job is not running.");
+		}
+
+		finished = new DateTime();
+		state = State.COMPLETE;
+	}
+}
@@ -15,6 +15,7 @@
  ******************************************************************************/
 package org.openmhealth.reference.domain;
 
+import java.io.IOException;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -24,6 +25,10 @@ import java.util.Set;
 
 import org.openmhealth.reference.exception.OmhException;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
 /**
  * <p>
  * A list of desired columns.
@@ -274,6 +279,106 @@ public class ColumnList {
 		return builder.toString();
 	}
 	
+	/**
+	 * Reads a JSON value from a parser and writes only the parts of it that
+	 * are described by this column list to a generator. Unwanted fields are
+	 * skipped by the parser without being read into memory, so this is much
+	 * cheaper than building a tree and removing fields from it.
+	 * 
+	 * @param parser
+	 *        The parser, which must be positioned on the first token of the
+	 *        value or before it. When this returns, it will be positioned on
+	 *        the last token of the value.
+	 * 
+	 * @param generator
+	 *        The generator to which the projected value will be written.
+	 * 
+	 * @throws IOException
+	 *         The value could not be read or written.
+	 */
+	public void project(
+		final JsonParser parser,
+		final JsonGenerator generator)
+		throws IOException {
+		
+		// Move the parser to the start of the value, if necessary.
+		if(parser.getCurrentToken() == null) {
+			if(parser.nextToken() == null) {
+				throw new IOException("There is no JSON value to project.");
+			}
+		}
+		
+		project(this, parser, generator);
+	}
+	
+	/**
+	 * Projects the parser's current value onto the generator.
+	 * 
+	 * @param columnList
+	 *        The column list that describes the value or null if the entire
+	 *        value is desired.
+	 * 
+	 * @param parser
+	 *        The parser, positioned on the first token of the value.
+	 * 
+	 * @param generator
+	 *        The generator to which the projected value will be written.
+	 * 
+	 * @throws IOException
+	 *         The value could not be read or written.
+	 */
+	private static void project(
+		final ColumnList columnList,
+		final JsonParser parser,
+		final JsonGenerator generator)
+		throws IOException {
+		
+		// If the whole value is desired, copy it as-is.
+		if(columnList == null) {
+			generator.copyCurrentStructure(parser);
+		}
+		// If it is an object, only write the desired fields.
+		else if(parser.getCurrentToken() == JsonToken.START_OBJECT) {
+			generator.writeStartObject();
+			
+			while(parser.nextToken() == JsonToken.FIELD_NAME) {
+				String fieldName = parser.getCurrentName();
+				
+				// Move to the field's value.
+				parser.nextToken();
+				
+				// If the field is desired, recurse on its value.
+				if(columnList.children.containsKey(fieldName)) {
+					generator.writeFieldName(fieldName);
+					project(
+						columnList.children.get(fieldName),
+						parser,
+						generator);
+				}
+				// Otherwise, skip the value entirely.
+				else {
+					parser.skipChildren();
+				}
+			}
+			
+			generator.writeEndObject();
+		}
+		// If it is an array, apply this column list to each element.
+		else if(parser.getCurrentToken() == JsonToken.START_ARRAY) {
+			generator.writeStartArray();
+			
+			while(parser.nextToken() != JsonToken.END_ARRAY) {
+				project(columnList, parser, generator);
+			}
+			
+			generator.writeEndArray();
+		}
+		// Otherwise, it is simply a value and should be kept.
+		else {
+			generator.copyCurrentEvent(parser);
+		}
+	}
+	
 	/**
 	 * Adds a new child to the current list of children.
 	 * 
@@ -0,0 +1,240 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.domain;
+
+import java.nio.charset.Charset;
+
+import javax.xml.bind.DatatypeConverter;
+
+import org.joda.time.DateTime;
+import org.openmhealth.reference.exception.OmhException;
+import org.openmhealth.reference.util.ISOW3CDateTimeFormat;
+
+/**
+ * <p>
+ * An opaque marker for a position in a user's data for a schema ID-version
+ * pair. Data is ordered by its meta-data timestamp and then by its database
+ * ID, both descending, so the pair uniquely identifies a point and lets the
+ * database seek directly to it instead of skipping every point before it.
+ * </p>
+ *
+ * <p>
+ * A token either continues forward, toward older data, starting after the
+ * point, or backward, toward newer data, ending before the point.
+ * </p>
+ *
+ * <p>
+ * This class is immutable.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class ContinuationToken {
+	/**
+	 * The character set used to encode the token.
+	 */
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+	/**
+	 * The separator between the parts of the decoded token.
+	 */
+	private static final String SEPARATOR = "\n";
+	/**
+	 * The prefix that indicates the token continues forward.
+	 */
+	private static final String DIRECTION_FORWARD = "f";
+	/**
+	 * The prefix that indicates the token continues backward.
+	 */
+	private static final String DIRECTION_BACKWARD = "b";
+
+	/**
+	 * Whether the token continues forward or backward.
+	 */
+	private final boolean forward;
+	/**
+	 * The timestamp of the point or null if the point had no timestamp.
+	 */
+	private final DateTime timestamp;
+	/**
+	 * The database ID of the point.
+	 */
+	private final String databaseId;
+
+	/**
+	 * Creates a new continuation token.
+	 *
+	 * @param forward
+	 *        Whether the token continues forward, toward older data, or
+	 *        backward, toward newer data.
+	 *
+	 * @param timestamp
+	 *        The timestamp of the point, which may be null.
+	 *
+	 * @param databaseId
+	 *        The database ID of the point.
+	 *
+	 * @throws OmhException
+	 *         The database ID is null.
+	 */
+	public ContinuationToken(
+		final boolean forward,
+		final DateTime timestamp,
+		final String databaseId)
+		throws OmhException {
+
+		if(databaseId == null) {
+			throw new OmhException("The database ID is null.");
+		}
+
+		this.forward = forward;
+		this.timestamp = timestamp;
+		this.databaseId = databaseId;
+	}
+
+	/**
+	 * Decodes a continuation token that was previously created by
+	 * {@link #encode()}.
+	 *
+	 * @param token
+	 *        The encoded token.
+	 *
+	 * @return The decoded token.
+	 *
+	 * @throws OmhException
+	 *         The token is null or invalid.
+	 */
+	public static ContinuationToken decode(
+		final String token)
+		throws OmhException {
+
+		if(token == null) {
+			throw new OmhException("The continuation token is null.");
+		}
+
+		// Restore the standard Base64 alphabet and padding.
+		StringBuilder base64 =
+			new StringBuilder(token.replace('-', '+').replace('_', '/'));
+		while((base64.length() % 4) != 0) {
+			base64.append('=');
+		}
+
+		// Decode the token.
+		String decoded;
+		try {
+			decoded =
+				new String(
+					DatatypeConverter.parseBase64Binary(base64.toString()),
+					CHARSET);
+		}
+		catch(IllegalArgumentException e) {
+			throw new OmhException("The continuation token is invalid.", e);
+		}
+
+		// Split it into its parts.
+		String[] parts = decoded.split(SEPARATOR, -1);
+		if(parts.length != 3) {
+			throw new OmhException("The continuation token is invalid.");
+		}
+
+		// Decode the direction.
+		boolean forward;
+		if(DIRECTION_FORWARD.equals(parts[0])) {
+			forward = true;
+		}
+		else if(DIRECTION_BACKWARD.equals(parts[0])) {
+			forward = false;
+		}
+		else {
+			throw new OmhException("The continuation token is invalid.");
+		}
+
+		// Decode the timestamp.
+		DateTime timestamp = null;
+		if(parts[1].length() > 0) {
+			try {
+				timestamp =
+					ISOW3CDateTimeFormat.any().parseDateTime(parts[1]);
+			}
+			catch(IllegalArgumentException e) {
+				throw
+					new OmhException("The continuation token is invalid.", e);
+			}
+		}
+
+		// Validate the database ID.
+		if(parts[2].length() == 0) {
+			throw new OmhException("The continuation token is invalid.");
+		}
+
+		return new ContinuationToken(forward, timestamp, parts[2]);
+	}
+
+	/**
+	 * Returns whether this token continues forward, toward older data, or
+	 * backward, toward newer data.
+	 *
+	 * @return True if this token continues forward; false, otherwise.
+	 */
+	public boolean isForward() {
+		return forward;
+	}
+
+	/**
+	 * Returns the timestamp of the point.
+	 *
+	 * @return The timestamp of the point, which may be null.
+	 */
+	public DateTime getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * Returns the database ID of the point.
+	 *
+	 * @return The database ID of the point.
+	 */
+	public String getDatabaseId() {
+		return databaseId;
+	}
+
+	/**
+	 * Encodes this token as an opaque, URL-safe string.
+	 *
+	 * @return The encoded token.
+	 */
+	public String encode() {
+		// Build the decoded form.
+		StringBuilder builder = new StringBuilder();
+		builder.append(forward ? DIRECTION_FORWARD : DIRECTION_BACKWARD);
+		builder.append(SEPARATOR);
+		if(timestamp != null) {
+			builder.append(timestamp.toString());
+		}
+		builder.append(SEPARATOR);
+		builder.append(databaseId);
+
+		// Encode it with the URL-safe Base64 alphabet and no padding.
+		String base64 =
+			DatatypeConverter
+				.printBase64Binary(builder.toString().getBytes(CHARSET));
+		int end = base64.length();
+		while((end > 0) && (base64.charAt(end - 1) == '=')) {
+			end--;
+		}
+		return
+			base64.substring(0, end).replace('+', '-').replace('/', '_');
+	}
+}
@@ -0,0 +1,245 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.domain;
+
+import java.util.Map;
+
+import org.openmhealth.reference.exception.OmhException;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * <p>
+ * The result of one query in a batch read, which is either a page of data or
+ * the reason that the query failed. A failed query does not fail the rest of
+ * the batch.
+ * </p>
+ *
+ * <p>
+ * This class is immutable.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class DataBatchResult implements OmhObject {
+	/**
+	 * The version of this class for serialization purposes.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The JSON key for the schema ID.
+	 */
+	public static final String JSON_KEY_SCHEMA_ID = Schema.JSON_KEY_ID;
+	/**
+	 * The JSON key for the schema version.
+	 */
+	public static final String JSON_KEY_SCHEMA_VERSION =
+		Schema.JSON_KEY_VERSION;
+	/**
+	 * The JSON key for the number of points before paging.
+	 */
+	public static final String JSON_KEY_COUNT = "count";
+	/**
+	 * The JSON key for the paging parameters of the next page.
+	 */
+	public static final String JSON_KEY_NEXT = "next";
+	/**
+	 * The JSON key for the data.
+	 */
+	public static final String JSON_KEY_DATA = "data";
+	/**
+	 * The JSON key for the reason the query failed.
+	 */
+	public static final String JSON_KEY_ERROR = "error";
+
+	/**
+	 * The schema ID of the query.
+	 */
+	@JsonProperty(JSON_KEY_SCHEMA_ID)
+	private final String schemaId;
+	/**
+	 * The schema version of the query.
+	 */
+	@JsonProperty(JSON_KEY_SCHEMA_VERSION)
+	private final long version;
+	/**
+	 * The number of points before paging or null if they were not counted or
+	 * the query failed.
+	 */
+	@JsonProperty(JSON_KEY_COUNT)
+	@JsonInclude(Include.NON_NULL)
+	private final Integer count;
+	/**
+	 * The paging parameters for the next page or null if there is no next
+	 * page or the query failed.
+	 */
+	@JsonProperty(JSON_KEY_NEXT)
+	@JsonInclude(Include.NON_NULL)
+	private final Map<String, String> next;
+	/**
+	 * The data or null if the query failed.
+	 */
+	@JsonProperty(JSON_KEY_DATA)
+	@JsonInclude(Include.NON_NULL)
+	private final MultiValueResult<Data> data;
+	/**
+	 * The reason the query failed or null if it succeeded.
+	 */
+	@JsonProperty(JSON_KEY_ERROR)
+	@JsonInclude(Include.NON_NULL)
+	private final String error;
+
+	/**
+	 * Creates the result of a query that succeeded.
+	 *
+	 * @param schemaId
+	 *        The schema ID of the query.
+	 *
+	 * @param version
+	 *        The schema version of the query.
+	 *
+	 * @param data
+	 *        The data.
+	 *
+	 * @param count
+	 *        The number of points before paging or null if they were not
+	 *        counted.
+	 *
+	 * @param next
+	 *        The paging parameters for the next page or null if there is no
+	 *        next page.
+	 *
+	 * @throws OmhException
+	 *         The schema ID or data is null.
+	 */
+	public DataBatchResult(
+		final String schemaId,
+		final long version,
+		final MultiValueResult<Data> data,
+		final Integer count,
+		final Map<String, String> next)
+		throws OmhException {
+
+		if(schemaId == null) {
+			throw new OmhException("The schema ID is null.");
+		}
+		if(data == null) {
+			throw new OmhException("The data is null.");
+		}
+
+		this.schemaId = schemaId;
+		this.version = version;
+		this.data = data;
+		this.count = count;
+		this.next = next;
+		this.error = null;
+	}
+
+	/**
+	 * Creates the result of a query that failed.
+	 *
+	 * @param schemaId
+	 *        The schema ID of the query.
+	 *
+	 * @param version
+	 *        The schema version of the query.
+	 *
+	 * @param error
+	 *        The reason the query failed.
+	 *
+	 * @throws OmhException
+	 *         The schema ID or error is null.
+	 */
+	public DataBatchResult(
+		final String schemaId,
+		final long version,
+		final String error)
+		throws OmhException {
+
+		if(schemaId == null) {
+			throw new OmhException("The schema ID is null.");
+		}
+		if(error == null) {
+			throw new OmhException("The error is null.");
+		}
+
+		this.schemaId = schemaId;
+		this.version = version;
+		this.data = null;
+		this.count = null;
+		this.next = null;
+		this.error = error;
+	}
+
+	/**
+	 * Returns the schema ID of the query.
+	 *
+	 * @return The schema ID of the query.
+	 */
+	public String getSchemaId() {
+		return schemaId;
+	}
+
+	/**
+	 * Returns the schema version of the query.
+	 *
+	 * @return The schema version of the query.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Returns the data.
+	 *
+	 * @return The data or null if the query failed.
+	 */
+	public MultiValueResult<Data> getData() {
+		return data;
+	}
+
+	/**
+	 * Returns the number of points before paging.
+	 *
+	 * @return The number of points before paging or null if they were not
+	 *         counted or the query failed.
+	 */
+	public Integer getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the paging parameters for the next page.
+	 *
+	 * @return The paging parameters for the next page or null if there is no
+	 *         next page or the query failed.
+	 */
+	public Map<String, String> getNext() {
+		return next;
+	}
+
+	/**
+	 * Returns the reason the query failed.
+	 *
+	 * @return The reason the query failed or null if it succeeded.
+	 */
+	public String getError() {
+		return error;
+	}
+}
@@ -0,0 +1,364 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.domain;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.openmhealth.reference.exception.OmhException;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.ToStringSerializer;
+
+/**
+ * <p>
+ * The aggregates of a numeric field over all of the points whose timestamps
+ * fall within one interval, e.g. one day.
+ * </p>
+ *
+ * <p>
+ * This class is immutable.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class DataSummary implements OmhObject {
+	/**
+	 * <p>
+	 * The length of time covered by each summary. Intervals are aligned in
+	 * UTC, and weeks begin on Monday.
+	 * </p>
+	 *
+	 * @author John Jenkins
+	 */
+	public static enum Interval {
+		/**
+		 * Each summary covers one hour.
+		 */
+		HOUR ("hour"),
+		/**
+		 * Each summary covers one day.
+		 */
+		DAY ("day"),
+		/**
+		 * Each summary covers one week.
+		 */
+		WEEK ("week");
+
+		/**
+		 * The value of the summarize parameter for this interval.
+		 */
+		private final String value;
+
+		/**
+		 * Creates an interval with its parameter value.
+		 *
+		 * @param value
+		 *        The value of the summarize parameter for this interval.
+		 */
+		private Interval(final String value) {
+			this.value = value;
+		}
+
+		/**
+		 * Decodes the value of the summarize parameter.
+		 *
+		 * @param value
+		 *        The value of the summarize parameter.
+		 *
+		 * @return The interval.
+		 *
+		 * @throws OmhException
+		 *         The value is not a known interval.
+		 */
+		public static Interval decode(
+			final String value)
+			throws OmhException {
+
+			for(Interval interval : values()) {
+				if(interval.value.equals(value)) {
+					return interval;
+				}
+			}
+
+			throw
+				new OmhException("The summary interval is unknown: " + value);
+		}
+
+		/**
+		 * Returns the start of the interval that contains a timestamp.
+		 *
+		 * @param timestamp
+		 *        The timestamp.
+		 *
+		 * @return The start of the interval, in UTC.
+		 */
+		public DateTime getStart(final DateTime timestamp) {
+			DateTime utc = timestamp.withZone(DateTimeZone.UTC);
+			switch(this) {
+			case HOUR:
+				return utc.hourOfDay().roundFloorCopy();
+
+			case DAY:
+				return utc.dayOfMonth().roundFloorCopy();
+
+			case WEEK:
+				return utc.weekOfWeekyear().roundFloorCopy();
+
+			default:
+				throw new IllegalStateException("The interval is unknown.");
+			}
+		}
+
+		/**
+		 * Returns the value of the summarize parameter for this interval.
+		 *
+		 * @return The value of the summarize parameter for this interval.
+		 */
+		@Override
+		public String toString() {
+			return value;
+		}
+	}
+
+	/**
+	 * <p>
+	 * A builder for {@link DataSummary} objects, which accumulates the values
+	 * for a single interval.
+	 * </p>
+	 *
+	 * @author John Jenkins
+	 */
+	public static class Builder {
+		/**
+		 * The start of the interval.
+		 */
+		private final DateTime start;
+		/**
+		 * The number of values that have been added.
+		 */
+		private long count = 0;
+		/**
+		 * The smallest value that has been added.
+		 */
+		private double min = Double.POSITIVE_INFINITY;
+		/**
+		 * The largest value that has been added.
+		 */
+		private double max = Double.NEGATIVE_INFINITY;
+		/**
+		 * The sum of the values that have been added.
+		 */
+		private double sum = 0;
+
+		/**
+		 * Creates a new builder for an interval.
+		 *
+		 * @param start
+		 *        The start of the interval.
+		 *
+		 * @throws OmhException
+		 *         The start is null.
+		 */
+		public Builder(final DateTime start) throws OmhException {
+			if(start == null) {
+				throw new OmhException("The start is null.");
+			}
+
+			this.start = start;
+		}
+
+		/**
+		 * Adds a value to the interval.
+		 *
+		 * @param value
+		 *        The value.
+		 */
+		public void add(final double value) {
+			count++;
+			min = Math.min(min, value);
+			max = Math.max(max, value);
+			sum += value;
+		}
+
+		/**
+		 * Builds the summary of the values that were added.
+		 *
+		 * @return The summary.
+		 *
+		 * @throws OmhException
+		 *         No values were added.
+		 */
+		public DataSummary build() throws OmhException {
+			return new DataSummary(start, count, min, max, sum);
+		}
+	}
+
+	/**
+	 * The version of this class used for serialization purposes.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The JSON key for the start of the interval.
+	 */
+	public static final String JSON_KEY_START = "start";
+	/**
+	 * The JSON key for the number of values.
+	 */
+	public static final String JSON_KEY_COUNT = "count";
+	/**
+	 * The JSON key for the smallest value.
+	 */
+	public static final String JSON_KEY_MIN = "min";
+	/**
+	 * The JSON key for the largest value.
+	 */
+	public static final String JSON_KEY_MAX = "max";
+	/**
+	 * The JSON key for the sum of the values.
+	 */
+	public static final String JSON_KEY_SUM = "sum";
+	/**
+	 * The JSON key for the average of the values.
+	 */
+	public static final String JSON_KEY_AVERAGE = "avg";
+
+	/**
+	 * The start of the interval.
+	 */
+	@JsonProperty(JSON_KEY_START)
+	@JsonSerialize(using = ToStringSerializer.class)
+	private final DateTime start;
+	/**
+	 * The number of values.
+	 */
+	@JsonProperty(JSON_KEY_COUNT)
+	private final long count;
+	/**
+	 * The smallest value.
+	 */
+	@JsonProperty(JSON_KEY_MIN)
+	private final double min;
+	/**
+	 * The largest value.
+	 */
+	@JsonProperty(JSON_KEY_MAX)
+	private final double max;
+	/**
+	 * The sum of the values.
+	 */
+	@JsonProperty(JSON_KEY_SUM)
+	private final double sum;
+
+	/**
+	 * Creates a new summary.
+	 *
+	 * @param start
+	 *        The start of the interval.
+	 *
+	 * @param count
+	 *        The number of values.
+	 *
+	 * @param min
+	 *        The smallest value.
+	 *
+	 * @param max
+	 *        The largest value.
+	 *
+	 * @param sum
+	 *        The sum of the values.
+	 *
+	 * @throws OmhException
+	 *         The start is null or the count is not positive.
+	 */
+	public DataSummary(
+		final DateTime start,
+		final long count,
+		final double min,
+		final double max,
+		final double sum)
+		throws OmhException {
+
+		if(start == null) {
+			throw new OmhException("The start is null.");
+		}
+		if(count <= 0) {
+			throw new OmhException("The count must be positive.");
+		}
+
+		this.start = start;
+		this.count = count;
+		this.min = min;
+		this.max = max;
+		this.sum = sum;
+	}
+
+	/**
+	 * Returns the start of the interval.
+	 *
+	 * @return The start of the interval.
+	 */
+	public DateTime getStart() {
+		return start;
+	}
+
+	/**
+	 * Returns the number of values.
+	 *
+	 * @return The number of values.
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Returns the smallest value.
+	 *
+	 * @return The smallest value.
+	 */
+	public double getMin() {
+		return min;
+	}
+
+	/**
+	 * Returns the largest value.
+	 *
+	 * @return The largest value.
+	 */
+	public double getMax() {
+		return max;
+	}
+
+	/**
+	 * Returns the sum of the values.
+	 *
+	 * @return The sum of the values.
+	 */
+	public double getSum() {
+		return sum;
+	}
+
+	/**
+	 * Returns the average of the values.
+	 *
+	 * @return The average of the values.
+	 */
+	@JsonProperty(JSON_KEY_AVERAGE)
+	public double getAverage() {
+		return sum / count;
+	}
+}
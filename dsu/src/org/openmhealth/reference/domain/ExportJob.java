@@ -0,0 +1,179 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.domain;
+
+import org.openmhealth.reference.exception.OmhException;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * <p>
+ * A background job that exports all of a user's data to a single file and
+ * the progress it has made so far. Once it is complete, the file may be
+ * downloaded. If it fails, there is no file.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class ExportJob extends BackgroundJob {
+	/**
+	 * The version of this class for serialization purposes.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The JSON key for the number of schema ID-version pairs to export.
+	 */
+	public static final String JSON_KEY_SCHEMAS_TOTAL = "schemas_total";
+	/**
+	 * The JSON key for the number of schema ID-version pairs exported so far.
+	 */
+	public static final String JSON_KEY_SCHEMAS_EXPORTED = "schemas_exported";
+	/**
+	 * The JSON key for the number of points exported so far.
+	 */
+	public static final String JSON_KEY_POINTS_EXPORTED = "points_exported";
+	/**
+	 * The JSON key for the size of the finished file in bytes.
+	 */
+	public static final String JSON_KEY_SIZE = "size";
+	/**
+	 * The number of schema ID-version pairs to export or zero if that is not
+	 * yet known.
+	 */
+	@JsonProperty(JSON_KEY_SCHEMAS_TOTAL)
+	private volatile int schemasTotal = 0;
+	/**
+	 * The number of schema ID-version pairs exported so far.
+	 */
+	@JsonProperty(JSON_KEY_SCHEMAS_EXPORTED)
+	private volatile int schemasExported = 0;
+	/**
+	 * The number of points exported so far.
+	 */
+	@JsonProperty(JSON_KEY_POINTS_EXPORTED)
+	private volatile long pointsExported = 0;
+	/**
+	 * The size of the finished file in bytes or null if it is not finished.
+	 */
+	@JsonProperty(JSON_KEY_SIZE)
+	@JsonInclude(Include.NON_NULL)
+	private volatile Long size = null;
+
+	/**
+	 * Creates a new, queued export of a user's data.
+	 *
+	 * @param owner
+	 *        The user whose data is exported.
+	 *
+	 * @throws OmhException
+	 *         The owner is null.
+	 */
+	public ExportJob(final String owner) throws OmhException {
+		super(owner);
+	}
+
+	/**
+	 * Returns the number of schema ID-version pairs to export.
+	 *
+	 * @return The number of schema ID-version pairs to export or zero if that
+	 *         is not yet known.
+	 */
+	public int getSchemasTotal() {
+		return schemasTotal;
+	}
+
+	/**
+	 * Returns the number of schema ID-version pairs exported so far.
+	 *
+	 * @return The number of schema ID-version pairs exported so far.
+	 */
+	public int getSchemasExported() {
+		return schemasExported;
+	}
+
+	/**
+	 * Returns the number of points exported so far.
+	 *
+	 * @return The number of points exported so far.
+	 */
+	public long getPointsExported() {
+		return pointsExported;
+	}
+
+	/**
+	 * Returns the size of the finished file.
+	 *
+	 * @return The size of the finished file in bytes or null if the export has
+	 *         not completed.
+	 */
+	public Long getSize() {
+		return size;
+	}
+
+	/**
+	 * Marks the export as running.
+	 *
+	 * @param schemasTotal
+	 *        The number of schema ID-version pairs to export.
+	 *
+	 * @throws OmhException
+	 *         The export is not queued.
+	 */
+	public void start(final int schemasTotal) throws OmhException {
+		if(getState() != State.QUEUED) {
+			throw new OmhException("The export has already started.");
+		}
+
+		this.schemasTotal = schemasTotal;
+		markRunning();
+	}
+
+	/**
+	 * Records that another point was exported.
+	 */
+	public void pointExported() {
+		pointsExported++;
+	}
+
+	/**
+	 * Records that all of the points of another schema ID-version pair were
+	 * exported.
+	 */
+	public void schemaExported() {
+		schemasExported++;
+	}
+
+	/**
+	 * Marks the export as complete.
+	 *
+	 * @param size
+	 *        The size of the finished file in bytes.
+	 *
+	 * @throws OmhException
+	 *         The export is not running.
+	 */
+	public void complete(final long size) throws OmhException {
+		if(getState() != State.RUNNING) {
+			throw new OmhException("The export is not running.");
+		}
+
+		this.size = size;
+		markComplete();
+	}
+}
@@ -0,0 +1,179 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.domain;
+
+import org.openmhealth.reference.exception.OmhException;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * <p>
+ * A background job that stores the data of an uploaded file and the
+ * progress it has made so far. If it fails, any data before the failure was
+ * stored.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class ImportJob extends BackgroundJob {
+	/**
+	 * The version of this class for serialization purposes.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The JSON key for the ID of the schema that validates the data.
+	 */
+	public static final String JSON_KEY_SCHEMA_ID = Schema.JSON_KEY_ID;
+	/**
+	 * The JSON key for the version of the schema that validates the data.
+	 */
+	public static final String JSON_KEY_SCHEMA_VERSION =
+		Schema.JSON_KEY_VERSION;
+	/**
+	 * The JSON key for the size of the uploaded file in bytes.
+	 */
+	public static final String JSON_KEY_BYTES_TOTAL = "bytes_total";
+	/**
+	 * The JSON key for the number of bytes of the file read so far.
+	 */
+	public static final String JSON_KEY_BYTES_READ = "bytes_read";
+	/**
+	 * The ID of the schema that validates the data.
+	 */
+	@JsonProperty(JSON_KEY_SCHEMA_ID)
+	private final String schemaId;
+	/**
+	 * The version of the schema that validates the data.
+	 */
+	@JsonProperty(JSON_KEY_SCHEMA_VERSION)
+	private final long schemaVersion;
+	/**
+	 * The size of the uploaded file in bytes.
+	 */
+	@JsonProperty(JSON_KEY_BYTES_TOTAL)
+	private final long bytesTotal;
+	/**
+	 * The number of bytes of the file read so far.
+	 */
+	@JsonProperty(JSON_KEY_BYTES_READ)
+	private volatile long bytesRead = 0;
+
+	/**
+	 * Creates a new, queued import of an uploaded file.
+	 *
+	 * @param owner
+	 *        The user who owns the imported data.
+	 *
+	 * @param schemaId
+	 *        The ID of the schema that validates the data.
+	 *
+	 * @param schemaVersion
+	 *        The version of the schema that validates the data.
+	 *
+	 * @param bytesTotal
+	 *        The size of the uploaded file in bytes.
+	 *
+	 * @throws OmhException
+	 *         The owner or schema ID is null or the size is negative.
+	 */
+	public ImportJob(
+		final String owner,
+		final String schemaId,
+		final long schemaVersion,
+		final long bytesTotal)
+		throws OmhException {
+
+		super(owner);
+
+		if(schemaId == null) {
+			throw new OmhException("The schema ID is null.");
+		}
+		if(bytesTotal < 0) {
+			throw new OmhException("The size is negative.");
+		}
+
+		this.schemaId = schemaId;
+		this.schemaVersion = schemaVersion;
+		this.bytesTotal = bytesTotal;
+	}
+
+	/**
+	 * Returns the ID of the schema that validates the data.
+	 *
+	 * @return The ID of the schema that validates the data.
+	 */
+	public String getSchemaId() {
+		return schemaId;
+	}
+
+	/**
+	 * Returns the version of the schema that validates the data.
+	 *
+	 * @return The version of the schema that validates the data.
+	 */
+	public long getSchemaVersion() {
+		return schemaVersion;
+	}
+
+	/**
+	 * Returns the size of the uploaded file.
+	 *
+	 * @return The size of the uploaded file in bytes.
+	 */
+	public long getBytesTotal() {
+		return bytesTotal;
+	}
+
+	/**
+	 * Returns the number of bytes of the file read so far.
+	 *
+	 * @return The number of bytes of the file read so far.
+	 */
+	public long getBytesRead() {
+		return bytesRead;
+	}
+
+	/**
+	 * Marks the import as running.
+	 *
+	 * @throws OmhException
+	 *         The import is not queued.
+	 */
+	public void start() throws OmhException {
+		markRunning();
+	}
+
+	/**
+	 * Records that more of the file was read.
+	 *
+	 * @param numBytes
+	 *        The number of bytes that were read.
+	 */
+	public void bytesRead(final long numBytes) {
+		bytesRead += numBytes;
+	}
+
+	/**
+	 * Marks the import as complete.
+	 *
+	 * @throws OmhException
+	 *         The import is not running.
+	 */
+	public void complete() throws OmhException {
+		markComplete();
+	}
+}
@@ -0,0 +1,191 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.domain;
+
+import java.io.IOException;
+
+import org.openmhealth.reference.exception.OmhException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.json.JsonGeneratorImpl;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.node.JsonNodeType;
+import com.fasterxml.jackson.databind.node.ValueNode;
+
+/**
+ * <p>
+ * A {@link JsonNode} that holds already-serialized JSON, e.g. a point's data
+ * as it was stored in the database. When it is serialized as JSON, the JSON
+ * is written as-is instead of being parsed into a tree and written back out.
+ * </p>
+ *
+ * <p>
+ * The JSON is not validated, so this should only be used for JSON that was
+ * generated by this server. If the structure of the JSON is needed, it can
+ * be parsed with {@link #toTree()}.
+ * </p>
+ *
+ * <p>
+ * This class is immutable.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class RawJsonNode extends ValueNode {
+	/**
+	 * The mapper used to parse the JSON when its structure is needed.
+	 */
+	private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
+
+	/**
+	 * The serialized JSON.
+	 */
+	private final String json;
+
+	/**
+	 * Creates a new node from serialized JSON.
+	 *
+	 * @param json
+	 *        The serialized JSON.
+	 *
+	 * @throws OmhException
+	 *         The JSON is null.
+	 */
+	public RawJsonNode(final String json) throws OmhException {
+		if(json == null) {
+			throw new OmhException("The JSON is null.");
+		}
+
+		this.json = json;
+	}
+
+	/**
+	 * Returns the serialized JSON.
+	 *
+	 * @return The serialized JSON.
+	 */
+	public String getJson() {
+		return json;
+	}
+
+	/**
+	 * Parses the JSON into a tree.
+	 *
+	 * @return The parsed JSON.
+	 *
+	 * @throws OmhException
+	 *         The JSON could not be parsed.
+	 */
+	public JsonNode toTree() throws OmhException {
+		try {
+			return JSON_MAPPER.readTree(json);
+		}
+		catch(IOException e) {
+			throw new OmhException("The JSON could not be parsed.", e);
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.fasterxml.jackson.databind.node.ValueNode#asToken()
+	 */
+	@Override
+	public JsonToken asToken() {
+		return JsonToken.VALUE_EMBEDDED_OBJECT;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.fasterxml.jackson.databind.JsonNode#getNodeType()
+	 */
+	@Override
+	public JsonNodeType getNodeType() {
+		return JsonNodeType.POJO;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.fasterxml.jackson.databind.JsonNode#asText()
+	 */
+	@Override
+	public String asText() {
+		return json;
+	}
+
+	/**
+	 * Writes the JSON as-is if the generator writes JSON text. Otherwise,
+	 * e.g. for binary formats, the JSON is parsed and copied token by token.
+	 */
+	@Override
+	public void serialize(
+		final JsonGenerator generator,
+		final SerializerProvider provider)
+		throws IOException, JsonProcessingException {
+
+		if(generator instanceof JsonGeneratorImpl) {
+			generator.writeRawValue(json);
+			return;
+		}
+
+		JsonParser parser = JSON_MAPPER.getFactory().createParser(json);
+		try {
+			parser.nextToken();
+			generator.copyCurrentStructure(parser);
+		}
+		finally {
+			parser.close();
+		}
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.fasterxml.jackson.databind.JsonNode#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(final Object other) {
+		if(this == other) {
+			return true;
+		}
+		if(! (other instanceof RawJsonNode)) {
+			return false;
+		}
+
+		return json.equals(((RawJsonNode) other).json);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.fasterxml.jackson.databind.node.BaseJsonNode#hashCode()
+	 */
+	@Override
+	public int hashCode() {
+		return json.hashCode();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.fasterxml.jackson.databind.node.ValueNode#toString()
+	 */
+	@Override
+	public String toString() {
+		return json;
+	}
+}
@@ -21,9 +21,11 @@ import name.jenkins.paul.john.concordia.Concordia;
 import name.jenkins.paul.john.concordia.exception.ConcordiaException;
 import name.jenkins.paul.john.concordia.validator.ValidationController;
 
+import org.openmhealth.reference.concordia.CompiledValidator;
 import org.openmhealth.reference.exception.OmhException;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.JsonNode;
 
@@ -86,6 +88,12 @@ public class Schema implements OmhObject {
 	 */
 	@JsonProperty(JSON_KEY_SCHEMA)
 	private final Concordia schema;
+	/**
+	 * The validator compiled from the schema, which is looked up the first
+	 * time data is validated.
+	 */
+	@JsonIgnore
+	private transient volatile CompiledValidator validator;
 
 	/**
 	 * Creates a new schema (registry entry).
@@ -191,7 +199,7 @@ public class Schema implements OmhObject {
 		
 		// Validate the data.
 		try {
-			schema.validateData(data);
+			getValidator().validate(data);
 		}
 		catch(ConcordiaException e) {
 			throw new OmhException("The data is invalid.", e);
@@ -201,6 +209,20 @@ public class Schema implements OmhObject {
 		return new Data(owner, id, version, metaData, data);
 	}
 
+	/**
+	 * Returns the validator compiled from the schema.
+	 * 
+	 * @return The validator compiled from the schema.
+	 */
+	private CompiledValidator getValidator() {
+		CompiledValidator result = validator;
+		if(result == null) {
+			result = CompiledValidator.getInstance(id, version, schema);
+			validator = result;
+		}
+		return result;
+	}
+
 	/**
 	 * Validates that the ID follows our rules.
 	 * 
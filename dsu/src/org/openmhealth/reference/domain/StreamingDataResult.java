@@ -0,0 +1,259 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.domain;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.openmhealth.reference.data.DataSet;
+import org.openmhealth.reference.data.DataSet.DataHandler;
+import org.openmhealth.reference.exception.OmhException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+/**
+ * <p>
+ * A {@link MultiValueResult} that does not read its data until it is
+ * serialized. When it is serialized, each point is written to the generator
+ * as soon as it is read from the database, so the points are never all held
+ * in memory at once and the first points reach the client before the last
+ * ones are read.
+ * </p>
+ *
+ * <p>
+ * Because the query is only run when this object is serialized, the
+ * database connection is held for as long as it takes to write the response.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+@JsonSerialize(using = StreamingDataResult.Serializer.class)
+public class StreamingDataResult implements MultiValueResult<Data> {
+	/**
+	 * <p>
+	 * Serializes a {@link StreamingDataResult} by streaming its data directly
+	 * into the generator as a JSON array.
+	 * </p>
+	 *
+	 * @author John Jenkins
+	 */
+	public static class Serializer extends JsonSerializer<StreamingDataResult> {
+		/*
+		 * (non-Javadoc)
+		 * @see com.fasterxml.jackson.databind.JsonSerializer#serialize(java.lang.Object, com.fasterxml.jackson.core.JsonGenerator, com.fasterxml.jackson.databind.SerializerProvider)
+		 */
+		@Override
+		public void serialize(
+			final StreamingDataResult value,
+			final JsonGenerator generator,
+			final SerializerProvider provider)
+			throws IOException {
+
+			generator.writeStartArray();
+			value.stream(
+				new DataHandler() {
+					/*
+					 * (non-Javadoc)
+					 * @see org.openmhealth.reference.data.DataSet.DataHandler#handle(org.openmhealth.reference.domain.Data)
+					 */
+					@Override
+					public void handle(final Data data) throws IOException {
+						provider.defaultSerializeValue(data, generator);
+					}
+				});
+			generator.writeEndArray();
+		}
+	}
+
+	/**
+	 * The unique identifier of the user whose data is requested.
+	 */
+	private final String owner;
+	/**
+	 * The unique identifier for the schema for the requested data.
+	 */
+	private final String schemaId;
+	/**
+	 * The version of the schema for the requested data.
+	 */
+	private final long version;
+	/**
+	 * The earliest point that should be returned.
+	 */
+	private final DateTime startDate;
+	/**
+	 * The latest point that should be returned.
+	 */
+	private final DateTime endDate;
+	/**
+	 * The list of columns within the data to return.
+	 */
+	private final ColumnList columnList;
+	/**
+	 * The number of data points to skip.
+	 */
+	private final long numToSkip;
+	/**
+	 * The number of data points to return.
+	 */
+	private final long numToReturn;
+	/**
+	 * The total number of points that matched before paging.
+	 */
+	private final int count;
+
+	/**
+	 * Creates a new streaming result. No data is read until the result is
+	 * serialized or iterated over.
+	 *
+	 * @param owner
+	 *        The unique identifier of the user whose data is requested.
+	 *
+	 * @param schemaId
+	 *        The unique identifier for the schema for the requested data.
+	 *
+	 * @param version
+	 *        The version of the schema for the requested data.
+	 *
+	 * @param startDate
+	 *        The earliest point that should be returned.
+	 *
+	 * @param endDate
+	 *        The latest point that should be returned.
+	 *
+	 * @param columnList
+	 *        The list of columns within the data to return.
+	 *
+	 * @param numToSkip
+	 *        The number of data points to skip.
+	 *
+	 * @param numToReturn
+	 *        The number of data points to return.
+	 *
+	 * @param count
+	 *        The total number of points that matched before paging.
+	 *
+	 * @throws OmhException
+	 *         A required parameter was missing.
+	 */
+	public StreamingDataResult(
+		final String owner,
+		final String schemaId,
+		final long version,
+		final DateTime startDate,
+		final DateTime endDate,
+		final ColumnList columnList,
+		final long numToSkip,
+		final long numToReturn,
+		final int count)
+		throws OmhException {
+
+		if(owner == null) {
+			throw new OmhException("The owner is null.");
+		}
+		if(schemaId == null) {
+			throw new OmhException("The schema ID is null.");
+		}
+
+		this.owner = owner;
+		this.schemaId = schemaId;
+		this.version = version;
+		this.startDate = startDate;
+		this.endDate = endDate;
+		this.columnList = columnList;
+		this.numToSkip = numToSkip;
+		this.numToReturn = numToReturn;
+		this.count = count;
+	}
+
+	/**
+	 * Reads the data from the database, which is not cached, so this should
+	 * be used sparingly. The serializer does not use this.
+	 */
+	@Override
+	public Iterator<Data> iterator() {
+		final List<Data> result = new LinkedList<Data>();
+		try {
+			stream(
+				new DataHandler() {
+					/*
+					 * (non-Javadoc)
+					 * @see org.openmhealth.reference.data.DataSet.DataHandler#handle(org.openmhealth.reference.domain.Data)
+					 */
+					@Override
+					public void handle(final Data data) {
+						result.add(data);
+					}
+				});
+		}
+		catch(IOException e) {
+			throw new OmhException("The data could not be read.", e);
+		}
+		return result.iterator();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.domain.MultiValueResult#count()
+	 */
+	@Override
+	public int count() {
+		return count;
+	}
+
+	/**
+	 * Returns the number of points that will be returned, which is computed
+	 * from the count and the paging parameters without reading any data.
+	 */
+	@Override
+	public int size() {
+		long remaining = count - numToSkip;
+		if(remaining < 0) {
+			return 0;
+		}
+		return (new Long(Math.min(remaining, numToReturn))).intValue();
+	}
+
+	/**
+	 * Reads the data from the database and hands each point to the handler.
+	 *
+	 * @param handler
+	 *        The handler that will receive each point.
+	 *
+	 * @throws IOException
+	 *         The handler failed to handle a point.
+	 */
+	private void stream(final DataHandler handler) throws IOException {
+		DataSet
+			.getInstance()
+			.streamData(
+				owner,
+				schemaId,
+				version,
+				startDate,
+				endDate,
+				columnList,
+				numToSkip,
+				numToReturn,
+				handler);
+	}
+}
@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.domain.sql;
+
+import org.openmhealth.reference.domain.Data;
+import org.openmhealth.reference.domain.MetaData;
+import org.openmhealth.reference.exception.OmhException;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * <p>
+ * A SQL extension of the {@link Data} type that remembers the row's database
+ * ID.
+ * </p>
+ *
+ * <p>
+ * This class is immutable.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class SqlData extends Data {
+	/**
+	 * The ID for this class which is used for serialization.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The database ID for this object.
+	 */
+	@JsonIgnore
+	private final long dbId;
+
+	/**
+	 * Creates a new data object. This should only be used when pulling
+	 * already-validated data from the database.
+	 *
+	 * @param dbId
+	 *        The database ID of the row.
+	 *
+	 * @param owner
+	 * 		  The identifier for the user that owns the data.
+	 *
+	 * @param schemaId
+	 * 		  The ID of the schema that was used to validate this data.
+	 *
+	 * @param schemaVersion
+	 * 		  The version of the schema that was used to validate this data.
+	 *
+	 * @param metaData
+	 *        The meta-data for this data.
+	 *
+	 * @param data
+	 *        The data.
+	 *
+	 * @throws OmhException
+	 *         Any of the parameters is null.
+	 */
+	public SqlData(
+		final long dbId,
+		final String owner,
+		final String schemaId,
+		final long schemaVersion,
+		final MetaData metaData,
+		final JsonNode data)
+		throws OmhException {
+
+		super(owner, schemaId, schemaVersion, metaData, data);
+
+		this.dbId = dbId;
+	}
+
+	/**
+	 * Returns the database ID for this point.
+	 *
+	 * @return The database ID for this point.
+	 */
+	public long getDatabaseId() {
+		return dbId;
+	}
+}
@@ -0,0 +1,182 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.exception;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * <p>
+ * The parent of the exceptions that report a failure for each of many data
+ * points, by the point's index. Only the first
+ * {@link #MAX_REPORTED_FAILURES} failures are described in the message, but
+ * every failure is counted.
+ * </p>
+ * 
+ * @author John Jenkins
+ */
+public abstract class DataPointsException extends OmhException {
+	/**
+	 * The maximum number of failures that are described in the message.
+	 */
+	public static final int MAX_REPORTED_FAILURES = 100;
+
+	/**
+	 * The version of this class to be used with serialization.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * The reason for each failure, by the point's index.
+	 */
+	private final SortedMap<Integer, String> failures;
+
+	/**
+	 * Creates a new exception that describes the failures.
+	 * 
+	 * @param failures
+	 *        The reason for each failure, by the point's index.
+	 * 
+	 * @param singular
+	 *        What happened, following the count when there is one failure,
+	 *        e.g. "data point was not stored."
+	 * 
+	 * @param plural
+	 *        What happened, following the count when there are many
+	 *        failures, e.g. "data points were not stored."
+	 * 
+	 * @param suffix
+	 *        Any additional, user-friendly explanation to append to the
+	 *        message or null if there is none.
+	 * 
+	 * @param cause
+	 *        The exception that caused the failures or null if there is none.
+	 */
+	protected DataPointsException(
+		final Map<Integer, String> failures,
+		final String singular,
+		final String plural,
+		final String suffix,
+		final Throwable cause) {
+
+		this(
+			Collections
+				.unmodifiableSortedMap(
+					new TreeMap<Integer, String>(failures)),
+			singular,
+			plural,
+			suffix,
+			cause);
+	}
+
+	/**
+	 * Creates a new exception from the already-sorted failures.
+	 * 
+	 * @param failures
+	 *        The reason for each failure, by the point's index, in ascending
+	 *        order.
+	 * 
+	 * @param singular
+	 *        What happened when there is one failure.
+	 * 
+	 * @param plural
+	 *        What happened when there are many failures.
+	 * 
+	 * @param suffix
+	 *        Any additional explanation to append or null if there is none.
+	 * 
+	 * @param cause
+	 *        The exception that caused the failures or null if there is none.
+	 */
+	private DataPointsException(
+		final SortedMap<Integer, String> failures,
+		final String singular,
+		final String plural,
+		final String suffix,
+		final Throwable cause) {
+
+		super(buildMessage(failures, singular, plural, suffix), cause);
+
+		this.failures = failures;
+	}
+
+	/**
+	 * Returns the reason for each failure.
+	 * 
+	 * @return The reason for each failure, by the point's index, in ascending
+	 *         order.
+	 */
+	public SortedMap<Integer, String> getFailures() {
+		return failures;
+	}
+
+	/**
+	 * Builds a message with the number of failures and one line for each of
+	 * the first {@link #MAX_REPORTED_FAILURES}, in the order of the points.
+	 * 
+	 * @param failures
+	 *        The reason for each failure, by the point's index, in ascending
+	 *        order.
+	 * 
+	 * @param singular
+	 *        What happened when there is one failure.
+	 * 
+	 * @param plural
+	 *        What happened when there are many failures.
+	 * 
+	 * @param suffix
+	 *        Any additional explanation to append or null if there is none.
+	 * 
+	 * @return The message.
+	 */
+	private static String buildMessage(
+		final SortedMap<Integer, String> failures,
+		final String singular,
+		final String plural,
+		final String suffix) {
+
+		StringBuilder builder = new StringBuilder();
+		builder
+			.append(failures.size())
+			.append(' ')
+			.append((failures.size() == 1) ? singular : plural);
+
+		int reported = 0;
+		for(Map.Entry<Integer, String> failure : failures.entrySet()) {
+			if(reported == MAX_REPORTED_FAILURES) {
+				builder
+					.append("\nOnly the first ")
+					.append(MAX_REPORTED_FAILURES)
+					.append(" are described.");
+				break;
+			}
+
+			builder
+				.append("\nData point ")
+				.append(failure.getKey())
+				.append(": ")
+				.append(failure.getValue());
+			reported++;
+		}
+		if(suffix != null) {
+			builder.append('\n').append(suffix);
+		}
+
+		return builder.toString();
+	}
+}
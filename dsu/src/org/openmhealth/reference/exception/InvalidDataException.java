@@ -0,0 +1,57 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.exception;
+
+import java.util.Map;
+
+/**
+ * <p>
+ * A specific exception that should be used when one or more points of an
+ * upload are invalid. Every invalid point is counted and kept, by its index
+ * in the upload, rather than only the first one.
+ * </p>
+ * 
+ * @author John Jenkins
+ */
+public class InvalidDataException extends DataPointsException {
+	/**
+	 * The version of this class to be used with serialization.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Creates a new exception that describes every invalid point.
+	 * 
+	 * @param failures
+	 *        The reason each invalid point was rejected, by the point's index
+	 *        in the upload.
+	 * 
+	 * @param suffix
+	 *        Any additional, user-friendly explanation to append to the
+	 *        message or null if there is none.
+	 */
+	public InvalidDataException(
+		final Map<Integer, String> failures,
+		final String suffix) {
+
+		super(
+			failures,
+			"data point is invalid.",
+			"data points are invalid.",
+			suffix,
+			null);
+	}
+}
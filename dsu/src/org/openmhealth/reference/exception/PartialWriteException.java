@@ -0,0 +1,64 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.exception;
+
+import java.util.Map;
+
+/**
+ * <p>
+ * A specific exception that should be used when some, but not necessarily
+ * all, of the points that were being stored could not be. Every point that
+ * was not stored is kept by its index, and every other point was stored.
+ * </p>
+ * 
+ * @author John Jenkins
+ */
+public class PartialWriteException extends DataPointsException {
+	/**
+	 * The version of this class to be used with serialization.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Creates a new exception that describes every point that was not
+	 * stored.
+	 * 
+	 * @param failures
+	 *        The reason each point was not stored, by the point's index in
+	 *        the points that were being stored. A database may only report
+	 *        one error for a batch of points, in which case the reason is the
+	 *        batch's error and should say so.
+	 * 
+	 * @param suffix
+	 *        Any additional, user-friendly explanation to append to the
+	 *        message or null if there is none.
+	 * 
+	 * @param cause
+	 *        The exception from the database or null if there is none.
+	 */
+	public PartialWriteException(
+		final Map<Integer, String> failures,
+		final String suffix,
+		final Throwable cause) {
+
+		super(
+			failures,
+			"data point was not stored.",
+			"data points were not stored.",
+			suffix,
+			cause);
+	}
+}
@@ -0,0 +1,57 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.exception;
+
+/**
+ * <p>
+ * A specific exception that should be used when the server has too much work
+ * queued to accept the request, which the user may retry later.
+ * </p>
+ * 
+ * @author John Jenkins
+ */
+public class ServerBusyException extends OmhException {
+	/**
+	 * The version of this class to be used with serialization.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Creates a new exception indicating that the server is too busy.
+	 * 
+	 * @param reason
+	 *        A user-friendly explanation as to what the server could not
+	 *        accept.
+	 */
+	public ServerBusyException(String reason) {
+		super(reason);
+	}
+
+	/**
+	 * Creates a new exception indicating that the server is too busy, as
+	 * well as another exception that will be output for debugging purposes.
+	 * 
+	 * @param reason
+	 *        A user-friendly explanation as to what the server could not
+	 *        accept.
+	 * 
+	 * @param cause
+	 *        Another exception that caused this exception.
+	 */
+	public ServerBusyException(String reason, Throwable cause) {
+		super(reason, cause);
+	}
+}
@@ -16,6 +16,7 @@
 package org.openmhealth.reference.filter;
 
 import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -31,6 +32,7 @@ import org.openmhealth.reference.exception.InvalidAuthenticationException;
 import org.openmhealth.reference.exception.InvalidAuthorizationException;
 import org.openmhealth.reference.exception.NoSuchSchemaException;
 import org.openmhealth.reference.exception.OmhException;
+import org.openmhealth.reference.exception.ServerBusyException;
 import org.springframework.web.util.NestedServletException;
 
 /**
@@ -104,11 +106,19 @@ public class ExceptionFilter implements Filter {
 			if(cause instanceof OmhException) {
 				exception = cause;
 			}
+			// If the data executor was full, the server is busy.
+			else if(cause instanceof RejectedExecutionException) {
+				exception = buildServerBusyException(cause);
+			}
 			// Otherwise, store this exception.
 			else {
 				exception = e;
 			}
 		}
+		// If the data executor was full, the server is busy.
+		catch(RejectedExecutionException e) {
+			exception = buildServerBusyException(e);
+		}
 		// Otherwise, store the exception,
 		catch(Exception e) {
 			exception = e;
@@ -156,6 +166,18 @@ public class ExceptionFilter implements Filter {
 					HttpServletResponse.SC_UNAUTHORIZED,
 					exception.getMessage());
 			}
+			else if(exception instanceof ServerBusyException) {
+				LOGGER.log(
+					Level.WARNING,
+					"A request was rejected because the server is busy.",
+					exception);
+				
+				// Respond to the user.
+				sendResponse(
+					response,
+					HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+					exception.getMessage());
+			}
 			else if(exception instanceof OmhException) {
 				LOGGER.log(
 					Level.INFO,
@@ -193,6 +215,24 @@ public class ExceptionFilter implements Filter {
 		// Do nothing.
 	}
 	
+	/**
+	 * Builds the exception for a request that the data executor rejected
+	 * because every thread was busy and its queue was full.
+	 * 
+	 * @param cause
+	 *        The rejection.
+	 * 
+	 * @return The exception to report to the user.
+	 */
+	private static ServerBusyException buildServerBusyException(
+		final Throwable cause) {
+		
+		return
+			new ServerBusyException(
+				"The server is too busy to accept the request.",
+				cause);
+	}
+	
 	/**
 	 * Sends the response to the user.
 	 * 
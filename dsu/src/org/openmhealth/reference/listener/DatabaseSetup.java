@@ -15,6 +15,7 @@
  ******************************************************************************/
 package org.openmhealth.reference.listener;
 
+import java.io.File;
 import java.lang.reflect.InvocationTargetException;
 import java.util.Properties;
 import java.util.logging.Level;
@@ -23,7 +24,17 @@ import java.util.logging.Logger;
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 
+import org.openmhealth.reference.data.CachingDataSet;
+import org.openmhealth.reference.data.CachingRegistry;
 import org.openmhealth.reference.data.Dao;
+import org.openmhealth.reference.data.DataExporter;
+import org.openmhealth.reference.data.DataImporter;
+import org.openmhealth.reference.data.DataSet;
+import org.openmhealth.reference.data.Registry;
+import org.openmhealth.reference.data.WriteBehindDataSet;
+import org.openmhealth.reference.exception.OmhException;
+import org.openmhealth.reference.request.DataBatchReadRequest;
+import org.openmhealth.reference.request.DataWriteRequest;
 
 /**
  * <p>
@@ -48,11 +59,112 @@ public class DatabaseSetup implements ServletContextListener {
 	 * The key that denotes which DAO class to use.
 	 */
 	public static final String PROPERTY_KEY_DATABASE_CLASS = "db.class";
+	/**
+	 * The key that denotes how many pages of data to cache. If it is missing
+	 * or zero, data is not cached.
+	 */
+	public static final String PROPERTY_KEY_DATA_CACHE_SIZE =
+		"db.cache.data.size";
+	/**
+	 * The key that denotes how many seconds a page of data is cached.
+	 */
+	public static final String PROPERTY_KEY_DATA_CACHE_TTL =
+		"db.cache.data.ttl";
+	/**
+	 * The default number of seconds a page of data is cached.
+	 */
+	public static final long DEFAULT_DATA_CACHE_TTL = 60;
+	/**
+	 * The key that denotes how many schema ID-version pairs to cache. If it
+	 * is zero, schemas are not cached.
+	 */
+	public static final String PROPERTY_KEY_REGISTRY_CACHE_SIZE =
+		"db.cache.registry.size";
+	/**
+	 * The default number of schema ID-version pairs to cache.
+	 */
+	public static final long DEFAULT_REGISTRY_CACHE_SIZE = 1000;
+	/**
+	 * The key that denotes how many seconds may pass before cached schemas
+	 * are checked against the registry.
+	 */
+	public static final String PROPERTY_KEY_REGISTRY_CACHE_CHECK =
+		"db.cache.registry.check";
+	/**
+	 * The default number of seconds that may pass before cached schemas are
+	 * checked against the registry.
+	 */
+	public static final long DEFAULT_REGISTRY_CACHE_CHECK = 5;
+	/**
+	 * The key that denotes the most points that are merged from concurrent
+	 * requests into a single write. If it is missing or zero, each request
+	 * writes its own data.
+	 */
+	public static final String PROPERTY_KEY_WRITE_BEHIND_BATCH =
+		"db.write.behind.batch";
+	/**
+	 * The key that denotes the most milliseconds a request waits for its
+	 * write to fill.
+	 */
+	public static final String PROPERTY_KEY_WRITE_BEHIND_DELAY =
+		"db.write.behind.delay";
+	/**
+	 * The default number of milliseconds a request waits for its write to
+	 * fill.
+	 */
+	public static final long DEFAULT_WRITE_BEHIND_DELAY = 20;
+	/**
+	 * The key that denotes how many points may be waiting to be written
+	 * before requests block. The default is ten full writes.
+	 */
+	public static final String PROPERTY_KEY_WRITE_BEHIND_CAPACITY =
+		"db.write.behind.capacity";
+	/**
+	 * The key that denotes the directory where data exports are written.
+	 */
+	public static final String PROPERTY_KEY_EXPORT_DIRECTORY =
+		"export.directory";
+	/**
+	 * The key that denotes how many seconds a finished data export is kept.
+	 */
+	public static final String PROPERTY_KEY_EXPORT_TTL = "export.ttl";
+	/**
+	 * The default number of seconds a finished data export is kept.
+	 */
+	public static final long DEFAULT_EXPORT_TTL = 60 * 60 * 24;
+	/**
+	 * The key that denotes the directory where uploaded files are spooled.
+	 */
+	public static final String PROPERTY_KEY_IMPORT_DIRECTORY =
+		"import.directory";
+	/**
+	 * The key that denotes how many seconds a finished data import is kept.
+	 */
+	public static final String PROPERTY_KEY_IMPORT_TTL = "import.ttl";
+	/**
+	 * The default number of seconds a finished data import is kept.
+	 */
+	public static final long DEFAULT_IMPORT_TTL = 60 * 60 * 24;
+	/**
+	 * The key that denotes how many data imports each user may have that have
+	 * not finished.
+	 */
+	public static final String PROPERTY_KEY_IMPORT_PENDING = "import.pending";
+	/**
+	 * The default number of data imports that each user may have that have
+	 * not finished.
+	 */
+	public static final long DEFAULT_IMPORT_PENDING = 4;
 
 	/**
 	 * The DAO object to use to control the connection to the database.
 	 */
 	private Dao dao = null;
+	/**
+	 * The stage that merges the writes of concurrent requests or null if it
+	 * is not used.
+	 */
+	private WriteBehindDataSet writeBehind = null;
 
 	/**
 	 * Default constructor.
@@ -113,6 +225,129 @@ public class DatabaseSetup implements ServletContextListener {
 					e);
 			throw new IllegalStateException(e);
 		}
+		
+		// Cache the schemas, unless disabled.
+		int registryCacheSize =
+			(int) parseNumber(
+				properties,
+				PROPERTY_KEY_REGISTRY_CACHE_SIZE,
+				DEFAULT_REGISTRY_CACHE_SIZE);
+		if(registryCacheSize > 0) {
+			LOGGER.info("Caching up to " + registryCacheSize + " schemas.");
+			new CachingRegistry(
+				Registry.getInstance(),
+				registryCacheSize,
+				parseNumber(
+					properties,
+					PROPERTY_KEY_REGISTRY_CACHE_CHECK,
+					DEFAULT_REGISTRY_CACHE_CHECK) * 1000);
+		}
+		
+		// Merge the writes of concurrent requests, if requested. This is
+		// done before caching so that the cache only drops pages once their
+		// data has been written.
+		int writeBehindBatch =
+			(int) parseNumber(properties, PROPERTY_KEY_WRITE_BEHIND_BATCH, 0);
+		if(writeBehindBatch > 0) {
+			LOGGER
+				.info(
+					"Merging writes of up to " + writeBehindBatch +
+						" points.");
+			new WriteBehindDataSet(
+				DataSet.getInstance(),
+				writeBehindBatch,
+				parseNumber(
+					properties,
+					PROPERTY_KEY_WRITE_BEHIND_DELAY,
+					DEFAULT_WRITE_BEHIND_DELAY),
+				(int) parseNumber(
+					properties,
+					PROPERTY_KEY_WRITE_BEHIND_CAPACITY,
+					writeBehindBatch * 10L));
+			writeBehind = (WriteBehindDataSet) DataSet.getInstance();
+		}
+		
+		// Cache pages of data, if requested.
+		int cacheSize =
+			(int) parseNumber(properties, PROPERTY_KEY_DATA_CACHE_SIZE, 0);
+		if(cacheSize > 0) {
+			LOGGER.info("Caching up to " + cacheSize + " pages of data.");
+			new CachingDataSet(
+				DataSet.getInstance(),
+				cacheSize,
+				parseNumber(
+					properties,
+					PROPERTY_KEY_DATA_CACHE_TTL,
+					DEFAULT_DATA_CACHE_TTL) * 1000);
+		}
+		
+		// Write data exports to the configured directory or, by default, to
+		// the temporary directory.
+		File exportDirectory =
+			new File(
+				properties
+					.getProperty(
+						PROPERTY_KEY_EXPORT_DIRECTORY,
+						new File(
+								System.getProperty("java.io.tmpdir"),
+								"omh-export")
+							.getAbsolutePath()));
+		LOGGER
+			.info(
+				"Writing data exports to: " +
+					exportDirectory.getAbsolutePath());
+		try {
+			new DataExporter(
+				exportDirectory,
+				parseNumber(
+					properties,
+					PROPERTY_KEY_EXPORT_TTL,
+					DEFAULT_EXPORT_TTL) * 1000);
+		}
+		catch(OmhException e) {
+			LOGGER
+				.log(
+					Level.SEVERE,
+					"The data exporter could not be created.",
+					e);
+			throw new IllegalStateException(e);
+		}
+		
+		// Spool uploaded files to the configured directory or, by default,
+		// to the temporary directory.
+		File importDirectory =
+			new File(
+				properties
+					.getProperty(
+						PROPERTY_KEY_IMPORT_DIRECTORY,
+						new File(
+								System.getProperty("java.io.tmpdir"),
+								"omh-import")
+							.getAbsolutePath()));
+		LOGGER
+			.info(
+				"Spooling data imports to: " +
+					importDirectory.getAbsolutePath());
+		try {
+			new DataImporter(
+				importDirectory,
+				parseNumber(
+					properties,
+					PROPERTY_KEY_IMPORT_TTL,
+					DEFAULT_IMPORT_TTL) * 1000,
+				(int) parseNumber(
+					properties,
+					PROPERTY_KEY_IMPORT_PENDING,
+					DEFAULT_IMPORT_PENDING));
+		}
+		catch(OmhException e) {
+			LOGGER
+				.log(
+					Level.SEVERE,
+					"The data importer could not be created.",
+					e);
+			throw new IllegalStateException(e);
+		}
 	}
 
 	/**
@@ -120,9 +355,95 @@ public class DatabaseSetup implements ServletContextListener {
 	 */
 	@Override
 	public void contextDestroyed(final ServletContextEvent event) {
+		// Report how well the data cache did, if it was used.
+		if(DataSet.getInstance() instanceof CachingDataSet) {
+			CachingDataSet cache = (CachingDataSet) DataSet.getInstance();
+			LOGGER
+				.info(
+					"Data cache hits: " + cache.getHitCount() +
+						", misses: " + cache.getMissCount() +
+						", evictions: " + cache.getEvictionCount());
+		}
+		
+		// Report how well the schema cache did, if it was used.
+		if(Registry.getInstance() instanceof CachingRegistry) {
+			CachingRegistry cache = (CachingRegistry) Registry.getInstance();
+			LOGGER
+				.info(
+					"Schema cache hits: " + cache.getHitCount() +
+						", misses: " + cache.getMissCount() +
+						", evictions: " + cache.getEvictionCount() +
+						", reloads: " + cache.getReloadCount());
+		}
+		
+		LOGGER.info("Stopping any running batch reads.");
+		DataBatchReadRequest.shutdown();
+		
+		if(DataImporter.getInstance() != null) {
+			LOGGER.info("Stopping any running data imports.");
+			DataImporter.getInstance().shutdown();
+		}
+		
+		if(DataExporter.getInstance() != null) {
+			LOGGER.info("Stopping any running data exports.");
+			DataExporter.getInstance().shutdown();
+		}
+		
+		LOGGER.info("Stopping any running data validation.");
+		DataWriteRequest.shutdown();
+		
+		if(writeBehind != null) {
+			LOGGER.info("Writing any remaining merged writes.");
+			writeBehind.shutdown();
+			LOGGER
+				.info(
+					"Merged writes: " + writeBehind.getBatchCount() +
+						", requests: " + writeBehind.getRequestCount());
+		}
+		
 		if(dao != null) {
 			LOGGER.info("Shutting down the DAO.");
 			dao.shutdown();
 		}
 	}
+	
+	/**
+	 * Parses a whole number property.
+	 * 
+	 * @param properties
+	 *        The properties.
+	 * 
+	 * @param key
+	 *        The property's key.
+	 * 
+	 * @param defaultValue
+	 *        The value to use if the property is missing.
+	 * 
+	 * @return The property's value or the default value.
+	 * 
+	 * @throws IllegalStateException
+	 *         The property is not a whole number.
+	 */
+	private static long parseNumber(
+		final Properties properties,
+		final String key,
+		final long defaultValue) {
+		
+		String value = properties.getProperty(key);
+		if(value == null) {
+			return defaultValue;
+		}
+		
+		try {
+			return Long.decode(value.trim());
+		}
+		catch(NumberFormatException e) {
+			LOGGER
+				.log(
+					Level.SEVERE,
+					"The property is not a whole number: " + key,
+					e);
+			throw new IllegalStateException(e);
+		}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,459 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.request;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.joda.time.DateTime;
+import org.openmhealth.reference.domain.AuthenticationToken;
+import org.openmhealth.reference.domain.AuthorizationToken;
+import org.openmhealth.reference.domain.Data;
+import org.openmhealth.reference.domain.DataBatchResult;
+import org.openmhealth.reference.domain.MultiValueResult;
+import org.openmhealth.reference.exception.InvalidAuthenticationException;
+import org.openmhealth.reference.exception.OmhException;
+import org.openmhealth.reference.exception.ServerBusyException;
+import org.openmhealth.reference.servlet.Version1;
+import org.openmhealth.reference.util.ISOW3CDateTimeFormat;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * <p>
+ * Retrieves the data for several schemas at once. Each query is a
+ * {@link DataReadRequest}, and the queries are read in parallel on a shared,
+ * bounded pool of threads. If the pool's queue is full, the batch is rejected
+ * rather than read on the requesting thread.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class DataBatchReadRequest extends Request<List<DataBatchResult>> {
+	/**
+	 * The maximum number of queries in a single batch.
+	 */
+	public static final int MAX_QUERIES = 25;
+
+	/**
+	 * The key for the number of threads that read queries across all
+	 * batches.
+	 */
+	public static final String PROPERTY_KEY_THREADS = "db.batch.threads";
+	/**
+	 * The default number of threads that read queries across all batches.
+	 */
+	public static final int DEFAULT_THREADS = 8;
+	/**
+	 * The key for the number of queries that may wait for a thread before new
+	 * batches are rejected.
+	 */
+	public static final String PROPERTY_KEY_QUEUE_SIZE = "db.batch.queue";
+	/**
+	 * The default number of queries that may wait for a thread before new
+	 * batches are rejected.
+	 */
+	public static final int DEFAULT_QUEUE_SIZE = 64;
+
+	/**
+	 * The number of threads that read queries across all batches.
+	 */
+	private static final int NUM_THREADS =
+		Math
+			.max(1, Integer.getInteger(PROPERTY_KEY_THREADS, DEFAULT_THREADS));
+	/**
+	 * The number of queries that may wait for a thread before new batches are
+	 * rejected.
+	 */
+	private static final int QUEUE_SIZE =
+		Math
+			.max(
+				1,
+				Integer.getInteger(PROPERTY_KEY_QUEUE_SIZE, DEFAULT_QUEUE_SIZE));
+
+	/**
+	 * The pool of threads that read the queries, which limits how many
+	 * queries may run against the database at once. When its queue is full,
+	 * it rejects new queries.
+	 */
+	private static final ThreadPoolExecutor EXECUTOR;
+	static {
+		EXECUTOR =
+			new ThreadPoolExecutor(
+				NUM_THREADS,
+				NUM_THREADS,
+				60,
+				TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(QUEUE_SIZE),
+				new ThreadFactory() {
+					/**
+					 * The number of threads that have been created.
+					 */
+					private final AtomicInteger count = new AtomicInteger();
+
+					/**
+					 * Creates a daemon thread, so idle threads do not keep
+					 * the server from shutting down.
+					 */
+					@Override
+					public Thread newThread(final Runnable runnable) {
+						Thread thread =
+							new Thread(
+								runnable,
+								"Batch reads " + count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				},
+				new ThreadPoolExecutor.AbortPolicy());
+		EXECUTOR.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * The queries, in the order they were given.
+	 */
+	private final List<DataReadRequest> queries;
+	/**
+	 * The schema ID of each query.
+	 */
+	private final List<String> schemaIds;
+	/**
+	 * The schema version of each query.
+	 */
+	private final List<Long> versions;
+
+	/**
+	 * Creates a request for the data of several schemas.
+	 *
+	 * @param authenticationToken The requesting user's authentication token.
+	 *
+	 * @param authorizationToken The third-party's authorization token.
+	 *
+	 * @param queries A JSON array of JSON objects where each object is a
+	 * 				  query. Each query must have a
+	 * 				  {@link Version1#PARAM_SCHEMA_ID} and
+	 * 				  {@link Version1#PARAM_SCHEMA_VERSION} and may have any
+	 * 				  of the other parameters of a single read, except
+	 * 				  {@link Version1#PARAM_STREAM}, under the same names. The
+	 * 				  {@link Version1#PARAM_COLUMN_LIST} is a comma-separated
+	 * 				  string.
+	 *
+	 * @throws OmhException A parameter was invalid.
+	 */
+	public DataBatchReadRequest(
+		final AuthenticationToken authenticationToken,
+		final AuthorizationToken authorizationToken,
+		final String queries)
+		throws OmhException {
+
+		if((authenticationToken == null) && (authorizationToken == null)) {
+			throw
+				new InvalidAuthenticationException(
+					"No authentication information was provided.");
+		}
+		if(queries == null) {
+			throw new OmhException("The queries are missing.");
+		}
+
+		// Parse the queries.
+		JsonNode queriesNode;
+		try {
+			queriesNode = new ObjectMapper().readTree(queries);
+		}
+		catch(JsonProcessingException e) {
+			throw new OmhException("The queries were not valid JSON.", e);
+		}
+		catch(IOException e) {
+			throw new OmhException("Could not read the queries.", e);
+		}
+		if((queriesNode == null) || (! queriesNode.isArray())) {
+			throw new OmhException("The queries must be a JSON array.");
+		}
+		if(queriesNode.size() == 0) {
+			throw new OmhException("At least one query is required.");
+		}
+		if(queriesNode.size() > MAX_QUERIES) {
+			throw
+				new OmhException(
+					"At most " + MAX_QUERIES + " queries may be batched.");
+		}
+
+		// Build a single read for each query.
+		this.queries = new ArrayList<DataReadRequest>(queriesNode.size());
+		this.schemaIds = new ArrayList<String>(queriesNode.size());
+		this.versions = new ArrayList<Long>(queriesNode.size());
+		for(JsonNode query : queriesNode) {
+			if(! query.isObject()) {
+				throw new OmhException("Each query must be a JSON object.");
+			}
+
+			String schemaId = getText(query, Version1.PARAM_SCHEMA_ID);
+			if(schemaId == null) {
+				throw new OmhException("A query's schema ID is missing.");
+			}
+			Long version = getLong(query, Version1.PARAM_SCHEMA_VERSION);
+			if(version == null) {
+				throw new OmhException("A query's schema version is missing.");
+			}
+			String columnList = getText(query, Version1.PARAM_COLUMN_LIST);
+
+			this.queries
+				.add(
+					new DataReadRequest(
+						authenticationToken,
+						authorizationToken,
+						schemaId,
+						version,
+						getText(query, Version1.PARAM_OWNER),
+						getDate(query, Version1.PARAM_DATE_START),
+						getDate(query, Version1.PARAM_DATE_END),
+						(columnList == null) ?
+							null :
+							Arrays.asList(columnList.split(",")),
+						getLong(query, Version1.PARAM_PAGING_NUM_TO_SKIP),
+						getLong(query, Version1.PARAM_PAGING_NUM_TO_RETURN),
+						getText(
+							query,
+							Version1.PARAM_PAGING_CONTINUATION_TOKEN),
+						getText(query, Version1.PARAM_COUNT),
+						false));
+			this.schemaIds.add(schemaId);
+			this.versions.add(version);
+		}
+	}
+
+	/**
+	 * Reads each query in parallel and waits for all of them. A query that
+	 * fails is reported in its result instead of failing the batch.
+	 */
+	@Override
+	public void service() throws OmhException {
+		// First, short-circuit if this request has already been serviced.
+		if(isServiced()) {
+			return;
+		}
+		else {
+			setServiced();
+		}
+
+		// Start every query. If the pool cannot take them all, stop the ones
+		// that were started and reject the batch.
+		List<Future<?>> futures = new ArrayList<Future<?>>(queries.size());
+		try {
+			for(final DataReadRequest query : queries) {
+				futures
+					.add(
+						EXECUTOR
+							.submit(
+								new Runnable() {
+									/**
+									 * Reads the query.
+									 */
+									@Override
+									public void run() {
+										query.service();
+									}
+								}));
+			}
+		}
+		catch(RejectedExecutionException e) {
+			for(Future<?> future : futures) {
+				future.cancel(true);
+			}
+			throw
+				new ServerBusyException(
+					"Too many queries are being read. Try again later.",
+					e);
+		}
+
+		// Collect each query's result in order.
+		List<DataBatchResult> results =
+			new ArrayList<DataBatchResult>(queries.size());
+		for(int i = 0; i < queries.size(); i++) {
+			String schemaId = schemaIds.get(i);
+			long version = versions.get(i);
+
+			try {
+				futures.get(i).get();
+			}
+			catch(InterruptedException e) {
+				// Stop the remaining queries and give up on the batch.
+				for(Future<?> future : futures) {
+					future.cancel(true);
+				}
+				Thread.currentThread().interrupt();
+				throw
+					new OmhException(
+						"The batch was interrupted while it was being read.",
+						e);
+			}
+			catch(ExecutionException e) {
+				if(e.getCause() instanceof OmhException) {
+					results
+						.add(
+							new DataBatchResult(
+								schemaId,
+								version,
+								e.getCause().getMessage()));
+					continue;
+				}
+				throw
+					new OmhException(
+						"There was a problem reading a query.",
+						e.getCause());
+			}
+
+			// Add the query's data along with its count, if it was counted.
+			DataReadRequest query = queries.get(i);
+			MultiValueResult<Data> data = query.getData();
+			Map<String, Object> metaData = query.getMetaData();
+			results
+				.add(
+					new DataBatchResult(
+						schemaId,
+						version,
+						data,
+						((metaData == null) ||
+							(! metaData
+								.containsKey(
+									ListRequest.METADATA_KEY_COUNT))) ?
+							null :
+							data.count(),
+						query.getNextPagingParameters()));
+		}
+
+		setData(results);
+	}
+
+	/**
+	 * Stops the threads that read the queries. Any queries that are running
+	 * are interrupted.
+	 */
+	public static void shutdown() {
+		EXECUTOR.shutdownNow();
+		try {
+			EXECUTOR.awaitTermination(10, TimeUnit.SECONDS);
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Returns a text field of a query.
+	 *
+	 * @param query
+	 *        The query.
+	 *
+	 * @param key
+	 *        The field's key.
+	 *
+	 * @return The field's value or null if it is missing.
+	 *
+	 * @throws OmhException
+	 *         The field is not text.
+	 */
+	private static String getText(
+		final JsonNode query,
+		final String key)
+		throws OmhException {
+
+		JsonNode value = query.get(key);
+		if((value == null) || value.isNull()) {
+			return null;
+		}
+		if(! value.isTextual()) {
+			throw new OmhException("A query's " + key + " must be a string.");
+		}
+		return value.textValue();
+	}
+
+	/**
+	 * Returns a whole number field of a query.
+	 *
+	 * @param query
+	 *        The query.
+	 *
+	 * @param key
+	 *        The field's key.
+	 *
+	 * @return The field's value or null if it is missing.
+	 *
+	 * @throws OmhException
+	 *         The field is not a whole number.
+	 */
+	private static Long getLong(
+		final JsonNode query,
+		final String key)
+		throws OmhException {
+
+		JsonNode value = query.get(key);
+		if((value == null) || value.isNull()) {
+			return null;
+		}
+		if(! value.isIntegralNumber()) {
+			throw
+				new OmhException(
+					"A query's " + key + " must be a whole number.");
+		}
+		return value.longValue();
+	}
+
+	/**
+	 * Returns a date field of a query.
+	 *
+	 * @param query
+	 *        The query.
+	 *
+	 * @param key
+	 *        The field's key.
+	 *
+	 * @return The field's value or null if it is missing.
+	 *
+	 * @throws OmhException
+	 *         The field is not a valid date.
+	 */
+	private static DateTime getDate(
+		final JsonNode query,
+		final String key)
+		throws OmhException {
+
+		String value = getText(query, key);
+		if(value == null) {
+			return null;
+		}
+
+		try {
+			return ISOW3CDateTimeFormat.any().parseDateTime(value);
+		}
+		catch(IllegalArgumentException e) {
+			throw new OmhException("A query's " + key + " is invalid.", e);
+		}
+	}
+}
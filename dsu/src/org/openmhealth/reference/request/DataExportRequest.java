@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.request;
+
+import org.openmhealth.reference.data.DataExporter;
+import org.openmhealth.reference.domain.AuthenticationToken;
+import org.openmhealth.reference.domain.ExportJob;
+import org.openmhealth.reference.exception.InvalidAuthenticationException;
+import org.openmhealth.reference.exception.OmhException;
+
+/**
+ * <p>
+ * Starts exporting all of the requesting user's data in the background or,
+ * if an export ID is given, returns the progress of that export.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class DataExportRequest extends Request<ExportJob> {
+	/**
+	 * The authentication token for the requesting user.
+	 */
+	private final AuthenticationToken authToken;
+	/**
+	 * The unique identifier of an existing export or null to start a new
+	 * one.
+	 */
+	private final String exportId;
+
+	/**
+	 * Creates a request to export the requesting user's data or to check on
+	 * an existing export.
+	 *
+	 * @param authToken
+	 *        The requesting user's authentication token.
+	 *
+	 * @param exportId
+	 *        The unique identifier of an existing export or null to start a
+	 *        new one.
+	 *
+	 * @throws OmhException
+	 *         A parameter was invalid.
+	 */
+	public DataExportRequest(
+		final AuthenticationToken authToken,
+		final String exportId)
+		throws OmhException {
+
+		if(authToken == null) {
+			throw
+				new InvalidAuthenticationException(
+					"The authentication token is missing.");
+		}
+
+		this.authToken = authToken;
+		this.exportId = exportId;
+	}
+
+	/**
+	 * Starts the export or looks up the existing one.
+	 */
+	@Override
+	public void service() throws OmhException {
+		// First, short-circuit if this request has already been serviced.
+		if(isServiced()) {
+			return;
+		}
+		else {
+			setServiced();
+		}
+
+		// Make sure exports are enabled.
+		DataExporter exporter = DataExporter.getInstance();
+		if(exporter == null) {
+			throw new OmhException("Data exports are not enabled.");
+		}
+
+		String owner = authToken.getUsername();
+
+		// Start a new export.
+		if(exportId == null) {
+			setData(exporter.startExport(owner));
+			return;
+		}
+
+		// Find the existing export, which only its owner may see.
+		ExportJob job = exporter.getExport(exportId);
+		if((job == null) || (! owner.equals(job.getOwner()))) {
+			throw new OmhException("The export is unknown: " + exportId);
+		}
+		setData(job);
+	}
+}
@@ -0,0 +1,200 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.request;
+
+import java.io.InputStream;
+
+import org.openmhealth.reference.data.DataImporter;
+import org.openmhealth.reference.data.DataImporter.ImportHandler;
+import org.openmhealth.reference.domain.AuthenticationToken;
+import org.openmhealth.reference.domain.ImportJob;
+import org.openmhealth.reference.exception.InvalidAuthenticationException;
+import org.openmhealth.reference.exception.OmhException;
+import org.springframework.web.multipart.MultipartFile;
+
+/**
+ * <p>
+ * Starts storing the data of an uploaded file in the background or, if an
+ * import ID is given, returns the progress of that import. The file is
+ * stored the same way as any other upload, a chunk at a time, so it may be
+ * a JSON array or newline-delimited JSON.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class DataImportRequest extends Request<ImportJob> {
+	/**
+	 * The authentication token for the requesting user.
+	 */
+	private final AuthenticationToken authToken;
+	/**
+	 * The ID of the schema from which the data was generated or null if an
+	 * existing import is being checked.
+	 */
+	private final String schemaId;
+	/**
+	 * The version of the schema from which the data was generated.
+	 */
+	private final long version;
+	/**
+	 * The uploaded file or null if an existing import is being checked.
+	 */
+	private final MultipartFile file;
+	/**
+	 * The unique identifier of an existing import or null to start a new
+	 * one.
+	 */
+	private final String importId;
+
+	/**
+	 * Creates a request to store the data of an uploaded file.
+	 *
+	 * @param authToken
+	 *        The requesting user's authentication token.
+	 *
+	 * @param schemaId
+	 *        The ID of the schema which should be used to validate the data.
+	 *
+	 * @param version
+	 *        The version of the schema which should be used to validate the
+	 *        data.
+	 *
+	 * @param file
+	 *        The uploaded file.
+	 *
+	 * @throws OmhException
+	 *         A parameter was invalid.
+	 */
+	public DataImportRequest(
+		final AuthenticationToken authToken,
+		final String schemaId,
+		final long version,
+		final MultipartFile file)
+		throws OmhException {
+
+		if(authToken == null) {
+			throw
+				new InvalidAuthenticationException(
+					"The authentication token is missing.");
+		}
+		if(schemaId == null) {
+			throw new OmhException("The schema ID is missing.");
+		}
+		if((file == null) || file.isEmpty()) {
+			throw new OmhException("The file is missing.");
+		}
+
+		this.authToken = authToken;
+		this.schemaId = schemaId;
+		this.version = version;
+		this.file = file;
+		this.importId = null;
+	}
+
+	/**
+	 * Creates a request to check on an existing import.
+	 *
+	 * @param authToken
+	 *        The requesting user's authentication token.
+	 *
+	 * @param importId
+	 *        The unique identifier of the import.
+	 *
+	 * @throws OmhException
+	 *         A parameter was invalid.
+	 */
+	public DataImportRequest(
+		final AuthenticationToken authToken,
+		final String importId)
+		throws OmhException {
+
+		if(authToken == null) {
+			throw
+				new InvalidAuthenticationException(
+					"The authentication token is missing.");
+		}
+		if(importId == null) {
+			throw new OmhException("The import ID is missing.");
+		}
+
+		this.authToken = authToken;
+		this.schemaId = null;
+		this.version = 0;
+		this.file = null;
+		this.importId = importId;
+	}
+
+	/**
+	 * Starts the import or looks up the existing one.
+	 */
+	@Override
+	public void service() throws OmhException {
+		// First, short-circuit if this request has already been serviced.
+		if(isServiced()) {
+			return;
+		}
+		else {
+			setServiced();
+		}
+
+		// Make sure imports are enabled.
+		DataImporter importer = DataImporter.getInstance();
+		if(importer == null) {
+			throw new OmhException("Data imports are not enabled.");
+		}
+
+		String owner = authToken.getUsername();
+
+		// Start a new import, once it is known that the schema exists.
+		if(importId == null) {
+			DataWriteRequest.getSchema(schemaId, version);
+
+			setData(
+				importer
+					.startImport(
+						owner,
+						schemaId,
+						version,
+						file,
+						new ImportHandler() {
+							/*
+							 * (non-Javadoc)
+							 * @see org.openmhealth.reference.data.DataImporter.ImportHandler#handle(java.io.InputStream)
+							 */
+							@Override
+							public void handle(
+								final InputStream data)
+								throws OmhException {
+
+								new DataWriteRequest(
+										authToken,
+										schemaId,
+										version,
+										data)
+									.service();
+							}
+						}));
+			return;
+		}
+
+		// Find the existing import, which only its owner may see.
+		ImportJob job = importer.getImport(importId);
+		if((job == null) || (! owner.equals(job.getOwner()))) {
+			throw new OmhException("The import is unknown: " + importId);
+		}
+		setData(job);
+	}
+}
@@ -15,21 +15,28 @@
  ******************************************************************************/
 package org.openmhealth.reference.request;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.joda.time.DateTime;
+import org.openmhealth.reference.data.DataCountBin;
 import org.openmhealth.reference.data.DataSet;
 import org.openmhealth.reference.data.ExternalAuthorizationTokenBin;
 import org.openmhealth.reference.data.Registry;
 import org.openmhealth.reference.domain.AuthenticationToken;
 import org.openmhealth.reference.domain.AuthorizationToken;
 import org.openmhealth.reference.domain.ColumnList;
+import org.openmhealth.reference.domain.ContinuationToken;
 import org.openmhealth.reference.domain.Data;
 import org.openmhealth.reference.domain.ExternalAuthorizationToken;
+import org.openmhealth.reference.domain.MetaData;
 import org.openmhealth.reference.domain.MultiValueResult;
 import org.openmhealth.reference.domain.MultiValueResultAggregator;
+import org.openmhealth.reference.domain.StreamingDataResult;
 import org.openmhealth.reference.exception.InvalidAuthenticationException;
 import org.openmhealth.reference.exception.InvalidAuthorizationException;
 import org.openmhealth.reference.exception.NoSuchSchemaException;
@@ -47,6 +54,140 @@ import org.openmhealth.shim.ShimRegistry;
  * @author John Jenkins
  */
 public class DataReadRequest extends ListRequest<Data> {
+	/**
+	 * <p>
+	 * How precisely the data should be counted for the Count header.
+	 * </p>
+	 *
+	 * @author John Jenkins
+	 */
+	public static enum CountMode {
+		/**
+		 * The data is not counted and the Count header is omitted.
+		 */
+		NONE ("none"),
+		/**
+		 * The count always agrees with the data.
+		 */
+		EXACT ("exact"),
+		/**
+		 * The count may come from a counter that can drift from the data.
+		 */
+		APPROXIMATE ("approx");
+		
+		/**
+		 * The value of the count parameter for this mode.
+		 */
+		private final String value;
+		
+		/**
+		 * Creates a mode with its parameter value.
+		 * 
+		 * @param value
+		 *        The value of the count parameter for this mode.
+		 */
+		private CountMode(final String value) {
+			this.value = value;
+		}
+		
+		/**
+		 * Decodes the value of the count parameter.
+		 * 
+		 * @param value
+		 *        The value of the count parameter.
+		 * 
+		 * @return The mode.
+		 * 
+		 * @throws OmhException
+		 *         The value is not a known mode.
+		 */
+		public static CountMode decode(
+			final String value)
+			throws OmhException {
+			
+			for(CountMode mode : values()) {
+				if(mode.value.equals(value)) {
+					return mode;
+				}
+			}
+			
+			throw new OmhException("The count mode is unknown: " + value);
+		}
+		
+		/**
+		 * Returns the value of the count parameter for this mode.
+		 * 
+		 * @return The value of the count parameter for this mode.
+		 */
+		@Override
+		public String toString() {
+			return value;
+		}
+	}
+	
+	/**
+	 * <p>
+	 * A page of data that was read from the local data set.
+	 * </p>
+	 *
+	 * @author John Jenkins
+	 */
+	private static class PageResult
+		implements MultiValueResult<Data> {
+		
+		/**
+		 * The page of data.
+		 */
+		private final List<Data> list;
+		/**
+		 * The total number of points before paging or -1 if they were not
+		 * counted.
+		 */
+		private final int count;
+		
+		/**
+		 * Creates a new page of data.
+		 * 
+		 * @param list
+		 *        The page of data.
+		 * 
+		 * @param count
+		 *        The total number of points before paging or -1 if they were
+		 *        not counted.
+		 */
+		private PageResult(final List<Data> list, final int count) {
+			this.list = list;
+			this.count = count;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Iterable#iterator()
+		 */
+		@Override
+		public Iterator<Data> iterator() {
+			return list.iterator();
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see org.openmhealth.reference.domain.MultiValueResult#count()
+		 */
+		@Override
+		public int count() {
+			return count;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see org.openmhealth.reference.domain.MultiValueResult#size()
+		 */
+		@Override
+		public int size() {
+			return list.size();
+		}
+	}
+	
 	/**
 	 * The authentication token for the requesting user.
 	 */
@@ -79,6 +220,34 @@ public class DataReadRequest extends ListRequest<Data> {
 	 * The list of columns to select from the data.
 	 */
 	private final ColumnList columnList;
+	/**
+	 * Whether or not the data should be streamed to the client as it is read
+	 * instead of being read entirely before being returned.
+	 */
+	private final boolean stream;
+	/**
+	 * The token from which to continue reading or null if the data should be
+	 * paged by skipping.
+	 */
+	private final ContinuationToken continuationToken;
+	/**
+	 * How precisely the data should be counted.
+	 */
+	private final CountMode countMode;
+	
+	/**
+	 * Whether or not the Previous and Next URLs should use continuation
+	 * tokens, which is decided when the request is serviced.
+	 */
+	private boolean useContinuationTokens = false;
+	/**
+	 * The token for the previous page or null if there is no previous page.
+	 */
+	private ContinuationToken previousToken = null;
+	/**
+	 * The token for the next page or null if there is no next page.
+	 */
+	private ContinuationToken nextToken = null;
 
 	/**
 	 * Creates a request for data.
@@ -104,6 +273,18 @@ public class DataReadRequest extends ListRequest<Data> {
 	 * 
 	 * @param numToReturn The number of data points to return.
 	 * 
+	 * @param continuationToken The encoded token from which to continue
+	 * 							reading. If given, the number to skip must be
+	 * 							zero.
+	 * 
+	 * @param countMode How precisely the data should be counted, one of
+	 * 					"none", "exact", or "approx". If null, it is counted
+	 * 					exactly.
+	 * 
+	 * @param stream Whether or not the data should be streamed to the client
+	 * 				 as it is read from the database. This only applies to data
+	 * 				 stored locally, not data retrieved through a shim.
+	 * 
 	 * @throws OmhException A parameter was invalid.
 	 */
 	public DataReadRequest(
@@ -116,7 +297,10 @@ public class DataReadRequest extends ListRequest<Data> {
 		final DateTime endDate,
 		final List<String> columnList,
 		final Long numToSkip,
-		final Long numToReturn)
+		final Long numToReturn,
+		final String continuationToken,
+		final String countMode,
+		final boolean stream)
 		throws OmhException {
 		
 		super(numToSkip, numToReturn);
@@ -129,6 +313,20 @@ public class DataReadRequest extends ListRequest<Data> {
 		if(schemaId == null) {
 			throw new OmhException("The schema ID is missing.");
 		}
+		if(continuationToken != null) {
+			if(getNumToSkip() > 0) {
+				throw
+					new OmhException(
+						"A continuation token cannot be combined with a " +
+							"number to skip.");
+			}
+			if(stream) {
+				throw
+					new OmhException(
+						"A continuation token cannot be used when " +
+							"streaming.");
+			}
+		}
 
 		this.authenticationToken = authenticationToken;
 		this.authorizationToken = authorizationToken;
@@ -138,6 +336,15 @@ public class DataReadRequest extends ListRequest<Data> {
 		this.startDate = startDate;
 		this.endDate = endDate;
 		this.columnList = new ColumnList(columnList);
+		this.stream = stream;
+		this.continuationToken =
+			(continuationToken == null) ?
+				null :
+				ContinuationToken.decode(continuationToken);
+		this.countMode =
+			(countMode == null) ?
+				CountMode.EXACT :
+				CountMode.decode(countMode);
 	}
 
 	/**
@@ -154,6 +361,266 @@ public class DataReadRequest extends ListRequest<Data> {
 			setServiced();
 		}
 		
+		// Determine whose data is desired and ensure that the requester may
+		// read it.
+		String username =
+			authorizeOwner(
+				authenticationToken,
+				authorizationToken,
+				owner,
+				schemaId);
+		
+		// Get the domain.
+		String domain = parseDomain(schemaId);
+		
+		// Check to be sure the schema is known.
+		if(
+			(! ShimRegistry.hasDomain(domain)) &&
+			(Registry
+				.getInstance()
+				.getSchemas(schemaId, version, 0, 1).count() == 0)) {
+			
+			throw
+				new NoSuchSchemaException(
+					"The schema ID, '" +
+						schemaId +
+						"', and version, '" +
+						version +
+						"', pair is unknown.");
+		}
+		
+		// Get the data.
+		MultiValueResult<Data> result;
+		// Check if a shim should handle the request.
+		if(ShimRegistry.hasDomain(domain)) {
+			// Shims can only page by skipping.
+			if(continuationToken != null) {
+				throw
+					new OmhException(
+						"Continuation tokens are not supported for this " +
+							"schema.");
+			}
+			
+			// Get the shim.
+			Shim shim = ShimRegistry.getShim(domain);
+			
+			// Lookup the user's authorization code.
+			ExternalAuthorizationToken token =
+				ExternalAuthorizationTokenBin
+					.getInstance()
+					.getToken(username, domain);
+			
+			// If the token does not exist, return an error. Clients should
+			// first check to be sure that the user has already authorized this
+			// domain.
+			if(token == null) {
+				throw
+					new OmhException(
+						"The user has not yet authorized this domain.");
+			}
+			
+			// Get the data from the shim.
+			List<Data> resultList =
+				shim
+					.getData(
+						schemaId,
+						version,
+						token,
+						startDate,
+						endDate,
+						columnList,
+						getNumToSkip(),
+						getNumToReturn());
+			
+			// Convert the List object into a MultiValueResult object.
+			result =
+				(new MultiValueResultAggregator<Data>(resultList)).build();
+		}
+		// If only the count is needed, do not read any data. Continuation
+		// tokens can only be built from the data, so those pages are read.
+		else if(isCountOnly() && (continuationToken == null)) {
+			result =
+				new CountResult<Data>(
+					// The count is required to link the next page, so use
+					// the cheapest one if none was requested.
+					countData(
+						username,
+						(CountMode.NONE.equals(countMode)) ?
+							CountMode.APPROXIMATE :
+							countMode));
+		}
+		// If the data should be streamed, only count it now and let the
+		// result read it as it is being written to the client.
+		else if(stream) {
+			result =
+				new StreamingDataResult(
+					username,
+					schemaId,
+					version,
+					startDate,
+					endDate,
+					columnList,
+					getNumToSkip(),
+					getNumToReturn(),
+					// The count is required to link the next page, so use
+					// the cheapest one if none was requested.
+					countData(
+						username,
+						(CountMode.NONE.equals(countMode)) ?
+							CountMode.APPROXIMATE :
+							countMode));
+		}
+		// Otherwise, handle the request ourselves.
+		else {
+			result = readData(username);
+		}
+		
+		// Set the meta-data, which only includes the count if it was
+		// requested.
+		Map<String, Object> metaData = new HashMap<String, Object>();
+		if(! CountMode.NONE.equals(countMode)) {
+			metaData.put(METADATA_KEY_COUNT, result.count());
+		}
+		setMetaData(metaData);
+		
+		// Set the data.
+		setData(result);
+	}
+
+	/**
+	 * Returns a validator built from the owner and the {@link DataCountBin}
+	 * counter, which is incremented whenever data is stored for the owner,
+	 * schema ID, and version and so marks every write. Data from a shim has
+	 * no validator.
+	 */
+	@Override
+	public String getValidator() throws OmhException {
+		// Only reveal the counter to requesters that may read the data.
+		String username =
+			authorizeOwner(
+				authenticationToken,
+				authorizationToken,
+				owner,
+				schemaId);
+		
+		// Shims do not tell us when their data changes.
+		if(ShimRegistry.hasDomain(parseDomain(schemaId))) {
+			return null;
+		}
+		
+		Long count =
+			DataCountBin.getInstance().getCount(username, schemaId, version);
+		return
+			username + ":" +
+				schemaId + ":" +
+				version + ":" +
+				((count == null) ? 0 : count);
+	}
+	
+	/**
+	 * Returns the paging parameters for the previous page, which use a
+	 * continuation token unless the data came from a shim or was streamed.
+	 */
+	@Override
+	public Map<String, String> getPreviousPagingParameters() {
+		if(useContinuationTokens) {
+			return buildPagingParameters(previousToken);
+		}
+		
+		return super.getPreviousPagingParameters();
+	}
+	
+	/**
+	 * Returns the paging parameters for the next page, which use a
+	 * continuation token unless the data came from a shim or was streamed.
+	 */
+	@Override
+	public Map<String, String> getNextPagingParameters() {
+		if(useContinuationTokens) {
+			return buildPagingParameters(nextToken);
+		}
+		
+		return super.getNextPagingParameters();
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see org.openmhealth.reference.request.ListRequest#getPreviousNextParameters()
+	 */
+	@Override
+	public Map<String, String> getPreviousNextParameters() {
+		// Create the result map.
+		Map<String, String> result = new HashMap<String, String>();
+		
+		// Add the owner if given.
+		if(owner != null) {
+			result.put(Version1.PARAM_OWNER, owner);
+		}
+		
+		// Add the start date if given.
+		if(startDate != null) {
+			result
+				.put(
+					Version1.PARAM_DATE_START,
+					ISOW3CDateTimeFormat.any().print(startDate));
+		}
+		
+		// Add the start date if given.
+		if(endDate != null) {
+			result
+				.put(
+					Version1.PARAM_DATE_END,
+					ISOW3CDateTimeFormat.any().print(endDate));
+		}
+		
+		// Add the columns if they were given.
+		if((columnList != null) && (columnList.size() > 0)) {
+			result.put(Version1.PARAM_COLUMN_LIST, columnList.toString());
+		}
+		
+		// Add the count mode if it was given.
+		if(! CountMode.EXACT.equals(countMode)) {
+			result.put(Version1.PARAM_COUNT, countMode.toString());
+		}
+		
+		// Add the streaming flag if it was given.
+		if(stream) {
+			result.put(Version1.PARAM_STREAM, Boolean.TRUE.toString());
+		}
+		
+		// Return the map.
+		return result;
+	}
+	
+	/**
+	 * Determines whose data is desired and ensures that the requester's
+	 * credentials allow it to be read.
+	 * 
+	 * @param authenticationToken
+	 *        The requesting user's authentication token or null.
+	 * 
+	 * @param authorizationToken
+	 *        The third-party's authorization token or null.
+	 * 
+	 * @param owner
+	 *        The user whose data was requested or null if it should be
+	 *        inferred from the tokens.
+	 * 
+	 * @param schemaId
+	 *        The ID of the schema of the requested data.
+	 * 
+	 * @return The validated user-name of the user whose data is desired.
+	 * 
+	 * @throws InvalidAuthorizationException
+	 *         The credentials do not allow the data to be read.
+	 */
+	static String authorizeOwner(
+		final AuthenticationToken authenticationToken,
+		final AuthorizationToken authorizationToken,
+		final String owner,
+		final String schemaId)
+		throws InvalidAuthorizationException {
+		
 		// Create a handle for the validated user-name of the user whose data
 		// is desired.
 		String username = owner;
@@ -247,125 +714,163 @@ public class DataReadRequest extends ListRequest<Data> {
 						"requested user's data.");
 		}
 		
-		// Get the domain.
-		String domain = parseDomain(schemaId);
-		
-		// Check to be sure the schema is known.
-		if(
-			(! ShimRegistry.hasDomain(domain)) &&
-			(Registry
+		return username;
+	}
+	
+	/**
+	 * Reads the data from the local data set, decides on the continuation
+	 * tokens for the previous and next pages, and counts the data as
+	 * requested.
+	 * 
+	 * @param username
+	 *        The validated user-name of the user whose data is desired.
+	 * 
+	 * @return The data.
+	 */
+	private MultiValueResult<Data> readData(final String username) {
+		// Read one extra point to tell whether or not there is another page
+		// in the direction being read without counting the data.
+		boolean forward =
+			(continuationToken == null) || continuationToken.isForward();
+		MultiValueResult<Data> result =
+			DataSet
 				.getInstance()
-				.getSchemas(schemaId, version, 0, 1).count() == 0)) {
-			
-			throw
-				new NoSuchSchemaException(
-					"The schema ID, '" +
-						schemaId +
-						"', and version, '" +
-						version +
-						"', pair is unknown.");
+				.getData(
+					username, 
+					schemaId, 
+					version,
+					startDate,
+					endDate,
+					columnList,
+					continuationToken,
+					getNumToSkip(), 
+					getNumToReturn() + 1);
+		List<Data> points = new ArrayList<Data>();
+		for(Data point : result) {
+			points.add(point);
 		}
 		
-		// Get the data.
-		MultiValueResult<Data> result;
-		// Check if a shim should handle the request.
-		if(ShimRegistry.hasDomain(domain)) {
-			// Get the shim.
-			Shim shim = ShimRegistry.getShim(domain);
-			
-			// Lookup the user's authorization code.
-			ExternalAuthorizationToken token =
-				ExternalAuthorizationTokenBin
-					.getInstance()
-					.getToken(username, domain);
-			
-			// If the token does not exist, return an error. Clients should
-			// first check to be sure that the user has already authorized this
-			// domain.
-			if(token == null) {
-				throw
-					new OmhException(
-						"The user has not yet authorized this domain.");
+		// Remove the extra point, which is the oldest point when reading
+		// forward and the newest point when reading backward.
+		boolean hasMore = points.size() > getNumToReturn();
+		if(hasMore) {
+			if(forward) {
+				points.remove(points.size() - 1);
+			}
+			else {
+				points.remove(0);
 			}
+		}
+		
+		// Link the previous and next pages. If there was a token, the page
+		// that it came from is always on the other side of this one. If the
+		// page is empty, there is nothing to link from, so fall back to
+		// skipping.
+		if(points.size() > 0) {
+			useContinuationTokens = true;
 			
-			// Get the data from the shim.
-			List<Data> resultList =
-				shim
-					.getData(
-						schemaId,
-						version,
-						token,
-						startDate,
-						endDate,
-						columnList,
-						getNumToSkip(),
-						getNumToReturn());
+			boolean hasPrevious =
+				(continuationToken == null) ?
+					getNumToSkip() > 0 :
+					(forward || hasMore);
+			if(hasPrevious) {
+				previousToken = buildToken(false, points.get(0));
+			}
 			
-			// Convert the List object into a MultiValueResult object.
-			result =
-				(new MultiValueResultAggregator<Data>(resultList)).build();
-		}
-		// Otherwise, handle the request ourselves.
-		else {
-			result =
-				DataSet
-					.getInstance()
-					.getData(
-						username, 
-						schemaId, 
-						version,
-						startDate,
-						endDate,
-						columnList, 
-						getNumToSkip(), 
-						getNumToReturn());
+			boolean hasNext = (! forward) || hasMore;
+			if(hasNext) {
+				nextToken = buildToken(true, points.get(points.size() - 1));
+			}
 		}
 		
-		// Set the meta-data.
-		Map<String, Object> metaData = new HashMap<String, Object>();
-		metaData.put(METADATA_KEY_COUNT, result.count());
-		setMetaData(metaData);
-		
-		// Set the data.
-		setData(result);
+		return
+			new PageResult(
+				points,
+				(CountMode.NONE.equals(countMode)) ?
+					-1 :
+					countData(username, countMode));
 	}
-
-	/*
-	 * (non-Javadoc)
-	 * @see org.openmhealth.reference.request.ListRequest#getPreviousNextParameters()
+	
+	/**
+	 * Counts the data that matches this request before paging. Without a
+	 * date window, this uses the {@link DataCountBin} counter if it is exact
+	 * or if an approximate count was requested.
+	 * 
+	 * @param username
+	 *        The validated user-name of the user whose data is desired.
+	 * 
+	 * @param mode
+	 *        How precise the count must be. This should not be
+	 *        {@link CountMode#NONE}.
+	 * 
+	 * @return The number of points.
 	 */
-	@Override
-	public Map<String, String> getPreviousNextParameters() {
-		// Create the result map.
-		Map<String, String> result = new HashMap<String, String>();
-		
-		// Add the owner if given.
-		if(owner != null) {
-			result.put(Version1.PARAM_OWNER, owner);
+	private int countData(final String username, final CountMode mode) {
+		// Use the counter if it is precise enough.
+		DataCountBin dataCountBin = DataCountBin.getInstance();
+		if(
+			(startDate == null) &&
+			(endDate == null) &&
+			(CountMode.APPROXIMATE.equals(mode) || dataCountBin.isExact())) {
+			
+			Long count = dataCountBin.getCount(username, schemaId, version);
+			if(count != null) {
+				return count.intValue();
+			}
 		}
 		
-		// Add the start date if given.
-		if(startDate != null) {
-			result
-				.put(
-					Version1.PARAM_DATE_START,
-					ISOW3CDateTimeFormat.any().print(startDate));
-		}
+		// Otherwise, count the data.
+		return
+			DataSet
+				.getInstance()
+				.countData(username, schemaId, version, startDate, endDate);
+	}
+	
+	/**
+	 * Builds a continuation token for a point.
+	 * 
+	 * @param forward
+	 *        Whether the token should continue forward or backward.
+	 * 
+	 * @param point
+	 *        The point.
+	 * 
+	 * @return The continuation token.
+	 */
+	private static ContinuationToken buildToken(
+		final boolean forward,
+		final Data point) {
 		
-		// Add the start date if given.
-		if(endDate != null) {
-			result
-				.put(
-					Version1.PARAM_DATE_END,
-					ISOW3CDateTimeFormat.any().print(endDate));
-		}
+		MetaData metaData = point.getMetaData();
+		return
+			new ContinuationToken(
+				forward,
+				(metaData == null) ? null : metaData.getTimestamp(),
+				DataSet.getInstance().getDatabaseId(point));
+	}
+	
+	/**
+	 * Builds the paging parameters for a continuation token.
+	 * 
+	 * @param token
+	 *        The continuation token or null if there is no such page.
+	 * 
+	 * @return The paging parameters or null if the token was null.
+	 */
+	private Map<String, String> buildPagingParameters(
+		final ContinuationToken token) {
 		
-		// Add the columns if they were given.
-		if((columnList != null) && (columnList.size() > 0)) {
-			result.put(Version1.PARAM_COLUMN_LIST, columnList.toString());
+		if(token == null) {
+			return null;
 		}
 		
-		// Return the map.
+		Map<String, String> result = new LinkedHashMap<String, String>();
+		result
+			.put(Version1.PARAM_PAGING_CONTINUATION_TOKEN, token.encode());
+		result
+			.put(
+				Version1.PARAM_PAGING_NUM_TO_RETURN,
+				Long.toString(getNumToReturn()));
 		return result;
 	}
-}
\ No newline at end of file
+}
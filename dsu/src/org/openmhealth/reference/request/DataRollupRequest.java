@@ -0,0 +1,186 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.request;
+
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.openmhealth.reference.data.DataRollupBin;
+import org.openmhealth.reference.domain.AuthenticationToken;
+import org.openmhealth.reference.domain.AuthorizationToken;
+import org.openmhealth.reference.domain.DataSummary;
+import org.openmhealth.reference.exception.InvalidAuthenticationException;
+import org.openmhealth.reference.exception.OmhException;
+
+/**
+ * <p>
+ * Reads the rollups of a numeric field of the data over each hour, day, or
+ * week. Unlike a {@link DataSummaryRequest}, the data itself is not read, but
+ * only rollups that have been configured with the
+ * {@link DataRollupBin#PROPERTY_KEY_ROLLUPS} property may be read.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class DataRollupRequest extends Request<List<DataSummary>> {
+	/**
+	 * The authentication token for the requesting user.
+	 */
+	private final AuthenticationToken authenticationToken;
+	/**
+	 * The authorization token for the requesting third-party.
+	 */
+	private final AuthorizationToken authorizationToken;
+	/**
+	 * The ID of the schema from which the data was generated.
+	 */
+	private final String schemaId;
+	/**
+	 * The version of the schema from which the data was generated.
+	 */
+	private final long version;
+	/**
+	 * The identifier for the user to which the data should belong.
+	 */
+	private final String owner;
+	/**
+	 * The earliest point whose rollup should be read.
+	 */
+	private final DateTime startDate;
+	/**
+	 * The latest point whose rollup should be read.
+	 */
+	private final DateTime endDate;
+	/**
+	 * The path to the field within the data that was rolled up.
+	 */
+	private final String field;
+	/**
+	 * The interval covered by each rollup.
+	 */
+	private final DataSummary.Interval interval;
+
+	/**
+	 * Creates a request for rollups of data.
+	 * 
+	 * @param authenticationToken The requesting user's authentication token.
+	 * 
+	 * @param authorizationToken The third-party's authorization token.
+	 * 
+	 * @param schemaId The ID of the schema from which the data was generated.
+	 * 
+	 * @param version The version of the schema from which the data was
+	 * 				  generated.
+	 * 
+	 * @param owner Defines whose rollups should be read.
+	 * 
+	 * @param startDate The earliest point whose rollup should be read.
+	 * 
+	 * @param endDate The latest point whose rollup should be read.
+	 * 
+	 * @param field The path to the numeric field within the data that was
+	 * 				rolled up.
+	 * 
+	 * @param interval The interval covered by each rollup, one of "hour",
+	 * 				   "day", or "week".
+	 * 
+	 * @throws OmhException A parameter was invalid.
+	 */
+	public DataRollupRequest(
+		final AuthenticationToken authenticationToken,
+		final AuthorizationToken authorizationToken,
+		final String schemaId,
+		final long version,
+		final String owner,
+		final DateTime startDate,
+		final DateTime endDate,
+		final String field,
+		final String interval)
+		throws OmhException {
+		
+		if((authenticationToken == null) && (authorizationToken == null)) {
+			throw
+				new InvalidAuthenticationException(
+					"No authentication information was provided.");
+		}
+		if(schemaId == null) {
+			throw new OmhException("The schema ID is missing.");
+		}
+		if((field == null) || (field.trim().length() == 0)) {
+			throw new OmhException("The rolled up field is missing.");
+		}
+		
+		this.authenticationToken = authenticationToken;
+		this.authorizationToken = authorizationToken;
+		this.schemaId = schemaId;
+		this.version = version;
+		this.owner = owner;
+		this.startDate = startDate;
+		this.endDate = endDate;
+		this.field = field;
+		this.interval = DataSummary.Interval.decode(interval);
+	}
+
+	/**
+	 * Authenticates the user, authorizes the request if it was for data that
+	 * belongs to a different user, and reads the applicable rollups.
+	 */
+	@Override
+	public void service() throws OmhException {
+		// First, short-circuit if this request has already been serviced.
+		if(isServiced()) {
+			return;
+		}
+		else {
+			setServiced();
+		}
+		
+		// Determine whose data is desired and ensure that the requester may
+		// read it.
+		String username =
+			DataReadRequest
+				.authorizeOwner(
+					authenticationToken,
+					authorizationToken,
+					owner,
+					schemaId);
+		
+		// Only configured rollups exist.
+		DataRollupBin.Definition definition =
+			DataRollupBin
+				.getInstance()
+				.getDefinition(schemaId, version, field, interval);
+		if(definition == null) {
+			throw
+				new OmhException(
+					"The field, '" +
+						field +
+						"', of the schema ID, '" +
+						schemaId +
+						"', and version, '" +
+						version +
+						"', pair is not rolled up by " +
+						interval +
+						".");
+		}
+		
+		// Read the rollups.
+		setData(
+			DataRollupBin
+				.getInstance()
+				.getRollups(username, definition, startDate, endDate));
+	}
+}
@@ -0,0 +1,513 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.request;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.openmhealth.reference.data.DataSet;
+import org.openmhealth.reference.domain.AuthenticationToken;
+import org.openmhealth.reference.domain.Data;
+import org.openmhealth.reference.domain.Schema;
+import org.openmhealth.reference.exception.InvalidAuthenticationException;
+import org.openmhealth.reference.exception.OmhException;
+import org.openmhealth.reference.exception.PartialWriteException;
+import org.openmhealth.reference.util.LineReader;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * <p>
+ * Stores a long-lived stream of newline-delimited JSON data, e.g. from a
+ * gateway that forwards the data of many devices over a single connection.
+ * </p>
+ *
+ * <p>
+ * The lines are stored in chunks as they arrive. A chunk ends once it is
+ * full or once its first line has waited for the flush interval, so a slow
+ * stream is not held back waiting for a full chunk and a fast one is not
+ * stored a few lines at a time. While a chunk is waiting, only what has
+ * already arrived is read, so a client that stalls partway through a line
+ * does not hold the chunk back. After each chunk, an acknowledgement is
+ * written back on the response as its own line of JSON, and the response is
+ * flushed, so the client knows which of its lines were stored without
+ * waiting for the stream to end. Each line is validated and stored on its
+ * own: a line that is invalid or cannot be stored is reported in its chunk's
+ * acknowledgement, and the rest of the chunk and stream are still stored.
+ * A line that is longer than the maximum line length ends the stream.
+ * </p>
+ *
+ * <p>
+ * Once the first acknowledgement has been written, the response can no
+ * longer report an error, so any error that ends the stream early is
+ * written as a final acknowledgement instead.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class DataStreamRequest extends Request<Object> {
+	/**
+	 * The JSON key for the index of the first line of a chunk, where the
+	 * first line of the stream is 0. Blank lines are not counted.
+	 */
+	public static final String JSON_KEY_FIRST = "first";
+	/**
+	 * The JSON key for the number of lines in a chunk.
+	 */
+	public static final String JSON_KEY_COUNT = "count";
+	/**
+	 * The JSON key for the number of points in a chunk that were stored.
+	 */
+	public static final String JSON_KEY_STORED = "stored";
+	/**
+	 * The JSON key for the reason each line of a chunk was not stored, by its
+	 * index. It is omitted if every line was stored.
+	 */
+	public static final String JSON_KEY_FAILURES = "failures";
+	/**
+	 * The JSON key for the error that ended the stream early.
+	 */
+	public static final String JSON_KEY_ERROR = "error";
+
+	/**
+	 * The key for the number of milliseconds that the first line of a chunk
+	 * may wait for the rest of the chunk before the chunk is stored anyway.
+	 */
+	public static final String PROPERTY_KEY_FLUSH_INTERVAL =
+		"upload.stream.flush";
+	/**
+	 * The default number of milliseconds that the first line of a chunk may
+	 * wait for the rest of the chunk.
+	 */
+	public static final long DEFAULT_FLUSH_INTERVAL = 1000;
+	/**
+	 * The key for the maximum number of characters in a line.
+	 */
+	public static final String PROPERTY_KEY_MAX_LINE_LENGTH =
+		"upload.stream.line.max";
+	/**
+	 * The default maximum number of characters in a line.
+	 */
+	public static final int DEFAULT_MAX_LINE_LENGTH = 1024 * 1024;
+
+	/**
+	 * The logger for this class.
+	 */
+	private static final Logger LOGGER =
+		Logger.getLogger(DataStreamRequest.class.getName());
+
+	/**
+	 * The character set of the stream.
+	 */
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+
+	/**
+	 * The mapper for the lines and acknowledgements.
+	 */
+	private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
+
+	/**
+	 * The authentication token for the requesting user.
+	 */
+	private final AuthenticationToken authToken;
+	/**
+	 * The ID of the schema from which the data was generated.
+	 */
+	private final String schemaId;
+	/**
+	 * The version of the schema from which the data was generated.
+	 */
+	private final long version;
+	/**
+	 * The reader for the lines of data.
+	 */
+	private final LineReader reader;
+	/**
+	 * The response on which the acknowledgements are written.
+	 */
+	private final HttpServletResponse response;
+
+	/**
+	 * The stream of acknowledgements, which is only opened once the first
+	 * acknowledgement is written.
+	 */
+	private OutputStream acknowledgements = null;
+
+	/**
+	 * Creates a request to store a stream of data.
+	 *
+	 * @param authToken
+	 *        The requesting user's authentication token.
+	 *
+	 * @param schemaId
+	 *        The ID of the schema which should be used to validate the data.
+	 *
+	 * @param version
+	 *        The version of the schema which should be used to validate the
+	 *        data.
+	 *
+	 * @param data
+	 *        The stream of newline-delimited JSON data, where each line is a
+	 *        single data point. It is closed once the request has been
+	 *        serviced.
+	 *
+	 * @param response
+	 *        The HTTP response, on which the acknowledgements are written.
+	 *
+	 * @throws OmhException
+	 *         A parameter was invalid.
+	 */
+	public DataStreamRequest(
+		final AuthenticationToken authToken,
+		final String schemaId,
+		final long version,
+		final InputStream data,
+		final HttpServletResponse response)
+		throws OmhException {
+
+		if(authToken == null) {
+			throw
+				new InvalidAuthenticationException(
+					"The authentication token is missing.");
+		}
+		if(schemaId == null) {
+			throw new OmhException("The schema ID is missing.");
+		}
+		if(data == null) {
+			throw new OmhException("The data is missing.");
+		}
+		if(response == null) {
+			throw new OmhException("The response is missing.");
+		}
+
+		this.authToken = authToken;
+		this.schemaId = schemaId;
+		this.version = version;
+		this.reader =
+			new LineReader(
+				data,
+				CHARSET,
+				Math.max(
+					1,
+					Integer
+						.getInteger(
+							PROPERTY_KEY_MAX_LINE_LENGTH,
+							DEFAULT_MAX_LINE_LENGTH)));
+		this.response = response;
+	}
+
+	/**
+	 * Stores the stream a chunk at a time, acknowledging each chunk, until
+	 * the stream ends.
+	 */
+	@Override
+	public void service() throws OmhException {
+		// First, short-circuit if this request has already been serviced.
+		if(isServiced()) {
+			return;
+		}
+		else {
+			setServiced();
+		}
+
+		try {
+			// Check to be sure the schema is known and get the user that
+			// owns this token before anything is acknowledged, so these
+			// errors are returned as the response.
+			Schema schema = DataWriteRequest.getSchema(schemaId, version);
+			String owner = authToken.getUser().getUsername();
+
+			storeData(schema, owner);
+		}
+		finally {
+			try {
+				reader.close();
+			}
+			catch(IOException e) {
+				// The data has already been read, so there is nothing left
+				// to do.
+			}
+		}
+	}
+
+	/**
+	 * Reads, validates, and stores the lines a chunk at a time.
+	 *
+	 * @param schema
+	 *        The schema that validates each point.
+	 *
+	 * @param owner
+	 *        The user that owns the data.
+	 *
+	 * @throws OmhException
+	 *         The stream could not be read before anything was acknowledged.
+	 */
+	private void storeData(
+		final Schema schema,
+		final String owner)
+		throws OmhException {
+
+		int chunkSize =
+			Math.max(
+				1,
+				Integer
+					.getInteger(
+						DataWriteRequest.PROPERTY_KEY_CHUNK_SIZE,
+						DataWriteRequest.DEFAULT_CHUNK_SIZE));
+		long flushInterval =
+			Math.max(
+				0,
+				Long
+					.getLong(
+						PROPERTY_KEY_FLUSH_INTERVAL,
+						DEFAULT_FLUSH_INTERVAL));
+		List<Data.Builder> builders = new ArrayList<Data.Builder>();
+		List<Integer> indices = new ArrayList<Integer>();
+		Map<Integer, String> failures = new TreeMap<Integer, String>();
+		int first = 0;
+		int index = 0;
+		long flushTime = 0;
+
+		try {
+			while(true) {
+				// While a chunk is waiting, only wait for the next line until
+				// the chunk's flush time, even if part of the line has
+				// arrived.
+				String line = reader.readLine((index > first) ? flushTime : 0);
+				boolean flush;
+				if(line == null) {
+					if(reader.isEnded()) {
+						break;
+					}
+					flush = true;
+				}
+				else {
+					if(line.trim().length() == 0) {
+						continue;
+					}
+					if(index == first) {
+						flushTime = System.currentTimeMillis() + flushInterval;
+					}
+
+					// Parse the line, reporting it if it is not a point.
+					try {
+						Data.Builder builder =
+							JSON_MAPPER.readValue(line, Data.Builder.class);
+						builder.setOwner(owner);
+						builders.add(builder);
+						indices.add(index);
+					}
+					catch(JsonProcessingException e) {
+						failures
+							.put(index, "The data point was not valid JSON.");
+					}
+					index++;
+
+					flush =
+						((index - first) >= chunkSize) ||
+						(System.currentTimeMillis() >= flushTime);
+				}
+
+				// Store the chunk once it is full or once it has waited long
+				// enough.
+				if(flush) {
+					storeChunk(
+						schema,
+						first,
+						index,
+						builders,
+						indices,
+						failures);
+					first = index;
+					builders = new ArrayList<Data.Builder>();
+					indices = new ArrayList<Integer>();
+					failures = new TreeMap<Integer, String>();
+				}
+			}
+
+			// Store the remaining lines.
+			if(index > first) {
+				storeChunk(schema, first, index, builders, indices, failures);
+			}
+		}
+		catch(IOException e) {
+			fail("Could not read the data.", e);
+		}
+		catch(OmhException e) {
+			fail(e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Validates and stores the valid points of a chunk and then acknowledges
+	 * the chunk.
+	 *
+	 * @param schema
+	 *        The schema that validates each point.
+	 *
+	 * @param first
+	 *        The index of the chunk's first line.
+	 *
+	 * @param end
+	 *        The index after the chunk's last line.
+	 *
+	 * @param builders
+	 *        The points that were parsed.
+	 *
+	 * @param indices
+	 *        The index of the line of each point that was parsed.
+	 *
+	 * @param failures
+	 *        The reason each line that could not be parsed was rejected, by
+	 *        its index, to which the reasons for the rest of the chunk are
+	 *        added.
+	 *
+	 * @throws OmhException
+	 *         The chunk could not be stored.
+	 *
+	 * @throws IOException
+	 *         The acknowledgement could not be written.
+	 */
+	private void storeChunk(
+		final Schema schema,
+		final int first,
+		final int end,
+		final List<Data.Builder> builders,
+		final List<Integer> indices,
+		final Map<Integer, String> failures)
+		throws OmhException, IOException {
+
+		// Validate the points, keeping track of which lines remain.
+		Map<Integer, String> invalid = new TreeMap<Integer, String>();
+		List<Data> data =
+			builders.isEmpty() ?
+				new ArrayList<Data>() :
+				DataWriteRequest.validateChunk(schema, builders, 0, invalid);
+		List<Integer> dataIndices = new ArrayList<Integer>(data.size());
+		for(int i = 0; i < builders.size(); i++) {
+			String reason = invalid.get(i);
+			if(reason == null) {
+				dataIndices.add(indices.get(i));
+			}
+			else {
+				failures.put(indices.get(i), reason);
+			}
+		}
+
+		// Store the valid points.
+		int stored = data.size();
+		if(data.size() > 0) {
+			try {
+				DataSet.getInstance().storeData(data);
+			}
+			catch(PartialWriteException e) {
+				for(Map.Entry<Integer, String> failure :
+					e.getFailures().entrySet()) {
+
+					failures
+						.put(
+							dataIndices.get(failure.getKey()),
+							failure.getValue());
+				}
+				stored -= e.getFailures().size();
+			}
+		}
+
+		// Acknowledge the chunk.
+		ObjectNode ack = JSON_MAPPER.createObjectNode();
+		ack.put(JSON_KEY_FIRST, first);
+		ack.put(JSON_KEY_COUNT, end - first);
+		ack.put(JSON_KEY_STORED, stored);
+		if(failures.size() > 0) {
+			ObjectNode failuresNode = ack.putObject(JSON_KEY_FAILURES);
+			for(Map.Entry<Integer, String> failure : failures.entrySet()) {
+				failuresNode
+					.put(failure.getKey().toString(), failure.getValue());
+			}
+		}
+		acknowledge(ack);
+	}
+
+	/**
+	 * Reports an error that ended the stream early. If nothing has been
+	 * acknowledged yet, the error is thrown so that it becomes the response.
+	 * Otherwise, it is written as the final acknowledgement.
+	 *
+	 * @param message
+	 *        The message to report.
+	 *
+	 * @param cause
+	 *        The error.
+	 *
+	 * @throws OmhException
+	 *         Nothing has been acknowledged yet.
+	 */
+	private void fail(
+		final String message,
+		final Throwable cause)
+		throws OmhException {
+
+		if(acknowledgements == null) {
+			if(cause instanceof OmhException) {
+				throw (OmhException) cause;
+			}
+			throw new OmhException(message, cause);
+		}
+
+		LOGGER.log(Level.INFO, "A data stream ended early.", cause);
+		try {
+			ObjectNode ack = JSON_MAPPER.createObjectNode();
+			ack.put(JSON_KEY_ERROR, message);
+			acknowledge(ack);
+		}
+		catch(IOException e) {
+			// The client is gone, so there is no one left to tell.
+		}
+	}
+
+	/**
+	 * Writes an acknowledgement as its own line and sends it to the client.
+	 *
+	 * @param ack
+	 *        The acknowledgement.
+	 *
+	 * @throws IOException
+	 *         The acknowledgement could not be written.
+	 */
+	private void acknowledge(final ObjectNode ack) throws IOException {
+		if(acknowledgements == null) {
+			response.setContentType(DataWriteRequest.MEDIA_TYPE_NDJSON);
+			response.setCharacterEncoding(CHARSET.name());
+			acknowledgements = response.getOutputStream();
+		}
+
+		acknowledgements.write(JSON_MAPPER.writeValueAsBytes(ack));
+		acknowledgements.write('\n');
+		acknowledgements.flush();
+	}
+}
@@ -16,8 +16,19 @@
 package org.openmhealth.reference.request;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.openmhealth.reference.data.DataSet;
 import org.openmhealth.reference.data.Registry;
@@ -27,11 +38,14 @@ import org.openmhealth.reference.domain.MultiValueResult;
 import org.openmhealth.reference.domain.Schema;
 import org.openmhealth.reference.domain.User;
 import org.openmhealth.reference.exception.InvalidAuthenticationException;
+import org.openmhealth.reference.exception.InvalidDataException;
 import org.openmhealth.reference.exception.OmhException;
+import org.openmhealth.reference.exception.PartialWriteException;
+import org.openmhealth.reference.util.OmhBsonFactory;
 
-import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
@@ -39,9 +53,90 @@ import com.fasterxml.jackson.databind.ObjectMapper;
  * Stores the given data.
  * </p>
  *
+ * <p>
+ * The data is parsed one point at a time, and the points are validated and
+ * stored in chunks as they are parsed, so an upload is never held in memory
+ * as a whole list of points. Each chunk is validated across a shared pool of
+ * threads. If any point is invalid, the chunks before it have already been
+ * stored, but every invalid point in the upload is reported.
+ * </p>
+ *
  * @author John Jenkins
  */
 public class DataWriteRequest extends Request<Object> {
+	/**
+	 * The media type for newline-delimited JSON, where each line is a single
+	 * data point.
+	 */
+	public static final String MEDIA_TYPE_NDJSON = "application/x-ndjson";
+
+	/**
+	 * The key for the number of points that are stored at a time.
+	 */
+	public static final String PROPERTY_KEY_CHUNK_SIZE = "db.write.chunk";
+	/**
+	 * The default number of points that are stored at a time.
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 1000;
+
+	/**
+	 * The key for the number of threads that validate uploaded points.
+	 */
+	public static final String PROPERTY_KEY_VALIDATION_THREADS =
+		"db.write.validators";
+	/**
+	 * The number of threads that validate uploaded points, which are shared
+	 * by every upload.
+	 */
+	private static final int VALIDATION_THREADS =
+		Math.max(
+			1,
+			Integer
+				.getInteger(
+					PROPERTY_KEY_VALIDATION_THREADS,
+					Runtime.getRuntime().availableProcessors()));
+	/**
+	 * The fewest points that are worth handing to another thread to validate.
+	 */
+	private static final int MIN_SLICE_SIZE = 64;
+	/**
+	 * The threads that validate uploaded points. They are daemon threads, so
+	 * they do not keep the server from shutting down.
+	 */
+	private static final ExecutorService VALIDATOR =
+		Executors
+			.newFixedThreadPool(
+				VALIDATION_THREADS,
+				new ThreadFactory() {
+					/**
+					 * The number of threads that have been created.
+					 */
+					private final AtomicInteger count = new AtomicInteger();
+
+					/**
+					 * Creates a daemon thread.
+					 */
+					@Override
+					public Thread newThread(final Runnable runnable) {
+						Thread thread =
+							new Thread(
+								runnable,
+								"Data validation " + count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+
+	/**
+	 * The mapper for JSON uploads.
+	 */
+	private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
+	/**
+	 * The mapper for BSON uploads.
+	 */
+	private static final ObjectMapper BSON_MAPPER =
+		new ObjectMapper(new OmhBsonFactory());
+
 	/**
 	 * The authentication token for the requesting user.
 	 */
@@ -55,9 +150,14 @@ public class DataWriteRequest extends Request<Object> {
 	 */
 	private final long version;
 	/**
-	 * The data to validate and store.
+	 * The parser for the data to validate and store.
 	 */
-	private final String data;
+	private final JsonParser parser;
+	/**
+	 * Whether or not the data is a BSON document, whose values are the
+	 * points, rather than a JSON array or newline-delimited JSON.
+	 */
+	private final boolean document;
 	
 	/**
 	 * Creates a request to store some data.
@@ -73,7 +173,8 @@ public class DataWriteRequest extends Request<Object> {
 	 *        data.
 	 * 
 	 * @param data
-	 *        The data to validate and store.
+	 *        The data to validate and store, either a JSON array or
+	 *        newline-delimited JSON.
 	 * 
 	 * @throws OmhException
 	 *         A parameter was invalid.
@@ -85,6 +186,119 @@ public class DataWriteRequest extends Request<Object> {
 		final String data)		
 		throws OmhException {
 		
+		this(
+			authToken,
+			schemaId,
+			version,
+			createParser(JSON_MAPPER, data),
+			false);
+	}
+
+	/**
+	 * Creates a request to store some data that was uploaded as BSON.
+	 *
+	 * @param authToken
+	 *        The requesting user's authentication token.
+	 *
+	 * @param schemaId
+	 *        The ID of the schema which should be used to validate the data.
+	 *
+	 * @param version
+	 *        The version of the schema which should be used to validate the
+	 *        data.
+	 *
+	 * @param data
+	 *        The BSON document to validate and store. Each of its values is a
+	 *        single data point, in order, which is how an array is encoded as
+	 *        a BSON document.
+	 *
+	 * @throws OmhException
+	 *         A parameter was invalid.
+	 */
+	public DataWriteRequest(
+		final AuthenticationToken authToken,
+		final String schemaId,
+		final long version,
+		final byte[] data)
+		throws OmhException {
+
+		this(
+			authToken,
+			schemaId,
+			version,
+			createParser(
+				BSON_MAPPER,
+				((data == null) || (data.length == 0)) ? null : data),
+			true);
+	}
+
+	/**
+	 * Creates a request to store some data that is read from a stream, e.g.
+	 * the body of the HTTP request, as it is parsed.
+	 *
+	 * @param authToken
+	 *        The requesting user's authentication token.
+	 *
+	 * @param schemaId
+	 *        The ID of the schema which should be used to validate the data.
+	 *
+	 * @param version
+	 *        The version of the schema which should be used to validate the
+	 *        data.
+	 *
+	 * @param data
+	 *        The stream of data to validate and store, either a JSON array or
+	 *        newline-delimited JSON. It is closed once the request has been
+	 *        serviced.
+	 *
+	 * @throws OmhException
+	 *         A parameter was invalid.
+	 */
+	public DataWriteRequest(
+		final AuthenticationToken authToken,
+		final String schemaId,
+		final long version,
+		final InputStream data)
+		throws OmhException {
+
+		this(
+			authToken,
+			schemaId,
+			version,
+			createParser(JSON_MAPPER, data),
+			false);
+	}
+
+	/**
+	 * Creates a request to store the data from a parser.
+	 *
+	 * @param authToken
+	 *        The requesting user's authentication token.
+	 *
+	 * @param schemaId
+	 *        The ID of the schema which should be used to validate the data.
+	 *
+	 * @param version
+	 *        The version of the schema which should be used to validate the
+	 *        data.
+	 *
+	 * @param parser
+	 *        The parser for the data to validate and store.
+	 *
+	 * @param document
+	 *        Whether or not the data is a BSON document.
+	 *
+	 * @throws OmhException
+	 *         A parameter was invalid.
+	 */
+	private DataWriteRequest(
+		final AuthenticationToken authToken,
+		final String schemaId,
+		final long version,
+		final JsonParser parser,
+		final boolean document)
+		throws OmhException {
+
 		if(authToken == null) {
 			throw
 				new InvalidAuthenticationException(
@@ -93,14 +307,12 @@ public class DataWriteRequest extends Request<Object> {
 		if(schemaId == null) {
 			throw new OmhException("The schema ID is missing.");
 		}
-		if(data == null) {
-			throw new OmhException("The data is missing.");
-		}
 		
 		this.authToken = authToken;
 		this.schemaId = schemaId;
 		this.version = version;
-		this.data = data;
+		this.parser = parser;
+		this.document = document;
 	}
 
 	/**
@@ -116,7 +328,45 @@ public class DataWriteRequest extends Request<Object> {
 			setServiced();
 		}
 		
-		// Check to be sure the schema is known.
+		try {
+			// Check to be sure the schema is known.
+			Schema schema = getSchema(schemaId, version);
+
+			// Get the user that owns this token.
+			User requestingUser = authToken.getUser();
+
+			storeData(schema, requestingUser.getUsername());
+		}
+		finally {
+			try {
+				parser.close();
+			}
+			catch(IOException e) {
+				// The data has already been read, so there is nothing left
+				// to do.
+			}
+		}
+	}
+
+	/**
+	 * Returns the schema that validates uploaded data.
+	 *
+	 * @param schemaId
+	 *        The schema's ID.
+	 *
+	 * @param version
+	 *        The schema's version.
+	 *
+	 * @return The schema.
+	 *
+	 * @throws OmhException
+	 *         The schema ID and version pair is unknown.
+	 */
+	static Schema getSchema(
+		final String schemaId,
+		final long version)
+		throws OmhException {
+
 		MultiValueResult<? extends Schema> schemas = 
 			Registry.getInstance().getSchemas(schemaId, version, 0, 1);
 		if(schemas.count() == 0) {
@@ -128,44 +378,434 @@ public class DataWriteRequest extends Request<Object> {
 						version +
 						"', pair is unknown.");
 		}
-		Schema schema = schemas.iterator().next();
-		
-		// Get the user that owns this token.
-		User requestingUser = authToken.getUser();
+		return schemas.iterator().next();
+	}
 		
-		// Create the result list of data points.
-		List<Data> dataPoints = new ArrayList<Data>();
+	/**
+	 * Parses, validates, and stores the data a chunk at a time. Once a point
+	 * is invalid, no more chunks are stored, but the rest of the data is still
+	 * validated so that every invalid point can be reported together.
+	 *
+	 * @param schema
+	 *        The schema that validates each point.
+	 *
+	 * @param owner
+	 *        The user that owns the data.
+	 *
+	 * @throws InvalidDataException
+	 *         One or more points were invalid.
+	 *
+	 * @throws PartialWriteException
+	 *         Some of the points in a chunk could not be stored.
+	 *
+	 * @throws OmhException
+	 *         The data could not be parsed or a chunk could not be stored.
+	 */
+	private void storeData(
+		final Schema schema,
+		final String owner)
+		throws InvalidDataException, PartialWriteException, OmhException {
 		
-		// Create a new ObjectMapper that will be used to convert the meta-data
-		// node into a MetaData object.
-		ObjectMapper mapper = new ObjectMapper();
+		int chunkSize =
+			Math.max(
+				1,
+				Integer.getInteger(PROPERTY_KEY_CHUNK_SIZE, DEFAULT_CHUNK_SIZE));
+		List<Data.Builder> chunk = new ArrayList<Data.Builder>();
+		Map<Integer, String> failures = new HashMap<Integer, String>();
+		int numStored = 0;
+		int index = 0;
 		
-		// Parse the data.
-		List<Data.Builder> builders;
 		try {
-			builders =
-				mapper
-					.readValue(
-						data,
-						new TypeReference<List<Data.Builder>>(){});
-		}
-		catch(JsonParseException e) {
-			throw new OmhException("The data was not valid JSON.", e);
+			// Determine how the points are contained and find the first one.
+			// A JSON object at the root is the first line of
+			// newline-delimited JSON.
+			JsonToken container;
+			JsonToken token = parser.nextToken();
+			if(token == null) {
+				throw new OmhException("The data is missing.");
+			}
+			else if(document) {
+				if(token != JsonToken.START_OBJECT) {
+					throw new OmhException("The data was not a BSON document.");
+				}
+				container = JsonToken.START_OBJECT;
+			}
+			else if(token == JsonToken.START_ARRAY) {
+				container = JsonToken.START_ARRAY;
+			}
+			else if(token == JsonToken.START_OBJECT) {
+				container = null;
+			}
+			else {
+				throw
+					new OmhException(
+						"The data must be a JSON array or newline-delimited " +
+							"JSON objects.");
+			}
+			boolean hasPoint =
+				(container == null) || nextPoint(container);
+		
+			// Validate and store the points a chunk at a time.
+			while(hasPoint) {
+				Data.Builder builder = parser.readValueAs(Data.Builder.class);
+				builder.setOwner(owner);
+				chunk.add(builder);
+				index++;
+
+				if(chunk.size() >= chunkSize) {
+					numStored +=
+						storeChunk(
+							schema,
+							chunk,
+							index - chunk.size(),
+							failures);
+					chunk = new ArrayList<Data.Builder>();
+				}
+
+				hasPoint = nextPoint(container);
+			}
 		}
 		catch(JsonProcessingException e) {
-			throw new OmhException("The data was not valid JSON.", e);
+			throw
+				new OmhException(
+					"The data was not valid " +
+						(document ? "BSON" : "JSON") +
+						"." +
+						describeStored(numStored),
+					e);
 		}
 		catch(IOException e) {
-			throw new OmhException("Could not read the data.", e);
+			throw
+				new OmhException(
+					"Could not read the data." + describeStored(numStored),
+					e);
 		}
 
-		// Validate and build each point.
-		for(Data.Builder builder : builders) {
-			builder.setOwner(requestingUser.getUsername());
-			dataPoints.add(builder.build(schema));
+		// Validate and store the remaining points.
+		if(chunk.size() > 0) {
+			numStored +=
+				storeChunk(schema, chunk, index - chunk.size(), failures);
+		}
+
+		if(failures.size() > 0) {
+			throw
+				new InvalidDataException(
+					failures,
+					(numStored == 0) ?
+						null :
+						describeStored(numStored).trim());
+		}
+	}
+
+	/**
+	 * Stops the threads that validate uploaded points. Any validations that
+	 * are running are interrupted.
+	 */
+	public static void shutdown() {
+		VALIDATOR.shutdownNow();
+		try {
+			VALIDATOR.awaitTermination(10, TimeUnit.SECONDS);
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Validates a chunk of points and, if they are all valid and no earlier
+	 * point was invalid, stores them.
+	 *
+	 * @param schema
+	 *        The schema that validates each point.
+	 *
+	 * @param chunk
+	 *        The points to validate.
+	 *
+	 * @param offset
+	 *        The index of the chunk's first point in the upload.
+	 *
+	 * @param failures
+	 *        The reason each invalid point in the upload was rejected, by its
+	 *        index, to which the reasons for this chunk are added.
+	 *
+	 * @return The number of points that were stored.
+	 *
+	 * @throws PartialWriteException
+	 *         Some of the chunk's points could not be stored, which are
+	 *         reported by their index in the upload. No later chunks should
+	 *         be stored.
+	 *
+	 * @throws OmhException
+	 *         The chunk could not be stored.
+	 */
+	private static int storeChunk(
+		final Schema schema,
+		final List<Data.Builder> chunk,
+		final int offset,
+		final Map<Integer, String> failures)
+		throws PartialWriteException, OmhException {
+
+		List<Data> data = validateChunk(schema, chunk, offset, failures);
+		if(failures.size() > 0) {
+			return 0;
+		}
+
+		try {
+			DataSet.getInstance().storeData(data);
+		}
+		catch(PartialWriteException e) {
+			Map<Integer, String> shifted = new HashMap<Integer, String>();
+			for(Map.Entry<Integer, String> failure :
+				e.getFailures().entrySet()) {
+
+				shifted.put(offset + failure.getKey(), failure.getValue());
+			}
+			throw
+				new PartialWriteException(
+					shifted,
+					"Every other point up to data point " +
+						(offset + data.size() - 1) +
+						" was stored, and none after it were.",
+					e);
+		}
+		return data.size();
+	}
+
+	/**
+	 * Validates a chunk of points, in parallel if the chunk is large enough to
+	 * be split across the validation threads, while keeping their order.
+	 *
+	 * @param schema
+	 *        The schema that validates each point.
+	 *
+	 * @param chunk
+	 *        The points to validate.
+	 *
+	 * @param offset
+	 *        The index of the chunk's first point in the upload.
+	 *
+	 * @param failures
+	 *        The reason each invalid point was rejected, by its index, to which
+	 *        the reasons for this chunk are added.
+	 *
+	 * @return The valid points in the same order as the chunk.
+	 *
+	 * @throws OmhException
+	 *         The validation was interrupted.
+	 */
+	static List<Data> validateChunk(
+		final Schema schema,
+		final List<Data.Builder> chunk,
+		final int offset,
+		final Map<Integer, String> failures)
+		throws OmhException {
+
+		final Data[] data = new Data[chunk.size()];
+
+		// Split the chunk into one slice per thread, each of which fills in
+		// its own part of the result and reports its own failures.
+		int numSlices =
+			Math.min(
+				VALIDATION_THREADS,
+				(chunk.size() + MIN_SLICE_SIZE - 1) / MIN_SLICE_SIZE);
+		int sliceSize = (chunk.size() + numSlices - 1) / numSlices;
+		List<Callable<Map<Integer, String>>> slices =
+			new ArrayList<Callable<Map<Integer, String>>>(numSlices);
+		for(int start = 0; start < chunk.size(); start += sliceSize) {
+			final int sliceStart = start;
+			final int sliceEnd = Math.min(chunk.size(), start + sliceSize);
+			slices
+				.add(
+					new Callable<Map<Integer, String>>() {
+						/**
+						 * Validates each point of the slice.
+						 */
+						@Override
+						public Map<Integer, String> call() {
+							Map<Integer, String> sliceFailures =
+								new HashMap<Integer, String>();
+							for(int i = sliceStart; i < sliceEnd; i++) {
+								try {
+									data[i] = chunk.get(i).build(schema);
+								}
+								catch(OmhException e) {
+									sliceFailures
+										.put(offset + i, describeFailure(e));
+								}
+							}
+							return sliceFailures;
+						}
+					});
+		}
+
+		// Validate a single slice on this thread.
+		try {
+			if(slices.size() == 1) {
+				failures.putAll(slices.get(0).call());
+			}
+			else {
+				for(
+					Future<Map<Integer, String>> slice :
+					VALIDATOR.invokeAll(slices)) {
+
+					failures.putAll(slice.get());
+				}
+			}
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new OmhException("The data's validation was interrupted.", e);
+		}
+		catch(ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new IllegalStateException(cause);
+		}
+		catch(RuntimeException e) {
+			throw e;
+		}
+		catch(Exception e) {
+			// A slice's call declares, but never throws, checked exceptions.
+			throw new IllegalStateException(e);
+		}
+
+		List<Data> result = new ArrayList<Data>(data.length);
+		for(Data point : data) {
+			if(point != null) {
+				result.add(point);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Describes why a point was invalid, including the reason given by the
+	 * validator, if any.
+	 *
+	 * @param e
+	 *        The exception that was thrown when the point was validated.
+	 *
+	 * @return The description.
+	 */
+	private static String describeFailure(final OmhException e) {
+		Throwable cause = e.getCause();
+		if((cause == null) || (cause.getMessage() == null)) {
+			return e.getMessage();
+		}
+
+		return e.getMessage() + " " + cause.getMessage();
+	}
+
+	/**
+	 * Moves the parser to the start of the next point.
+	 *
+	 * @param container
+	 *        The token that started the points' container, either
+	 *        {@link JsonToken#START_ARRAY} or {@link JsonToken#START_OBJECT},
+	 *        or null if the points are at the root.
+	 *
+	 * @return True if the parser is at the start of the next point or false
+	 *         if there are no more points.
+	 *
+	 * @throws OmhException
+	 *         The next value is not an object or the data ended early.
+	 *
+	 * @throws IOException
+	 *         The data could not be read or parsed.
+	 */
+	private boolean nextPoint(
+		final JsonToken container)
+		throws OmhException, IOException {
+
+		JsonToken token = parser.nextToken();
+
+		// Skip the keys of a document.
+		if(
+			(container == JsonToken.START_OBJECT) &&
+			(token == JsonToken.FIELD_NAME)) {
+
+			token = parser.nextToken();
+		}
+
+		if(token == null) {
+			if(container != null) {
+				throw new OmhException("The data ended unexpectedly.");
+			}
+			return false;
+		}
+		if(
+			((container == JsonToken.START_ARRAY) &&
+				(token == JsonToken.END_ARRAY)) ||
+			((container == JsonToken.START_OBJECT) &&
+				(token == JsonToken.END_OBJECT))) {
+
+			return false;
+		}
+		if(token != JsonToken.START_OBJECT) {
+			throw new OmhException("Each data point must be an object.");
+		}
+		return true;
+	}
+
+	/**
+	 * Describes how many points were stored before a failure, so the
+	 * uploader knows where to resume.
+	 *
+	 * @param numStored
+	 *        The number of points that were stored.
+	 *
+	 * @return The description, which begins with a space, or an empty string
+	 *         if no points were stored.
+	 */
+	private static String describeStored(final int numStored) {
+		if(numStored == 0) {
+			return "";
+		}
+
+		return
+			" The first " + numStored + " points were stored before the " +
+				"failure.";
+	}
+
+	/**
+	 * Creates a parser for some data.
+	 *
+	 * @param mapper
+	 *        The mapper whose factory creates the parser and that reads each
+	 *        point.
+	 *
+	 * @param data
+	 *        The data, which must be a String, byte array, or InputStream.
+	 *
+	 * @return The parser.
+	 *
+	 * @throws OmhException
+	 *         The data is missing or could not be read.
+	 */
+	private static JsonParser createParser(
+		final ObjectMapper mapper,
+		final Object data)
+		throws OmhException {
+
+		if(data == null) {
+			throw new OmhException("The data is missing.");
+		}
+
+		try {
+			if(data instanceof String) {
+				return mapper.getFactory().createParser((String) data);
+			}
+			else if(data instanceof byte[]) {
+				return mapper.getFactory().createParser((byte[]) data);
+			}
+			else {
+				return mapper.getFactory().createParser((InputStream) data);
+			}
+		}
+		catch(IOException e) {
+			throw new OmhException("Could not read the data.", e);
 		}
-		
-		// Store the data.
-		DataSet.getInstance().storeData(dataPoints);
 	}
-}
\ No newline at end of file
+}
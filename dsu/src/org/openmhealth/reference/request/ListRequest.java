@@ -1,9 +1,13 @@
 package org.openmhealth.reference.request;
 
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 import org.openmhealth.reference.domain.MultiValueResult;
 import org.openmhealth.reference.exception.OmhException;
+import org.openmhealth.reference.servlet.Version1;
 
 /**
  * <p>
@@ -13,6 +17,59 @@ import org.openmhealth.reference.exception.OmhException;
  * @author John Jenkins
  */
 public abstract class ListRequest<T> extends Request<MultiValueResult<T>> {
+	/**
+	 * <p>
+	 * The result of a request that was only counted. It has no elements, but
+	 * its count is the number of elements that the request would have
+	 * matched before paging.
+	 * </p>
+	 *
+	 * @author John Jenkins
+	 */
+	protected static class CountResult<T> implements MultiValueResult<T> {
+		/**
+		 * The total number of elements before paging.
+		 */
+		private final int count;
+		
+		/**
+		 * Creates a result with only a count.
+		 * 
+		 * @param count
+		 *        The total number of elements before paging.
+		 */
+		public CountResult(final int count) {
+			this.count = count;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see java.lang.Iterable#iterator()
+		 */
+		@Override
+		public Iterator<T> iterator() {
+			return Collections.<T>emptyList().iterator();
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see org.openmhealth.reference.domain.MultiValueResult#count()
+		 */
+		@Override
+		public int count() {
+			return count;
+		}
+
+		/*
+		 * (non-Javadoc)
+		 * @see org.openmhealth.reference.domain.MultiValueResult#size()
+		 */
+		@Override
+		public int size() {
+			return 0;
+		}
+	}
+	
 	/**
 	 * The number must be a String to be used in the annotations. When
 	 * referencing this value, always use its decoded form
@@ -51,6 +108,11 @@ public abstract class ListRequest<T> extends Request<MultiValueResult<T>> {
 	 * The number of elements to return.
 	 */
 	private final long numToReturn;
+	/**
+	 * Whether or not only the count, and not the elements, is needed, e.g.
+	 * for a HEAD request.
+	 */
+	private boolean countOnly = false;
 
 	/**
 	 * Creates the base part of the request with paging.
@@ -122,6 +184,28 @@ public abstract class ListRequest<T> extends Request<MultiValueResult<T>> {
 	public long getNumToReturn() {
 		return numToReturn;
 	}
+
+	/**
+	 * Returns whether or not only the count is needed, in which case the
+	 * request may set a {@link CountResult} as its data instead of reading
+	 * the elements.
+	 * 
+	 * @return Whether or not only the count is needed.
+	 */
+	public boolean isCountOnly() {
+		return countOnly;
+	}
+	
+	/**
+	 * Sets whether or not only the count is needed. This must be called
+	 * before the request is serviced.
+	 * 
+	 * @param countOnly
+	 *        Whether or not only the count is needed.
+	 */
+	public void setCountOnly(final boolean countOnly) {
+		this.countOnly = countOnly;
+	}
 	
 	/**
 	 * Returns the parameters used to build a previous or next URLs. The
@@ -131,4 +215,75 @@ public abstract class ListRequest<T> extends Request<MultiValueResult<T>> {
 	 *         excluding the paging parameters.
 	 */
 	public abstract Map<String, String> getPreviousNextParameters();
+	
+	/**
+	 * Returns the paging parameters used to build the previous URL. By
+	 * default, this pages backward by the number of elements to return. This
+	 * should only be called after the request has been serviced.
+	 * 
+	 * @return A map of paging parameter keys to their value for the previous
+	 *         URL or null if there is no previous page.
+	 */
+	public Map<String, String> getPreviousPagingParameters() {
+		// If we did not skip any data, there is no previous page.
+		if(numToSkip <= 0) {
+			return null;
+		}
+		
+		// Create the result map.
+		Map<String, String> result = new LinkedHashMap<String, String>();
+		
+		// If the previous number to skip is greater than zero, add the number
+		// to skip.
+		long previousNumToSkip = numToSkip - numToReturn;
+		if(previousNumToSkip > 0) {
+			result
+				.put(
+					Version1.PARAM_PAGING_NUM_TO_SKIP,
+					Long.toString(previousNumToSkip));
+		}
+		
+		// Always add the number to return.
+		result
+			.put(
+				Version1.PARAM_PAGING_NUM_TO_RETURN,
+				Long.toString(Math.min(numToSkip, numToReturn)));
+		
+		return result;
+	}
+	
+	/**
+	 * Returns the paging parameters used to build the next URL. By default,
+	 * this pages forward by the number of elements to return if the total
+	 * number of elements indicates that there are more. This should only be
+	 * called after the request has been serviced.
+	 * 
+	 * @return A map of paging parameter keys to their value for the next URL
+	 *         or null if there is no next page.
+	 */
+	public Map<String, String> getNextPagingParameters() {
+		// If the total data-set size is not greater than the number of
+		// elements skipped plus the number of elements requested, then there
+		// is no more data.
+		if(getData().count() <= (numToSkip + numToReturn)) {
+			return null;
+		}
+		
+		// Create the result map.
+		Map<String, String> result = new LinkedHashMap<String, String>();
+		
+		// Always add the number to skip.
+		result
+			.put(
+				Version1.PARAM_PAGING_NUM_TO_SKIP,
+				Long.toString(numToSkip + numToReturn));
+		
+		// Always add the number to return.
+		result
+			.put(
+				Version1.PARAM_PAGING_NUM_TO_RETURN,
+				Long.toString(numToReturn));
+		
+		return result;
+	}
 }
\ No newline at end of file
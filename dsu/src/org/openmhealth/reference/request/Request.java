@@ -72,6 +72,22 @@ public abstract class Request<T> {
 		return data;
 	}
 	
+	/**
+	 * Returns a validator that changes whenever the data that this request
+	 * would return changes. It must be computed without servicing the
+	 * request, so that a client that already has the data can be told so
+	 * cheaply. By default, requests have no validator.
+	 * 
+	 * @return The validator or null if this request has none.
+	 * 
+	 * @throws OmhException
+	 *         The validator could not be computed, e.g. the requester may
+	 *         not read the data.
+	 */
+	public String getValidator() throws OmhException {
+		return null;
+	}
+	
 	/**
 	 * Parses a given schema ID and returns the domain. The domain is the part
 	 * after the "omh:" (which is how all schema IDs should begin) and up until
@@ -40,6 +40,15 @@ public class SchemaIdsRequest extends ListRequest<String> {
 		super(numToSkip, numToReturn);
 	}
 
+	/**
+	 * Returns the number of known schema IDs, as schema IDs are only ever
+	 * added.
+	 */
+	@Override
+	public String getValidator() throws OmhException {
+		return Integer.toString(countSchemaIds());
+	}
+
 	/**
 	 * Retrieves the list of known schema IDs.
 	 */
@@ -53,6 +62,19 @@ public class SchemaIdsRequest extends ListRequest<String> {
 			setServiced();
 		}
 		
+		// If only the count is needed, count the local and external schema
+		// IDs without reading them.
+		if(isCountOnly()) {
+			int count = countSchemaIds();
+			
+			Map<String, Object> metaData = new HashMap<String, Object>();
+			metaData.put(METADATA_KEY_COUNT, count);
+			setMetaData(metaData);
+			
+			setData(new CountResult<String>(count));
+			return;
+		}
+		
 		// Get the number of records to skip and the number to return and store
 		// them as we will need to temporarily modify them.
 		long currNumToSkip = getNumToSkip();
@@ -131,4 +153,17 @@ public class SchemaIdsRequest extends ListRequest<String> {
 	public Map<String, String> getPreviousNextParameters() {
 		return Collections.emptyMap();
 	}
+	
+	/**
+	 * Counts the local and external schema IDs without reading them.
+	 * 
+	 * @return The number of known schema IDs.
+	 */
+	private static int countSchemaIds() {
+		int count = Registry.getInstance().getSchemaIds(0, 1).count();
+		for(String domain : ShimRegistry.getDomains()) {
+			count += ShimRegistry.getShim(domain).getSchemaIds().size();
+		}
+		return count;
+	}
 }
\ No newline at end of file
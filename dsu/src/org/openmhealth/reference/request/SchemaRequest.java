@@ -72,6 +72,15 @@ public class SchemaRequest extends Request<Concordia> {
 		this.schemaVersion = schemaVersion;
 	}
 
+	/**
+	 * Returns the schema ID and version, as a schema never changes once its
+	 * version has been published.
+	 */
+	@Override
+	public String getValidator() {
+		return schemaId + ":" + schemaVersion;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * @see org.openmhealth.reference.request.Request#service()
@@ -86,20 +86,36 @@ public class SchemaVersionsRequest extends ListRequest<Long> {
 			// Get all of the visible versions.
 			List<Long> versions = shim.getSchemaVersions(schemaId);
 			
-			// Sort the list of versions.
-			Collections.sort(versions);
-			
-			// Generate the paged result.
-			versions =
-				versions
-					.subList(
-						(int) Math.min(getNumToSkip(), versions.size()),
-						(int) Math.min(
-							getNumToSkip() + getNumToReturn(),
-							versions.size()));
-			
-			// Create the result from the sorted, paged list of versions.
-			result = (new MultiValueResultAggregator<Long>(versions)).build(); 
+			// If only the count is needed, the versions need not be paged.
+			if(isCountOnly()) {
+				result = new CountResult<Long>(versions.size());
+			}
+			else {
+				// Sort the list of versions.
+				Collections.sort(versions);
+				
+				// Generate the paged result.
+				versions =
+					versions
+						.subList(
+							(int) Math.min(getNumToSkip(), versions.size()),
+							(int) Math.min(
+								getNumToSkip() + getNumToReturn(),
+								versions.size()));
+				
+				// Create the result from the sorted, paged list of versions.
+				result =
+					(new MultiValueResultAggregator<Long>(versions)).build();
+			}
+		}
+		// If only the count is needed, do not return any versions.
+		else if(isCountOnly()) {
+			result =
+				new CountResult<Long>(
+					Registry
+						.getInstance()
+						.getSchemaVersions(schemaId, 0, 1)
+						.count());
 		}
 		// Otherwise, query our internal schemas.
 		else {
@@ -111,7 +127,7 @@ public class SchemaVersionsRequest extends ListRequest<Long> {
 							getNumToSkip(), 
 							getNumToReturn());
 		}
-		
+
 		// Set the meta-data.
 		Map<String, Object> metaData = new HashMap<String, Object>();
 		metaData.put(METADATA_KEY_COUNT, result.count());
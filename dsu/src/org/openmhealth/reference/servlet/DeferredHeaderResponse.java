@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.servlet;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * <p>
+ * A response that collects the headers and status that are set on it rather
+ * than setting them on the response that it wraps, until they are
+ * {@link #apply() applied}. This allows a request on the data executor to
+ * build its headers without touching a response that may have already been
+ * given back to the container, e.g. because the request timed out.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+class DeferredHeaderResponse extends HttpServletResponseWrapper {
+	/**
+	 * The headers that have been set, in the order they were first set.
+	 */
+	private final Map<String, String> headers =
+		new LinkedHashMap<String, String>();
+	/**
+	 * The status that has been set or null if none has been set.
+	 */
+	private Integer status = null;
+
+	/**
+	 * Creates a response that defers its headers and status.
+	 *
+	 * @param response
+	 *        The response to which the headers and status will be applied.
+	 */
+	public DeferredHeaderResponse(final HttpServletResponse response) {
+		super(response);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see javax.servlet.http.HttpServletResponseWrapper#setHeader(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public void setHeader(final String name, final String value) {
+		headers.put(name, value);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see javax.servlet.http.HttpServletResponseWrapper#setStatus(int)
+	 */
+	@Override
+	public void setStatus(final int status) {
+		this.status = status;
+	}
+
+	/**
+	 * Sets the collected headers and status on the wrapped response.
+	 */
+	public void apply() {
+		HttpServletResponse response = (HttpServletResponse) getResponse();
+
+		for(Map.Entry<String, String> header : headers.entrySet()) {
+			response.setHeader(header.getKey(), header.getValue());
+		}
+		if(status != null) {
+			response.setStatus(status);
+		}
+	}
+}
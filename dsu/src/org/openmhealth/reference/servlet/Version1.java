@@ -15,18 +15,28 @@
  ******************************************************************************/
 package org.openmhealth.reference.servlet;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.xml.bind.DatatypeConverter;
 
 import org.apache.oltu.oauth2.as.request.OAuthAuthzRequest;
 import org.apache.oltu.oauth2.as.request.OAuthTokenRequest;
@@ -43,6 +53,8 @@ import org.joda.time.DateTime;
 import org.openmhealth.reference.data.AuthorizationCodeBin;
 import org.openmhealth.reference.data.AuthorizationCodeResponseBin;
 import org.openmhealth.reference.data.AuthorizationTokenBin;
+import org.openmhealth.reference.data.DataExporter;
+import org.openmhealth.reference.data.DataRollupBin;
 import org.openmhealth.reference.data.Registry;
 import org.openmhealth.reference.data.ThirdPartyBin;
 import org.openmhealth.reference.data.UserBin;
@@ -51,16 +63,27 @@ import org.openmhealth.reference.domain.AuthorizationCode;
 import org.openmhealth.reference.domain.AuthorizationCodeResponse;
 import org.openmhealth.reference.domain.AuthorizationToken;
 import org.openmhealth.reference.domain.Data;
+import org.openmhealth.reference.domain.DataBatchResult;
+import org.openmhealth.reference.domain.DataSummary;
+import org.openmhealth.reference.domain.ExportJob;
 import org.openmhealth.reference.domain.ExternalAuthorizationInformation;
 import org.openmhealth.reference.domain.ExternalAuthorizationToken;
+import org.openmhealth.reference.domain.ImportJob;
 import org.openmhealth.reference.domain.MultiValueResult;
 import org.openmhealth.reference.domain.ThirdParty;
 import org.openmhealth.reference.domain.User;
 import org.openmhealth.reference.exception.OmhException;
+import org.openmhealth.reference.exception.ServerBusyException;
 import org.openmhealth.reference.filter.AuthFilter;
 import org.openmhealth.reference.request.AuthenticationRequest;
 import org.openmhealth.reference.request.AuthorizeDomainRequest;
+import org.openmhealth.reference.request.DataBatchReadRequest;
+import org.openmhealth.reference.request.DataExportRequest;
+import org.openmhealth.reference.request.DataImportRequest;
 import org.openmhealth.reference.request.DataReadRequest;
+import org.openmhealth.reference.request.DataRollupRequest;
+import org.openmhealth.reference.request.DataStreamRequest;
+import org.openmhealth.reference.request.DataSummaryRequest;
 import org.openmhealth.reference.request.DataWriteRequest;
 import org.openmhealth.reference.request.ListRequest;
 import org.openmhealth.reference.request.OauthRegistrationRequest;
@@ -72,12 +95,17 @@ import org.openmhealth.reference.request.UserActivationRequest;
 import org.openmhealth.reference.request.UserAuthorizedDomainRequest;
 import org.openmhealth.reference.request.UserRegistrationRequest;
 import org.openmhealth.reference.util.ISOW3CDateTimeFormat;
+import org.openmhealth.reference.util.OmhBsonFactory;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.context.request.async.WebAsyncTask;
+import org.springframework.web.multipart.MultipartFile;
 
 /**
  * <p>
@@ -137,6 +165,12 @@ public class Version1 {
 	 * paging.
 	 */
 	public static final String PARAM_PAGING_NUM_TO_RETURN = "num_to_return";
+	/**
+	 * The parameter for the opaque token that marks where the previous page
+	 * ended, which may be given instead of the number to skip.
+	 */
+	public static final String PARAM_PAGING_CONTINUATION_TOKEN =
+		"continuation_token";
 
 	/**
 	 * The parameter for the unique identifier for a schema. This is sometimes
@@ -166,19 +200,51 @@ public class Version1 {
 	public static final String PARAM_OWNER = "owner";
 	/**
 	 * The parameter that indicates that the data should be summarized, if
-	 * possible.
+	 * possible, and over which interval: "hour", "day", or "week".
 	 */
 	public static final String PARAM_SUMMARIZE = "summarize";
+	/**
+	 * The parameter for the path to the numeric field within the data that
+	 * should be summarized.
+	 */
+	public static final String PARAM_SUMMARIZE_FIELD = "summarize_field";
 	/**
 	 * The parameter that indicates which columns of the data should be
 	 * returned.
 	 */
 	public static final String PARAM_COLUMN_LIST = "column_list";
+	/**
+	 * The parameter that indicates that the data should be written to the
+	 * client as it is read from the database instead of being read entirely
+	 * first.
+	 */
+	public static final String PARAM_STREAM = "stream";
+	/**
+	 * The parameter that indicates how precisely the data should be counted
+	 * for the Count header: "none", "exact", or "approx".
+	 */
+	public static final String PARAM_COUNT = "count";
+	/**
+	 * The parameter for the JSON array of queries in a batch read.
+	 */
+	public static final String PARAM_QUERIES = "queries";
 
 	/**
 	 * The parameter for the data when it is being uploaded.
 	 */
 	public static final String PARAM_DATA = "data";
+	/**
+	 * The parameter for the unique identifier of a data export.
+	 */
+	public static final String PARAM_EXPORT_ID = "export_id";
+	/**
+	 * The parameter for a file of data when it is being uploaded.
+	 */
+	public static final String PARAM_FILE = "file";
+	/**
+	 * The parameter for the unique identifier of a data import.
+	 */
+	public static final String PARAM_IMPORT_ID = "import_id";
 
 	/**
 	 * The header for the URL to the previous set of data for list requests.
@@ -188,11 +254,83 @@ public class Version1 {
 	 * The header for the URL to the next set of data for list requests.
 	 */
 	public static final String HEADER_NEXT = "Next";
+	/**
+	 * The header for the validator of the data that was returned.
+	 */
+	public static final String HEADER_ETAG = "ETag";
+	/**
+	 * The header for the validators of the data that the client already
+	 * has.
+	 */
+	public static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+	/**
+	 * The header for the media types that the client will accept.
+	 */
+	public static final String HEADER_ACCEPT = "Accept";
+	/**
+	 * The header for the request headers that select the representation
+	 * that was returned.
+	 */
+	public static final String HEADER_VARY = "Vary";
+	/**
+	 * The header for the byte range of a file that the client wants.
+	 */
+	public static final String HEADER_RANGE = "Range";
+	/**
+	 * The header for the validator that a byte range must match to be
+	 * honored.
+	 */
+	public static final String HEADER_IF_RANGE = "If-Range";
+	/**
+	 * The header for the byte range of a file that was returned.
+	 */
+	public static final String HEADER_CONTENT_RANGE = "Content-Range";
+	/**
+	 * The header that tells the client that byte ranges are supported.
+	 */
+	public static final String HEADER_ACCEPT_RANGES = "Accept-Ranges";
+	/**
+	 * The header for the number of bytes in the response.
+	 */
+	public static final String HEADER_CONTENT_LENGTH = "Content-Length";
+	/**
+	 * The header that suggests a file name for a download.
+	 */
+	public static final String HEADER_CONTENT_DISPOSITION =
+		"Content-Disposition";
+
+	/**
+	 * The key for the number of milliseconds that a request on the data
+	 * executor may take.
+	 */
+	public static final String PROPERTY_KEY_ASYNC_TIMEOUT = "async.timeout";
+	/**
+	 * The default number of milliseconds that a request on the data executor
+	 * may take.
+	 */
+	public static final long DEFAULT_ASYNC_TIMEOUT = 30000;
 
 	/**
 	 * The encoding for the previous and next URLs.
 	 */
 	private static final String URL_ENCODING_UTF_8 = "UTF-8";
+	/**
+	 * The digest used to build entity tags from validators, which keeps the
+	 * validators themselves private.
+	 */
+	private static final String ETAG_DIGEST = "SHA-1";
+	/**
+	 * The timeout for requests on the data executor that should never be
+	 * abandoned, e.g. writes, which would otherwise continue after the
+	 * client was told to retry and then be stored twice.
+	 */
+	private static final long NO_ASYNC_TIMEOUT = 0;
+	/**
+	 * The name of the executor that handles streams of data, which is
+	 * separate from the data executor as each stream holds its thread for as
+	 * long as it is open.
+	 */
+	private static final String STREAM_EXECUTOR = "streamExecutor";
 
 	/**
 	 * The logger for this class.
@@ -1282,7 +1420,8 @@ public class Version1 {
 	 * @param response
 	 *        The HTTP response object.
 	 *
-	 * @return An array of all of the known schemas, limited by paging.
+	 * @return An array of all of the known schemas, limited by paging. For a
+	 *         HEAD request, the schemas are only counted.
 	 */
 	@RequestMapping(value = { "", "/" }, method = { RequestMethod.GET, RequestMethod.HEAD })
 	public @ResponseBody MultiValueResult<String> getSchemaIds(
@@ -1323,11 +1462,11 @@ public class Version1 {
 	 *        The HTTP response object.
 	 *
 	 * @return An array of schemas, one for each version of the given schema
-	 *         ID.
+	 *         ID. For a HEAD request, the versions are only counted.
 	 */
 	@RequestMapping(
 		value = "{" + PARAM_SCHEMA_ID + "}",
-		method = RequestMethod.GET)
+		method = { RequestMethod.GET, RequestMethod.HEAD })
 	public @ResponseBody MultiValueResult<Long> getSchemaVersions(
 		@PathVariable(PARAM_SCHEMA_ID) final String schemaId,
 		@RequestParam(
@@ -1412,6 +1551,24 @@ public class Version1 {
 	 * @param numToReturn
 	 *        The number of data points to return to facilitate paging.
 	 *
+	 * @param continuationToken
+	 *        The token from a previous page's Previous or Next URL, which
+	 *        seeks directly to that page instead of skipping every point
+	 *        before it.
+	 *
+	 * @param count
+	 *        How precisely the data should be counted for the Count header.
+	 *        "exact", the default, always agrees with the data, "approx" may
+	 *        come from a counter that can drift, and "none" omits the header
+	 *        entirely.
+	 *
+	 * @param stream
+	 *        Whether or not the data should be written to the client as it is
+	 *        read instead of being read entirely before being written. This
+	 *        keeps memory use flat for large pages, but it holds a database
+	 *        connection while the response is being written, so it is off by
+	 *        default.
+	 *
 	 * @param request
 	 *        The HTTP request object.
 	 *
@@ -1419,14 +1576,16 @@ public class Version1 {
 	 *        The HTTP response object.
 	 *
 	 * @return The data as a JSON array of JSON objects where each object
-	 *         represents a single data point.
+	 *         represents a single data point. It is read on the data
+	 *         executor. For a HEAD request, the data is only counted for the
+	 *         headers unless a continuation token was given.
 	 *
 	 * @see Data
 	 */
 	@RequestMapping(
 		value = "{" + PARAM_SCHEMA_ID + "}/{" + PARAM_SCHEMA_VERSION + "}/data",
-		method = RequestMethod.GET)
-	public @ResponseBody MultiValueResult<Data> getData(
+		method = { RequestMethod.GET, RequestMethod.HEAD })
+	public @ResponseBody WebAsyncTask<MultiValueResult<Data>> getData(
 		@PathVariable(PARAM_SCHEMA_ID) final String schemaId,
 		@PathVariable(PARAM_SCHEMA_VERSION) final Long version,
 		@RequestParam(
@@ -1455,33 +1614,29 @@ public class Version1 {
 			required = false,
 			defaultValue = ListRequest.DEFAULT_NUMBER_TO_RETURN_STRING)
 			final long numToReturn,
+		@RequestParam(
+			value = PARAM_PAGING_CONTINUATION_TOKEN,
+			required = false)
+			final String continuationToken,
+		@RequestParam(
+			value = PARAM_COUNT,
+			required = false)
+			final String count,
+		@RequestParam(
+			value = PARAM_STREAM,
+			required = false,
+			defaultValue = "false")
+			final boolean stream,
 		final HttpServletRequest request,
 		final HttpServletResponse response) {
 
 		// Parse the start and end dates.
-		DateTime parsedStartDate = null, parsedEndDate = null;
-		if(startDate != null) {
-			try {
-				parsedStartDate =
-					ISOW3CDateTimeFormat.any().parseDateTime(startDate);
-			}
-			catch(IllegalArgumentException e) {
-				throw new OmhException("The start date is invalid.", e);
-			}
-		}
-		if(endDate != null) {
-			try {
-				parsedEndDate =
-					ISOW3CDateTimeFormat.any().parseDateTime(endDate);
-			}
-			catch(IllegalArgumentException e) {
-				throw new OmhException("The end date is invalid.", e);
-			}
-		}
+		DateTime parsedStartDate = parseDate(startDate, "start");
+		DateTime parsedEndDate = parseDate(endDate, "end");
 
-		// Handle the request.
+		// Handle the request off of the container's thread.
 		return
-			handleRequest(
+			handleRequestAsync(
 				request,
 				response,
 				new DataReadRequest(
@@ -1502,130 +1657,905 @@ public class Version1 {
 					parsedEndDate,
 					columnList,
 					numToSkip,
-					numToReturn));
+					numToReturn,
+					continuationToken,
+					count,
+					stream));
 	}
 
 	/**
-	 * Writes the requested data.
+	 * Summarizes a numeric field of the requested data over each hour, day,
+	 * or week, so clients can chart the data without downloading every
+	 * point.
 	 *
 	 * @param schemaId
-	 *        The ID for the schema to which the data pertains.
+	 *        The ID for the schema to which the data pertains. This is part of
+	 *        the request's path.
 	 *
 	 * @param version
-	 *        The version of the schema to which the data pertains.
+	 *        The version of the schema to which the data pertains. This is
+	 *        part of the request's path.
 	 *
-	 * @param data
-	 *        The data to be uploaded, which should be a JSON array of JSON
-	 *        objects where each object is a single data point.
+	 * @param owner
+	 *        The user that owns the desired data.
+	 *
+	 * @param startDate
+	 *        The earliest point from which data should be summarized.
+	 *
+	 * @param endDate
+	 *        The latest point from which data should be summarized.
+	 *
+	 * @param summarize
+	 *        The interval covered by each summary: "hour", "day", or "week".
+	 *
+	 * @param field
+	 *        The dot-separated path to the numeric field within the data
+	 *        that should be summarized, e.g. "steps".
 	 *
 	 * @param request
 	 *        The HTTP request object.
 	 *
 	 * @param response
 	 *        The HTTP response object.
+	 *
+	 * @return The summaries as a JSON array of JSON objects where each
+	 *         object summarizes one interval, oldest first.
+	 *
+	 * @see DataSummary
 	 */
 	@RequestMapping(
 		value = "{" + PARAM_SCHEMA_ID + "}/{" + PARAM_SCHEMA_VERSION + "}/data",
-		method = RequestMethod.POST)
-	public void putData(
+		method = RequestMethod.GET,
+		params = PARAM_SUMMARIZE)
+	public @ResponseBody List<DataSummary> getDataSummary(
 		@PathVariable(PARAM_SCHEMA_ID) final String schemaId,
 		@PathVariable(PARAM_SCHEMA_VERSION) final Long version,
 		@RequestParam(
-			value = PARAM_DATA,
+			value = PARAM_OWNER,
+			required = false)
+			final String owner,
+		@RequestParam(
+			value = PARAM_DATE_START,
+			required = false)
+			final String startDate,
+		@RequestParam(
+			value = PARAM_DATE_END,
+			required = false)
+			final String endDate,
+		@RequestParam(
+			value = PARAM_SUMMARIZE,
 			required = true)
-			final String data,
+			final String summarize,
+		@RequestParam(
+			value = PARAM_SUMMARIZE_FIELD,
+			required = true)
+			final String field,
 		final HttpServletRequest request,
 		final HttpServletResponse response) {
 
-		// Make sure the authentication token was a parameter. This prevents
-		// malicious code from "hijacking" the token by performing a POST and
-		// having the browser inject it as only a cookie.
-		Object authenticationTokenIsParam =
-			request
-				.getAttribute(
-					AuthFilter.ATTRIBUTE_AUTHENTICATION_TOKEN_IS_PARAM);
-		if(
-			(authenticationTokenIsParam == null) ||
-			(! ((Boolean) authenticationTokenIsParam))) {
-
-			throw
-				new OmhException(
-					"To upload data, the authentication token is required " +
-						"as a parameter.");
-		}
-
-		// Get the authentication token.
-		AuthenticationToken authToken =
-			(AuthenticationToken)
-				request
-					.getAttribute(
-						AuthFilter.ATTRIBUTE_AUTHENTICATION_TOKEN);
-
 		// Handle the request.
-		handleRequest(
-			request,
-			response,
-			new DataWriteRequest(
-				authToken,
-				schemaId,
-				version,
-				data));
+		return
+			handleRequest(
+				request,
+				response,
+				new DataSummaryRequest(
+					(AuthenticationToken)
+						request
+							.getAttribute(
+								AuthFilter
+									.ATTRIBUTE_AUTHENTICATION_TOKEN),
+					(AuthorizationToken)
+						request
+							.getAttribute(
+								AuthFilter
+									.ATTRIBUTE_AUTHORIZATION_TOKEN),
+					schemaId,
+					version,
+					owner,
+					parseDate(startDate, "start"),
+					parseDate(endDate, "end"),
+					field,
+					summarize));
 	}
 
 	/**
-	 * Builds the base URL for the request that came in. This is everything up
-	 * to our web applications base, e.g. "http://localhost:8080/omh".
+	 * Reads the precomputed rollups of a numeric field of the requested data
+	 * over each hour, day, or week. This is much cheaper than a summary, as
+	 * the data itself is not read, but the rollup must be configured ahead
+	 * of time.
 	 *
-	 * @param httpRequest
-	 *        The original HTTP request.
+	 * @param schemaId
+	 *        The ID for the schema to which the data pertains. This is part of
+	 *        the request's path.
 	 *
-	 * @return The base URL for the request.
+	 * @param version
+	 *        The version of the schema to which the data pertains. This is
+	 *        part of the request's path.
+	 *
+	 * @param owner
+	 *        The user that owns the desired data.
+	 *
+	 * @param startDate
+	 *        The earliest point whose rollup should be read.
+	 *
+	 * @param endDate
+	 *        The latest point whose rollup should be read.
+	 *
+	 * @param summarize
+	 *        The interval covered by each rollup: "hour", "day", or "week".
+	 *
+	 * @param field
+	 *        The dot-separated path to the numeric field within the data
+	 *        that was rolled up, e.g. "steps".
+	 *
+	 * @param request
+	 *        The HTTP request object.
+	 *
+	 * @param response
+	 *        The HTTP response object.
+	 *
+	 * @return The rollups as a JSON array of JSON objects where each object
+	 *         summarizes one whole interval that overlaps the requested
+	 *         window, oldest first.
+	 *
+	 * @see DataSummary
+	 * @see DataRollupBin#PROPERTY_KEY_ROLLUPS
 	 */
-	public static String buildRootUrl(final HttpServletRequest httpRequest) {
-		// It must be a HTTP request.
-		StringBuilder builder = new StringBuilder("http");
-
-		// If security was used add the "s" to make it "https".
-		if(httpRequest.isSecure()) {
-			builder.append('s');
-		}
-
-		// Add the protocol separator.
-		builder.append("://");
-
-		// Add the name of the server where the request was sent.
-		builder.append(httpRequest.getServerName());
-
-		// Add the port separator and the port.
-		builder.append(':').append(httpRequest.getServerPort());
-
-		// Add the context path, e.g. "/omh".
-		builder.append(httpRequest.getContextPath());
+	@RequestMapping(
+		value =
+			"{" + PARAM_SCHEMA_ID + "}/{" + PARAM_SCHEMA_VERSION + "}/rollup",
+		method = RequestMethod.GET)
+	public @ResponseBody List<DataSummary> getDataRollup(
+		@PathVariable(PARAM_SCHEMA_ID) final String schemaId,
+		@PathVariable(PARAM_SCHEMA_VERSION) final Long version,
+		@RequestParam(
+			value = PARAM_OWNER,
+			required = false)
+			final String owner,
+		@RequestParam(
+			value = PARAM_DATE_START,
+			required = false)
+			final String startDate,
+		@RequestParam(
+			value = PARAM_DATE_END,
+			required = false)
+			final String endDate,
+		@RequestParam(
+			value = PARAM_SUMMARIZE,
+			required = true)
+			final String summarize,
+		@RequestParam(
+			value = PARAM_SUMMARIZE_FIELD,
+			required = true)
+			final String field,
+		final HttpServletRequest request,
+		final HttpServletResponse response) {
 
-		// Return the root URL.
-		return builder.toString();
+		// Handle the request.
+		return
+			handleRequest(
+				request,
+				response,
+				new DataRollupRequest(
+					(AuthenticationToken)
+						request
+							.getAttribute(
+								AuthFilter
+									.ATTRIBUTE_AUTHENTICATION_TOKEN),
+					(AuthorizationToken)
+						request
+							.getAttribute(
+								AuthFilter
+									.ATTRIBUTE_AUTHORIZATION_TOKEN),
+					schemaId,
+					version,
+					owner,
+					parseDate(startDate, "start"),
+					parseDate(endDate, "end"),
+					field,
+					summarize));
 	}
 
 	/**
-	 * Handles a request then sets the meta-data as HTTP headers and returns
-	 * the data to be returned to the user.
-	 *
-	 * @param httpRequest
-	 *        The HTTP request.
+	 * Retrieves the data for several schemas in a single request. The queries
+	 * are read in parallel, and a query that fails does not fail the others.
 	 *
-	 * @param httpResponse
-	 *        The HTTP response.
+	 * @param queries
+	 *        A JSON array of JSON objects where each object is a query with
+	 *        the same parameters as a single read, including its
+	 *        {@link #PARAM_SCHEMA_ID} and {@link #PARAM_SCHEMA_VERSION}.
+	 *        Streaming is not supported.
 	 *
 	 * @param request
-	 *        The already-built, domain-specific request to be serviced.
+	 *        The HTTP request object.
 	 *
-	 * @return The object to be returned to the user.
+	 * @param response
+	 *        The HTTP response object.
+	 *
+	 * @return A JSON array with a JSON object for each query, in the same
+	 *         order, that contains either its data or its error. It is read
+	 *         on the data executor.
+	 *
+	 * @see DataBatchResult
 	 */
-	private <T> T handleRequest(
-		final HttpServletRequest httpRequest,
-		final HttpServletResponse httpResponse,
+	@RequestMapping(value = "data", method = RequestMethod.GET)
+	public @ResponseBody WebAsyncTask<List<DataBatchResult>> getDataBatch(
+		@RequestParam(
+			value = PARAM_QUERIES,
+			required = true)
+			final String queries,
+		final HttpServletRequest request,
+		final HttpServletResponse response) {
+
+		// Handle the request off of the container's thread.
+		return
+			handleRequestAsync(
+				request,
+				response,
+				new DataBatchReadRequest(
+					(AuthenticationToken)
+						request
+							.getAttribute(
+								AuthFilter
+									.ATTRIBUTE_AUTHENTICATION_TOKEN),
+					(AuthorizationToken)
+						request
+							.getAttribute(
+								AuthFilter
+									.ATTRIBUTE_AUTHORIZATION_TOKEN),
+					queries));
+	}
+
+	/**
+	 * Starts exporting all of the requesting user's data in the background.
+	 * If that user's data is already being exported, that export is returned
+	 * instead.
+	 *
+	 * @param request
+	 *        The HTTP request object.
+	 *
+	 * @param response
+	 *        The HTTP response object.
+	 *
+	 * @return The export, whose progress may be checked with
+	 *         {@link #getExport(String, HttpServletRequest, HttpServletResponse)}.
+	 *
+	 * @see ExportJob
+	 */
+	@RequestMapping(value = "export", method = RequestMethod.POST)
+	public @ResponseBody ExportJob startExport(
+		final HttpServletRequest request,
+		final HttpServletResponse response) {
+
+		// Handle the request.
+		ExportJob result =
+			handleRequest(
+				request,
+				response,
+				new DataExportRequest(
+					(AuthenticationToken)
+						request
+							.getAttribute(
+								AuthFilter.ATTRIBUTE_AUTHENTICATION_TOKEN),
+					null));
+
+		// The export has only been started.
+		response.setStatus(HttpServletResponse.SC_ACCEPTED);
+		return result;
+	}
+
+	/**
+	 * Returns the progress of one of the requesting user's exports.
+	 *
+	 * @param exportId
+	 *        The export's unique identifier.
+	 *
+	 * @param request
+	 *        The HTTP request object.
+	 *
+	 * @param response
+	 *        The HTTP response object.
+	 *
+	 * @return The export.
+	 *
+	 * @see ExportJob
+	 */
+	@RequestMapping(
+		value = "export/{" + PARAM_EXPORT_ID + "}",
+		method = RequestMethod.GET)
+	public @ResponseBody ExportJob getExport(
+		@PathVariable(PARAM_EXPORT_ID) final String exportId,
+		final HttpServletRequest request,
+		final HttpServletResponse response) {
+
+		// Handle the request.
+		return
+			handleRequest(
+				request,
+				response,
+				new DataExportRequest(
+					(AuthenticationToken)
+						request
+							.getAttribute(
+								AuthFilter.ATTRIBUTE_AUTHENTICATION_TOKEN),
+					exportId));
+	}
+
+	/**
+	 * Downloads the file of one of the requesting user's complete exports. It
+	 * is a gzip-compressed file with one JSON data point per line. A single
+	 * byte range may be requested, so a large download may be resumed.
+	 *
+	 * @param exportId
+	 *        The export's unique identifier.
+	 *
+	 * @param request
+	 *        The HTTP request object.
+	 *
+	 * @param response
+	 *        The HTTP response object.
+	 *
+	 * @throws IOException
+	 *         The file could not be read or written to the client.
+	 */
+	@RequestMapping(
+		value = "export/{" + PARAM_EXPORT_ID + "}/file",
+		method = RequestMethod.GET)
+	public void getExportFile(
+		@PathVariable(PARAM_EXPORT_ID) final String exportId,
+		final HttpServletRequest request,
+		final HttpServletResponse response)
+		throws IOException {
+
+		// Find the export.
+		ExportJob job =
+			handleRequest(
+				request,
+				response,
+				new DataExportRequest(
+					(AuthenticationToken)
+						request
+							.getAttribute(
+								AuthFilter.ATTRIBUTE_AUTHENTICATION_TOKEN),
+					exportId));
+		File file = DataExporter.getInstance().getFile(job);
+		long length = file.length();
+
+		// An export's file never changes, so its ID is a strong validator.
+		String eTag = buildETag(job.getId());
+		response.setHeader(HEADER_ETAG, eTag);
+		response.setHeader(HEADER_ACCEPT_RANGES, "bytes");
+		response.setContentType(DataExporter.MEDIA_TYPE);
+		response
+			.setHeader(
+				HEADER_CONTENT_DISPOSITION,
+				"attachment; filename=\"" +
+					job.getId() +
+					DataExporter.FILE_EXTENSION +
+					"\"");
+
+		// Determine which bytes to send. A range is only honored if the
+		// client's copy of the file is the same as this one.
+		long start = 0;
+		long end = length - 1;
+		String ifRange = request.getHeader(HEADER_IF_RANGE);
+		long[] range =
+			((ifRange == null) || ifRange.equals(eTag)) ?
+				parseRange(request.getHeader(HEADER_RANGE), length) :
+				null;
+		if(range != null) {
+			if(range[0] >= length) {
+				response.setHeader(HEADER_CONTENT_RANGE, "bytes */" + length);
+				response
+					.sendError(
+						HttpServletResponse
+							.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+				return;
+			}
+
+			start = range[0];
+			end = range[1];
+			response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+			response
+				.setHeader(
+					HEADER_CONTENT_RANGE,
+					"bytes " + start + "-" + end + "/" + length);
+		}
+		response
+			.setHeader(HEADER_CONTENT_LENGTH, Long.toString(end - start + 1));
+
+		// Write the bytes.
+		RandomAccessFile input = new RandomAccessFile(file, "r");
+		try {
+			input.seek(start);
+
+			OutputStream output = response.getOutputStream();
+			byte[] buffer = new byte[8192];
+			long remaining = end - start + 1;
+			while(remaining > 0) {
+				int read =
+					input
+						.read(
+							buffer,
+							0,
+							(int) Math.min(buffer.length, remaining));
+				if(read == -1) {
+					break;
+				}
+				output.write(buffer, 0, read);
+				remaining -= read;
+			}
+			output.flush();
+		}
+		finally {
+			input.close();
+		}
+	}
+
+	/**
+	 * Writes the requested data.
+	 *
+	 * @param schemaId
+	 *        The ID for the schema to which the data pertains.
+	 *
+	 * @param version
+	 *        The version of the schema to which the data pertains.
+	 *
+	 * @param data
+	 *        The data to be uploaded, which should be a JSON array of JSON
+	 *        objects or newline-delimited JSON objects, where each object is
+	 *        a single data point.
+	 *
+	 * @param request
+	 *        The HTTP request object.
+	 *
+	 * @param response
+	 *        The HTTP response object.
+	 *
+	 * @return Nothing, once the data has been stored on the data executor.
+	 */
+	@RequestMapping(
+		value = "{" + PARAM_SCHEMA_ID + "}/{" + PARAM_SCHEMA_VERSION + "}/data",
+		method = RequestMethod.POST)
+	public @ResponseBody WebAsyncTask<Object> putData(
+		@PathVariable(PARAM_SCHEMA_ID) final String schemaId,
+		@PathVariable(PARAM_SCHEMA_VERSION) final Long version,
+		@RequestParam(
+			value = PARAM_DATA,
+			required = true)
+			final String data,
+		final HttpServletRequest request,
+		final HttpServletResponse response) {
+
+		// Handle the request off of the container's thread. A write is never
+		// abandoned, because a client that retried it would store it twice.
+		return
+			handleRequestAsync(
+				request,
+				response,
+				new DataWriteRequest(
+					getUploadAuthenticationToken(request),
+					schemaId,
+					version,
+					data),
+				NO_ASYNC_TIMEOUT);
+	}
+
+	/**
+	 * Writes the requested data, which is the body of the request. The body
+	 * is parsed, validated, and stored a chunk at a time as it is read, so
+	 * large uploads are never held in memory as a whole.
+	 *
+	 * @param schemaId
+	 *        The ID for the schema to which the data pertains.
+	 *
+	 * @param version
+	 *        The version of the schema to which the data pertains.
+	 *
+	 * @param data
+	 *        The body of the request, which should be a JSON array of JSON
+	 *        objects or newline-delimited JSON objects, where each object is
+	 *        a single data point.
+	 *
+	 * @param request
+	 *        The HTTP request object.
+	 *
+	 * @param response
+	 *        The HTTP response object.
+	 *
+	 * @return Nothing, once the data has been stored on the data executor.
+	 */
+	@RequestMapping(
+		value = "{" + PARAM_SCHEMA_ID + "}/{" + PARAM_SCHEMA_VERSION + "}/data",
+		method = RequestMethod.POST,
+		params = "!" + PARAM_DATA,
+		consumes = MediaType.APPLICATION_JSON_VALUE)
+	public @ResponseBody WebAsyncTask<Object> putStreamedData(
+		@PathVariable(PARAM_SCHEMA_ID) final String schemaId,
+		@PathVariable(PARAM_SCHEMA_VERSION) final Long version,
+		final InputStream data,
+		final HttpServletRequest request,
+		final HttpServletResponse response) {
+
+		// Handle the request off of the container's thread. A write is never
+		// abandoned, because a client that retried it would store it twice.
+		return
+			handleRequestAsync(
+				request,
+				response,
+				new DataWriteRequest(
+					getUploadAuthenticationToken(request),
+					schemaId,
+					version,
+					data),
+				NO_ASYNC_TIMEOUT);
+	}
+
+	/**
+	 * Writes a long-lived stream of newline-delimited JSON data, e.g. from a
+	 * gateway that forwards the data of many devices. The lines are stored in
+	 * chunks as they arrive, and each chunk is acknowledged on the response
+	 * as its own line of JSON, so a client can keep one connection open
+	 * rather than making a request for each batch. Because a stream may be
+	 * open for far longer than any other request, it is handled without a
+	 * timeout on its own, bounded executor, so streams cannot take every
+	 * thread of the container or the data executor. If every stream thread
+	 * is busy, the client receives a 503.
+	 *
+	 * @param schemaId
+	 *        The ID for the schema to which the data pertains.
+	 *
+	 * @param version
+	 *        The version of the schema to which the data pertains.
+	 *
+	 * @param data
+	 *        The body of the request, where each line is a single data point.
+	 *
+	 * @param request
+	 *        The HTTP request object.
+	 *
+	 * @param response
+	 *        The HTTP response object, on which the acknowledgements are
+	 *        written.
+	 *
+	 * @return Nothing, once the stream has ended. The acknowledgements are
+	 *         written directly to the response.
+	 *
+	 * @see DataStreamRequest
+	 * @see #STREAM_EXECUTOR
+	 */
+	@RequestMapping(
+		value = "{" + PARAM_SCHEMA_ID + "}/{" + PARAM_SCHEMA_VERSION + "}/data",
+		method = RequestMethod.POST,
+		params = "!" + PARAM_DATA,
+		consumes = DataWriteRequest.MEDIA_TYPE_NDJSON)
+	public @ResponseBody WebAsyncTask<Object> putDataStream(
+		@PathVariable(PARAM_SCHEMA_ID) final String schemaId,
+		@PathVariable(PARAM_SCHEMA_VERSION) final Long version,
+		final InputStream data,
+		final HttpServletRequest request,
+		final HttpServletResponse response) {
+
+		// Handle the request off of the container's thread, without a
+		// timeout, as a stream is a write that may be open indefinitely.
+		return
+			handleRequestAsync(
+				request,
+				response,
+				new DataStreamRequest(
+					getUploadAuthenticationToken(request),
+					schemaId,
+					version,
+					data,
+					response),
+				NO_ASYNC_TIMEOUT,
+				STREAM_EXECUTOR);
+	}
+
+	/**
+	 * Starts storing the data of an uploaded file in the background. The
+	 * file is saved to disk before this returns, so it may be far larger
+	 * than would fit in memory, and is then stored a chunk at a time.
+	 *
+	 * @param schemaId
+	 *        The ID for the schema to which the data pertains.
+	 *
+	 * @param version
+	 *        The version of the schema to which the data pertains.
+	 *
+	 * @param file
+	 *        The uploaded file, which should be a JSON array of JSON objects
+	 *        or newline-delimited JSON objects, where each object is a single
+	 *        data point.
+	 *
+	 * @param request
+	 *        The HTTP request object.
+	 *
+	 * @param response
+	 *        The HTTP response object.
+	 *
+	 * @return The import, whose progress may be checked with
+	 *         {@link #getImport(String, HttpServletRequest, HttpServletResponse)}.
+	 *
+	 * @see ImportJob
+	 */
+	@RequestMapping(
+		value = "{" + PARAM_SCHEMA_ID + "}/{" + PARAM_SCHEMA_VERSION + "}/data",
+		method = RequestMethod.POST,
+		params = "!" + PARAM_DATA,
+		consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+	public @ResponseBody ImportJob startImport(
+		@PathVariable(PARAM_SCHEMA_ID) final String schemaId,
+		@PathVariable(PARAM_SCHEMA_VERSION) final Long version,
+		@RequestParam(
+			value = PARAM_FILE,
+			required = true)
+			final MultipartFile file,
+		final HttpServletRequest request,
+		final HttpServletResponse response) {
+
+		// Handle the request.
+		ImportJob result =
+			handleRequest(
+				request,
+				response,
+				new DataImportRequest(
+					getUploadAuthenticationToken(request),
+					schemaId,
+					version,
+					file));
+
+		// The import has only been started.
+		response.setStatus(HttpServletResponse.SC_ACCEPTED);
+		return result;
+	}
+
+	/**
+	 * Returns the progress of one of the requesting user's imports.
+	 *
+	 * @param importId
+	 *        The import's unique identifier.
+	 *
+	 * @param request
+	 *        The HTTP request object.
+	 *
+	 * @param response
+	 *        The HTTP response object.
+	 *
+	 * @return The import.
+	 *
+	 * @see ImportJob
+	 */
+	@RequestMapping(
+		value = "import/{" + PARAM_IMPORT_ID + "}",
+		method = RequestMethod.GET)
+	public @ResponseBody ImportJob getImport(
+		@PathVariable(PARAM_IMPORT_ID) final String importId,
+		final HttpServletRequest request,
+		final HttpServletResponse response) {
+
+		// Handle the request.
+		return
+			handleRequest(
+				request,
+				response,
+				new DataImportRequest(
+					(AuthenticationToken)
+						request
+							.getAttribute(
+								AuthFilter.ATTRIBUTE_AUTHENTICATION_TOKEN),
+					importId));
+	}
+
+	/**
+	 * Writes the requested data, which was uploaded as BSON.
+	 *
+	 * @param schemaId
+	 *        The ID for the schema to which the data pertains.
+	 *
+	 * @param version
+	 *        The version of the schema to which the data pertains.
+	 *
+	 * @param data
+	 *        The data to be uploaded, which should be a BSON document whose
+	 *        values are each a single data point, in order, e.g. a BSON
+	 *        encoded array.
+	 *
+	 * @param request
+	 *        The HTTP request object.
+	 *
+	 * @param response
+	 *        The HTTP response object.
+	 *
+	 * @return Nothing, once the data has been stored on the data executor.
+	 */
+	@RequestMapping(
+		value = "{" + PARAM_SCHEMA_ID + "}/{" + PARAM_SCHEMA_VERSION + "}/data",
+		method = RequestMethod.POST,
+		consumes = OmhBsonFactory.MEDIA_TYPE)
+	public @ResponseBody WebAsyncTask<Object> putBsonData(
+		@PathVariable(PARAM_SCHEMA_ID) final String schemaId,
+		@PathVariable(PARAM_SCHEMA_VERSION) final Long version,
+		@RequestBody final byte[] data,
+		final HttpServletRequest request,
+		final HttpServletResponse response) {
+
+		// Handle the request off of the container's thread. A write is never
+		// abandoned, because a client that retried it would store it twice.
+		return
+			handleRequestAsync(
+				request,
+				response,
+				new DataWriteRequest(
+					getUploadAuthenticationToken(request),
+					schemaId,
+					version,
+					data),
+				NO_ASYNC_TIMEOUT);
+	}
+
+	/**
+	 * Returns the authentication token for an upload. The token must have
+	 * been given as a parameter. This prevents malicious code from
+	 * "hijacking" the token by performing a POST and having the browser
+	 * inject it as only a cookie.
+	 *
+	 * @param request
+	 *        The HTTP request object.
+	 *
+	 * @return The authentication token, which may be null if none was given.
+	 *
+	 * @throws OmhException
+	 *         The authentication token was not given as a parameter.
+	 */
+	private static AuthenticationToken getUploadAuthenticationToken(
+		final HttpServletRequest request)
+		throws OmhException {
+
+		// Make sure the authentication token was a parameter.
+		Object authenticationTokenIsParam =
+			request
+				.getAttribute(
+					AuthFilter.ATTRIBUTE_AUTHENTICATION_TOKEN_IS_PARAM);
+		if(
+			(authenticationTokenIsParam == null) ||
+			(! ((Boolean) authenticationTokenIsParam))) {
+
+			throw
+				new OmhException(
+					"To upload data, the authentication token is required " +
+						"as a parameter.");
+		}
+
+		// Get the authentication token.
+		return
+			(AuthenticationToken)
+				request
+					.getAttribute(
+						AuthFilter.ATTRIBUTE_AUTHENTICATION_TOKEN);
+	}
+
+	/**
+	 * Builds the base URL for the request that came in. This is everything up
+	 * to our web applications base, e.g. "http://localhost:8080/omh".
+	 *
+	 * @param httpRequest
+	 *        The original HTTP request.
+	 *
+	 * @return The base URL for the request.
+	 */
+	public static String buildRootUrl(final HttpServletRequest httpRequest) {
+		// It must be a HTTP request.
+		StringBuilder builder = new StringBuilder("http");
+
+		// If security was used add the "s" to make it "https".
+		if(httpRequest.isSecure()) {
+			builder.append('s');
+		}
+
+		// Add the protocol separator.
+		builder.append("://");
+
+		// Add the name of the server where the request was sent.
+		builder.append(httpRequest.getServerName());
+
+		// Add the port separator and the port.
+		builder.append(':').append(httpRequest.getServerPort());
+
+		// Add the context path, e.g. "/omh".
+		builder.append(httpRequest.getContextPath());
+
+		// Return the root URL.
+		return builder.toString();
+	}
+
+	/**
+	 * Parses a date parameter.
+	 *
+	 * @param date
+	 *        The parameter's value or null if it was not given.
+	 *
+	 * @param name
+	 *        The name of the date to use in the error message, e.g. "start".
+	 *
+	 * @return The parsed date or null if it was not given.
+	 *
+	 * @throws OmhException
+	 *         The date is invalid.
+	 */
+	private static DateTime parseDate(
+		final String date,
+		final String name)
+		throws OmhException {
+
+		if(date == null) {
+			return null;
+		}
+
+		try {
+			return ISOW3CDateTimeFormat.any().parseDateTime(date);
+		}
+		catch(IllegalArgumentException e) {
+			throw new OmhException("The " + name + " date is invalid.", e);
+		}
+	}
+
+	/**
+	 * Handles a request then sets the meta-data as HTTP headers and returns
+	 * the data to be returned to the user.
+	 *
+	 * @param httpRequest
+	 *        The HTTP request.
+	 *
+	 * @param httpResponse
+	 *        The HTTP response.
+	 *
+	 * @param request
+	 *        The already-built, domain-specific request to be serviced.
+	 *
+	 * @return The object to be returned to the user.
+	 */
+	private <T> T handleRequest(
+		final HttpServletRequest httpRequest,
+		final HttpServletResponse httpResponse,
 		final Request<? extends T> request) {
 
+		// If the client already has the current data, tell it so without
+		// servicing the request.
+		if(
+			RequestMethod.GET.toString().equals(httpRequest.getMethod()) ||
+			RequestMethod.HEAD.toString().equals(httpRequest.getMethod())) {
+
+			String validator = request.getValidator();
+			if(validator != null) {
+				// The JSON and BSON representations differ, so each gets its
+				// own entity tag, and caches must key on the Accept header.
+				String eTag =
+					buildETag(
+						validator + " " + getRepresentation(httpRequest));
+				httpResponse.setHeader(HEADER_ETAG, eTag);
+				httpResponse.setHeader(HEADER_VARY, HEADER_ACCEPT);
+
+				if(
+					eTagMatches(
+						httpRequest.getHeader(HEADER_IF_NONE_MATCH),
+						eTag)) {
+
+					httpResponse.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+					return null;
+				}
+			}
+		}
+
+		// A HEAD request only needs the headers, so list requests need only
+		// be counted.
+		if(
+			RequestMethod.HEAD.toString().equals(httpRequest.getMethod()) &&
+			(request instanceof ListRequest)) {
+
+			((ListRequest<?>) request).setCountOnly(true);
+		}
+
 		// Service the request.
 		request.service();
 
@@ -1658,6 +2588,330 @@ public class Version1 {
 		}
 	}
 
+	/**
+	 * Parses a Range header with a single byte range, e.g. "bytes=0-99",
+	 * "bytes=100-", or "bytes=-100".
+	 *
+	 * @param range
+	 *        The value of the Range header, which may be null.
+	 *
+	 * @param length
+	 *        The length of the file in bytes.
+	 *
+	 * @return The first and last byte of the range, inclusive; an array whose
+	 *         first byte is not less than the length if the range cannot be
+	 *         satisfied; or null if the whole file should be returned because
+	 *         there was no range, it could not be parsed, or it had more than
+	 *         one range.
+	 */
+	private static long[] parseRange(final String range, final long length) {
+		if((range == null) || (! range.startsWith("bytes="))) {
+			return null;
+		}
+
+		String spec = range.substring("bytes=".length()).trim();
+		int dash = spec.indexOf('-');
+		if((dash < 0) || (spec.indexOf(',') >= 0)) {
+			return null;
+		}
+
+		try {
+			String first = spec.substring(0, dash).trim();
+			String last = spec.substring(dash + 1).trim();
+
+			// A suffix range, i.e. the last N bytes.
+			if(first.isEmpty()) {
+				long suffix = Long.parseLong(last);
+				if(suffix <= 0) {
+					return new long[] { length, length };
+				}
+				return new long[] { Math.max(0, length - suffix), length - 1 };
+			}
+
+			long start = Long.parseLong(first);
+			if(start >= length) {
+				return new long[] { length, length };
+			}
+			long end =
+				last.isEmpty() ?
+					length - 1 :
+					Math.min(Long.parseLong(last), length - 1);
+			if(end < start) {
+				return null;
+			}
+			return new long[] { start, end };
+		}
+		catch(NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Wraps {@link #handleRequest(HttpServletRequest, HttpServletResponse,
+	 * Request)} so that it runs on the data executor instead of the
+	 * container's thread. This keeps requests that wait on the database or a
+	 * shim from exhausting the container's threads. If the request takes
+	 * longer than the asynchronous timeout, the client receives a 503.
+	 *
+	 * @param httpRequest
+	 *        The HTTP request.
+	 *
+	 * @param httpResponse
+	 *        The HTTP response.
+	 *
+	 * @param request
+	 *        The already-built, domain-specific request to be serviced.
+	 *
+	 * @return The task that services the request and returns the object to
+	 *         be returned to the user.
+	 *
+	 * @see #PROPERTY_KEY_ASYNC_TIMEOUT
+	 */
+	private <T> WebAsyncTask<T> handleRequestAsync(
+		final HttpServletRequest httpRequest,
+		final HttpServletResponse httpResponse,
+		final Request<? extends T> request) {
+
+		return
+			handleRequestAsync(
+				httpRequest,
+				httpResponse,
+				request,
+				Long
+					.getLong(
+						PROPERTY_KEY_ASYNC_TIMEOUT,
+						DEFAULT_ASYNC_TIMEOUT));
+	}
+
+	/**
+	 * Wraps {@link #handleRequest(HttpServletRequest, HttpServletResponse,
+	 * Request)} so that it runs on the data executor with a specific timeout.
+	 * The request's headers are collected as it is serviced and only applied
+	 * to the HTTP response if it has not timed out, because, once it has, the
+	 * container owns the response again.
+	 *
+	 * @param httpRequest
+	 *        The HTTP request.
+	 *
+	 * @param httpResponse
+	 *        The HTTP response.
+	 *
+	 * @param request
+	 *        The already-built, domain-specific request to be serviced.
+	 *
+	 * @param timeout
+	 *        The number of milliseconds that the request may take or
+	 *        {@link #NO_ASYNC_TIMEOUT} if it may take as long as it needs.
+	 *
+	 * @return The task that services the request and returns the object to
+	 *         be returned to the user.
+	 */
+	private <T> WebAsyncTask<T> handleRequestAsync(
+		final HttpServletRequest httpRequest,
+		final HttpServletResponse httpResponse,
+		final Request<? extends T> request,
+		final long timeout) {
+
+		return
+			handleRequestAsync(
+				httpRequest,
+				httpResponse,
+				request,
+				timeout,
+				null);
+	}
+
+	/**
+	 * Wraps {@link #handleRequest(HttpServletRequest, HttpServletResponse,
+	 * Request)} so that it runs on a specific executor with a specific
+	 * timeout.
+	 *
+	 * @param httpRequest
+	 *        The HTTP request.
+	 *
+	 * @param httpResponse
+	 *        The HTTP response.
+	 *
+	 * @param request
+	 *        The already-built, domain-specific request to be serviced.
+	 *
+	 * @param timeout
+	 *        The number of milliseconds that the request may take or
+	 *        {@link #NO_ASYNC_TIMEOUT} if it may take as long as it needs.
+	 *
+	 * @param executorName
+	 *        The name of the executor's bean or null to use the data
+	 *        executor.
+	 *
+	 * @return The task that services the request and returns the object to
+	 *         be returned to the user.
+	 *
+	 * @see #handleRequestAsync(HttpServletRequest, HttpServletResponse,
+	 *      Request, long)
+	 */
+	private <T> WebAsyncTask<T> handleRequestAsync(
+		final HttpServletRequest httpRequest,
+		final HttpServletResponse httpResponse,
+		final Request<? extends T> request,
+		final long timeout,
+		final String executorName) {
+
+		// Whether or not the request has timed out. It is also the lock that
+		// keeps the headers from being applied once it has.
+		final AtomicBoolean timedOut = new AtomicBoolean(false);
+
+		Callable<T> callable =
+			new Callable<T>() {
+				/**
+				 * Services the request then applies its headers, unless it
+				 * has already timed out.
+				 */
+				@Override
+				public T call() {
+					DeferredHeaderResponse deferredResponse =
+						new DeferredHeaderResponse(httpResponse);
+					T result =
+						handleRequest(
+							httpRequest,
+							deferredResponse,
+							request);
+
+					synchronized(timedOut) {
+						if(timedOut.get()) {
+							return null;
+						}
+						deferredResponse.apply();
+					}
+					return result;
+				}
+			};
+		WebAsyncTask<T> task =
+			(executorName == null) ?
+				new WebAsyncTask<T>(timeout, callable) :
+				new WebAsyncTask<T>(timeout, executorName, callable);
+		task
+			.onTimeout(
+				new Callable<T>() {
+					/**
+					 * Marks the request as timed out and responds that the
+					 * server is busy.
+					 */
+					@Override
+					public T call() {
+						synchronized(timedOut) {
+							timedOut.set(true);
+						}
+						throw
+							new ServerBusyException(
+								"The request took too long to service.");
+					}
+				});
+		return task;
+	}
+
+	/**
+	 * Builds a strong entity tag from a request's validator.
+	 *
+	 * @param validator
+	 *        The request's validator.
+	 *
+	 * @return The entity tag, including its quotes.
+	 */
+	private static String buildETag(final String validator) {
+		try {
+			return
+				'"' +
+				DatatypeConverter
+					.printHexBinary(
+						MessageDigest
+							.getInstance(ETAG_DIGEST)
+							.digest(validator.getBytes(URL_ENCODING_UTF_8)))
+					.toLowerCase() +
+				'"';
+		}
+		catch(NoSuchAlgorithmException e) {
+			throw new IllegalStateException("The digest is unknown.", e);
+		}
+		catch(UnsupportedEncodingException e) {
+			throw new IllegalStateException("The encoding is unknown.", e);
+		}
+	}
+
+	/**
+	 * Returns the media type with which a response will be written, based on
+	 * the request's Accept header. This mirrors the order of the message
+	 * converters, so JSON is chosen unless BSON is preferred.
+	 *
+	 * @param httpRequest
+	 *        The HTTP request.
+	 *
+	 * @return Either JSON's or BSON's media type.
+	 */
+	private static String getRepresentation(
+		final HttpServletRequest httpRequest) {
+
+		String accept = httpRequest.getHeader(HEADER_ACCEPT);
+		if(accept == null) {
+			return MediaType.APPLICATION_JSON_VALUE;
+		}
+
+		List<MediaType> acceptedTypes;
+		try {
+			acceptedTypes = MediaType.parseMediaTypes(accept);
+		}
+		catch(IllegalArgumentException e) {
+			return MediaType.APPLICATION_JSON_VALUE;
+		}
+		MediaType.sortBySpecificityAndQuality(acceptedTypes);
+
+		MediaType bson = MediaType.parseMediaType(OmhBsonFactory.MEDIA_TYPE);
+		for(MediaType acceptedType : acceptedTypes) {
+			if(acceptedType.getQualityValue() == 0) {
+				continue;
+			}
+			if(acceptedType.includes(MediaType.APPLICATION_JSON)) {
+				return MediaType.APPLICATION_JSON_VALUE;
+			}
+			if(acceptedType.includes(bson)) {
+				return OmhBsonFactory.MEDIA_TYPE;
+			}
+		}
+
+		return MediaType.APPLICATION_JSON_VALUE;
+	}
+
+	/**
+	 * Returns whether or not an If-None-Match header matches an entity tag.
+	 *
+	 * @param ifNoneMatch
+	 *        The header's value or null if it was not given.
+	 *
+	 * @param eTag
+	 *        The entity tag of the current data.
+	 *
+	 * @return True if the header matches the entity tag; false, otherwise.
+	 */
+	private static boolean eTagMatches(
+		final String ifNoneMatch,
+		final String eTag) {
+
+		if(ifNoneMatch == null) {
+			return false;
+		}
+
+		// The comparison is weak, so a weak tag matches its strong tag.
+		for(String candidate : ifNoneMatch.split(",")) {
+			candidate = candidate.trim();
+			if(candidate.startsWith("W/")) {
+				candidate = candidate.substring(2);
+			}
+			if("*".equals(candidate) || eTag.equals(candidate)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	/**
 	 * <p>
 	 * Builds the URL used to make this request based on the request.
@@ -1708,85 +2962,18 @@ public class Version1 {
 		Map<String, String> parameters =
 			listRequest.getPreviousNextParameters();
 
-		// If we skipped any data, create a Previous header.
-		if(listRequest.getNumToSkip() > 0) {
-			// Build the base URL.
-			StringBuilder previousBuilder =
-				new StringBuilder(buildRequestUrl(httpRequest));
-
-			// Add the query separator.
-			previousBuilder.append('?');
-
-			// Use a try-catch in case our encoding, which is the same for
-			// each parameter, is unknown.
+		// If there is a previous page, create a Previous header.
+		Map<String, String> previousPagingParameters =
+			listRequest.getPreviousPagingParameters();
+		if(previousPagingParameters != null) {
 			try {
-				// Add each of the custom parameters.
-				boolean firstPass = true;
-				for(String parameterKey : parameters.keySet()) {
-					// Add the parameter separator.
-					if(firstPass) {
-						firstPass = false;
-					}
-					else {
-						previousBuilder.append('&');
-					}
-
-					// Add the parameter.
-					previousBuilder
-						.append(
-							URLEncoder
-								.encode(parameterKey, URL_ENCODING_UTF_8))
-						.append('=')
-						.append(
-							URLEncoder
-								.encode(
-									parameters.get(parameterKey),
-									URL_ENCODING_UTF_8));
-				}
-
-				// Add the paging parameters.
-				if(parameters.size() > 0) {
-					previousBuilder.append('&');
-				}
-
-				// Calculate the previous number to skip.
-				long previousNumToSkip =
-					listRequest.getNumToSkip() -
-						listRequest.getNumToReturn();
-				// If the previous number to skip is greater than zero, add
-				// the number to skip.
-				if(previousNumToSkip > 0) {
-					previousBuilder
-						.append(
-							URLEncoder
-								.encode(
-									PARAM_PAGING_NUM_TO_SKIP,
-									URL_ENCODING_UTF_8))
-						.append('=')
-						.append(
-							URLEncoder
-							.encode(
-								Long.toString(previousNumToSkip),
-								URL_ENCODING_UTF_8));
-					previousBuilder.append('&');
-				}
-
-				// Always add the number to return.
-				previousBuilder
-					.append(
-						URLEncoder
-							.encode(
-								PARAM_PAGING_NUM_TO_RETURN,
-								URL_ENCODING_UTF_8))
-					.append('=')
-					.append(
-						URLEncoder
-						.encode(
-							Long.toString(
-								Math.min(
-									listRequest.getNumToSkip(),
-									listRequest.getNumToReturn())),
-							URL_ENCODING_UTF_8));
+				httpResponse
+					.setHeader(
+						HEADER_PREVIOUS,
+						buildPagingUrl(
+							httpRequest,
+							parameters,
+							previousPagingParameters));
 			}
 			catch(UnsupportedEncodingException e) {
 				LOGGER
@@ -1796,91 +2983,20 @@ public class Version1 {
 							HEADER_PREVIOUS +
 							" header could not be built.");
 			}
-
-			// Add the previous header.
-			httpResponse
-				.setHeader(HEADER_PREVIOUS, previousBuilder.toString());
 		}
 
-		// If the total data-set size is greater than the number of points
-		// skipped plus the number of points requested, then there must be more
-		// data, and a Next header should be added.
-		if(listRequest.getData().count() >
-			(listRequest.getNumToSkip() + listRequest.getNumToReturn())) {
-
-			// Build the base URL.
-			StringBuilder nextBuilder =
-				new StringBuilder(buildRequestUrl(httpRequest));
-
-			// Add the query separator.
-			nextBuilder.append('?');
-
-			// Use a try-catch in case our encoding, which is the same for
-			// each parameter, is unknown.
+		// If there is a next page, create a Next header.
+		Map<String, String> nextPagingParameters =
+			listRequest.getNextPagingParameters();
+		if(nextPagingParameters != null) {
 			try {
-				// Add each of the custom parameters.
-				boolean firstPass = true;
-				for(String parameterKey : parameters.keySet()) {
-					// Add the parameter separator.
-					if(firstPass) {
-						firstPass = false;
-					}
-					else {
-						nextBuilder.append('&');
-					}
-
-					// Add the parameter.
-					nextBuilder
-						.append(
-							URLEncoder
-								.encode(parameterKey, URL_ENCODING_UTF_8))
-						.append('=')
-						.append(
-							URLEncoder
-								.encode(
-									parameters.get(parameterKey),
-									URL_ENCODING_UTF_8));
-				}
-
-				// Add the paging parameters.
-				if(parameters.size() > 0) {
-					nextBuilder.append('&');
-				}
-
-				// Calculate the previous number to skip.
-				long nextNumToSkip =
-					listRequest.getNumToSkip() +
-						listRequest.getNumToReturn();
-				// Always add the number to skip.
-				nextBuilder
-					.append(
-						URLEncoder
-							.encode(
-								PARAM_PAGING_NUM_TO_SKIP,
-								URL_ENCODING_UTF_8))
-					.append('=')
-					.append(
-						URLEncoder
-						.encode(
-							Long.toString(nextNumToSkip),
-							URL_ENCODING_UTF_8));
-
-				// Add the parameter separator.
-				nextBuilder.append('&');
-
-				// Always add the number to return.
-				nextBuilder
-					.append(
-						URLEncoder
-							.encode(
-								PARAM_PAGING_NUM_TO_RETURN,
-								URL_ENCODING_UTF_8))
-					.append('=')
-					.append(
-						URLEncoder
-						.encode(
-							Long.toString(listRequest.getNumToReturn()),
-							URL_ENCODING_UTF_8));
+				httpResponse
+					.setHeader(
+						HEADER_NEXT,
+						buildPagingUrl(
+							httpRequest,
+							parameters,
+							nextPagingParameters));
 			}
 			catch(UnsupportedEncodingException e) {
 				LOGGER
@@ -1890,10 +3006,68 @@ public class Version1 {
 							HEADER_NEXT +
 							" header could not be built.");
 			}
+		}
+	}
+
+	/**
+	 * Builds a Previous or Next URL from the request's URL, its custom
+	 * parameters, and the paging parameters for that page.
+	 *
+	 * @param httpRequest
+	 *        The HTTP request.
+	 *
+	 * @param parameters
+	 *        The request's custom parameters.
+	 *
+	 * @param pagingParameters
+	 *        The paging parameters for the page.
+	 *
+	 * @return The URL.
+	 *
+	 * @throws UnsupportedEncodingException
+	 *         The encoding is unknown.
+	 */
+	private String buildPagingUrl(
+		final HttpServletRequest httpRequest,
+		final Map<String, String> parameters,
+		final Map<String, String> pagingParameters)
+		throws UnsupportedEncodingException {
+
+		// Build the base URL.
+		StringBuilder builder =
+			new StringBuilder(buildRequestUrl(httpRequest));
+
+		// Add the query separator.
+		builder.append('?');
+
+		// Combine the custom parameters with the paging parameters, which
+		// come last.
+		Map<String, String> allParameters =
+			new LinkedHashMap<String, String>(parameters);
+		allParameters.putAll(pagingParameters);
+
+		// Add each of the parameters.
+		boolean firstPass = true;
+		for(String parameterKey : allParameters.keySet()) {
+			// Add the parameter separator.
+			if(firstPass) {
+				firstPass = false;
+			}
+			else {
+				builder.append('&');
+			}
 
-			// Add the previous header.
-			httpResponse
-				.setHeader(HEADER_NEXT, nextBuilder.toString());
+			// Add the parameter.
+			builder
+				.append(URLEncoder.encode(parameterKey, URL_ENCODING_UTF_8))
+				.append('=')
+				.append(
+					URLEncoder
+						.encode(
+							allParameters.get(parameterKey),
+							URL_ENCODING_UTF_8));
 		}
+
+		return builder.toString();
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,213 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.util;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
+
+import org.openmhealth.reference.exception.OmhException;
+
+/**
+ * <p>
+ * Reads the lines of a stream, refusing to hold more than some number of
+ * characters of any one line.
+ * </p>
+ *
+ * <p>
+ * A line may be read with a deadline, in which case only what has already
+ * arrived is read, so a client that sends part of a line and then stalls
+ * cannot hold the reader past the deadline. The part of the line that was
+ * read is kept until the rest of it arrives.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class LineReader implements Closeable {
+	/**
+	 * The number of milliseconds between checks for more of the stream while
+	 * waiting for a line with a deadline.
+	 */
+	private static final long POLL_INTERVAL = 10;
+
+	/**
+	 * The reader for the stream.
+	 */
+	private final BufferedReader reader;
+	/**
+	 * The maximum number of characters in a line.
+	 */
+	private final int maxLength;
+	/**
+	 * The part of the next line that has been read.
+	 */
+	private final StringBuilder partial = new StringBuilder();
+	/**
+	 * Whether or not the end of the stream has been read.
+	 */
+	private boolean ended = false;
+
+	/**
+	 * Creates a reader for the lines of a stream.
+	 *
+	 * @param input
+	 *        The stream.
+	 *
+	 * @param charset
+	 *        The character set of the stream.
+	 *
+	 * @param maxLength
+	 *        The maximum number of characters in a line.
+	 *
+	 * @throws OmhException
+	 *         The stream or character set is null, or the maximum length is
+	 *         not positive.
+	 */
+	public LineReader(
+		final InputStream input,
+		final Charset charset,
+		final int maxLength)
+		throws OmhException {
+
+		if(input == null) {
+			throw new OmhException("The stream is null.");
+		}
+		if(charset == null) {
+			throw new OmhException("The character set is null.");
+		}
+		if(maxLength <= 0) {
+			throw
+				new OmhException(
+					"The maximum length of a line must be positive.");
+		}
+
+		reader = new BufferedReader(new InputStreamReader(input, charset));
+		this.maxLength = maxLength;
+	}
+
+	/**
+	 * Reads the next line, without its line terminator, waiting for as long
+	 * as it takes to arrive.
+	 *
+	 * @return The line or null if the stream has ended.
+	 *
+	 * @throws IOException
+	 *         The stream could not be read.
+	 *
+	 * @throws OmhException
+	 *         The line is longer than the maximum.
+	 */
+	public String readLine() throws IOException, OmhException {
+		return readLine(0);
+	}
+
+	/**
+	 * Reads the next line, without its line terminator, only waiting for it
+	 * until a deadline.
+	 *
+	 * @param deadline
+	 *        The time, in milliseconds since the epoch, after which to stop
+	 *        waiting for the line, or 0 to wait for as long as it takes.
+	 *
+	 * @return The line or null if the deadline passed before the whole line
+	 *         arrived or if the stream has ended, which is given by
+	 *         {@link #isEnded()}.
+	 *
+	 * @throws IOException
+	 *         The stream could not be read or the wait was interrupted.
+	 *
+	 * @throws OmhException
+	 *         The line is longer than the maximum.
+	 */
+	public String readLine(final long deadline)
+		throws IOException, OmhException {
+
+		if(ended) {
+			return null;
+		}
+
+		while(true) {
+			// With a deadline, only read what has already arrived.
+			if((deadline > 0) && (! reader.ready())) {
+				long remaining = deadline - System.currentTimeMillis();
+				if(remaining <= 0) {
+					return null;
+				}
+
+				try {
+					Thread.sleep(Math.min(remaining, POLL_INTERVAL));
+				}
+				catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw
+						new InterruptedIOException("The wait was interrupted.");
+				}
+				continue;
+			}
+
+			int c = reader.read();
+			if(c == -1) {
+				ended = true;
+				if(partial.length() == 0) {
+					return null;
+				}
+				break;
+			}
+			if(c == '\n') {
+				break;
+			}
+			if(partial.length() == maxLength) {
+				throw
+					new OmhException(
+						"A line of the data is longer than " +
+							maxLength +
+							" characters.");
+			}
+			partial.append((char) c);
+		}
+
+		// Drop the carriage return of a "\r\n" terminator.
+		int length = partial.length();
+		if((length > 0) && (partial.charAt(length - 1) == '\r')) {
+			partial.setLength(length - 1);
+		}
+		String line = partial.toString();
+		partial.setLength(0);
+		return line;
+	}
+
+	/**
+	 * Returns whether or not the end of the stream has been read.
+	 *
+	 * @return Whether or not the end of the stream has been read.
+	 */
+	public boolean isEnded() {
+		return ended;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+}
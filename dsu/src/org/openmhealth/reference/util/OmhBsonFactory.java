@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+
+import de.undercouch.bson4jackson.BsonFactory;
+
+/**
+ * <p>
+ * A {@link BsonFactory} that also reads and writes BSON through the newer
+ * Jackson factory methods, e.g. {@link #createGenerator(OutputStream)}, which
+ * is how an ObjectMapper creates its parsers and generators. Without them,
+ * this version of bson4jackson would silently fall back to JSON.
+ * </p>
+ *
+ * <p>
+ * BSON documents are always objects, so an array at the root, e.g. a list of
+ * data, is written as an object whose keys are the array's indices.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class OmhBsonFactory extends BsonFactory {
+	/**
+	 * The media type for BSON.
+	 */
+	public static final String MEDIA_TYPE = "application/bson";
+
+	/**
+	 * A default version UID to use when serializing an instance of this
+	 * class.
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.fasterxml.jackson.core.JsonFactory#createGenerator(java.io.OutputStream, com.fasterxml.jackson.core.JsonEncoding)
+	 */
+	@Override
+	public JsonGenerator createGenerator(
+		final OutputStream out,
+		final JsonEncoding encoding)
+		throws IOException {
+
+		return createJsonGenerator(out, encoding);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.fasterxml.jackson.core.JsonFactory#createGenerator(java.io.OutputStream)
+	 */
+	@Override
+	public JsonGenerator createGenerator(
+		final OutputStream out)
+		throws IOException {
+
+		return createJsonGenerator(out);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.fasterxml.jackson.core.JsonFactory#createParser(java.io.InputStream)
+	 */
+	@Override
+	public JsonParser createParser(final InputStream in) throws IOException {
+		return createJsonParser(in);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.fasterxml.jackson.core.JsonFactory#createParser(byte[])
+	 */
+	@Override
+	public JsonParser createParser(final byte[] data) throws IOException {
+		return createJsonParser(new ByteArrayInputStream(data));
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * @see com.fasterxml.jackson.core.JsonFactory#createParser(byte[], int, int)
+	 */
+	@Override
+	public JsonParser createParser(
+		final byte[] data,
+		final int offset,
+		final int length)
+		throws IOException {
+
+		return
+			createJsonParser(new ByteArrayInputStream(data, offset, length));
+	}
+}
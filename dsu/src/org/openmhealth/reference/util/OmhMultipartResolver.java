@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.util;
+
+import java.util.List;
+
+import org.apache.commons.fileupload.FileItem;
+import org.openmhealth.reference.exception.OmhException;
+import org.springframework.web.multipart.commons.CommonsMultipartResolver;
+
+/**
+ * <p>
+ * A {@link CommonsMultipartResolver} that limits the size of the parts that
+ * are not files, e.g. a "data" parameter. Those parts are turned into
+ * strings in memory, so, while a file may be as large as the maximum upload,
+ * any other part must be far smaller.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class OmhMultipartResolver extends CommonsMultipartResolver {
+	/**
+	 * The default maximum size of a part that is not a file, in bytes.
+	 */
+	public static final long DEFAULT_MAX_FIELD_SIZE = 1024 * 1024;
+
+	/**
+	 * The maximum size of a part that is not a file, in bytes.
+	 */
+	private long maxFieldSize = DEFAULT_MAX_FIELD_SIZE;
+
+	/**
+	 * Sets the maximum size of a part that is not a file.
+	 *
+	 * @param maxFieldSize
+	 *        The maximum size in bytes.
+	 */
+	public void setMaxFieldSize(final long maxFieldSize) {
+		this.maxFieldSize = maxFieldSize;
+	}
+
+	/**
+	 * Rejects the request if a part that is not a file is too large, before
+	 * it is read into memory.
+	 *
+	 * @throws OmhException
+	 *         A part that is not a file is too large.
+	 */
+	@Override
+	protected MultipartParsingResult parseFileItems(
+		final List<FileItem> fileItems,
+		final String encoding)
+		throws OmhException {
+
+		for(FileItem fileItem : fileItems) {
+			if(fileItem.isFormField() && (fileItem.getSize() > maxFieldSize)) {
+				// Parts that are written to disk must be deleted.
+				for(FileItem item : fileItems) {
+					item.delete();
+				}
+
+				throw
+					new OmhException(
+						"The '" +
+							fileItem.getFieldName() +
+							"' parameter is larger than " +
+							maxFieldSize +
+							" bytes. Large data must be uploaded as a file.");
+			}
+		}
+
+		return super.parseFileItems(fileItems, encoding);
+	}
+}
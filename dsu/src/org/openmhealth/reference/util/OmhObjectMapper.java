@@ -15,6 +15,7 @@ import org.openmhealth.reference.concordia.OmhValidationController;
 
 import com.fasterxml.jackson.annotation.JsonFilter;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.databind.InjectableValues;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ser.BeanPropertyFilter;
@@ -100,6 +101,28 @@ public class OmhObjectMapper extends ObjectMapper {
 	 * as it should only ever be called by Spring via reflection.
 	 */
 	private OmhObjectMapper() {
+		init();
+	}
+	
+	/**
+	 * Creates the object mapper with a specific factory, e.g. one that reads
+	 * and writes a binary format, and initializes the filters. This is
+	 * private as it should only ever be called by Spring via reflection.
+	 * 
+	 * @param factory
+	 *        The factory that creates this mapper's parsers and generators.
+	 */
+	private OmhObjectMapper(final JsonFactory factory) {
+		super(factory);
+		
+		init();
+	}
+	
+	/**
+	 * Initializes the filters and injectable values that every instance of
+	 * this mapper shares.
+	 */
+	private void init() {
 		// Ensure that unknown fields are ignored.
 		FILTER_PROVIDER.setFailOnUnknownId(false);
 		
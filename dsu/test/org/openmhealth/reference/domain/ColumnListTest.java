@@ -15,13 +15,22 @@
  ******************************************************************************/
 package org.openmhealth.reference.domain;
 
+import java.io.IOException;
+import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
 import org.junit.Assert;
 import org.junit.Test;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 /**
  * <p>
  * Tests everything about the {@link ColumnList} class.
@@ -47,6 +56,16 @@ public class ColumnListTest {
 	 */
 	public static final String ELEMENT_A_CHILD_B = "a.b";
 	
+	/**
+	 * The data to use when testing projections.
+	 */
+	public static final String PROJECTION_DATA =
+		"{" +
+			"\"a\":{\"a\":1,\"b\":[2,{\"c\":3}],\"c\":{\"d\":4}}," +
+			"\"b\":[{\"a\":5,\"b\":6},{\"b\":7},8]," +
+			"\"c\":\"nine\"" +
+		"}";
+	
 	/**
 	 * Tests that passing null to the constructor doesn't throw an exception.
 	 */
@@ -216,4 +235,75 @@ public class ColumnListTest {
 		element.removeAll(result);
 		Assert.assertEquals(0, element.size());
 	}
-}
\ No newline at end of file
+	
+	/**
+	 * Tests that projecting a column list keeps only the desired fields.
+	 * 
+	 * @throws IOException
+	 *         The projection failed.
+	 */
+	@Test
+	public void testProject() throws IOException {
+		Assert.assertEquals(
+			new ObjectMapper()
+				.readTree(
+					"{" +
+						"\"a\":{\"a\":1,\"b\":[2,{\"c\":3}]}," +
+						"\"c\":\"nine\"" +
+					"}"),
+			project(ELEMENT_A_CHILD_A, ELEMENT_A_CHILD_B, "c"));
+	}
+	
+	/**
+	 * Tests that projecting a column list applies it to each element of an
+	 * array.
+	 * 
+	 * @throws IOException
+	 *         The projection failed.
+	 */
+	@Test
+	public void testProjectArray() throws IOException {
+		Assert.assertEquals(
+			new ObjectMapper().readTree("{\"b\":[{\"a\":5},{},8]}"),
+			project("b.a"));
+	}
+	
+	/**
+	 * Tests that unknown fields in a column list are ignored.
+	 * 
+	 * @throws IOException
+	 *         The projection failed.
+	 */
+	@Test
+	public void testProjectUnknown() throws IOException {
+		Assert.assertEquals(
+			new ObjectMapper().readTree("{\"a\":{}}"),
+			project("unknown", "a.unknown.unknown"));
+	}
+	
+	/**
+	 * Projects the {@link #PROJECTION_DATA} with a column list.
+	 * 
+	 * @param columns
+	 *        The columns.
+	 * 
+	 * @return The projected data.
+	 * 
+	 * @throws IOException
+	 *         The projection failed.
+	 */
+	private static JsonNode project(
+		final String... columns)
+		throws IOException {
+		
+		JsonFactory factory = new JsonFactory();
+		StringWriter writer = new StringWriter();
+		JsonParser parser = factory.createParser(PROJECTION_DATA);
+		JsonGenerator generator = factory.createGenerator(writer);
+		new ColumnList(Arrays.asList(columns)).project(parser, generator);
+		generator.close();
+		parser.close();
+		
+		return new ObjectMapper().readTree(writer.toString());
+	}
+}
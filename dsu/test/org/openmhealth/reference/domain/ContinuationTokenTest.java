@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.domain;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmhealth.reference.exception.OmhException;
+
+/**
+ * <p>
+ * Tests everything about the {@link ContinuationToken} class.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class ContinuationTokenTest {
+	/**
+	 * A timestamp to use when testing, which has a non-default offset.
+	 */
+	public static final DateTime TIMESTAMP_TEST =
+		new DateTime(0, DateTimeZone.forOffsetHours(-7));
+	/**
+	 * A database ID to use when testing.
+	 */
+	public static final String DATABASE_ID_TEST = "5213a8d9e4b0d1f0c4a1b2c3";
+
+	/**
+	 * Test that a {@link ContinuationToken} object can be built.
+	 */
+	@Test
+	public void testContinuationToken() {
+		new ContinuationToken(true, TIMESTAMP_TEST, DATABASE_ID_TEST);
+	}
+
+	/**
+	 * Test that the timestamp can be null.
+	 */
+	@Test
+	public void testContinuationTokenTimestampNull() {
+		new ContinuationToken(true, null, DATABASE_ID_TEST);
+	}
+
+	/**
+	 * Test that the database ID cannot be null.
+	 */
+	@Test(expected = OmhException.class)
+	public void testContinuationTokenDatabaseIdNull() {
+		new ContinuationToken(true, TIMESTAMP_TEST, null);
+	}
+
+	/**
+	 * Test that a forward token survives encoding and decoding.
+	 */
+	@Test
+	public void testEncodeDecodeForward() {
+		ContinuationToken token =
+			ContinuationToken
+				.decode(
+					(new ContinuationToken(
+						true,
+						TIMESTAMP_TEST,
+						DATABASE_ID_TEST))
+						.encode());
+
+		Assert.assertTrue(token.isForward());
+		Assert.assertEquals(TIMESTAMP_TEST, token.getTimestamp());
+		Assert.assertEquals(
+			TIMESTAMP_TEST.toString(),
+			token.getTimestamp().toString());
+		Assert.assertEquals(DATABASE_ID_TEST, token.getDatabaseId());
+	}
+
+	/**
+	 * Test that a backward token without a timestamp survives encoding and
+	 * decoding.
+	 */
+	@Test
+	public void testEncodeDecodeBackwardTimestampNull() {
+		ContinuationToken token =
+			ContinuationToken
+				.decode(
+					(new ContinuationToken(false, null, "12345")).encode());
+
+		Assert.assertFalse(token.isForward());
+		Assert.assertNull(token.getTimestamp());
+		Assert.assertEquals("12345", token.getDatabaseId());
+	}
+
+	/**
+	 * Test that the encoded token only contains URL-safe characters.
+	 */
+	@Test
+	public void testEncodeUrlSafe() {
+		String encoded =
+			(new ContinuationToken(true, TIMESTAMP_TEST, DATABASE_ID_TEST))
+				.encode();
+
+		Assert.assertTrue(encoded.matches("[A-Za-z0-9_-]+"));
+	}
+
+	/**
+	 * Test that decoding a null token fails.
+	 */
+	@Test(expected = OmhException.class)
+	public void testDecodeNull() {
+		ContinuationToken.decode(null);
+	}
+
+	/**
+	 * Test that decoding a token that is not Base64 fails.
+	 */
+	@Test(expected = OmhException.class)
+	public void testDecodeInvalid() {
+		ContinuationToken.decode("not a token");
+	}
+
+	/**
+	 * Test that decoding a token with an unknown direction fails.
+	 */
+	@Test(expected = OmhException.class)
+	public void testDecodeInvalidDirection() {
+		ContinuationToken.decode("eAoKMTIzNDU");
+	}
+}
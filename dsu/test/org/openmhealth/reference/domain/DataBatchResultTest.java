@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.domain;
+
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmhealth.reference.exception.OmhException;
+
+/**
+ * <p>
+ * Tests everything about the {@link DataBatchResult} class.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class DataBatchResultTest {
+	/**
+	 * A schema ID to use when testing.
+	 */
+	public static final String SCHEMA_ID = "omh:test";
+	/**
+	 * A schema version to use when testing.
+	 */
+	public static final long VERSION = 1;
+	/**
+	 * An empty page of data to use when testing.
+	 */
+	public static final MultiValueResult<Data> DATA =
+		(new MultiValueResultAggregator<Data>(
+			Collections.<Data>emptyList()))
+			.build();
+
+	/**
+	 * Test that the result of a successful query can be built.
+	 */
+	@Test
+	public void testDataBatchResultData() {
+		DataBatchResult result =
+			new DataBatchResult(SCHEMA_ID, VERSION, DATA, 0, null);
+
+		Assert.assertEquals(SCHEMA_ID, result.getSchemaId());
+		Assert.assertEquals(VERSION, result.getVersion());
+		Assert.assertEquals(DATA, result.getData());
+		Assert.assertEquals(Integer.valueOf(0), result.getCount());
+		Assert.assertNull(result.getError());
+	}
+
+	/**
+	 * Test that the data of a successful query cannot be null.
+	 */
+	@Test(expected = OmhException.class)
+	public void testDataBatchResultDataNull() {
+		new DataBatchResult(SCHEMA_ID, VERSION, null, 0, null);
+	}
+
+	/**
+	 * Test that the result of a failed query can be built.
+	 */
+	@Test
+	public void testDataBatchResultError() {
+		DataBatchResult result =
+			new DataBatchResult(SCHEMA_ID, VERSION, "error");
+
+		Assert.assertEquals("error", result.getError());
+		Assert.assertNull(result.getData());
+		Assert.assertNull(result.getCount());
+	}
+
+	/**
+	 * Test that the schema ID cannot be null.
+	 */
+	@Test(expected = OmhException.class)
+	public void testDataBatchResultSchemaIdNull() {
+		new DataBatchResult(null, VERSION, "error");
+	}
+}
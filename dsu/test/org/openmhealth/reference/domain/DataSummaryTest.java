@@ -0,0 +1,130 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.domain;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmhealth.reference.exception.OmhException;
+
+/**
+ * <p>
+ * Tests everything about the {@link DataSummary} class.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class DataSummaryTest {
+	/**
+	 * A timestamp to use when testing, which is Thursday, 2013-08-15 at
+	 * 01:30 in a zone that is seven hours behind UTC, i.e. 08:30 UTC.
+	 */
+	public static final DateTime TIMESTAMP =
+		new DateTime(2013, 8, 15, 1, 30, DateTimeZone.forOffsetHours(-7));
+	/**
+	 * The start of an interval to use when testing.
+	 */
+	public static final DateTime START =
+		new DateTime(2013, 8, 15, 0, 0, DateTimeZone.UTC);
+
+	/**
+	 * Test that a {@link DataSummary} object can be built.
+	 */
+	@Test
+	public void testDataSummary() {
+		new DataSummary(START, 1, 0, 0, 0);
+	}
+
+	/**
+	 * Test that the start cannot be null.
+	 */
+	@Test(expected = OmhException.class)
+	public void testDataSummaryStartNull() {
+		new DataSummary(null, 1, 0, 0, 0);
+	}
+
+	/**
+	 * Test that a summary must have at least one value.
+	 */
+	@Test(expected = OmhException.class)
+	public void testDataSummaryCountZero() {
+		new DataSummary(START, 0, 0, 0, 0);
+	}
+
+	/**
+	 * Test that the builder aggregates its values.
+	 */
+	@Test
+	public void testBuilder() {
+		DataSummary.Builder builder = new DataSummary.Builder(START);
+		builder.add(4);
+		builder.add(-2);
+		builder.add(7);
+		DataSummary summary = builder.build();
+
+		Assert.assertEquals(START, summary.getStart());
+		Assert.assertEquals(3, summary.getCount());
+		Assert.assertEquals(-2, summary.getMin(), 0);
+		Assert.assertEquals(7, summary.getMax(), 0);
+		Assert.assertEquals(9, summary.getSum(), 0);
+		Assert.assertEquals(3, summary.getAverage(), 0);
+	}
+
+	/**
+	 * Test that a builder without any values cannot build a summary.
+	 */
+	@Test(expected = OmhException.class)
+	public void testBuilderEmpty() {
+		new DataSummary.Builder(START).build();
+	}
+
+	/**
+	 * Test that the intervals are decoded from their parameter values.
+	 */
+	@Test
+	public void testIntervalDecode() {
+		for(DataSummary.Interval interval : DataSummary.Interval.values()) {
+			Assert.assertEquals(
+				interval,
+				DataSummary.Interval.decode(interval.toString()));
+		}
+	}
+
+	/**
+	 * Test that an unknown interval is rejected.
+	 */
+	@Test(expected = OmhException.class)
+	public void testIntervalDecodeUnknown() {
+		DataSummary.Interval.decode("month");
+	}
+
+	/**
+	 * Test that intervals start in UTC.
+	 */
+	@Test
+	public void testIntervalGetStart() {
+		Assert.assertEquals(
+			new DateTime(2013, 8, 15, 8, 0, DateTimeZone.UTC),
+			DataSummary.Interval.HOUR.getStart(TIMESTAMP));
+		Assert.assertEquals(
+			START,
+			DataSummary.Interval.DAY.getStart(TIMESTAMP));
+		Assert.assertEquals(
+			new DateTime(2013, 8, 12, 0, 0, DateTimeZone.UTC),
+			DataSummary.Interval.WEEK.getStart(TIMESTAMP));
+	}
+}
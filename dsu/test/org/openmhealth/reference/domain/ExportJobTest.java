@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.domain;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmhealth.reference.exception.OmhException;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * <p>
+ * Tests everything about the {@link ExportJob} class.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class ExportJobTest {
+	/**
+	 * An owner to use when testing.
+	 */
+	public static final String OWNER = "test";
+
+	/**
+	 * Test that the owner cannot be null.
+	 */
+	@Test(expected = OmhException.class)
+	public void testExportJobOwnerNull() {
+		new ExportJob(null);
+	}
+
+	/**
+	 * Test that a new export is queued.
+	 */
+	@Test
+	public void testExportJob() {
+		ExportJob job = new ExportJob(OWNER);
+
+		Assert.assertNotNull(job.getId());
+		Assert.assertEquals(OWNER, job.getOwner());
+		Assert.assertEquals(ExportJob.State.QUEUED, job.getState());
+		Assert.assertFalse(job.isDone());
+		Assert.assertNull(job.getSize());
+		Assert.assertNull(job.getFinished());
+	}
+
+	/**
+	 * Test that an export records its progress until it completes.
+	 */
+	@Test
+	public void testExportJobComplete() {
+		ExportJob job = new ExportJob(OWNER);
+		job.start(2);
+		job.pointExported();
+		job.pointExported();
+		job.schemaExported();
+		job.complete(10);
+
+		Assert.assertEquals(ExportJob.State.COMPLETE, job.getState());
+		Assert.assertTrue(job.isDone());
+		Assert.assertEquals(2, job.getSchemasTotal());
+		Assert.assertEquals(1, job.getSchemasExported());
+		Assert.assertEquals(2, job.getPointsExported());
+		Assert.assertEquals(Long.valueOf(10), job.getSize());
+		Assert.assertNotNull(job.getFinished());
+	}
+
+	/**
+	 * Test that an export cannot complete before it starts.
+	 */
+	@Test(expected = OmhException.class)
+	public void testExportJobCompleteNotStarted() {
+		new ExportJob(OWNER).complete(10);
+	}
+
+	/**
+	 * Test that a failed export cannot fail again.
+	 */
+	@Test(expected = OmhException.class)
+	public void testExportJobFailTwice() {
+		ExportJob job = new ExportJob(OWNER);
+		job.fail("error");
+		job.fail("error");
+	}
+
+	/**
+	 * Test that an export is serialized with its state as text and without
+	 * the fields that do not apply yet.
+	 */
+	@Test
+	public void testExportJobSerialize() {
+		JsonNode json = (new ObjectMapper()).valueToTree(new ExportJob(OWNER));
+
+		Assert.assertEquals(
+			"queued",
+			json.get(ExportJob.JSON_KEY_STATE).textValue());
+		Assert.assertFalse(json.has(ExportJob.JSON_KEY_SIZE));
+		Assert.assertFalse(json.has(ExportJob.JSON_KEY_FINISHED));
+		Assert.assertFalse(json.has(ExportJob.JSON_KEY_ERROR));
+	}
+}
@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.domain;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmhealth.reference.exception.OmhException;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * <p>
+ * Tests everything about the {@link ImportJob} class.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class ImportJobTest {
+	/**
+	 * An owner to use when testing.
+	 */
+	public static final String OWNER = "test";
+	/**
+	 * A schema ID to use when testing.
+	 */
+	public static final String SCHEMA_ID = "omh:test";
+	/**
+	 * A schema version to use when testing.
+	 */
+	public static final long SCHEMA_VERSION = 1;
+	/**
+	 * A file size to use when testing.
+	 */
+	public static final long SIZE = 100;
+
+	/**
+	 * Test that the owner cannot be null.
+	 */
+	@Test(expected = OmhException.class)
+	public void testImportJobOwnerNull() {
+		new ImportJob(null, SCHEMA_ID, SCHEMA_VERSION, SIZE);
+	}
+
+	/**
+	 * Test that the schema ID cannot be null.
+	 */
+	@Test(expected = OmhException.class)
+	public void testImportJobSchemaIdNull() {
+		new ImportJob(OWNER, null, SCHEMA_VERSION, SIZE);
+	}
+
+	/**
+	 * Test that the size cannot be negative.
+	 */
+	@Test(expected = OmhException.class)
+	public void testImportJobSizeNegative() {
+		new ImportJob(OWNER, SCHEMA_ID, SCHEMA_VERSION, -1);
+	}
+
+	/**
+	 * Test that a new import is queued.
+	 */
+	@Test
+	public void testImportJob() {
+		ImportJob job = new ImportJob(OWNER, SCHEMA_ID, SCHEMA_VERSION, SIZE);
+
+		Assert.assertNotNull(job.getId());
+		Assert.assertEquals(OWNER, job.getOwner());
+		Assert.assertEquals(SCHEMA_ID, job.getSchemaId());
+		Assert.assertEquals(SCHEMA_VERSION, job.getSchemaVersion());
+		Assert.assertEquals(SIZE, job.getBytesTotal());
+		Assert.assertEquals(0, job.getBytesRead());
+		Assert.assertEquals(ImportJob.State.QUEUED, job.getState());
+		Assert.assertFalse(job.isDone());
+		Assert.assertNull(job.getFinished());
+	}
+
+	/**
+	 * Test that an import records its progress until it completes.
+	 */
+	@Test
+	public void testImportJobComplete() {
+		ImportJob job = new ImportJob(OWNER, SCHEMA_ID, SCHEMA_VERSION, SIZE);
+		job.start();
+		job.bytesRead(60);
+		job.bytesRead(40);
+		job.complete();
+
+		Assert.assertEquals(ImportJob.State.COMPLETE, job.getState());
+		Assert.assertTrue(job.isDone());
+		Assert.assertEquals(SIZE, job.getBytesRead());
+		Assert.assertNotNull(job.getFinished());
+		Assert.assertNull(job.getError());
+	}
+
+	/**
+	 * Test that an import cannot complete before it starts.
+	 */
+	@Test(expected = OmhException.class)
+	public void testImportJobCompleteNotStarted() {
+		new ImportJob(OWNER, SCHEMA_ID, SCHEMA_VERSION, SIZE).complete();
+	}
+
+	/**
+	 * Test that a failed import cannot fail again.
+	 */
+	@Test(expected = OmhException.class)
+	public void testImportJobFailTwice() {
+		ImportJob job = new ImportJob(OWNER, SCHEMA_ID, SCHEMA_VERSION, SIZE);
+		job.fail("error");
+		job.fail("error");
+	}
+
+	/**
+	 * Test that an import is serialized with its state as text and without
+	 * the fields that do not apply yet.
+	 */
+	@Test
+	public void testImportJobSerialize() {
+		JsonNode json =
+			(new ObjectMapper())
+				.valueToTree(
+					new ImportJob(OWNER, SCHEMA_ID, SCHEMA_VERSION, SIZE));
+
+		Assert.assertEquals(
+			"queued",
+			json.get(ImportJob.JSON_KEY_STATE).textValue());
+		Assert.assertEquals(
+			SCHEMA_ID,
+			json.get(ImportJob.JSON_KEY_SCHEMA_ID).textValue());
+		Assert.assertEquals(
+			SIZE,
+			json.get(ImportJob.JSON_KEY_BYTES_TOTAL).longValue());
+		Assert.assertFalse(json.has(ImportJob.JSON_KEY_FINISHED));
+		Assert.assertFalse(json.has(ImportJob.JSON_KEY_ERROR));
+	}
+}
@@ -0,0 +1,140 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.domain;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.Charset;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmhealth.reference.exception.OmhException;
+import org.openmhealth.reference.util.LineReader;
+
+/**
+ * <p>
+ * Tests that the {@link LineReader}, which reads streams of
+ * newline-delimited {@link Data}, does not wait past a deadline for the rest
+ * of a line.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class LineReaderTest {
+	/**
+	 * The character set to use when testing.
+	 */
+	public static final Charset CHARSET = Charset.forName("UTF-8");
+	/**
+	 * The maximum line length to use when testing.
+	 */
+	public static final int MAX_LENGTH = 32;
+	/**
+	 * The number of milliseconds to wait for a line with a deadline.
+	 */
+	public static final long WAIT = 50;
+
+	/**
+	 * Test that the stream cannot be null.
+	 */
+	@Test(expected = OmhException.class)
+	public void testLineReaderStreamNull() {
+		new LineReader(null, CHARSET, MAX_LENGTH);
+	}
+
+	/**
+	 * Test that the maximum length must be positive.
+	 */
+	@Test(expected = OmhException.class)
+	public void testLineReaderMaxLengthZero() {
+		new LineReader(stream(""), CHARSET, 0);
+	}
+
+	/**
+	 * Test that lines are read without their terminators, including a last
+	 * line that has no terminator.
+	 */
+	@Test
+	public void testReadLine() throws IOException {
+		LineReader reader =
+			new LineReader(stream("a\r\n\nb\nc"), CHARSET, MAX_LENGTH);
+
+		Assert.assertEquals("a", reader.readLine());
+		Assert.assertEquals("", reader.readLine());
+		Assert.assertEquals("b", reader.readLine());
+		Assert.assertEquals("c", reader.readLine());
+		Assert.assertNull(reader.readLine());
+		Assert.assertTrue(reader.isEnded());
+		Assert.assertNull(reader.readLine(System.currentTimeMillis() + WAIT));
+	}
+
+	/**
+	 * Test that a line longer than the maximum is rejected.
+	 */
+	@Test(expected = OmhException.class)
+	public void testReadLineTooLong() throws IOException {
+		StringBuilder line = new StringBuilder();
+		for(int i = 0; i <= MAX_LENGTH; i++) {
+			line.append('a');
+		}
+
+		(new LineReader(stream(line.toString()), CHARSET, MAX_LENGTH))
+			.readLine();
+	}
+
+	/**
+	 * Test that, with a deadline, part of a line that has arrived does not
+	 * hold the reader past the deadline and is kept until the rest of the
+	 * line arrives. Without the deadline, the reader would wait for the rest
+	 * of the line forever.
+	 */
+	@Test(timeout = 5000)
+	public void testReadLinePartial() throws IOException {
+		PipedOutputStream output = new PipedOutputStream();
+		LineReader reader =
+			new LineReader(new PipedInputStream(output), CHARSET, MAX_LENGTH);
+
+		output.write("{\"a\":1}\n{\"b\"".getBytes(CHARSET));
+		Assert.assertEquals(
+			"{\"a\":1}",
+			reader.readLine(System.currentTimeMillis() + WAIT));
+		Assert.assertNull(reader.readLine(System.currentTimeMillis() + WAIT));
+		Assert.assertFalse(reader.isEnded());
+
+		output.write(":2}\n".getBytes(CHARSET));
+		Assert.assertEquals(
+			"{\"b\":2}",
+			reader.readLine(System.currentTimeMillis() + WAIT));
+
+		output.close();
+		Assert.assertNull(reader.readLine());
+		Assert.assertTrue(reader.isEnded());
+	}
+
+	/**
+	 * Creates a stream of some text.
+	 *
+	 * @param text
+	 *        The text.
+	 *
+	 * @return The stream.
+	 */
+	private static ByteArrayInputStream stream(final String text) {
+		return new ByteArrayInputStream(text.getBytes(CHARSET));
+	}
+}
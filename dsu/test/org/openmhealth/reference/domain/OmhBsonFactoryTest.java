@@ -0,0 +1,112 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.domain;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmhealth.reference.util.OmhBsonFactory;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * <p>
+ * Tests that {@link Data} survives a round trip through the
+ * {@link OmhBsonFactory}, which is how it is uploaded and downloaded as BSON.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class OmhBsonFactoryTest {
+	/**
+	 * The mapper that reads and writes BSON.
+	 */
+	public static final ObjectMapper BSON_MAPPER =
+		new ObjectMapper(new OmhBsonFactory());
+
+	/**
+	 * Builds a data point whose value is a single number.
+	 *
+	 * @param value
+	 *        The number.
+	 *
+	 * @return The data point.
+	 */
+	private static Data buildData(final int value) {
+		ObjectNode data = new ObjectNode(JsonNodeFactory.instance);
+		data.put("value", value);
+
+		return
+			new Data(
+				DataTest.OWNER,
+				DataTest.SCHEMA.getId(),
+				DataTest.SCHEMA.getVersion(),
+				null,
+				data);
+	}
+
+	/**
+	 * Test that a single data point is the same after it is written and read
+	 * as BSON.
+	 *
+	 * @throws IOException
+	 *         The data could not be written or read.
+	 */
+	@Test
+	public void testRoundTripData() throws IOException {
+		Data data = buildData(1);
+
+		byte[] bson = BSON_MAPPER.writeValueAsBytes(data);
+		Data result = BSON_MAPPER.readValue(bson, Data.class);
+
+		Assert.assertEquals(data.getOwner(), result.getOwner());
+		Assert.assertEquals(data.getSchemaId(), result.getSchemaId());
+		Assert.assertEquals(data.getSchemaVersion(), result.getSchemaVersion());
+		Assert.assertEquals(data.getData(), result.getData());
+	}
+
+	/**
+	 * Test that a list of data, which is an array at the root, is written as
+	 * a document keyed by the indices of the points, which is also the form
+	 * in which BSON is uploaded.
+	 *
+	 * @throws IOException
+	 *         The data could not be written or read.
+	 */
+	@Test
+	public void testRoundTripDataList() throws IOException {
+		List<Data> data = Arrays.asList(buildData(1), buildData(2));
+
+		byte[] bson = BSON_MAPPER.writeValueAsBytes(data);
+		JsonNode result = BSON_MAPPER.readTree(bson);
+
+		Assert.assertTrue(result.isObject());
+		Assert.assertEquals(data.size(), result.size());
+		for(int i = 0; i < data.size(); i++) {
+			JsonNode point = result.get(Integer.toString(i));
+			Assert.assertNotNull(point);
+			Assert.assertEquals(
+				data.get(i).getData(),
+				BSON_MAPPER.treeToValue(point, Data.class).getData());
+		}
+	}
+}
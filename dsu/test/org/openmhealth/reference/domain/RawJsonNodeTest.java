@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * Copyright 2013 Open mHealth
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package org.openmhealth.reference.domain;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openmhealth.reference.exception.OmhException;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * <p>
+ * Tests everything about the {@link RawJsonNode} class.
+ * </p>
+ *
+ * @author John Jenkins
+ */
+public class RawJsonNodeTest {
+	/**
+	 * The JSON to use for testing.
+	 */
+	public static final String JSON = "{\"steps\":[1,2,{\"a\":\"b\"}]}";
+
+	/**
+	 * The mapper to use for testing serialization.
+	 */
+	private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
+
+	/**
+	 * Test that a {@link RawJsonNode} object can be built.
+	 */
+	@Test
+	public void testRawJsonNode() {
+		new RawJsonNode(JSON);
+	}
+
+	/**
+	 * Test that the JSON cannot be null.
+	 */
+	@Test(expected = OmhException.class)
+	public void testRawJsonNodeNull() {
+		new RawJsonNode(null);
+	}
+
+	/**
+	 * Test that the JSON is written as-is when serializing a data point.
+	 *
+	 * @throws JsonProcessingException
+	 *         The point could not be serialized.
+	 */
+	@Test
+	public void testSerialize() throws JsonProcessingException {
+		Data data =
+			new Data(
+				DataTest.OWNER,
+				DataTest.SCHEMA.getId(),
+				DataTest.SCHEMA.getVersion(),
+				null,
+				new RawJsonNode(JSON));
+
+		Assert.assertTrue(
+			JSON_MAPPER
+				.writeValueAsString(data)
+				.contains("\"" + Data.JSON_KEY_DATA + "\":" + JSON));
+	}
+
+	/**
+	 * Test that the JSON is copied token by token when it is not being
+	 * written as JSON text, e.g. when it is converted into a tree.
+	 *
+	 * @throws Exception
+	 *         The JSON could not be parsed.
+	 */
+	@Test
+	public void testSerializeNotText() throws Exception {
+		Assert.assertEquals(
+			JSON_MAPPER.readTree(JSON),
+			JSON_MAPPER.valueToTree(new RawJsonNode(JSON)));
+	}
+
+	/**
+	 * Test that the JSON can be parsed into the same tree as the original.
+	 *
+	 * @throws Exception
+	 *         The JSON could not be parsed.
+	 */
+	@Test
+	public void testToTree() throws Exception {
+		Assert.assertEquals(
+			JSON_MAPPER.readTree(JSON),
+			new RawJsonNode(JSON).toTree());
+	}
+
+	/**
+	 * Test that invalid JSON is only rejected when it is parsed.
+	 */
+	@Test(expected = OmhException.class)
+	public void testToTreeInvalid() {
+		new RawJsonNode("{").toTree();
+	}
+
+	/**
+	 * Test that nodes with the same JSON are equal.
+	 */
+	@Test
+	public void testEquals() {
+		Assert.assertEquals(new RawJsonNode(JSON), new RawJsonNode(JSON));
+		Assert.assertEquals(
+			new RawJsonNode(JSON).hashCode(),
+			new RawJsonNode(JSON).hashCode());
+		Assert.assertFalse(new RawJsonNode(JSON).equals(new RawJsonNode("{}")));
+	}
+}
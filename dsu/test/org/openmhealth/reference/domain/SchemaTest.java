@@ -15,6 +15,9 @@
  ******************************************************************************/
 package org.openmhealth.reference.domain;
 
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
 import java.util.Collections;
 
 import name.jenkins.paul.john.concordia.Concordia;
@@ -84,6 +87,145 @@ public class SchemaTest {
 				e);
 		}
 	}
+
+	/**
+	 * A {@link Concordia} with a required enum field and an optional number
+	 * field to use for testing.
+	 */
+	public static final Concordia ENUM_CONCORDIA;
+	static {
+		try {
+			ENUM_CONCORDIA =
+				new Concordia(
+					"{" +
+						"\"type\":\"object\"," +
+						"\"fields\":[" +
+							"{" +
+								"\"name\":\"color\"," +
+								"\"type\":\"string\"," +
+								"\"allowed_values\":[\"red\",\"blue\"]" +
+							"}," +
+							"{" +
+								"\"name\":\"count\"," +
+								"\"type\":\"number\"," +
+								"\"optional\":true" +
+							"}" +
+						"]" +
+					"}",
+					OmhValidationController.VALIDATION_CONTROLLER);
+		}
+		catch(
+			IllegalArgumentException | IOException | ConcordiaException e) {
+
+			throw new IllegalStateException(
+				"Couldn't create the enum Concordia to use for the tests.",
+				e);
+		}
+	}
+
+	/**
+	 * An ID for the {@link #ARRAY_CONCORDIA}, which must differ from
+	 * {@link #ID} as the compiled validators are cached by ID and version.
+	 */
+	public static final String ARRAY_ID = "omh:abc_array";
+	/**
+	 * A {@link Concordia} with a required array of numbers and an optional
+	 * array of a string then a boolean to use for testing.
+	 */
+	public static final Concordia ARRAY_CONCORDIA;
+	static {
+		try {
+			ARRAY_CONCORDIA =
+				new Concordia(
+					"{" +
+						"\"type\":\"object\"," +
+						"\"fields\":[" +
+							"{" +
+								"\"name\":\"readings\"," +
+								"\"type\":\"array\"," +
+								"\"constType\":{\"type\":\"number\"}" +
+							"}," +
+							"{" +
+								"\"name\":\"pair\"," +
+								"\"type\":\"array\"," +
+								"\"optional\":true," +
+								"\"constLength\":[" +
+									"{\"type\":\"string\"}," +
+									"{\"type\":\"boolean\"}" +
+								"]" +
+							"}" +
+						"]" +
+					"}",
+					OmhValidationController.VALIDATION_CONTROLLER);
+		}
+		catch(
+			IllegalArgumentException | IOException | ConcordiaException e) {
+
+			throw new IllegalStateException(
+				"Couldn't create the array Concordia to use for the tests.",
+				e);
+		}
+	}
+
+	/**
+	 * An ID for the {@link #REFERENCE_CONCORDIA}, which must differ from
+	 * {@link #ID} as the compiled validators are cached by ID and version.
+	 */
+	public static final String REFERENCE_ID = "omh:abc_reference";
+	/**
+	 * A {@link Concordia} with a required field that references a schema,
+	 * which is an object with a required enum field, to use for testing.
+	 */
+	public static final Concordia REFERENCE_CONCORDIA;
+	static {
+		try {
+			File referenced = File.createTempFile("schema", ".json");
+			referenced.deleteOnExit();
+			FileWriter writer = new FileWriter(referenced);
+			try {
+				writer
+					.write(
+						"{" +
+							"\"type\":\"object\"," +
+							"\"fields\":[" +
+								"{" +
+									"\"name\":\"color\"," +
+									"\"type\":\"string\"," +
+									"\"allowed_values\":" +
+										"[\"red\",\"blue\"]" +
+								"}" +
+							"]" +
+						"}");
+			}
+			finally {
+				writer.close();
+			}
+
+			REFERENCE_CONCORDIA =
+				new Concordia(
+					"{" +
+						"\"type\":\"object\"," +
+						"\"fields\":[" +
+							"{" +
+								"\"name\":\"paint\"," +
+								"\"type\":\"reference\"," +
+								"\"$ref\":\"" +
+									referenced.toURI().toURL() +
+									"\"" +
+							"}" +
+						"]" +
+					"}",
+					OmhValidationController.VALIDATION_CONTROLLER);
+		}
+		catch(
+			IllegalArgumentException | IOException | ConcordiaException e) {
+
+			throw new IllegalStateException(
+				"Couldn't create the reference Concordia to use for the " +
+					"tests.",
+				e);
+		}
+	}
 	/**
 	 * The owner username to use for testing.
 	 */
@@ -208,6 +350,163 @@ public class SchemaTest {
 		schema.validateData(OWNER, META_DATA, DATA);
 	}
 
+	/**
+	 * Test that a value in an enum's allowed values is valid.
+	 */
+	@Test
+	public void testValidateDataEnum() {
+		Schema schema = new Schema(ID, VERSION, ENUM_CONCORDIA);
+		ObjectNode data = new ObjectNode(JsonNodeFactory.instance);
+		data.put("color", "blue");
+		data.put("count", 3);
+		schema.validateData(OWNER, META_DATA, data);
+	}
+
+	/**
+	 * Test that a value that is not in an enum's allowed values is invalid.
+	 */
+	@Test(expected = OmhException.class)
+	public void testValidateDataEnumInvalid() {
+		Schema schema = new Schema(ID, VERSION, ENUM_CONCORDIA);
+		ObjectNode data = new ObjectNode(JsonNodeFactory.instance);
+		data.put("color", "green");
+		schema.validateData(OWNER, META_DATA, data);
+	}
+
+	/**
+	 * Test that data is validated against the schema it is given even if
+	 * another schema with the same ID and version was used before.
+	 */
+	@Test(expected = OmhException.class)
+	public void testValidateDataSchemaRedefined() {
+		new Schema(ID, VERSION, CONCORDIA)
+			.validateData(OWNER, META_DATA, DATA);
+		new Schema(ID, VERSION, ENUM_CONCORDIA)
+			.validateData(OWNER, META_DATA, DATA);
+	}
+
+	/**
+	 * Test that data is accepted and rejected, with the same reasons, as it
+	 * would be by Concordia itself.
+	 */
+	@Test
+	public void testValidateDataSameAsConcordia() {
+		ObjectNode valid = new ObjectNode(JsonNodeFactory.instance);
+		valid.put("color", "red");
+		ObjectNode missing = new ObjectNode(JsonNodeFactory.instance);
+		missing.put("count", 1);
+		ObjectNode notAllowed = new ObjectNode(JsonNodeFactory.instance);
+		notAllowed.put("color", "green");
+		ObjectNode wrongType = new ObjectNode(JsonNodeFactory.instance);
+		wrongType.put("color", "red");
+		wrongType.put("count", "one");
+
+		assertSameAsConcordia(
+			new Schema(ID, VERSION, ENUM_CONCORDIA),
+			ENUM_CONCORDIA,
+			valid,
+			missing,
+			notAllowed,
+			wrongType,
+			BooleanNode.TRUE);
+	}
+
+	/**
+	 * Test that data with arrays is accepted and rejected, with the same
+	 * reasons, as it would be by Concordia itself.
+	 */
+	@Test
+	public void testValidateDataSameAsConcordiaArray() {
+		ObjectNode valid = new ObjectNode(JsonNodeFactory.instance);
+		valid.putArray("readings").add(1).add(2.5);
+		valid.putArray("pair").add("a").add(true);
+		ObjectNode empty = new ObjectNode(JsonNodeFactory.instance);
+		empty.putArray("readings");
+		ObjectNode notArray = new ObjectNode(JsonNodeFactory.instance);
+		notArray.put("readings", 1);
+		ObjectNode wrongElement = new ObjectNode(JsonNodeFactory.instance);
+		wrongElement.putArray("readings").add(1).add("two");
+		ObjectNode tooShort = new ObjectNode(JsonNodeFactory.instance);
+		tooShort.putArray("readings");
+		tooShort.putArray("pair").add("a");
+		ObjectNode wrongOrder = new ObjectNode(JsonNodeFactory.instance);
+		wrongOrder.putArray("readings");
+		wrongOrder.putArray("pair").add(true).add("a");
+
+		assertSameAsConcordia(
+			new Schema(ARRAY_ID, VERSION, ARRAY_CONCORDIA),
+			ARRAY_CONCORDIA,
+			valid,
+			empty,
+			notArray,
+			wrongElement,
+			tooShort,
+			wrongOrder);
+	}
+
+	/**
+	 * Test that data with a reference to another schema is accepted and
+	 * rejected, with the same reasons, as it would be by Concordia itself.
+	 */
+	@Test
+	public void testValidateDataSameAsConcordiaReference() {
+		ObjectNode valid = new ObjectNode(JsonNodeFactory.instance);
+		valid.putObject("paint").put("color", "blue");
+		ObjectNode missing = new ObjectNode(JsonNodeFactory.instance);
+		missing.putObject("paint");
+		ObjectNode notAllowed = new ObjectNode(JsonNodeFactory.instance);
+		notAllowed.putObject("paint").put("color", "green");
+		ObjectNode notObject = new ObjectNode(JsonNodeFactory.instance);
+		notObject.put("paint", "blue");
+
+		assertSameAsConcordia(
+			new Schema(REFERENCE_ID, VERSION, REFERENCE_CONCORDIA),
+			REFERENCE_CONCORDIA,
+			valid,
+			missing,
+			notAllowed,
+			notObject);
+	}
+
+	/**
+	 * Asserts that each datum is accepted or rejected, with the same reason,
+	 * by a schema as it is by the Concordia from which it was built.
+	 * 
+	 * @param schema
+	 *        The schema.
+	 * 
+	 * @param concordia
+	 *        The Concordia from which the schema was built.
+	 * 
+	 * @param data
+	 *        The data to validate.
+	 */
+	private static void assertSameAsConcordia(
+		final Schema schema,
+		final Concordia concordia,
+		final JsonNode... data) {
+
+		for(JsonNode datum : data) {
+			String expected = null;
+			try {
+				concordia.validateData(datum);
+			}
+			catch(ConcordiaException e) {
+				expected = e.getMessage();
+			}
+
+			String actual = null;
+			try {
+				schema.validateData(OWNER, META_DATA, datum);
+			}
+			catch(OmhException e) {
+				actual = e.getCause().getMessage();
+			}
+
+			Assert.assertEquals(datum.toString(), expected, actual);
+		}
+	}
+
 	/**
 	 * Test that null is not a valid ID.
 	 */